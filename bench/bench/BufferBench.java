@@ -0,0 +1,142 @@
+package bench;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+import queue.PageBuffer;
+import data.Page;
+
+/**
+ * Hands pages over through a PageBuffer, from producer threads (as PageRetrievers)
+ * to as many consumer threads (as PageParsers). One operation is one page handed over.
+ *
+ * The buffer is small, as in a crawl, so both sides regularly wait on each other.
+ * In handoffBatch the consumers take up to TAKE_BATCH pages at once, as the PageParsers do.
+ * Each side hands over the same number of pages per iteration, so neither is left waiting
+ * on the other at the end: hence the single shot mode, with the score the time of a whole iteration.
+ * Change the number of producers and consumers with -tg (e.g. -tg 16,16).
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 8, batchSize = BufferBench.PAGES)
+@Measurement(iterations = 10, batchSize = BufferBench.PAGES)
+@Fork(1)
+public class BufferBench {
+
+	/** Number of pages each thread hands over, or takes, in an iteration. */
+	static final int PAGES = 100000;
+
+	/** Capacity of the PageBuffer. */
+	private static final int CAPACITY = 64;
+
+	/** Most pages taken at once by the consumers of handoffBatch. */
+	private static final int TAKE_BATCH = 4;
+
+	/** The page handed over; its content does not matter to the buffer. */
+	private final Page page = new Page("http://www.example.com/", "<html></html>", 0);
+
+	/** The buffer of the iteration. */
+	private PageBuffer buffer;
+
+	/** Starts each iteration with a new, empty buffer. */
+	@Setup(Level.Iteration)
+	public void setUpIteration() {
+		buffer = new PageBuffer(CAPACITY);
+	}
+
+	/** The pages a consumer of handoffBatch has taken, but not yet counted. */
+	@State(Scope.Thread)
+	public static class Taken {
+
+		/** The pages taken. */
+		private final ArrayDeque<Page> pages = new ArrayDeque<Page>(TAKE_BATCH);
+
+		/** Number of pages the thread has still to count in the iteration. */
+		private int left;
+
+		/**
+		 * Starts the count of the iteration.
+		 *
+		 * @param iteration Gives the number of pages to count.
+		 */
+		@Setup(Level.Iteration)
+		public void setUp(final IterationParams iteration) {
+			pages.clear();
+			left = iteration.getBatchSize();
+		}
+	}
+
+	/**
+	 * Hands a page over.
+	 *
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(4)
+	public void put() throws InterruptedException {
+		buffer.put(page);
+	}
+
+	/**
+	 * Takes a page.
+	 *
+	 * @return Its depth, for JMH to consume.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(4)
+	public int take() throws InterruptedException {
+		return buffer.take().getDepth();
+	}
+
+	/**
+	 * Hands a page over.
+	 *
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Group("handoffBatch")
+	@GroupThreads(4)
+	public void putForBatch() throws InterruptedException {
+		buffer.put(page);
+	}
+
+	/**
+	 * Counts a page, taking up to TAKE_BATCH at once when it has none left
+	 * (but never more than it has still to count, which would leave another consumer waiting).
+	 *
+	 * @param taken The pages the thread has taken.
+	 * @return Depth of the page, for JMH to consume.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Group("handoffBatch")
+	@GroupThreads(4)
+	public int takeBatch(final Taken taken) throws InterruptedException {
+		if (taken.pages.isEmpty())
+			buffer.take(taken.pages, Math.min(TAKE_BATCH, taken.left));
+		taken.left--;
+		return taken.pages.poll().getDepth();
+	}
+}
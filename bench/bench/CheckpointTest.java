@@ -0,0 +1,155 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import queue.Frontier;
+import queue.HashVisitedSet;
+import queue.MemoryFrontier;
+import queue.PageToRetrieve;
+import queue.UrlSink;
+import queue.WorkTracker;
+
+/**
+ * Checks that a checkpoint of the URL queue loses no URL while the workers keep going:
+ * a URL taken while the Frontier is being exported, then finished (or given back) before the
+ * export is over, is in neither the Frontier nor the handed out URLs by the end of the checkpoint,
+ * and the links found on its page came too late for the visited set and the export.
+ * It must still be in the checkpoint, or the whole part of the site behind it is lost on resume.
+ *
+ * Each check writes a checkpoint while a URL moves like that, resumes a new queue from it,
+ * and throws an IllegalStateException if the URL is not in the resumed queue.
+ *
+ * Usage: java bench.CheckpointTest
+ *
+ * @author Derv
+ * @version 1
+ */
+public class CheckpointTest {
+
+	/** The URL taken during the export. */
+	private static final String TAKEN = "http://www.example.com/taken.html";
+
+	/** A URL which waits in the Frontier throughout. */
+	private static final String WAITING = "http://www.example.com/waiting.html";
+
+	/** A link found on the page of TAKEN, after the visited set was written. */
+	private static final String CHILD = "http://www.example.com/child.html";
+
+	/**
+	 * Runs the checks.
+	 *
+	 * @param args Not used.
+	 * @throws IOException Never (the checkpoints are written to memory).
+	 */
+	public static void main(final String[] args) throws IOException {
+		check("finished during the export", false);
+		check("given back during the export", true);
+		System.out.println("CheckpointTest: ok");
+	}
+
+	/**
+	 * Helper method. Writes a checkpoint while TAKEN is taken before the export reaches it,
+	 * then finished (having found CHILD) or given back once the export is over; and checks the
+	 * resumed queue will retrieve TAKEN again.
+	 *
+	 * @param name What happens to TAKEN, for the messages.
+	 * @param giveBack True to give TAKEN back, False to finish it.
+	 * @throws IOException Never.
+	 */
+	private static void check(final String name, final boolean giveBack) throws IOException {
+		final MidExportFrontier frontier = new MidExportFrontier();
+		final PageToRetrieve queue = new PageToRetrieve(frontier, new WorkTracker(), new HashVisitedSet());
+		queue.add(TAKEN);
+		queue.add(WAITING);
+
+		frontier.beforeExport = new Runnable() {
+			public void run() {
+				if (!TAKEN.equals(queue.remove()))
+					throw new IllegalStateException(name + ": the Frontier handed out the wrong URL");
+			}
+		};
+		frontier.afterExport = new Runnable() {
+			public void run() {
+				queue.done(TAKEN);
+				if (giveBack) {
+					queue.giveBack(TAKEN);
+				} else {
+					queue.add(CHILD);
+					queue.finished(TAKEN);
+				}
+			}
+		};
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		queue.writeTo(new DataOutputStream(bytes));
+
+		final PageToRetrieve resumed = new PageToRetrieve();
+		resumed.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		final Set<String> queued = new HashSet<String>();
+		try {
+			while (true)
+				queued.add(resumed.remove());
+		} catch (final NoSuchElementException nse) {
+			/* Got them all. */
+		}
+
+		if (!queued.contains(TAKEN))
+			throw new IllegalStateException(name + ": " + TAKEN + " is lost, resumed queue " + queued);
+		if (!queued.contains(WAITING))
+			throw new IllegalStateException(name + ": " + WAITING + " is lost, resumed queue " + queued);
+		// The child is found again when TAKEN is retrieved again.
+		if (!giveBack && !queued.contains(CHILD) && !resumed.add(CHILD))
+			throw new IllegalStateException(name + ": " + CHILD + " is visited, but will never be retrieved");
+		System.out.println("CheckpointTest: " + name + ": resumed queue " + queued);
+	}
+
+	/**
+	 * A MemoryFrontier which lets the test move URLs around while it is exported,
+	 * like the workers do with the Frontiers which export bit by bit.
+	 */
+	private static class MidExportFrontier implements Frontier {
+
+		/** The URLs. */
+		private final MemoryFrontier urls = new MemoryFrontier(Integer.MAX_VALUE);
+
+		/** Runs when the export starts. */
+		private Runnable beforeExport;
+
+		/** Runs once the URLs have been exported. */
+		private Runnable afterExport;
+
+		/** {@inheritDoc} */
+		public boolean offer(final String url)   { return urls.offer(url); }
+
+		/** {@inheritDoc} */
+		public String poll()                     { return urls.poll(); }
+
+		/** {@inheritDoc} */
+		public String take() throws InterruptedException { return urls.take(); }
+
+		/** {@inheritDoc} */
+		public void done(final String url)       { urls.done(url); }
+
+		/** {@inheritDoc} */
+		public long size()                       { return urls.size(); }
+
+		/** {@inheritDoc} */
+		public void close()                      { urls.close(); }
+
+		/** {@inheritDoc} */
+		public void export(final UrlSink sink) throws IOException {
+			if (beforeExport != null)
+				beforeExport.run();
+			urls.export(sink);
+			if (afterExport != null)
+				afterExport.run();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import cluster.Cluster;
+import data.Metrics;
+import model.SpiderConfig;
+import model.SpiderModel;
+
+/**
+ * Crawls a SyntheticSite with a cluster of nodes, each a JVM of its own on this machine,
+ * and reports how the crawl did: the pages parsed by each node and by the whole cluster, the links
+ * forwarded between the nodes, and the requests wasted on pages fetched twice (dupes, which would
+ * mean two nodes crawled the same host) or on URLs resolved wrongly (404).
+ * The site is served from this JVM; the nodes are started on free ports of 127.0.0.1.
+ * The time includes starting the nodes' JVMs.
+ *
+ * With -kill, the last node is killed partway through, to check the others carry on without it
+ * and crawl its hosts themselves (the pages it had queued are lost with it, so fewer pages are parsed).
+ *
+ * Usage: java bench.ClusterTest [options]
+ * <pre>
+ *   -nodes n          Number of nodes (default 3)
+ *   -pages n          Pages of the site (default 2000)
+ *   -hosts n          Hosts of the site (default 12)
+ *   -latency ms       Delay of each response (default 20)
+ *   -limit n          Pages to crawl, by the whole cluster (default: every page)
+ *   -retrievers n     PageRetriever threads of each node (default 8)
+ *   -kill ms          Kills the last node (not the coordinator) that long after the nodes are started
+ *   -verbose          Shows what the nodes print
+ * </pre>
+ *
+ * @author Derv
+ * @version 1
+ */
+public class ClusterTest {
+
+	/** What each node prints before the number of pages it parsed. */
+	private static final String PAGES = "ClusterTest pages: ";
+
+	/**
+	 * Runs the test, or (with -node) one node of it.
+	 *
+	 * @param args Options; see the class comment.
+	 * @throws Exception If the site cannot be served, or a node cannot be started.
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length > 0 && "-node".equals(args[0])) {
+			node(args);
+			return;
+		}
+
+		final SyntheticSite site = new SyntheticSite();
+		site.setHosts(12);
+		int nodes = 3;
+		int limit = -1;
+		int retrievers = 8;
+		long kill = -1;
+		boolean verbose = false;
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-nodes".equals(arg))
+				nodes = Math.max(1, Integer.parseInt(args[++i]));
+			else if ("-pages".equals(arg))
+				site.setPages(Integer.parseInt(args[++i]));
+			else if ("-hosts".equals(arg))
+				site.setHosts(Integer.parseInt(args[++i]));
+			else if ("-latency".equals(arg))
+				site.setLatency(Long.parseLong(args[++i]));
+			else if ("-limit".equals(arg))
+				limit = Integer.parseInt(args[++i]);
+			else if ("-retrievers".equals(arg))
+				retrievers = Integer.parseInt(args[++i]);
+			else if ("-kill".equals(arg))
+				kill = Long.parseLong(args[++i]);
+			else if ("-verbose".equals(arg))
+				verbose = true;
+			else
+				throw new IllegalArgumentException("Unknown option " + arg + "; see the comment of bench.ClusterTest");
+		}
+		if (limit < 1)
+			limit = site.getPages();
+
+		site.start();
+		try {
+			System.out.println("# Site: " + site.describe());
+			System.out.println("# Cluster: " + nodes + " node(s), " + retrievers + " retrievers each, " + limit + " pages");
+
+			final String list = freePorts(nodes);
+			final long startTime = System.nanoTime();
+			final List<Process> processes = new ArrayList<Process>();
+			final List<Pump> pumps = new ArrayList<Pump>();
+			for (int i = 0; i < nodes; i++) {
+				final ProcessBuilder builder = new ProcessBuilder(
+						System.getProperty("java.home") + "/bin/java", "-cp", System.getProperty("java.class.path"),
+						ClusterTest.class.getName(), "-node", String.valueOf(i), list, site.url(0),
+						String.valueOf(limit), String.valueOf(retrievers));
+				builder.redirectErrorStream(true);
+				final Process process = builder.start();
+				processes.add(process);
+				final Pump pump = new Pump(process, verbose ? "node " + i + "| " : null);
+				pump.start();
+				pumps.add(pump);
+			}
+			if (kill >= 0 && nodes > 1) {
+				Thread.sleep(kill);
+				System.out.println("# Killing node " + (nodes - 1));
+				processes.get(nodes - 1).destroy();
+			}
+			for (int i = 0; i < nodes; i++) {
+				processes.get(i).waitFor();
+				pumps.get(i).join();
+			}
+			final double seconds = (System.nanoTime() - startTime) / 1e9;
+
+			for (int i = 0; i < nodes; i++) {
+				final Pump pump = pumps.get(i);
+				System.out.println(String.format(Locale.US, "node %d: %6s pages; %s", i, pump.pages, pump.links));
+			}
+			System.out.println(String.format(Locale.US, "cluster: %5s pages (merged), %.2f s, %d requests, %d dupes, %d 404",
+					pumps.get(0).merged, seconds, site.getRequests(), site.getDuplicates(), site.getNotFound()));
+		} finally {
+			site.stop();
+		}
+	}
+
+	/**
+	 * Helper method. Runs one node of the cluster, in this JVM.
+	 *
+	 * @param args "-node", index of the node, addresses of the nodes, seed URL, page limit, PageRetriever threads.
+	 */
+	private static void node(final String[] args) {
+		final Cluster cluster = new Cluster(Integer.parseInt(args[1]), Cluster.parseNodes(args[2]));
+		final Metrics metrics = new Metrics();
+		final SpiderConfig config = new SpiderConfig();
+		config.setRetrieverThreads(Integer.parseInt(args[5]));
+		config.setCluster(cluster);
+		config.setJmxEnabled(false);
+		config.setMetrics(metrics);
+		new SpiderModel().execute(Integer.parseInt(args[4]), args[3], SyntheticSite.KEYWORDS, config);
+		System.out.println(PAGES + metrics.getPageLatency().getCount());
+		System.exit(0);
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param count Number of ports.
+	 * @return That many ports of 127.0.0.1 which are free right now, as "127.0.0.1:port,...".
+	 * @throws IOException If no port can be opened.
+	 */
+	private static String freePorts(final int count) throws IOException {
+		final ServerSocket[] sockets = new ServerSocket[count];
+		final StringBuilder list = new StringBuilder();
+		try {
+			for (int i = 0; i < count; i++) {
+				sockets[i] = new ServerSocket(0);
+				list.append((i == 0) ? "" : ",").append("127.0.0.1:").append(sockets[i].getLocalPort());
+			}
+		} finally {
+			for (ServerSocket socket : sockets) {
+				if (socket != null)
+					socket.close();
+			}
+		}
+		return list.toString();
+	}
+
+	/** Reads what a node prints, and picks out its results. */
+	private static class Pump extends Thread {
+
+		/** The node. */
+		private final Process process;
+
+		/** Put before each line shown, or null to show nothing. */
+		private final String prefix;
+
+		/** Number of pages the node parsed, or "?". */
+		private volatile String pages = "?";
+
+		/** The links the node forwarded and received, or "?". */
+		private volatile String links = "?";
+
+		/** Number of pages the whole cluster parsed (coordinator only), or "?". */
+		private volatile String merged = "?";
+
+		/**
+		 * Constructor.
+		 *
+		 * @param process The node.
+		 * @param prefix Put before each line shown, or null to show nothing.
+		 */
+		Pump(final Process process, final String prefix) {
+			this.process = process;
+			this.prefix = prefix;
+			setDaemon(true);
+		}
+
+		/** Reads until the node exits. */
+		public void run() {
+			final PrintStream out = System.out;
+			try {
+				final BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (prefix != null)
+						out.println(prefix + line);
+					if (line.startsWith(PAGES))
+						pages = line.substring(PAGES.length());
+					else if (line.startsWith("Cluster node "))
+						links = line.substring(line.indexOf(':') + 2);
+					else if (line.startsWith("Pages Retrieved: "))
+						merged = line.substring("Pages Retrieved: ".length()); // The last report is the merged one.
+				}
+				in.close();
+			} catch (final IOException ioe) {
+				out.println("Cannot read the output of a node: " + ioe);
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the results of a JMH run with results saved earlier (a baseline), both saved by JMH
+ * as CSV (-rf csv -rff file). A benchmark which got slower than the threshold is reported
+ * as a regression, and Compare then exits with status 2, so a build can fail on it.
+ *
+ * Times (avgt, ss) are slower when higher, throughputs (thrpt) when lower.
+ * The results of profilers (such as bench.ContentionProfiler) are left out.
+ *
+ * Usage: java bench.Compare baseline.csv results.csv [threshold %, default 10]
+ *
+ * @author Derv
+ * @version 1
+ */
+public class Compare {
+
+	/** Exit status when a benchmark got slower than the baseline. */
+	private static final int REGRESSION_STATUS = 2;
+
+	/** Column of the benchmark name in JMH's CSV. */
+	private static final int BENCHMARK = 0;
+
+	/** Column of the mode. */
+	private static final int MODE = 1;
+
+	/** Column of the number of threads. */
+	private static final int THREADS = 2;
+
+	/** Column of the score. */
+	private static final int SCORE = 4;
+
+	/** Column of the unit; the parameters follow. */
+	private static final int UNIT = 6;
+
+	/**
+	 * Compares the results.
+	 *
+	 * @param args The baseline, the results, and optionally the threshold.
+	 * @throws IOException If a file cannot be read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java bench.Compare baseline.csv results.csv [threshold %]");
+			System.exit(1);
+		}
+		final double threshold = (args.length > 2) ? Double.parseDouble(args[2]) : 10;
+		final Map<String, String[]> baseline = read(args[0]);
+		final Map<String, String[]> results = read(args[1]);
+
+		int regressions = 0;
+		for (Map.Entry<String, String[]> result : results.entrySet()) {
+			final String[] now = result.getValue();
+			final String[] then = baseline.get(result.getKey());
+			if (then == null) {
+				System.out.printf(Locale.ROOT, "%-60s %12s %s  (new)%n", result.getKey(), now[SCORE], now[UNIT]);
+				continue;
+			}
+			final double change = 100 * (Double.parseDouble(now[SCORE]) / Double.parseDouble(then[SCORE]) - 1);
+			final double slower = "thrpt".equals(now[MODE]) ? -change : change;
+			final boolean regression = slower > threshold;
+			if (regression)
+				regressions++;
+			System.out.printf(Locale.ROOT, "%-60s %12s -> %12s %s  %+6.1f%%%s%n", result.getKey(), then[SCORE], now[SCORE],
+					now[UNIT], change, regression ? "  REGRESSION" : "");
+		}
+
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) more than " + threshold + "% slower than the baseline");
+			System.exit(REGRESSION_STATUS);
+		}
+	}
+
+	/**
+	 * Helper method. Reads the results of a JMH run.
+	 *
+	 * @param file The CSV file JMH saved.
+	 * @return The columns of each result, by benchmark, threads and parameters.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static Map<String, String[]> read(final String file) throws IOException {
+		final Map<String, String[]> results = new LinkedHashMap<String, String[]>();
+		final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			in.readLine(); // The header.
+			String line;
+			while ((line = in.readLine()) != null) {
+				final String[] columns = split(line);
+				// Secondary results, such as a profiler's, are named "benchmark:label".
+				if (columns.length <= UNIT || columns[BENCHMARK].indexOf(':') >= 0)
+					continue;
+				final StringBuilder key = new StringBuilder(columns[BENCHMARK]).append(" -t ").append(columns[THREADS]);
+				for (int p = UNIT + 1; p < columns.length; p++)
+					if (columns[p].length() > 0)
+						key.append(' ').append(columns[p]);
+				results.put(key.toString(), columns);
+			}
+		} finally {
+			in.close();
+		}
+		return results;
+	}
+
+	/**
+	 * Helper method. Splits a line of CSV, whose fields may be quoted.
+	 *
+	 * @param line The line.
+	 * @return Its fields, without the quotes.
+	 */
+	private static String[] split(final String line) {
+		final List<String> fields = new ArrayList<String>();
+		final StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else
+				field.append(c);
+		}
+		fields.add(field.toString());
+		return fields.toArray(new String[fields.size()]);
+	}
+}
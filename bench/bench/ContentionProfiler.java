@@ -0,0 +1,94 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * JMH profiler which reports the share of the benchmark threads' time spent blocked
+ * (waiting to enter a synchronized block) and waiting (parked: for a ReentrantLock,
+ * such as the locks of a LinkedBlockingQueue, or for a condition, such as a full or empty queue),
+ * from the JVM's thread contention monitoring. It shows how much the threads of a benchmark
+ * get in each other's way, and how much of that is spent queuing for locks.
+ *
+ * Usage: gradle jmh -Pjmh="queue -prof bench.ContentionProfiler"
+ *
+ * The monitoring itself slows down every lock which is contended, so compare the times
+ * of runs with the profiler only with each other.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class ContentionProfiler implements InternalProfiler {
+
+	/** JMH names its benchmark threads "&lt;benchmark&gt;-jmh-worker-&lt;n&gt;". */
+	private static final String WORKER = "-jmh-worker-";
+
+	/** The JVM's threads. */
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/** Blocked and waited time of each benchmark thread when the iteration started, in milliseconds. */
+	private Map<Long, long[]> before = new HashMap<Long, long[]>();
+
+	/** When the iteration started. */
+	private long startNanos;
+
+	/** {@inheritDoc} */
+	public String getDescription() {
+		return "Share of the benchmark threads' time spent blocked or waiting";
+	}
+
+	/** {@inheritDoc} */
+	public void beforeIteration(final BenchmarkParams benchmarkParams, final IterationParams iterationParams) {
+		if (threads.isThreadContentionMonitoringSupported())
+			threads.setThreadContentionMonitoringEnabled(true);
+		before = times();
+		startNanos = System.nanoTime();
+	}
+
+	/** {@inheritDoc} */
+	public Collection<? extends Result> afterIteration(final BenchmarkParams benchmarkParams,
+			final IterationParams iterationParams, final IterationResult result) {
+		final double elapsedMillis = (System.nanoTime() - startNanos) / 1e6;
+		long blocked = 0;
+		long waited = 0;
+		for (Map.Entry<Long, long[]> thread : times().entrySet()) {
+			final long[] start = before.get(thread.getKey());
+			blocked += thread.getValue()[0] - ((start == null) ? 0 : start[0]);
+			waited  += thread.getValue()[1] - ((start == null) ? 0 : start[1]);
+		}
+
+		final double threadMillis = elapsedMillis * benchmarkParams.getThreads();
+		final List<Result> results = new ArrayList<Result>();
+		results.add(new ScalarResult("contention.blocked", 100 * blocked / threadMillis, "%", AggregationPolicy.AVG));
+		results.add(new ScalarResult("contention.waited", 100 * waited / threadMillis, "%", AggregationPolicy.AVG));
+		return results;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @return Time each benchmark thread has spent blocked, then waiting, so far, in milliseconds, by thread id.
+	 */
+	private Map<Long, long[]> times() {
+		final Map<Long, long[]> times = new HashMap<Long, long[]>();
+		for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+			if (info != null && info.getThreadName().contains(WORKER))
+				times.put(info.getThreadId(), new long[] { Math.max(0, info.getBlockedTime()), Math.max(0, info.getWaitedTime()) });
+		}
+		return times;
+	}
+}
@@ -0,0 +1,133 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import queue.FingerprintVisitedSet;
+import queue.HashVisitedSet;
+import queue.VisitedSet;
+
+/**
+ * Adds URLs to a VisitedSet from several threads at once, as the PageParsers do
+ * through PageToRetrieve.add(). About half of the URLs have been added before
+ * (by the same thread or another one), which is roughly the share of links a crawl finds twice.
+ * One operation is one add.
+ *
+ * Every iteration starts with a new set, and adds a fixed number of URLs per thread, picked
+ * before it is timed: hence the single shot mode, with the score the time of a whole iteration.
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 8, batchSize = DedupBench.URLS)
+@Measurement(iterations = 10, batchSize = DedupBench.URLS)
+@Fork(1)
+public class DedupBench {
+
+	/** Number of URLs each thread adds in an iteration. */
+	static final int URLS = 200000;
+
+	/** Kind of VisitedSet: HashVisitedSet or FingerprintVisitedSet. */
+	@Param({ "hash", "fingerprint" })
+	public String kind;
+
+	/** The set of the iteration. */
+	private VisitedSet visited;
+
+	/** The URLs the threads pick from: each one is picked about twice. */
+	private String[] pool;
+
+	/**
+	 * Starts each iteration with a new, empty set, and the URLs to pick from.
+	 *
+	 * @param benchmark Gives the number of threads.
+	 * @param iteration Gives the number of URLs each thread adds.
+	 */
+	@Setup(Level.Iteration)
+	public void setUpIteration(final BenchmarkParams benchmark, final IterationParams iteration) {
+		final int distinct = Math.max(1, iteration.getBatchSize() * benchmark.getThreads() / 2);
+		visited = "fingerprint".equals(kind) ? new FingerprintVisitedSet(distinct) : new HashVisitedSet();
+		pool = new String[distinct];
+		for (int i = 0; i < distinct; i++)
+			pool[i] = "http://www.example.com/section" + (i % 97) + "/article-" + i + ".html";
+	}
+
+	/** Lets the set of the iteration go. */
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() {
+		visited = null;
+		pool    = null;
+	}
+
+	/** The URLs a thread adds during an iteration. */
+	@State(Scope.Thread)
+	public static class Urls {
+
+		/** The URLs, picked before the iteration is timed. */
+		private String[] urls;
+
+		/** Index of the next URL to add. */
+		private int next;
+
+		/**
+		 * Picks the URLs of the iteration from the pool.
+		 *
+		 * @param bench Holds the pool.
+		 * @param iteration Gives the number of URLs to pick.
+		 * @param thread Gives the index of the thread.
+		 */
+		@Setup(Level.Iteration)
+		public void setUp(final DedupBench bench, final IterationParams iteration, final ThreadParams thread) {
+			final Random random = new Random(Fixtures.SEED + thread.getThreadIndex());
+			urls = new String[iteration.getBatchSize()];
+			for (int i = 0; i < urls.length; i++)
+				urls[i] = bench.pool[random.nextInt(bench.pool.length)];
+			next = 0;
+		}
+	}
+
+	/**
+	 * Adds one URL, from one thread.
+	 *
+	 * @param urls The URLs of the thread.
+	 * @return True if the URL was new, for JMH to consume.
+	 */
+	@Benchmark
+	@Threads(1)
+	public boolean add(final Urls urls) {
+		return visited.add(urls.urls[urls.next++]);
+	}
+
+	/**
+	 * Adds one URL, from 4 threads at once.
+	 *
+	 * @param urls The URLs of the thread.
+	 * @return True if the URL was new, for JMH to consume.
+	 */
+	@Benchmark
+	@Threads(4)
+	public boolean addContended(final Urls urls) {
+		return visited.add(urls.urls[urls.next++]);
+	}
+}
@@ -0,0 +1,131 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The HTML pages the parsing benchmarks run over: every .html file of a directory
+ * (bench/fixtures by default), in UTF-8. They are checked in, so every run parses the same pages.
+ *
+ * The fixtures mimic the pages a crawl meets: a news article, an encyclopedia entry full of links,
+ * a blog front page, a forum thread laid out in tables, a short error page, and a page in
+ * several languages. They include scripts, styles, comments, entities and every kind of link
+ * (relative, absolute, fragments, mailto: and javascript:).
+ *
+ * @author Derv
+ * @version 1
+ */
+public class Fixtures {
+
+	/**
+	 * Seed of every random number generator used by the benchmarks, so every run does
+	 * the same work and results can be compared between runs.
+	 */
+	public static final long SEED = 422;
+
+	/** Default directory of the fixtures, relative to the project. */
+	public static final String DEFAULT_DIRECTORY = "bench/fixtures";
+
+	/** System property which names another directory of fixtures (pass it to JMH with -jvmArgsAppend). */
+	public static final String DIRECTORY_PROPERTY = "bench.fixtures";
+
+	/** Encoding of the fixtures. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Directory the fixtures are read from. */
+	private static final File directory = new File(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY));
+
+	/** URL of each page. */
+	private final String[] urls;
+
+	/** Text of each page. */
+	private final String[] bodies;
+
+	/** Bytes of each page, in UTF-8. */
+	private final byte[][] bytes;
+
+	/**
+	 * Helper method. Reads every fixture.
+	 *
+	 * @throws IOException If the directory holds no fixtures, or one cannot be read.
+	 */
+	private Fixtures() throws IOException {
+		final File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(".html");
+			}
+		});
+		if (files == null || files.length == 0)
+			throw new IOException("No fixtures found in " + directory.getAbsolutePath());
+		Arrays.sort(files);
+
+		urls   = new String[files.length];
+		bodies = new String[files.length];
+		bytes  = new byte[files.length][];
+		for (int i = 0; i < files.length; i++) {
+			urls[i]   = "http://www.example.com/fixtures/" + files[i].getName();
+			bytes[i]  = read(files[i]);
+			bodies[i] = new String(bytes[i], UTF8);
+		}
+	}
+
+	/**
+	 * Reads the fixtures.
+	 *
+	 * @return The fixtures.
+	 * @throws IOException If the directory holds no fixtures, or one cannot be read.
+	 */
+	public static Fixtures load() throws IOException {
+		return new Fixtures();
+	}
+
+	/**
+	 * Helper method. Reads a whole file.
+	 *
+	 * @param file The file.
+	 * @return Its bytes.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private static byte[] read(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			final byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+
+	// Accessors
+
+	/** @return Number of pages. */
+	public int size()                    { return urls.length; }
+
+	/** @return URL of page i. */
+	public String getUrl(final int i)    { return urls[i]; }
+
+	/** @return Text of page i. */
+	public String getBody(final int i)   { return bodies[i]; }
+
+	/** @return Bytes of page i, in UTF-8. */
+	public byte[] getBytes(final int i)  { return bytes[i]; }
+
+	/** @return Average size of a page, in bytes. */
+	public long getAverageBytes() {
+		long sum = 0;
+		for (byte[] b : bytes)
+			sum += b.length;
+		return sum / bytes.length;
+	}
+}
@@ -0,0 +1,146 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.DataGatherer;
+import data.PeriodicReporter;
+
+/**
+ * Reports parsed pages to a DataGatherer from several threads at once, as the PageParsers do
+ * (parsed, parsedContended), or adds up what they reported, as the reporters and the CrawlMonitor do
+ * (snapshot). One operation is one page reported, or one snapshot.
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GathererBench {
+
+	/** Number of different pages reported, cycled through. */
+	private static final int PAGES = 256;
+
+	/** Number of threads which have reported pages before the snapshots are taken. */
+	private static final int SNAPSHOT_THREADS = 16;
+
+	/** The DataGatherer of the iteration. */
+	private DataGatherer gatherer;
+
+	/** Number of times each keyword appears on each page. */
+	private int[][] counts;
+
+	/** Number of words on each page. */
+	private int[] words;
+
+	/** Number of URLs on each page. */
+	private int[] links;
+
+	/** Makes up the pages reported. */
+	@Setup
+	public void setUp() {
+		final Random random = new Random(Fixtures.SEED);
+		counts = new int[PAGES][ParseBench.KEYWORDS.length];
+		words  = new int[PAGES];
+		links  = new int[PAGES];
+		for (int p = 0; p < PAGES; p++) {
+			for (int k = 0; k < counts[p].length; k++)
+				counts[p][k] = random.nextInt(20);
+			words[p] = 200 + random.nextInt(5000);
+			links[p] = random.nextInt(300);
+		}
+	}
+
+	/**
+	 * Starts each iteration with a new DataGatherer, to which SNAPSHOT_THREADS threads
+	 * have reported pages: a snapshot adds up one Accumulator per thread that has reported pages.
+	 *
+	 * @throws InterruptedException If interrupted while the threads report.
+	 */
+	@Setup(Level.Iteration)
+	public void setUpIteration() throws InterruptedException {
+		gatherer = new DataGatherer(Integer.MAX_VALUE, ParseBench.KEYWORDS, (PeriodicReporter) null);
+		final Thread[] parsers = new Thread[SNAPSHOT_THREADS];
+		for (int t = 0; t < parsers.length; t++) {
+			parsers[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int p = 0; p < PAGES; p++)
+						gatherer.parsed("http://www.example.com/", counts[p], words[p], links[p], 1000);
+				}
+			});
+			parsers[t].start();
+		}
+		for (Thread parser : parsers)
+			parser.join();
+	}
+
+	/** The page each thread reports next. */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		/** Index of the page reported next. */
+		private int page;
+
+		/** @return Index of the page to report, moving on to the next one. */
+		int next() {
+			final int p = page;
+			page = (p + 1) % PAGES;
+			return p;
+		}
+	}
+
+	/**
+	 * Reports a page, from one thread.
+	 *
+	 * @param cursor The page to report.
+	 */
+	@Benchmark
+	@Threads(1)
+	public void parsed(final Cursor cursor) {
+		report(cursor.next());
+	}
+
+	/**
+	 * Reports a page, from 4 threads at once.
+	 *
+	 * @param cursor The page to report.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void parsedContended(final Cursor cursor) {
+		report(cursor.next());
+	}
+
+	/** @return Total of the pages reported, from a new snapshot. */
+	@Benchmark
+	@Threads(1)
+	public long snapshot() {
+		return gatherer.snapshot().getPagesTotal();
+	}
+
+	/**
+	 * Helper method. Reports one page to the gatherer.
+	 *
+	 * @param p Index of the page.
+	 */
+	private void report(final int p) {
+		gatherer.parsed("http://www.example.com/", counts[p], words[p], links[p], 1000);
+	}
+}
@@ -0,0 +1,499 @@
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import fetch.ConnectionFetcher;
+import fetch.KeepAliveFetcher;
+import model.AutoScaler;
+import model.SpiderConfig;
+import model.SpiderModel;
+import queue.BestFirstFrontier;
+import queue.HostFrontier;
+import queue.NearDuplicateIndex;
+import data.HistogramSnapshot;
+import data.Metrics;
+
+/**
+ * Crawls a SyntheticSite, served from this JVM, with SpiderModel.execute(), and reports how the crawl did:
+ * pages per second, download times, the time from the start of each page's download until its
+ * findings were reported (fetch-to-parse), failures, requests wasted on pages fetched before (dupes)
+ * or on URLs resolved wrongly (404), print views fetched (print) and pages skipped as near-duplicates (near),
+ * CPU time and heap. Runs offline, and the site is
+ * the same on every run, so the results can be compared from one change (or machine) to the next,
+ * and the number of threads can be tuned for a given site.
+ *
+ * Several numbers of threads can be given (comma-separated); every combination is crawled, in turn.
+ * The first crawls only warm up the JVM and are not reported.
+ *
+ * With -auto, an AutoScaler resizes the pools during each crawl, starting from the numbers of threads
+ * given; the retr and pars columns then show the mean number of threads over the crawl.
+ * With -latency-steps, the latency of the site changes while it is crawled, to see the AutoScaler
+ * follow it; with -capacity, each host only serves so many requests at once, so more retrievers
+ * than the site can take only make the downloads slower.
+ *
+ * Usage: java bench.LoadTest [options]
+ * <pre>
+ * The site:
+ *   -pages n          Number of pages (default 2000)
+ *   -fanout n         Links on each page (default 10)
+ *   -size bytes       Size of each page (default 8192)
+ *   -hosts n          Number of hosts (default 4)
+ *   -latency ms       Delay of each response (default 20)
+ *   -slow-hosts n     Number of slow hosts (default 0)
+ *   -slow-latency ms  Delay of each response of a slow host (default 200)
+ *   -errors %         Share of the pages which fail (default 1)
+ *   -seed n           Seed the site is made from
+ *   -plain-links      Spell each kind of link one way, rather than in several equivalent ways
+ *   -mirrors %        Share of the links which go to the print view of a page (default 0)
+ *   -capacity n       Requests each host serves at once; the others wait (default: no limit)
+ *   -latency-steps ms,...  Latencies the site goes through during each crawl, in turn (default: -latency throughout)
+ *   -step-secs n      Time spent at each of the latency steps (default 5)
+ * The crawl:
+ *   -limit n          Pages to crawl (default: every page)
+ *   -retrievers n,... PageRetriever threads (default 32)
+ *   -parsers n,...    PageParser threads (default: one per processor)
+ *   -fetcher name     "keepalive" (default) or "connection"
+ *   -per-host n       Connections (and, with the host frontier, pages being retrieved) per host (default 2)
+ *   -frontier name    "memory" (default), "bestfirst" or "host" (no politeness delay)
+ *   -streaming        Analyze the pages while downloading them
+ *   -simhash          Skip the pages whose content is a near-duplicate of a page already parsed
+ *   -auto             Resize the pools during the crawl with an AutoScaler, within its default bounds
+ *   -auto-interval ms Time between adjustments of the AutoScaler (default 1000)
+ *   -warmup n         Crawls before the reported ones (default 1)
+ *   -runs n           Reported crawls of each combination (default 3)
+ *   -save file        Also writes the results, tab-separated
+ *   -verbose          Shows what the crawler prints
+ * </pre>
+ *
+ * @author Derv
+ * @version 1
+ */
+public class LoadTest {
+
+	/** Number of nanoseconds in a millisecond. */
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	/** Number of microseconds in a millisecond. */
+	private static final double MICROS_PER_MILLI = 1000.0;
+
+	/** Time between samples of the heap and the threads' CPU time, in milliseconds. */
+	private static final long SAMPLE_INTERVAL = 50;
+
+	/** Header of the table of results. */
+	private static final String HEADER = String.format(Locale.US, "%5s %5s %6s %7s %8s %9s %9s %9s %6s %6s %6s %6s %6s %6s %8s %7s %6s",
+			"retr", "pars", "pages", "secs", "pages/s", "fetch50", "page50", "page99", "fails", "dupes", "404", "print", "near", "cpu%", "crawlCPU", "heapMB", "gcMs");
+
+	/** The site crawled. */
+	private final SyntheticSite site = new SyntheticSite();
+
+	/** Pages to crawl. */
+	private int limit = -1;
+
+	/** Name of the fetcher. */
+	private String fetcher = "keepalive";
+
+	/** Connections per host. */
+	private int perHost = HostFrontier.DEFAULT_MAX_PER_HOST;
+
+	/** Name of the frontier. */
+	private String frontier = "memory";
+
+	/** Whether pages are analyzed while downloading. */
+	private boolean streaming = false;
+
+	/** Whether to skip the pages whose content is a near-duplicate of a page already parsed. */
+	private boolean simHash = false;
+
+	/** Whether to show what the crawler prints. */
+	private boolean verbose = false;
+
+	/** Whether the pools are resized during the crawl. */
+	private boolean auto = false;
+
+	/** Time between adjustments of the AutoScaler, in milliseconds. */
+	private long autoInterval = AutoScaler.DEFAULT_INTERVAL;
+
+	/** Latencies the site goes through during each crawl, in milliseconds, or null to keep one. */
+	private long[] latencySteps = null;
+
+	/** Time spent at each of the latency steps, in milliseconds. */
+	private long stepMillis = 5000;
+
+	/** How the pools were resized during the last crawl, or null. */
+	private String autoSummary;
+
+	/**
+	 * Runs the load test.
+	 *
+	 * @param args Options; see the class comment.
+	 * @throws Exception If the site cannot be served.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final LoadTest test = new LoadTest();
+		int[] retrievers = { SpiderConfig.DEFAULT_RETRIEVER_THREADS };
+		int[] parsers = { SpiderConfig.DEFAULT_PARSER_THREADS };
+		int warmup = 1;
+		int runs = 3;
+		File save = null;
+
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-pages".equals(arg))
+				test.site.setPages(Integer.parseInt(args[++i]));
+			else if ("-fanout".equals(arg))
+				test.site.setFanout(Integer.parseInt(args[++i]));
+			else if ("-size".equals(arg))
+				test.site.setPageSize(Integer.parseInt(args[++i]));
+			else if ("-hosts".equals(arg))
+				test.site.setHosts(Integer.parseInt(args[++i]));
+			else if ("-latency".equals(arg))
+				test.site.setLatency(Long.parseLong(args[++i]));
+			else if ("-slow-hosts".equals(arg))
+				test.site.setSlowHosts(Integer.parseInt(args[++i]));
+			else if ("-slow-latency".equals(arg))
+				test.site.setSlowLatency(Long.parseLong(args[++i]));
+			else if ("-errors".equals(arg))
+				test.site.setErrorRate(Double.parseDouble(args[++i]) / 100);
+			else if ("-seed".equals(arg))
+				test.site.setSeed(Long.parseLong(args[++i]));
+			else if ("-plain-links".equals(arg))
+				test.site.setVariedLinks(false);
+			else if ("-mirrors".equals(arg))
+				test.site.setMirrorRate(Double.parseDouble(args[++i]) / 100);
+			else if ("-capacity".equals(arg))
+				test.site.setCapacity(Integer.parseInt(args[++i]));
+			else if ("-latency-steps".equals(arg)) {
+				final int[] steps = list(args[++i]);
+				test.latencySteps = new long[steps.length];
+				for (int s = 0; s < steps.length; s++)
+					test.latencySteps[s] = steps[s];
+				test.site.setLatency(steps[0]);
+			}
+			else if ("-step-secs".equals(arg))
+				test.stepMillis = Math.max(1, Math.round(Double.parseDouble(args[++i]) * 1000));
+			else if ("-limit".equals(arg))
+				test.limit = Integer.parseInt(args[++i]);
+			else if ("-retrievers".equals(arg))
+				retrievers = list(args[++i]);
+			else if ("-parsers".equals(arg))
+				parsers = list(args[++i]);
+			else if ("-fetcher".equals(arg))
+				test.fetcher = args[++i];
+			else if ("-per-host".equals(arg))
+				test.perHost = Integer.parseInt(args[++i]);
+			else if ("-frontier".equals(arg))
+				test.frontier = args[++i];
+			else if ("-streaming".equals(arg))
+				test.streaming = true;
+			else if ("-simhash".equals(arg))
+				test.simHash = true;
+			else if ("-auto".equals(arg))
+				test.auto = true;
+			else if ("-auto-interval".equals(arg))
+				test.autoInterval = Long.parseLong(args[++i]);
+			else if ("-warmup".equals(arg))
+				warmup = Math.max(0, Integer.parseInt(args[++i]));
+			else if ("-runs".equals(arg))
+				runs = Math.max(1, Integer.parseInt(args[++i]));
+			else if ("-save".equals(arg))
+				save = new File(args[++i]);
+			else if ("-verbose".equals(arg))
+				test.verbose = true;
+			else
+				throw new IllegalArgumentException("Unknown option " + arg + "; see the comment of bench.LoadTest");
+		}
+		if (test.limit < 1)
+			test.limit = test.site.getPages();
+		// Before the first connection is opened, or the JVM ignores it.
+		if (!"connection".equals(test.fetcher))
+			KeepAliveFetcher.keepIdleConnections(test.perHost);
+
+		final PrintWriter tsv = (save == null) ? null
+				: new PrintWriter(new OutputStreamWriter(new FileOutputStream(save), "UTF-8"));
+		if (tsv != null)
+			tsv.println("# " + HEADER.trim().replaceAll(" +", "\t"));
+
+		test.site.start();
+		try {
+			System.out.println("# Site: " + test.site.describe());
+			System.out.println("# Crawl: " + test.limit + " pages, " + test.fetcher + " fetcher (" + test.perHost
+					+ " per host), " + test.frontier + " frontier" + (test.streaming ? ", streaming" : "") 
+					+ (test.simHash ? ", near-duplicates skipped" : "") 
+					+ (test.auto ? ", auto-scaled every " + test.autoInterval + " ms" : "")
+					+ ((test.latencySteps != null) ? ", latency steps of " + test.stepMillis + " ms" : "") + "; "
+					+ System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", "
+					+ Runtime.getRuntime().availableProcessors() + " processor(s)");
+			System.out.println(HEADER);
+
+			for (int r : retrievers) {
+				for (int p : parsers) {
+					for (int run = 0; run < warmup + runs; run++) {
+						final String line = test.crawl(r, p);
+						if (run < warmup)
+							continue;
+						System.out.println(line);
+						if (test.autoSummary != null)
+							System.out.println("#   " + test.autoSummary);
+						if (tsv != null)
+							tsv.println(line.trim().replaceAll(" +", "\t"));
+					}
+					// Only the first combination needs warming up.
+					warmup = 0;
+				}
+			}
+		} finally {
+			test.site.stop();
+			if (tsv != null)
+				tsv.close();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Crawls the site once.
+	 *
+	 * @param retrievers Number of PageRetriever threads.
+	 * @param parsers Number of PageParser threads.
+	 * @return The line of results.
+	 * @throws IOException If the crawl cannot be run.
+	 */
+	private String crawl(final int retrievers, final int parsers) throws IOException {
+		final Metrics metrics = new Metrics();
+		final SpiderConfig config = new SpiderConfig();
+		config.setRetrieverThreads(retrievers);
+		config.setParserThreads(parsers);
+		config.setFetcher("connection".equals(fetcher) ? new ConnectionFetcher() : new KeepAliveFetcher(perHost));
+		if ("host".equals(frontier))
+			config.setFrontier(new HostFrontier(perHost, 0));
+		else if ("bestfirst".equals(frontier))
+			config.setFrontier(new BestFirstFrontier());
+		config.setStreaming(streaming);
+		if (simHash)
+			config.setNearDuplicates(new NearDuplicateIndex());
+		config.setJmxEnabled(false);
+		config.setMetrics(metrics);
+		final AutoScaler scaler = auto ? new AutoScaler() : null;
+		if (scaler != null) {
+			scaler.setInterval(autoInterval);
+			config.setAutoScaler(scaler);
+		}
+		final LatencyShifter shifter = (latencySteps != null) ? new LatencyShifter() : null;
+
+		System.gc();
+		final Sampler sampler = new Sampler();
+		final long gcBefore = gcMillis();
+		final long cpuBefore = processCpuNanos();
+		final PrintStream out = System.out;
+		final PrintStream err = System.err;
+		if (!verbose) {
+			final PrintStream discard = new PrintStream(new OutputStream() {
+				public void write(final int b) { }
+				public void write(final byte[] b, final int off, final int len) { }
+			});
+			System.setOut(discard);
+			System.setErr(discard);
+		}
+		site.reset();
+		final long startTime = System.nanoTime();
+		sampler.start();
+		if (shifter != null)
+			shifter.start();
+		try {
+			new SpiderModel().execute(limit, site.url(0), SyntheticSite.KEYWORDS, config);
+		} finally {
+			if (shifter != null)
+				shifter.stop();
+			sampler.stop();
+			System.setOut(out);
+			System.setErr(err);
+		}
+		final double seconds = (System.nanoTime() - startTime) / 1e9;
+		final long cpu = processCpuNanos() - cpuBefore;
+
+		autoSummary = (scaler == null) ? null : String.format(Locale.US, 
+				"auto-scaling: %d increases, %d decreases; at most %d retrievers and %d parsers, %d at the end",
+				scaler.getIncreases(), scaler.getDecreases(), scaler.getPeakRetrievers(), scaler.getPeakParsers(),
+				scaler.getRetrievers());
+		final HistogramSnapshot pageLatency = metrics.getPageLatency();
+		return String.format(Locale.US, "%5d %5d %6d %7.2f %8.1f %9.2f %9.2f %9.2f %6d %6d %6d %6d %6d %6s %8.2f %7.1f %6d",
+				(scaler == null) ? retrievers : Math.round(scaler.getMeanRetrievers()), 
+				(scaler == null) ? parsers : Math.round(scaler.getMeanParsers()), pageLatency.getCount(), seconds, pageLatency.getCount() / seconds,
+				metrics.getFetchLatency().getPercentile(50) / MICROS_PER_MILLI,
+				pageLatency.getPercentile(50) / MICROS_PER_MILLI, pageLatency.getPercentile(99) / MICROS_PER_MILLI,
+				metrics.getFailures(), site.getDuplicates(), site.getNotFound(), 
+				site.getMirrors(), metrics.getNearDuplicates(), (cpu < 0) ? "?" : String.valueOf(Math.round(cpu / NANOS_PER_MILLI / 10 / seconds)),
+				sampler.workerCpuNanos() / 1e9, sampler.peakHeap / (1024.0 * 1024.0), gcMillis() - gcBefore);
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param s Numbers, separated by commas.
+	 * @return The numbers.
+	 */
+	private static int[] list(final String s) {
+		final String[] parts = s.split(",");
+		final int[] numbers = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			numbers[i] = Integer.parseInt(parts[i].trim());
+		return numbers;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @return CPU time used by this JVM so far (the crawler, the site, the JIT and the GC), in nanoseconds,
+	 * 			or -1 if the JVM cannot tell.
+	 */
+	private static long processCpuNanos() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return -1;
+	}
+
+	/** @return Time spent collecting garbage so far, in milliseconds. */
+	private static long gcMillis() {
+		long sum = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			sum += Math.max(0, gc.getCollectionTime());
+		return sum;
+	}
+
+	/** Takes the site through the latency steps, one step every stepMillis, from the first. */
+	private class LatencyShifter implements Runnable {
+
+		/** The thread changing the latency. */
+		private final Thread thread = new Thread(this, "LoadTest latency");
+
+		/** Flag which tells the thread to stop. */
+		private volatile boolean stop = false;
+
+		/** Starts at the first step. */
+		void start() {
+			site.setLatency(latencySteps[0]);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/** Stops changing the latency. */
+		void stop() {
+			stop = true;
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/** Moves on to the next step every stepMillis, and stays at the last one. */
+		public void run() {
+			for (int step = 1; step < latencySteps.length && !stop; step++) {
+				try {
+					Thread.sleep(stepMillis);
+				} catch (final InterruptedException ie) {
+					break;
+				}
+				if (!stop)
+					site.setLatency(latencySteps[step]);
+			}
+		}
+	}
+
+	/**
+	 * Samples the heap and the CPU time of the crawler's workers in the background,
+	 * since the workers are gone by the time the crawl returns.
+	 */
+	private static class Sampler implements Runnable {
+
+		/** The thread sampling. */
+		private final Thread thread = new Thread(this, "LoadTest sampler");
+
+		/** The latest CPU time of each worker, by thread id, in nanoseconds. */
+		private final Map<Long, Long> workerCpu = new HashMap<Long, Long>();
+
+		/** Largest heap in use seen, in bytes. */
+		private volatile long peakHeap;
+
+		/** Flag which tells the thread to stop. */
+		private volatile boolean stop = false;
+
+		/** Starts sampling. */
+		void start() {
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/** Takes a last sample, and stops. */
+		void stop() {
+			stop = true;
+			try {
+				thread.join();
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/** Samples until told to stop. */
+		public void run() {
+			while (!stop) {
+				sample();
+				try {
+					Thread.sleep(SAMPLE_INTERVAL);
+				} catch (final InterruptedException ie) {
+					break;
+				}
+			}
+			sample();
+		}
+
+		/** Helper method. Takes one sample. */
+		private void sample() {
+			peakHeap = Math.max(peakHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+
+			final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (!threads.isThreadCpuTimeSupported())
+				return;
+			for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+				if (info == null)
+					continue;
+				final String name = info.getThreadName();
+				if (!name.startsWith("PageRetriever") && !name.startsWith("PageParser"))
+					continue;
+				final long cpu = threads.getThreadCpuTime(info.getThreadId());
+				if (cpu >= 0)
+					synchronized (workerCpu) {
+						workerCpu.put(info.getThreadId(), cpu);
+					}
+			}
+		}
+
+		/**
+		 * @return CPU time used by the PageRetrievers and PageParsers, as last sampled
+		 * 			(up to SAMPLE_INTERVAL of each one's last work may be missing), in nanoseconds.
+		 */
+		long workerCpuNanos() {
+			long sum = 0;
+			synchronized (workerCpu) {
+				for (long cpu : workerCpu.values())
+					sum += cpu;
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.ByteDecoder;
+import parse.KeywordMatcher;
+import parse.LinkScorer;
+import parse.PageAnalyzer;
+import data.PageSummary;
+
+/**
+ * Analyzes the fixtures one after the other, as a PageParser does with each page body:
+ * one pass of the PageAnalyzer, then a score for every link found.
+ * One operation is one page (an invocation goes once through the PAGES fixtures).
+ *
+ * analyze feeds the whole page as a String, like PageParser.parse();
+ * analyzeBytes feeds it in 8 KB chunks of UTF-8, like a PageRetriever in streaming mode.
+ * Before measuring, it checks that both modes find the same links in every page.
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBench {
+
+	/** The keywords searched for. */
+	static final String[] KEYWORDS = { "science", "climate", "research", "warming", "energy" };
+
+	/** Number of fixtures, checked by setUp(): the operations of an invocation. */
+	static final int PAGES = 6;
+
+	/** Size of the chunks fed in bytes mode, the size of a read from the network. */
+	private static final int CHUNK = 8192;
+
+	/** The pages. */
+	private Fixtures fixtures;
+
+	/** Analyzes the pages. */
+	private PageAnalyzer analyzer;
+
+	/** Scores the links. */
+	private LinkScorer scorer;
+
+	/** The findings for the current page. */
+	private PageSummary summary;
+
+	/** Decodes the UTF-8 bytes. */
+	private ByteDecoder decoder;
+
+	/**
+	 * Reads the fixtures, and checks both modes agree on them.
+	 *
+	 * @throws IOException If the fixtures cannot be read.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		fixtures = Fixtures.load();
+		if (fixtures.size() != PAGES)
+			throw new IllegalStateException("Expected " + PAGES + " fixtures, found " + fixtures.size());
+		final KeywordMatcher matcher = new KeywordMatcher(KEYWORDS);
+		analyzer = new PageAnalyzer(matcher);
+		scorer   = new LinkScorer();
+		summary  = new PageSummary(matcher.size());
+		decoder  = ByteDecoder.forCharset(Charset.forName("UTF-8"));
+		check();
+	}
+
+	/**
+	 * Helper method. Makes sure both modes find the same links in every page, and that an href
+	 * following an attribute which starts with "href" (such as hreflang) is found too.
+	 *
+	 * @throws IllegalStateException If they do not.
+	 */
+	private void check() {
+		boolean alternate = false;
+		for (int i = 0; i < fixtures.size(); i++) {
+			final String[] text = links(i, false);
+			final String[] inBytes = links(i, true);
+			if (!Arrays.equals(text, inBytes))
+				throw new IllegalStateException("Text and bytes modes found different links in " + fixtures.getUrl(i));
+			for (String link : text)
+				alternate |= link.endsWith("/fr/science.html");
+		}
+		if (!alternate)
+			throw new IllegalStateException("The href after hreflang in intl.html was not found");
+	}
+
+	/**
+	 * Helper method. Analyzes one page in one mode.
+	 *
+	 * @param i Index of the page.
+	 * @param inBytes True to feed UTF-8 bytes, False to feed text.
+	 * @return The links found.
+	 */
+	private String[] links(final int i, final boolean inBytes) {
+		analyzer.begin(fixtures.getUrl(i), 0, summary);
+		if (inBytes) {
+			final byte[] page = fixtures.getBytes(i);
+			analyzer.feed(ByteBuffer.wrap(page), decoder);
+		} else {
+			analyzer.feed(fixtures.getBody(i));
+		}
+		analyzer.finish();
+		final String[] links = new String[summary.getLinkCount()];
+		for (int link = 0; link < links.length; link++)
+			links[link] = summary.getLink(link);
+		return links;
+	}
+
+	/**
+	 * Analyzes every fixture as text.
+	 *
+	 * @return Sum of the scores of the links, for JMH to consume.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PAGES)
+	public double analyze() {
+		double sum = 0;
+		for (int i = 0; i < PAGES; i++)
+			sum += parse(i, false);
+		return sum;
+	}
+
+	/**
+	 * Analyzes every fixture as UTF-8 bytes.
+	 *
+	 * @return Sum of the scores of the links, for JMH to consume.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PAGES)
+	public double analyzeBytes() {
+		double sum = 0;
+		for (int i = 0; i < PAGES; i++)
+			sum += parse(i, true);
+		return sum;
+	}
+
+	/**
+	 * Helper method. Analyzes one page and scores its links. Kept out of the loops,
+	 * so it is compiled on its own, as PageParser.parse() is.
+	 *
+	 * @param i Index of the page.
+	 * @param bytes True to feed UTF-8 bytes, False to feed text.
+	 * @return Sum of the scores.
+	 */
+	private double parse(final int i, final boolean bytes) {
+		analyzer.begin(fixtures.getUrl(i), 0, summary);
+		if (bytes) {
+			final byte[] page = fixtures.getBytes(i);
+			for (int off = 0; off < page.length; off += CHUNK)
+				analyzer.feed(ByteBuffer.wrap(page, off, Math.min(CHUNK, page.length - off)), decoder);
+		} else {
+			analyzer.feed(fixtures.getBody(i));
+		}
+		analyzer.finish();
+
+		double sum = 0;
+		for (int link = 0; link < summary.getLinkCount(); link++)
+			sum += scorer.score(summary.getKeywordHits(), summary.getWordCount(), summary.getAnchorHits(link), 1);
+		return sum;
+	}
+}
@@ -0,0 +1,131 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+import queue.PageBuffer;
+import queue.PageToRetrieve;
+import thread.PageParser;
+import data.DataGatherer;
+import data.Page;
+import data.PeriodicReporter;
+
+/**
+ * Hands the fixtures to a running PageParser through a PageBuffer, as PageRetrievers do,
+ * and waits until it has parsed them all: the whole path of a page body, including adding
+ * its links to the URL queue and reporting to the DataGatherer.
+ * One operation is one page.
+ *
+ * Every iteration starts with an empty URL queue, so the first copy of each page adds
+ * its links, and the later copies find them already added, as in a real crawl.
+ * The PageParser ends the crawl once it has parsed the pages of the iteration, and the last
+ * operation waits for that: hence the single shot mode, with the score the time of a whole iteration.
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 8, batchSize = ParserWorkerBench.PAGES)
+@Measurement(iterations = 10, batchSize = ParserWorkerBench.PAGES)
+@Fork(1)
+@Threads(1)
+public class ParserWorkerBench {
+
+	/** Number of pages handed over in an iteration. */
+	static final int PAGES = 3000;
+
+	/** Capacity of the PageBuffer. */
+	private static final int BUFFER_CAPACITY = 64;
+
+	/** The pages. */
+	private Fixtures fixtures;
+
+	/** The URL queue of the iteration. */
+	private PageToRetrieve urlQueue;
+
+	/** The PageBuffer of the iteration. */
+	private PageBuffer pageQueue;
+
+	/** The thread running the PageParser of the iteration. */
+	private Thread worker;
+
+	/** Number of pages handed over so far in the iteration. */
+	private int handed;
+
+	/** Number of pages to hand over in the iteration. */
+	private int pages;
+
+	/**
+	 * Reads the fixtures.
+	 *
+	 * @throws IOException If the fixtures cannot be read.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		fixtures = Fixtures.load();
+	}
+
+	/**
+	 * Starts a PageParser on a new, empty URL queue and PageBuffer.
+	 *
+	 * @param iteration Gives the number of pages to hand over.
+	 */
+	@Setup(Level.Iteration)
+	public void setUpIteration(final IterationParams iteration) {
+		pages     = iteration.getBatchSize();
+		handed    = 0;
+		urlQueue  = new PageToRetrieve();
+		pageQueue = new PageBuffer(BUFFER_CAPACITY);
+
+		// The PageParser ends the crawl (releases the tracker) once it has parsed every page.
+		final DataGatherer gatherer = new DataGatherer(pages, ParseBench.KEYWORDS, (PeriodicReporter) null);
+		worker = new Thread(new PageParser(urlQueue, pageQueue, ParseBench.KEYWORDS, gatherer), "PageParser");
+		worker.start();
+	}
+
+	/**
+	 * Stops the PageParser of the iteration.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for it to stop.
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() throws InterruptedException {
+		worker.interrupt();
+		worker.join();
+	}
+
+	/**
+	 * Hands a copy of the next fixture over, and once they have all been handed over,
+	 * waits for the PageParser to finish them.
+	 *
+	 * @return Number of pages handed over, for JMH to consume.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	public int parse() throws InterruptedException {
+		final int i = handed % fixtures.size();
+		// Each page came from a URL the queue counted, so the tracker only ends at the page limit.
+		urlQueue.getTracker().begin();
+		pageQueue.put(new Page(fixtures.getUrl(i) + "?copy=" + handed, fixtures.getBody(i), 0));
+		if (++handed == pages)
+			urlQueue.getTracker().await();
+		return handed;
+	}
+}
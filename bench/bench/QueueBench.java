@@ -0,0 +1,241 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import queue.BestFirstFrontier;
+import queue.Frontier;
+import queue.HashVisitedSet;
+import queue.HostFrontier;
+import queue.MemoryFrontier;
+import queue.PageToRetrieve;
+import queue.UrlBatch;
+import queue.WorkTracker;
+
+/**
+ * Moves URLs through a PageToRetrieve from several threads at once: each operation adds a new URL,
+ * as a PageParser does, then takes one out and finishes it, as a PageRetriever does.
+ * So every thread contends for the visited set and the Frontier on both ends.
+ *
+ * moveBatch moves the URLs as the workers do: each thread adds a page of PAGE_LINKS URLs
+ * at once with addAll(), then takes as many out, up to TAKE_BATCH at a time.
+ *
+ * Each URL is only ever added once, so every iteration starts with a new queue, holding PREFILL URLs
+ * (so the URLs taken are rarely the ones just added), and moves URLS URLs per thread,
+ * made before it is timed: hence the single shot mode, with the score the time of a whole iteration.
+ * Every benchmark moves as many URLs, so they all compare directly.
+ * The URLs are spread over HOSTS hosts, with random scores.
+ * Run with -t 32 (or more) to see how the queue holds up under contention.
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 8, batchSize = QueueBench.URLS)
+@Measurement(iterations = 10, batchSize = QueueBench.URLS)
+@Fork(1)
+public class QueueBench {
+
+	/** Number of URLs each thread moves in an iteration. */
+	static final int URLS = 20000;
+
+	/** Number of URLs in the queue when an iteration starts. */
+	private static final int PREFILL = 10000;
+
+	/** Number of hosts the URLs are spread over. */
+	private static final int HOSTS = 500;
+
+	/** Number of URLs added at once by moveBatch: the links of a page. */
+	private static final int PAGE_LINKS = 32;
+
+	/** Most URLs taken at once by moveBatch. */
+	private static final int TAKE_BATCH = 4;
+
+	/** Kind of Frontier: MemoryFrontier, BestFirstFrontier or HostFrontier. */
+	@Param({ "memory", "bestfirst", "host" })
+	public String kind;
+
+	/** The queue of the iteration. */
+	private PageToRetrieve queue;
+
+	/** Starts each iteration with a new queue, holding PREFILL URLs. */
+	@Setup(Level.Iteration)
+	public void setUpIteration() {
+		queue = new PageToRetrieve(newFrontier(), new WorkTracker(), new HashVisitedSet());
+		final Random random = new Random(Fixtures.SEED);
+		for (int i = 0; i < PREFILL; i++)
+			queue.add(url(random, -1, i), random.nextDouble(), 1);
+	}
+
+	/** Closes the queue of the iteration. */
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() {
+		queue.close();
+		queue = null;
+	}
+
+	/** The URLs a thread adds during an iteration. */
+	@State(Scope.Thread)
+	public static class Urls {
+
+		/** The URLs, made before the iteration is timed. */
+		private String[] urls;
+
+		/** The score of each of those URLs. */
+		private double[] scores;
+
+		/** Index of the next URL to add. */
+		private int next;
+
+		/** Number of URLs taken out by moveBatch. */
+		private int took;
+
+		/** The page of links added by moveBatch. */
+		private final UrlBatch page = new UrlBatch(PAGE_LINKS);
+
+		/** Receives the URLs taken by moveBatch. */
+		private final String[] taken = new String[TAKE_BATCH];
+
+		/**
+		 * Makes the URLs of the iteration: as many as the thread moves,
+		 * none of which any other thread makes.
+		 *
+		 * @param benchmark Tells whether each call moves a page of URLs (moveBatch) or one.
+		 * @param iteration Gives the number of calls.
+		 * @param thread Gives the index of the thread.
+		 */
+		@Setup(Level.Iteration)
+		public void setUp(final BenchmarkParams benchmark, final IterationParams iteration, final ThreadParams thread) {
+			final int perCall = benchmark.getBenchmark().endsWith("moveBatch") ? PAGE_LINKS : 1;
+			final int count = iteration.getBatchSize() * perCall;
+			final Random random = new Random(Fixtures.SEED + 1 + thread.getThreadIndex());
+			urls   = new String[count];
+			scores = new double[count];
+			for (int i = 0; i < count; i++) {
+				urls[i]   = url(random, thread.getThreadIndex(), i);
+				scores[i] = random.nextDouble();
+			}
+			next = 0;
+			took = 0;
+		}
+	}
+
+	/**
+	 * Moves one URL, from one thread.
+	 *
+	 * @param urls The URLs of the thread.
+	 * @return Length of the URL taken, for JMH to consume.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Threads(1)
+	public int move(final Urls urls) throws InterruptedException {
+		return moveOne(urls);
+	}
+
+	/**
+	 * Moves one URL, from 4 threads at once.
+	 *
+	 * @param urls The URLs of the thread.
+	 * @return Length of the URL taken, for JMH to consume.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Threads(4)
+	public int moveContended(final Urls urls) throws InterruptedException {
+		return moveOne(urls);
+	}
+
+	/**
+	 * Moves the PAGE_LINKS URLs of a page, from 4 threads at once.
+	 *
+	 * @param urls The URLs of the thread.
+	 * @return Total length of the URLs taken, for JMH to consume.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	@Benchmark
+	@Threads(4)
+	@Warmup(iterations = 8, batchSize = URLS / PAGE_LINKS)
+	@Measurement(iterations = 10, batchSize = URLS / PAGE_LINKS)
+	public int moveBatch(final Urls urls) throws InterruptedException {
+		final int end = urls.next + PAGE_LINKS;
+		for (; urls.next < end; urls.next++)
+			urls.page.add(urls.urls[urls.next], urls.scores[urls.next], 1);
+		queue.addAll(urls.page);
+
+		// Take as many as were added (give or take a batch: the prefill makes up the difference).
+		int sum = 0;
+		while (urls.took < end) {
+			final int count = queue.take(urls.taken);
+			for (int j = 0; j < count; j++) {
+				queue.done(urls.taken[j]);
+				queue.finished(urls.taken[j]);
+				sum += urls.taken[j].length();
+			}
+			urls.took += count;
+		}
+		return sum;
+	}
+
+	/**
+	 * Helper method. Adds the next URL of the thread, then takes one out and finishes it.
+	 *
+	 * @param urls The URLs of the thread.
+	 * @return Length of the URL taken.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	private int moveOne(final Urls urls) throws InterruptedException {
+		queue.add(urls.urls[urls.next], urls.scores[urls.next], 1);
+		urls.next++;
+
+		final String url = queue.take();
+		queue.done(url);
+		queue.finished(url);
+		return url.length();
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @return A new, empty Frontier of our kind.
+	 */
+	private Frontier newFrontier() {
+		if ("bestfirst".equals(kind))
+			return new BestFirstFrontier();
+		if ("host".equals(kind))
+			return new HostFrontier(HostFrontier.DEFAULT_MAX_PER_HOST, 0);
+		return new MemoryFrontier(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Helper method. Makes a URL no other thread makes.
+	 *
+	 * @param random Picks the host.
+	 * @param thread Index of the thread which adds the URL, or -1 for the prefill.
+	 * @param i Index of the URL among those of the thread.
+	 * @return The URL.
+	 */
+	private static String url(final Random random, final int thread, final int i) {
+		return "http://www" + random.nextInt(HOSTS) + ".example.com/t" + thread + "/page" + i + ".html";
+	}
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.SimHash;
+import queue.NearDuplicateIndex;
+
+/**
+ * Works out the SimHash of the fixtures one after the other, and looks each one up in a
+ * NearDuplicateIndex, as a PageRetriever does before handing a page over when near-duplicates
+ * are skipped. One operation is one page, so the result compares directly with ParseBench.analyze:
+ * the check is only worth it if it costs much less than the parse it may save.
+ *
+ * @author Derv
+ * @version 1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimHashBench {
+
+	/** The pages. */
+	private Fixtures fixtures;
+
+	/** Works out the SimHashes. */
+	private SimHash simHash;
+
+	/** The index of the iteration; it quickly holds every fixture, as in a crawl full of mirrors. */
+	private NearDuplicateIndex index;
+
+	/**
+	 * Reads the fixtures.
+	 *
+	 * @throws IOException If the fixtures cannot be read.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		fixtures = Fixtures.load();
+		if (fixtures.size() != ParseBench.PAGES)
+			throw new IllegalStateException("Expected " + ParseBench.PAGES + " fixtures, found " + fixtures.size());
+		simHash = new SimHash();
+	}
+
+	/** Starts each iteration with an empty index. */
+	@Setup(Level.Iteration)
+	public void setUpIteration() {
+		index = new NearDuplicateIndex();
+	}
+
+	/**
+	 * Checks every fixture.
+	 *
+	 * @return Number of pages which were new, for JMH to consume.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(ParseBench.PAGES)
+	public int simhash() {
+		int sum = 0;
+		for (int i = 0; i < ParseBench.PAGES; i++)
+			sum += check(i);
+		return sum;
+	}
+
+	/**
+	 * Helper method. Works out the SimHash of one page and looks it up.
+	 *
+	 * @param i Index of the page.
+	 * @return 1 if the page was new, 0 if it is a near-duplicate.
+	 */
+	private int check(final int i) {
+		simHash.reset();
+		simHash.feed(fixtures.getBody(i));
+		final long hash = simHash.finish();
+		return (hash != 0 && index.add(hash)) ? 1 : 0;
+	}
+}
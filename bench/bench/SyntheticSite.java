@@ -0,0 +1,541 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A generated web site, served from this JVM on 127.0.0.1, for crawling without the internet.
+ *
+ * The site has a number of pages, "/section0/p0.html" to "/sectionS/p(N-1).html", spread round-robin over
+ * a number of hosts (each host is a port of its own, since the crawler tells hosts apart by port too),
+ * and over SECTIONS directories on each host.
+ * Every page links to the next one, so the whole site can be reached from p0.html,
+ * and to other pages picked at random. Each page is filler text of about the page size,
+ * with the keywords "science", "climate" and "research" here and there.
+ *
+ * Like real sites, the links spell the same URL in several ways ("p7.html", "./p7.html",
+ * "../section1/p7.html", "/section1/%707.html", "//host/section1/p7.html#top", "HTTP://host/...",
+ * "http://host/section1/../section1/p7.html").
+ * The server, like real ones, serves a page under any spelling which resolves to it, and counts
+ * the requests for a page it has already served (duplicates) and for pages that do not exist,
+ * so a load test can tell how many requests were wasted on URLs the crawler got wrong.
+ *
+ * Some of the links may also go to the print view of a page, "/print/section1/p7.html":
+ * the same content as the page, under another URL, with one more line at the end.
+ *
+ * Every response is delayed by the latency of its host; the first slow hosts have a longer one.
+ * The latencies can be changed while the site is served. A host may also have a capacity:
+ * it then serves only that many requests at once, and the others wait their turn, so pushing
+ * more requests at it only makes them slower - as with real servers.
+ * A share of the pages (never p0.html) always fail, with "500 Internal Server Error".
+ *
+ * Everything is worked out from the seed, so the same settings always give the same site.
+ * Set the options, then start() the site; stop() it when done.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class SyntheticSite {
+
+	/** The keywords sprinkled over the filler text. */
+	public static final String[] KEYWORDS = { "science", "climate", "research" };
+
+	/** The words of the filler text. */
+	private static final String[] WORDS = ("the of and to in a is that for it as was with be by on not this are or "
+			+ "from at which but have an they were there been one all we their has would when if will more can "
+			+ "who its said about than up some could into other time only new these two may then first any "
+			+ "people world state work life year government system program question night point").split(" ");
+
+	/** Encoding of the pages. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Largest site whose pages are kept once made, in bytes. */
+	private static final long MAX_KEPT = 64L * 1024 * 1024;
+
+	/** Number of directories the pages of a host are spread over. */
+	private static final int SECTIONS = 8;
+
+	/** Share of the words which are keywords. */
+	private static final double KEYWORD_RATE = 0.02;
+
+	/** Number of pages. */
+	private int pages = 2000;
+
+	/** Number of links on each page. */
+	private int fanout = 10;
+
+	/** Approximate size of each page, in bytes. */
+	private int pageSize = 8 * 1024;
+
+	/** Number of hosts. */
+	private int hosts = 4;
+
+	/** Delay of each response, in milliseconds. */
+	private volatile long latency = 20;
+
+	/** Number of hosts (the first ones) which are slow. */
+	private int slowHosts = 0;
+
+	/** Delay of each response of a slow host, in milliseconds. */
+	private volatile long slowLatency = 200;
+
+	/** Number of requests each host serves at once, or 0 for no limit. */
+	private int capacity = 0;
+
+	/** Share of the pages which fail. */
+	private double errorRate = 0.01;
+
+	/** Seed the site is worked out from. */
+	private long seed = Fixtures.SEED;
+
+	/** Whether links spell the same URL in several ways, or always the same way. */
+	private boolean variedLinks = true;
+
+	/** Share of the links which go to the print view of a page. */
+	private double mirrorRate = 0;
+
+	/** The server of each host, once started. */
+	private HttpServer[] servers;
+
+	/** Runs the handlers; one thread per request in flight, since they sleep. */
+	private ExecutorService executor;
+
+	/** The body of each page, kept once made (if the site is small enough), or null. */
+	private AtomicReferenceArray<byte[]> bodies;
+
+	/** Number of requests answered. */
+	private final AtomicLong requests = new AtomicLong();
+
+	/** Number of requests answered with an error. */
+	private final AtomicLong errors = new AtomicLong();
+
+	/** Number of requests for pages which do not exist. */
+	private final AtomicLong notFound = new AtomicLong();
+
+	/** Number of requests for pages which had been asked for before. */
+	private final AtomicLong duplicates = new AtomicLong();
+
+	/** Number of requests for print views. */
+	private final AtomicLong mirrors = new AtomicLong();
+
+	/** Number of requests for each page (not counting its print view). */
+	private volatile AtomicIntegerArray served;
+
+	static {
+		// Without TCP_NODELAY, the server's small writes wait for the crawler's delayed ACK,
+		// which adds 40 ms to most responses on kept-alive connections.
+		// Read once, when the first HttpServer is made.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	/** Constructor, with the default settings. */
+	public SyntheticSite() { }
+
+	/**
+	 * Starts serving the site.
+	 *
+	 * @throws IOException If a port cannot be opened.
+	 */
+	public void start() throws IOException {
+		served = new AtomicIntegerArray(pages);
+		bodies = ((long) pages * pageSize <= MAX_KEPT) ? new AtomicReferenceArray<byte[]>(pages) : null;
+		executor = Executors.newCachedThreadPool();
+		servers = new HttpServer[hosts];
+		for (int h = 0; h < hosts; h++) {
+			servers[h] = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+			servers[h].createContext("/", new Handler(h < slowHosts));
+			servers[h].setExecutor(executor);
+			servers[h].start();
+		}
+	}
+
+	/** Stops serving the site. */
+	public void stop() {
+		for (HttpServer server : servers)
+			server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/** Forgets the requests so far, before a new crawl. */
+	public void reset() {
+		requests.set(0);
+		errors.set(0);
+		notFound.set(0);
+		duplicates.set(0);
+		mirrors.set(0);
+		served = new AtomicIntegerArray(pages);
+	}
+
+	/**
+	 * @param page Index of a page.
+	 * @return Its URL.
+	 */
+	public String url(final int page) {
+		return authority(page) + path(page);
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param page Index of a page.
+	 * @return The scheme and host of its URL, e.g. "http://127.0.0.1:8080".
+	 */
+	private String authority(final int page) {
+		return "http://127.0.0.1:" + servers[page % hosts].getAddress().getPort();
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param page Index of a page.
+	 * @return The path of its URL, e.g. "/section3/p14.html".
+	 */
+	private String path(final int page) {
+		return "/section" + section(page) + "/p" + page + ".html";
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param page Index of a page.
+	 * @return The directory of the page on its host.
+	 */
+	private int section(final int page) {
+		return (page / hosts) % SECTIONS;
+	}
+
+	/**
+	 * @param page Index of a page.
+	 * @return True if the page always fails.
+	 */
+	public boolean fails(final int page) {
+		return page != 0 && (mix(seed ^ (page * 0x9E3779B97F4A7C15L)) >>> 11) * 0x1.0p-53 < errorRate;
+	}
+
+	/** @return A line describing the site. */
+	public String describe() {
+		return pages + " pages on " + hosts + " host(s) (" + slowHosts + " slow), " + fanout + " links and about "
+				+ pageSize + " bytes each, " + latency + " ms latency (" + slowLatency + " ms on slow hosts), "
+				+ Math.round(errorRate * 1000) / 10.0 + "% errors, " + Math.round(mirrorRate * 1000) / 10.0 
+				+ "% links to print views, " + (variedLinks ? "varied" : "plain")
+				+ " links, " + ((capacity > 0) ? capacity + " requests at once per host" : "no limit per host")
+				+ ", seed " + seed;
+	}
+
+	/**
+	 * Helper method. Makes the body of a page. Making one costs about as much CPU as parsing it,
+	 * so pages are kept for the next crawls, unless the site is larger than MAX_KEPT.
+	 *
+	 * @param page Index of the page.
+	 * @return The HTML, in UTF-8.
+	 */
+	private byte[] body(final int page) {
+		byte[] body = (bodies != null) ? bodies.get(page) : null;
+		if (body != null)
+			return body;
+
+		final Random random = new Random(seed * 31 + page);
+		final StringBuilder sb = new StringBuilder(pageSize + 256);
+		sb.append("<!DOCTYPE html>\n<html><head><title>Page ").append(page).append("</title></head>\n<body>\n");
+		sb.append("<h1>Page ").append(page).append("</h1>\n<p>");
+
+		// Spread the links evenly over the text.
+		final int every = Math.max(1, pageSize / (fanout + 1));
+		int links = 0;
+		int nextLink = every;
+		while (sb.length() < pageSize || links < fanout) {
+			if (links < fanout && sb.length() >= nextLink) {
+				final int target = (links == 0) ? (page + 1) % pages : random.nextInt(pages);
+				final boolean print = links > 0 && mirrorRate > 0 && random.nextDouble() < mirrorRate;
+				sb.append("<a href=\"").append(print ? printHref(page, target) : href(page, target, random)).append("\">");
+				word(sb, random);
+				sb.append("</a> ");
+				links++;
+				nextLink += every;
+			}
+			word(sb, random);
+			sb.append((random.nextInt(12) == 0) ? ".</p>\n<p>" : " ");
+		}
+		sb.append("</p>\n</body></html>\n");
+
+		body = sb.toString().getBytes(UTF8);
+		if (bodies != null)
+			bodies.set(page, body);
+		return body;
+	}
+
+	/**
+	 * Helper method. Makes the body of the print view of a page: the page, with one more line.
+	 *
+	 * @param page Index of the page.
+	 * @return The HTML, in UTF-8.
+	 */
+	private byte[] printBody(final int page) {
+		final byte[] body = body(page);
+		final byte[] trailer = ("<p>Printer-friendly version of page " + page + ".</p>\n").getBytes(UTF8);
+		final byte[] print = Arrays.copyOf(body, body.length + trailer.length);
+		System.arraycopy(trailer, 0, print, body.length, trailer.length);
+		return print;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param from Index of the page the link is on.
+	 * @param to Index of the page whose print view the link goes to.
+	 * @return The link: relative to the host if both pages are on the same host, otherwise absolute.
+	 */
+	private String printHref(final int from, final int to) {
+		return ((from % hosts == to % hosts) ? "" : authority(to)) + "/print" + path(to);
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param from Index of the page the link is on.
+	 * @param to Index of the page the link goes to.
+	 * @param random Picks the spelling, if links are varied.
+	 * @return The link: relative to the directory if both pages are in the same one,
+	 * 			relative to the host if both are on the same host, otherwise absolute.
+	 */
+	private String href(final int from, final int to, final Random random) {
+		final int spelling = variedLinks ? random.nextInt(4) : 0;
+		final String file = "p" + to + ".html";
+		if (from % hosts != to % hosts) {
+			final String host = authority(to).substring("http:".length());
+			switch (spelling) {
+				case 1:  return "HTTP:" + host + path(to);
+				case 2:  return host + path(to) + "#top";
+				case 3:  return authority(to) + "/section" + section(to) + "/.." + path(to);
+				default: return url(to);
+			}
+		}
+		if (section(from) != section(to)) {
+			final String dir = "/section" + section(to) + "/";
+			switch (spelling) {
+				case 1:  return dir + file;
+				case 2:  return dir + "./" + file;
+				case 3:  return dir + "%70" + to + ".html";
+				default: return ".." + dir + file;
+			}
+		}
+		switch (spelling) {
+			case 1:  return "./" + file;
+			case 2:  return file + "#top";
+			case 3:  return "./" + file + "#top";
+			default: return file;
+		}
+	}
+
+	/**
+	 * Helper method. Adds a word of filler text.
+	 *
+	 * @param sb Where to add it.
+	 * @param random Picks the word.
+	 */
+	private static void word(final StringBuilder sb, final Random random) {
+		if (random.nextDouble() < KEYWORD_RATE)
+			sb.append(KEYWORDS[random.nextInt(KEYWORDS.length)]);
+		else
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+	}
+
+	/**
+	 * Helper method. Scrambles the bits of a number (the finalizer of SplitMix64).
+	 *
+	 * @param z The number.
+	 * @return The scrambled number.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Answers the requests of one host. */
+	private class Handler implements HttpHandler {
+
+		/** Whether the host is slow. */
+		private final boolean slow;
+
+		/** Lets capacity requests be served at once, or null for no limit. */
+		private final Semaphore serving = (capacity > 0) ? new Semaphore(capacity, true) : null;
+
+		/** @param slow Whether the host is slow. */
+		Handler(final boolean slow) {
+			this.slow = slow;
+		}
+
+		/** {@inheritDoc} */
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				// Wait for our turn, if the host is busy, then take the host's latency to answer.
+				if (serving != null)
+					serving.acquire();
+				try {
+					final long delay = slow ? slowLatency : latency;
+					if (delay > 0)
+						Thread.sleep(delay);
+				} finally {
+					if (serving != null)
+						serving.release();
+				}
+			} catch (final InterruptedException ie) {
+				exchange.close();
+				return;
+			}
+			requests.incrementAndGet();
+
+			// Serve any spelling of the path which resolves to a page, as real servers do.
+			String path = exchange.getRequestURI().normalize().getPath();
+			final boolean print = path.startsWith("/print/");
+			if (print) {
+				mirrors.incrementAndGet();
+				path = path.substring("/print".length());
+			}
+			final int page = pageOf(path);
+			if (page >= 0 && !print && served.getAndIncrement(page) > 0)
+				duplicates.incrementAndGet();
+			final int status;
+			final byte[] body;
+			if (page < 0) {
+				notFound.incrementAndGet();
+				status = 404;
+				body = "<html><body>Not Found</body></html>".getBytes(UTF8);
+			} else if (fails(page)) {
+				status = 500;
+				body = "<html><body>Internal Server Error</body></html>".getBytes(UTF8);
+			} else {
+				status = 200;
+				body = print ? printBody(page) : body(page);
+			}
+			if (status != 200)
+				errors.incrementAndGet();
+
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(status, body.length);
+			final OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+
+		/**
+		 * Helper method.
+		 *
+		 * @param path Path of a request, such as "/section3/p12.html".
+		 * @return Index of the page, or -1 if there is no such page.
+		 */
+		private int pageOf(final String path) {
+			final int slash = path.lastIndexOf('/');
+			if (!path.startsWith("p", slash + 1) || !path.endsWith(".html"))
+				return -1;
+			try {
+				final int page = Integer.parseInt(path.substring(slash + 2, path.length() - 5));
+				return (page >= 0 && page < pages && path.equals(path(page))) ? page : -1;
+			} catch (final NumberFormatException nfe) {
+				return -1;
+			}
+		}
+	}
+
+
+	// Accessors
+
+	/** @return Number of pages. */
+	public int getPages()          { return pages; }
+
+	/** @return Number of requests answered so far. */
+	public long getRequests()      { return requests.get(); }
+
+	/** @return Number of requests answered with an error so far. */
+	public long getErrors()        { return errors.get(); }
+
+	/** @return Number of requests for pages which do not exist so far. */
+	public long getNotFound()      { return notFound.get(); }
+
+	/** @return Number of requests for pages which had been asked for before, so far. */
+	public long getDuplicates()    { return duplicates.get(); }
+
+	/** @return Number of requests for print views so far. */
+	public long getMirrors()       { return mirrors.get(); }
+
+
+	/** @return Delay of each response, in milliseconds. */
+	public long getLatency()       { return latency; }
+
+
+	// Mutators (before start(), except for the latencies)
+
+	/** @param pages Number of pages. */
+	public void setPages(final int pages)            { this.pages = requirePositive(pages, "pages"); }
+
+	/** @param fanout Number of links on each page. */
+	public void setFanout(final int fanout)          { this.fanout = requirePositive(fanout, "fanout"); }
+
+	/** @param size Approximate size of each page, in bytes. */
+	public void setPageSize(final int size)          { this.pageSize = requirePositive(size, "pageSize"); }
+
+	/** @param hosts Number of hosts. */
+	public void setHosts(final int hosts)            { this.hosts = requirePositive(hosts, "hosts"); }
+
+	/** @param latency Delay of each response, in milliseconds. May be changed while the site is served. */
+	public void setLatency(final long latency)       { this.latency = Math.max(0, latency); }
+
+	/** @param hosts Number of hosts (the first ones) which are slow. */
+	public void setSlowHosts(final int hosts)        { this.slowHosts = Math.max(0, hosts); }
+
+	/** @param latency Delay of each response of a slow host, in milliseconds. May be changed while the site is served. */
+	public void setSlowLatency(final long latency)   { this.slowLatency = Math.max(0, latency); }
+
+	/** @param capacity Number of requests each host serves at once (the others wait), or 0 (the default) for no limit. */
+	public void setCapacity(final int capacity)      { this.capacity = Math.max(0, capacity); }
+
+	/** @param rate Share of the pages which fail, from 0 to 1. */
+	public void setErrorRate(final double rate) {
+		if (rate < 0 || rate > 1)
+			throw new IllegalArgumentException("errorRate must be from 0 to 1: " + rate);
+		this.errorRate = rate;
+	}
+
+	/** @param seed Seed the site is worked out from. */
+	public void setSeed(final long seed)             { this.seed = seed; }
+
+	/** @param rate Share of the links which go to the print view of a page, from 0 (the default) to 1. */
+	public void setMirrorRate(final double rate) {
+		if (rate < 0 || rate > 1)
+			throw new IllegalArgumentException("mirrorRate must be from 0 to 1: " + rate);
+		this.mirrorRate = rate;
+	}
+
+	/** @param varied True (the default) to spell the same URL in several ways, False to spell each kind of link one way. */
+	public void setVariedLinks(final boolean varied) { this.variedLinks = varied; }
+
+	/**
+	 * Helper method. Rejects values less than 1.
+	 *
+	 * @param value The value to check.
+	 * @param name Name of the option, used in the error message.
+	 * @return The value, if it is valid.
+	 * @throws IllegalArgumentException If the value is less than 1.
+	 */
+	private static int requirePositive(final int value, final String name) {
+		if (value < 1)
+			throw new IllegalArgumentException(name + " must be greater than 0: " + value);
+		return value;
+	}
+}
@@ -1,6 +1,9 @@
 import java.util.Scanner;
 
+import model.AutoScaler;
+import model.SpiderConfig;
 import model.SpiderModel;
+import parse.UrlResolver;
 
 /**
  * Main thread which starts off the Spider program.
@@ -42,8 +45,16 @@ public class SpiderMain {
 		
 		p("    Web spider\n\n");
 		p("  Scours a given website for words.\n\n");
-		p("Enter seed URL: ");
-		final String seedUrl = console.nextLine();
+		String seedUrl = null;
+		do {
+			p("Enter seed URL: ");
+			String input = console.nextLine().trim();
+			// Most people leave out the scheme, as in "example.com".
+			if (!input.contains("://"))
+				input = "http://" + input;
+			if (UrlResolver.canonical(input) != null)
+				seedUrl = input;
+		} while (seedUrl == null);
 		
 		p("Enter keywords separated by spaces: ");
 		final String[] keywords = console.nextLine().split(" ");
@@ -59,16 +70,37 @@ public class SpiderMain {
 		
 		int threadNum = -1;
 		do {
-			p("Enter number of threads to use (greater than 0): ");
+			p("Enter number of threads to use (greater than 0, or 0 to adjust them as the crawl goes): ");
 			final String input = console.nextLine();
 			try {
 				threadNum = Integer.parseInt(input);
 			} catch (NumberFormatException nfe) { }
-		} while (threadNum < 1);
+		} while (threadNum < 0);
+		
+		final SpiderConfig config = new SpiderConfig();
+		if (threadNum == 0) {
+			// Start from the defaults; the AutoScaler finds the numbers of threads the site can take.
+			config.setAutoScaler(new AutoScaler());
+			sm.execute(pageLimit, seedUrl, keywords, config);
+			return;
+		}
 		
+		// Parsing is CPU-bound, so by default we use one parser per core.
+		int parserNum = -1;
+		do {
+			p("Enter number of parser threads to use (blank for " 
+					+ SpiderConfig.DEFAULT_PARSER_THREADS + "): ");
+			final String input = console.nextLine().trim();
+			try {
+				parserNum = "".equals(input) ? SpiderConfig.DEFAULT_PARSER_THREADS 
+											 : Integer.parseInt(input);
+			} catch (NumberFormatException nfe) { }
+		} while (parserNum < 1);
 		
+		config.setRetrieverThreads(threadNum);
+		config.setParserThreads(parserNum);
 		
-		sm.execute(pageLimit, seedUrl, keywords, threadNum);
+		sm.execute(pageLimit, seedUrl, keywords, config);
 		
 		
 	}
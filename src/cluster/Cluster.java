@@ -0,0 +1,700 @@
+package cluster;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import data.DataGatherer;
+import data.StatsSnapshot;
+import queue.PageToRetrieve;
+import queue.UrlBatch;
+import queue.UrlRouter;
+import queue.WorkTracker;
+
+/**
+ * Runs one crawl on several nodes (JVMs, on one machine or more), each with its own
+ * PageToRetrieve, visited set, PageRetrievers, PageParsers and DataGatherer.
+ * The hosts are shared out between the nodes by a HostRing; a link found by one node
+ * whose host belongs to another is forwarded to that node (in batches, see Peer) rather than queued.
+ * 
+ * Each node connects to every other one, and listens on its own port for their links.
+ * Node 0 is the coordinator: it asks every node for its status every POLL_MILLIS, and stops
+ * the crawl on every node once the pages parsed by all of them reach the page limit, or once
+ * the whole cluster has run out of work. A node which is idle may still be sent links, so
+ * the cluster has run out of work only when every node is idle and every link each node sent
+ * to another has been received by it, twice in a row with the same totals (a node idle in one round
+ * may have been woken up by a link received after it answered; the second round catches that).
+ * At the end each node sends its statistics to the coordinator, which adds them up.
+ * 
+ * A node the coordinator cannot reach, or which does not answer within REPLY_TIMEOUT_MILLIS,
+ * is lost: the coordinator carries on with the others, leaving it out of the status and the totals.
+ * The other nodes crawl its hosts themselves once their connection to it fails (see Peer).
+ * The URLs it had queued, and the links it had received, are lost with it.
+ * 
+ * Messages, each a type byte and its fields, as written by DataOutputStream:
+ * <pre>
+ * (greeting)      int MAGIC, int VERSION, int node    - first, on every connection
+ * LINKS           int count, count * (UTF url, double score, int depth)
+ * STATUS_REQUEST  int round                           - coordinator to node
+ * STATUS          int round, boolean idle, int pages, n * long sent to node i, n * long received from node i
+ * STOP                                                - coordinator to node
+ * STATS           a StatsSnapshot                     - node to coordinator
+ * </pre>
+ * The protocol trusts its nodes: it is meant for a private network.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class Cluster implements UrlRouter {
+	
+	/** Time between the coordinator's questions to the nodes, in milliseconds. */
+	public static final long POLL_MILLIS = 200;
+	
+	/** Longest time the coordinator waits for the nodes' answers, or statistics, in milliseconds. */
+	public static final long REPLY_TIMEOUT_MILLIS = 30 * 1000;
+	
+	/** First int of every connection: "SPDC". */
+	static final int MAGIC = 0x53504443;
+	
+	/** Version of the protocol. */
+	static final int VERSION = 2;
+	
+	/** Type of a batch of links. */
+	static final int LINKS = 1;
+	
+	/** Type of a question for a node's status. */
+	static final int STATUS_REQUEST = 2;
+	
+	/** Type of a node's status. */
+	static final int STATUS = 3;
+	
+	/** Type of the message which ends the crawl. */
+	static final int STOP = 4;
+	
+	/** Type of a node's final statistics. */
+	static final int STATS = 5;
+	
+	/** Size of the buffer of each connection. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/** Index of this node. */
+	private final int self;
+	
+	/** Addresses of all the nodes, by index. */
+	private final List<InetSocketAddress> nodes;
+	
+	/** Which node crawls which host. */
+	private final HostRing ring;
+	
+	/** Connections to the other nodes, by index (null for this node). */
+	private final Peer[] peers;
+	
+	/** Connections from the other nodes. */
+	private final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+	
+	/** Number of links received from each node (and queued here, unless seen before). */
+	private final AtomicLongArray received;
+	
+	/** Released when the crawl is over on every node. */
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	
+	/** Latest status of each node (coordinator only): the round it answered. Guarded by this, as are the other status arrays. */
+	private final int[] statusRound;
+	
+	/** Whether each node was idle. */
+	private final boolean[] statusIdle;
+	
+	/** Number of links each node had sent to each node. */
+	private final long[][] statusSent;
+	
+	/** Number of links each node had received from each node. */
+	private final long[][] statusReceived;
+	
+	/** Number of pages each node had parsed. */
+	private final int[] statusPages;
+	
+	/** Whether each node is lost (coordinator only). Guarded by this. */
+	private final boolean[] lost;
+	
+	/** Final statistics of each node (coordinator only). Guarded by this. */
+	private final StatsSnapshot[] stats;
+	
+	/** The queue the links received are added to. */
+	private PageToRetrieve urlQueue;
+	
+	/** The crawl's WorkTracker. */
+	private WorkTracker tracker;
+	
+	/** The crawl's DataGatherer. */
+	private DataGatherer dataGatherer;
+	
+	/** Maximum number of pages, for the whole cluster. */
+	private int pageLimit;
+	
+	/** Listens for the other nodes. */
+	private ServerSocket server;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param self Index of this node.
+	 * @param nodes Addresses of all the nodes, in the same order on every node; node 0 is the coordinator.
+	 * @throws IllegalArgumentException If self is not the index of a node.
+	 */
+	public Cluster(final int self, final List<InetSocketAddress> nodes) {
+		if (self < 0 || self >= nodes.size())
+			throw new IllegalArgumentException("Node " + self + " is not one of the " + nodes.size() + " nodes");
+		this.self = self;
+		this.nodes = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(nodes));
+		final int size = nodes.size();
+		ring = new HostRing(size);
+		peers = new Peer[size];
+		for (int i = 0; i < size; i++) {
+			if (i != self)
+				peers[i] = new Peer(self, i, nodes.get(i), this);
+		}
+		received = new AtomicLongArray(size);
+		statusRound = new int[size];
+		statusIdle = new boolean[size];
+		statusSent = new long[size][size];
+		statusReceived = new long[size][size];
+		statusPages = new int[size];
+		lost = new boolean[size];
+		stats = new StatsSnapshot[size];
+	}
+	
+	/**
+	 * Helper method. Parses a list of node addresses.
+	 * 
+	 * @param list Addresses as "host:port", separated by commas.
+	 * @return The addresses, in the same order.
+	 * @throws IllegalArgumentException If an address has no port.
+	 */
+	public static List<InetSocketAddress> parseNodes(final String list) {
+		final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (String node : list.split(",")) {
+			node = node.trim();
+			final int colon = node.lastIndexOf(':');
+			if (colon <= 0)
+				throw new IllegalArgumentException("Not host:port: " + node);
+			addresses.add(new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+		}
+		return addresses;
+	}
+	
+	/**
+	 * Joins the cluster: listens for the other nodes, connects to them (in the background),
+	 * and, on the coordinator, starts watching for the end of the crawl.
+	 * Call before the seed is added, with the queue already routing its links through this Cluster.
+	 * 
+	 * @param urlQueue The queue the links from the other nodes are added to.
+	 * @param tracker The crawl's WorkTracker; kept open until the whole cluster is done.
+	 * @param dataGatherer The crawl's DataGatherer.
+	 * @param pageLimit Maximum number of pages, for the whole cluster.
+	 * @throws IOException If this node's port cannot be listened on.
+	 * @throws IllegalStateException If the cluster has been started before.
+	 */
+	public synchronized void start(final PageToRetrieve urlQueue, final WorkTracker tracker,
+			final DataGatherer dataGatherer, final int pageLimit) throws IOException {
+		if (server != null)
+			throw new IllegalStateException("The cluster has been started already");
+		this.urlQueue = urlQueue;
+		this.tracker = tracker;
+		this.dataGatherer = dataGatherer;
+		this.pageLimit = pageLimit;
+		
+		server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(nodes.get(self).getPort()));
+		
+		// Links may come from the other nodes after this one runs dry: the crawl ends on STOP only.
+		tracker.begin();
+		
+		daemon(new Acceptor(), "Cluster-Acceptor").start();
+		for (Peer peer : peers) {
+			if (peer != null)
+				peer.start();
+		}
+		if (isCoordinator())
+			daemon(new Coordinator(), "Cluster-Coordinator").start();
+	}
+	
+	/**
+	 * Sends a URL to the node which crawls its host, if that is not this node.
+	 * 
+	 * @param url The URL.
+	 * @param score Its score.
+	 * @param depth Its depth.
+	 * @return True if the URL was sent to another node.
+	 */
+	public boolean forward(final String url, final double score, final int depth) {
+		final int owner = ring.ownerOf(url);
+		return owner != self && peers[owner].forward(url, score, depth);
+	}
+	
+	/**
+	 * Waits until the crawl is over on every node.
+	 * 
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public void await() throws InterruptedException {
+		stopped.await();
+	}
+	
+	/**
+	 * Leaves the cluster, once the crawl is over: a node sends its statistics to the coordinator,
+	 * and the coordinator adds up the statistics of every node.
+	 * 
+	 * @param local The final statistics of this node.
+	 * @return On the coordinator, the statistics of the whole cluster (without the nodes which
+	 * 			were lost, or did not send theirs in time); on the other nodes, null.
+	 */
+	public StatsSnapshot finish(final StatsSnapshot local) {
+		try {
+			if (!isCoordinator()) {
+				peers[0].sendStats(local);
+				return null;
+			}
+			synchronized (this) {
+				stats[self] = local;
+				final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REPLY_TIMEOUT_MILLIS);
+				long wait;
+				while (missingStats() >= 0 && (wait = deadline - System.nanoTime()) > 0)
+					TimeUnit.NANOSECONDS.timedWait(this, wait);
+				StatsSnapshot total = local;
+				for (int i = 0; i < stats.length; i++) {
+					if (stats[i] == null)
+						System.err.println("Cluster: no statistics from node " + i);
+					else if (i != self)
+						total = total.plus(stats[i]);
+				}
+				return total;
+			}
+		} catch (final IOException ioe) {
+			System.err.println("Cluster: cannot send the statistics to the coordinator: " + ioe.getMessage());
+			return null;
+		} catch (final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			close();
+		}
+	}
+	
+	
+	// Accessors
+	
+	/** @return Index of this node. */
+	public int getSelf()            { return self; }
+	
+	/** @return Number of nodes. */
+	public int getSize()            { return nodes.size(); }
+	
+	/** @return Whether this node is the coordinator. */
+	public boolean isCoordinator()  { return self == 0; }
+	
+	/** @return Number of links sent to the other nodes so far. */
+	public long getForwarded() {
+		long sum = 0;
+		for (Peer peer : peers) {
+			if (peer != null)
+				sum += peer.getSent();
+		}
+		return sum;
+	}
+	
+	/** @return Number of links received from the other nodes so far. */
+	public long getReceived() {
+		long sum = 0;
+		for (int i = 0; i < received.length(); i++)
+			sum += received.get(i);
+		return sum;
+	}
+	
+	/**
+	 * Queues a link forwarded to another node which could not be sent after all (its connection failed),
+	 * so it is crawled here; it is in the visited set already. Called by the Peers.
+	 * 
+	 * @param url The URL.
+	 * @param score Its score.
+	 * @param depth Its depth.
+	 */
+	void keep(final String url, final double score, final int depth) {
+		urlQueue.requeue(url, score, depth);
+	}
+	
+	
+	/**
+	 * Helper method.
+	 * 
+	 * @return Whether this node has nothing to do: nothing in the pipeline but the unit held
+	 * 			open by start(), and no links waiting to be sent.
+	 */
+	private boolean isIdle() {
+		if (tracker.inFlight() > 1)
+			return false;
+		for (Peer peer : peers) {
+			if (peer != null && !peer.isIdle())
+				return false;
+		}
+		return true;
+	}
+	
+	/** Helper method. Ends the crawl on this node, and releases await(). */
+	private void stop() {
+		tracker.finish();
+		stopped.countDown();
+	}
+	
+	/** Helper method. Closes every connection. */
+	private void close() {
+		for (Peer peer : peers) {
+			if (peer != null)
+				peer.close();
+		}
+		try {
+			if (server != null)
+				server.close();
+			for (Socket socket : accepted)
+				socket.close();
+		} catch (final IOException ioe) {
+			// Closing anyway.
+		}
+	}
+	
+	/**
+	 * Helper method.
+	 * 
+	 * @return Number of links this node has sent to each node.
+	 */
+	private long[] sentTo() {
+		final long[] sent = new long[peers.length];
+		for (int i = 0; i < peers.length; i++) {
+			if (peers[i] != null)
+				sent[i] = peers[i].getSent();
+		}
+		return sent;
+	}
+	
+	/**
+	 * Helper method.
+	 * 
+	 * @return Number of links this node has received from each node.
+	 */
+	private long[] receivedFrom() {
+		final long[] from = new long[received.length()];
+		for (int i = 0; i < from.length; i++)
+			from[i] = received.get(i);
+		return from;
+	}
+	
+	/**
+	 * Helper method. Records a node's status (coordinator only).
+	 * 
+	 * @param node Index of the node.
+	 * @param round Round of questions.
+	 * @param idle Whether the node was idle.
+	 * @param pages Number of pages it had parsed.
+	 * @param sentTo Number of links it had sent to each node.
+	 * @param receivedFrom Number of links it had received from each node.
+	 */
+	private synchronized void status(final int node, final int round, final boolean idle, final int pages,
+			final long[] sentTo, final long[] receivedFrom) {
+		statusRound[node] = round;
+		statusIdle[node] = idle;
+		statusPages[node] = pages;
+		statusSent[node] = sentTo;
+		statusReceived[node] = receivedFrom;
+		notifyAll();
+	}
+	
+	/**
+	 * Helper method. Leaves a node out of the rest of the crawl (coordinator only). Must hold the lock.
+	 * 
+	 * @param node Index of the node.
+	 * @param why What went wrong.
+	 */
+	private void lose(final int node, final String why) {
+		if (lost[node])
+			return;
+		lost[node] = true;
+		System.err.println("Cluster: lost node " + node + " (" + why + "); carrying on without it.");
+	}
+	
+	/**
+	 * Helper method. Must hold the lock.
+	 * 
+	 * @return Index of the first node, not lost, whose statistics have not come yet, or -1 if none is missing.
+	 */
+	private int missingStats() {
+		for (int i = 0; i < stats.length; i++) {
+			if (stats[i] == null && !lost[i])
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Helper method.
+	 * 
+	 * @param runnable What the thread runs.
+	 * @param name Name of the thread.
+	 * @return A daemon thread, not started.
+	 */
+	private static Thread daemon(final Runnable runnable, final String name) {
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	
+	/** Accepts the connections from the other nodes, each read by a Receiver thread. */
+	private class Acceptor implements Runnable {
+		
+		/** Accepts connections until the server socket is closed. */
+		public void run() {
+			while (true) {
+				final Socket socket;
+				try {
+					socket = server.accept();
+					socket.setTcpNoDelay(true);
+				} catch (final IOException ioe) {
+					return;
+				}
+				accepted.add(socket);
+				daemon(new Receiver(socket), "Cluster-Receiver").start();
+			}
+		}
+	}
+	
+	
+	/** Reads the messages from another node. */
+	private class Receiver implements Runnable {
+		
+		/** The connection. */
+		private final Socket socket;
+		
+		/** Index of the other node, once it has said. */
+		private int from = -1;
+		
+		/** The links of the current message, added to the queue in one go. */
+		private final UrlBatch batch = new UrlBatch(Peer.BATCH_SIZE);
+		
+		/**
+		 * Constructor.
+		 * 
+		 * @param socket The connection.
+		 */
+		Receiver(final Socket socket) {
+			this.socket = socket;
+		}
+		
+		/** Reads messages until the connection is closed. */
+		public void run() {
+			try {
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					throw new IOException("not a node of this cluster, or another version");
+				from = in.readInt();
+				if (from < 0 || from >= nodes.size() || from == self)
+					throw new IOException("unknown node " + from);
+				
+				int type;
+				while ((type = in.read()) >= 0) {
+					switch (type) {
+					case LINKS:
+						links(in);
+						break;
+					case STATUS_REQUEST:
+						final int round = in.readInt();
+						peers[from].sendStatus(round, isIdle(), dataGatherer.snapshot().getPagesTotal(),
+								sentTo(), receivedFrom());
+						break;
+					case STATUS:
+						status(in);
+						break;
+					case STOP:
+						stop();
+						break;
+					case STATS:
+						final StatsSnapshot snapshot = StatsSnapshot.readFrom(in);
+						synchronized (Cluster.this) {
+							stats[from] = snapshot;
+							Cluster.this.notifyAll();
+						}
+						break;
+					default:
+						throw new IOException("unknown message " + type);
+					}
+				}
+			} catch (final IOException ioe) {
+				if (stopped.getCount() != 0)
+					System.err.println("Cluster: connection from node " + from + " failed: " + ioe.getMessage());
+			} finally {
+				try {
+					socket.close();
+				} catch (final IOException ioe) {
+					// Closing anyway.
+				}
+				accepted.remove(socket);
+				// The coordinator need not wait for the answers of a node which is gone.
+				if (isCoordinator() && from >= 0 && stopped.getCount() != 0) {
+					synchronized (Cluster.this) {
+						if (stats[from] == null) {
+							lose(from, "its connection closed");
+							Cluster.this.notifyAll();
+						}
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Helper method. Reads a batch of links, and queues them here, in one go.
+		 * They are counted as received only once queued, so that until then the
+		 * coordinator sees more links forwarded than received, and does not stop.
+		 * 
+		 * @param in The connection.
+		 * @throws IOException If reading fails.
+		 */
+		private void links(final DataInputStream in) throws IOException {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String url = in.readUTF();
+				final double score = in.readDouble();
+				final int depth = in.readInt();
+				batch.add(url, score, depth);
+			}
+			urlQueue.addAll(batch);
+			received.addAndGet(from, count);
+		}
+		
+		/**
+		 * Helper method. Reads the status of the other node, and records it.
+		 * 
+		 * @param in The connection.
+		 * @throws IOException If reading fails.
+		 */
+		private void status(final DataInputStream in) throws IOException {
+			final int round = in.readInt();
+			final boolean idle = in.readBoolean();
+			final int pages = in.readInt();
+			final long[] sentTo = new long[nodes.size()];
+			for (int i = 0; i < sentTo.length; i++)
+				sentTo[i] = in.readLong();
+			final long[] receivedFrom = new long[nodes.size()];
+			for (int i = 0; i < receivedFrom.length; i++)
+				receivedFrom[i] = in.readLong();
+			Cluster.this.status(from, round, idle, pages, sentTo, receivedFrom);
+		}
+	}
+	
+	
+	/** Asks the nodes for their status, on the coordinator, and stops the crawl when it is over. */
+	private class Coordinator implements Runnable {
+		
+		/** Polls the nodes until the crawl is over. */
+		public void run() {
+			try {
+				for (int i = 0; i < peers.length; i++) {
+					try {
+						if (peers[i] != null)
+							peers[i].awaitConnected();
+					} catch (final IOException ioe) {
+						synchronized (Cluster.this) {
+							lose(i, ioe.getMessage());
+						}
+					}
+				}
+				
+				boolean lastQuiet = false;
+				long lastSent = -1;
+				for (int round = 1; stopped.getCount() != 0; round++) {
+					Thread.sleep(POLL_MILLIS);
+					status(self, round, isIdle(), dataGatherer.snapshot().getPagesTotal(), sentTo(), receivedFrom());
+					for (int i = 0; i < peers.length; i++) {
+						try {
+							if (peers[i] != null && !isLost(i))
+								peers[i].sendStatusRequest(round);
+						} catch (final IOException ioe) {
+							synchronized (Cluster.this) {
+								lose(i, ioe.getMessage());
+							}
+						}
+					}
+					
+					boolean idle = true;
+					boolean balanced = true;
+					long sent = 0;
+					int pages = 0;
+					synchronized (Cluster.this) {
+						final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REPLY_TIMEOUT_MILLIS);
+						for (int i = 0; i < statusRound.length; i++) {
+							long wait;
+							while (!lost[i] && statusRound[i] != round) {
+								if ((wait = deadline - System.nanoTime()) <= 0)
+									lose(i, "did not answer");
+								else
+									TimeUnit.NANOSECONDS.timedWait(Cluster.this, wait);
+							}
+						}
+						// Only the links between nodes which are still there count: the others are lost anyway.
+						for (int i = 0; i < statusRound.length; i++) {
+							if (lost[i])
+								continue;
+							idle &= statusIdle[i];
+							pages += statusPages[i];
+							for (int j = 0; j < statusRound.length; j++) {
+								if (j != i && !lost[j]) {
+									balanced &= statusSent[i][j] == statusReceived[j][i];
+									sent += statusSent[i][j];
+								}
+							}
+						}
+					}
+					
+					if (pages >= pageLimit)
+						break;
+					final boolean quiet = idle && balanced;
+					if (quiet && lastQuiet && sent == lastSent)
+						break;
+					lastQuiet = quiet;
+					lastSent = sent;
+				}
+			} catch (final InterruptedException ie) {
+				return;
+			}
+			for (int i = 0; i < peers.length; i++) {
+				try {
+					if (peers[i] != null && !isLost(i))
+						peers[i].sendStop();
+				} catch (final IOException ioe) {
+					System.err.println("Cluster: cannot stop the crawl on node " + i + ": " + ioe.getMessage());
+				}
+			}
+			stop();
+		}
+		
+		/**
+		 * Helper method.
+		 * 
+		 * @param node Index of a node.
+		 * @return Whether the node is lost.
+		 */
+		private boolean isLost(final int node) {
+			synchronized (Cluster.this) {
+				return lost[node];
+			}
+		}
+	}
+}
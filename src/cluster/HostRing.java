@@ -0,0 +1,79 @@
+package cluster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import queue.Fingerprint;
+import queue.HostFrontier;
+
+/**
+ * Shares the hosts out between the nodes of a cluster, by consistent hashing: each node owns
+ * POINTS_PER_NODE points on a ring of 64-bit hashes, and a host belongs to the node owning the first
+ * point at or after the host's hash. Every node works out the same owner for a host without talking
+ * to the others, the hosts are spread evenly, and adding a node only moves the hosts it takes over.
+ * 
+ * All the URLs of a host go to the same node, so each host is crawled (and kept polite) by one node only.
+ * 
+ * Immutable, so thread-safe.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class HostRing {
+	
+	/** Number of points each node owns on the ring; more points spread the hosts more evenly. */
+	public static final int POINTS_PER_NODE = 128;
+	
+	/** Number of nodes. */
+	private final int nodes;
+	
+	/** The points, in order. */
+	private final long[] points;
+	
+	/** The node owning each point. */
+	private final int[] owners;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param nodes Number of nodes.
+	 * @throws IllegalArgumentException If there is not at least one node.
+	 */
+	public HostRing(final int nodes) {
+		if (nodes < 1)
+			throw new IllegalArgumentException("A cluster needs at least one node: " + nodes);
+		this.nodes = nodes;
+		
+		final Map<Long, Integer> ownerOf = new HashMap<Long, Integer>();
+		for (int node = 0; node < nodes; node++) {
+			for (int p = 0; p < POINTS_PER_NODE; p++)
+				ownerOf.put(Fingerprint.of("node-" + node + "-" + p), node);
+		}
+		points = new long[ownerOf.size()];
+		int i = 0;
+		for (long point : ownerOf.keySet())
+			points[i++] = point;
+		Arrays.sort(points);
+		owners = new int[points.length];
+		for (i = 0; i < points.length; i++)
+			owners[i] = ownerOf.get(points[i]);
+	}
+	
+	/**
+	 * @param url A URL.
+	 * @return Index of the node which crawls its host.
+	 */
+	public int ownerOf(final String url) {
+		if (nodes == 1)
+			return 0;
+		final long hash = Fingerprint.of(HostFrontier.hostOf(url));
+		int i = Arrays.binarySearch(points, hash);
+		if (i < 0)
+			i = -i - 1;
+		return owners[(i == points.length) ? 0 : i];
+	}
+	
+	/** @return Number of nodes. */
+	public int size() { return nodes; }
+}
@@ -0,0 +1,429 @@
+package cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import data.StatsSnapshot;
+
+/**
+ * The connection from this node to another node of the cluster, over which everything
+ * for that node is sent (see Cluster for the messages).
+ * 
+ * The links for the other node are batched: a batch is written once it holds BATCH_SIZE links,
+ * or FLUSH_MILLIS after its first link, by the Peer's own thread - never by the PageParser
+ * which found the link, so a slow network never holds up the parsing.
+ * 
+ * The connection is opened by the Peer's thread, which keeps trying until the other node is up
+ * (for up to CONNECT_TIMEOUT_MILLIS). Meanwhile (or if the network is slow) at most MAX_PENDING links
+ * wait for the connection; the Peer refuses the others, so they are crawled by this node instead.
+ * 
+ * If the connection fails, the Peer hands the links it had not written (including the batch it was
+ * writing, which may or may not have got through) back to the Cluster, to be crawled here,
+ * and refuses any more links. Those links are in this node's visited set already,
+ * so dropping them would lose them, and every page only reachable through them.
+ * 
+ * Thread-safe.
+ * 
+ * @author Derv
+ * @version 1
+ */
+class Peer implements Runnable {
+	
+	/** Number of links sent at once. */
+	static final int BATCH_SIZE = 512;
+	
+	/** Most links waiting to be written; more are refused, and crawled by this node. */
+	static final int MAX_PENDING = 64 * BATCH_SIZE;
+	
+	/** Longest time a link waits for its batch to fill up, in milliseconds. */
+	static final long FLUSH_MILLIS = 10;
+	
+	/** Longest time to wait for the other node to come up, in milliseconds. */
+	static final long CONNECT_TIMEOUT_MILLIS = 60 * 1000;
+	
+	/** Time between attempts to connect, in milliseconds. */
+	private static final long RETRY_MILLIS = 100;
+	
+	/** Size of the buffer of the connection. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/** Index of this node. */
+	private final int self;
+	
+	/** Index of the other node. */
+	private final int node;
+	
+	/** The Cluster of this node, which takes back the links the Peer cannot send. */
+	private final Cluster cluster;
+	
+	/** Address of the other node. */
+	private final InetSocketAddress address;
+	
+	/** Released once the connection is open, or has failed for good. */
+	private final CountDownLatch connected = new CountDownLatch(1);
+	
+	/** Number of links written to the connection. */
+	private final AtomicLong sent = new AtomicLong();
+	
+	/** Guards the batch being filled. */
+	private final Object batchLock = new Object();
+	
+	/** The links of the batch being filled. */
+	private String[] urls = new String[BATCH_SIZE];
+	
+	/** Their scores. */
+	private double[] scores = new double[BATCH_SIZE];
+	
+	/** Their depths. */
+	private int[] depths = new int[BATCH_SIZE];
+	
+	/** Number of links in the batch being filled. */
+	private int pending;
+	
+	/** Number of links taken out of the batch and not written yet. */
+	private int sending;
+	
+	/** Whether the Peer takes no more links. */
+	private boolean closed;
+	
+	/** The connection, once open. Guarded by this, as is out. */
+	private Socket socket;
+	
+	/** Writes to the connection, once open. */
+	private DataOutputStream out;
+	
+	/** Why the connection failed, or null. */
+	private volatile IOException failure;
+	
+	/** The thread which connects and writes the batches. */
+	private Thread thread;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param self Index of this node.
+	 * @param node Index of the other node.
+	 * @param address Address of the other node.
+	 * @param cluster The Cluster of this node, which takes back the links the Peer cannot send.
+	 */
+	Peer(final int self, final int node, final InetSocketAddress address, final Cluster cluster) {
+		this.self = self;
+		this.node = node;
+		this.address = address;
+		this.cluster = cluster;
+	}
+	
+	/** Starts connecting, in the background. */
+	void start() {
+		thread = new Thread(this, "Cluster-Node-" + node);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Adds a link to the batch for the other node.
+	 * 
+	 * @param url The URL.
+	 * @param score Its score.
+	 * @param depth Its depth.
+	 * @return True if the link will be sent, False if the Peer is closed (or its connection failed),
+	 * 			or MAX_PENDING links are waiting already.
+	 */
+	boolean forward(final String url, final double score, final int depth) {
+		synchronized (batchLock) {
+			if (closed || pending + sending >= MAX_PENDING)
+				return false;
+			if (pending == urls.length) {
+				// The thread is still writing the last batch: let this one grow meanwhile.
+				urls   = Arrays.copyOf(urls, pending * 2);
+				scores = Arrays.copyOf(scores, pending * 2);
+				depths = Arrays.copyOf(depths, pending * 2);
+			}
+			urls[pending] = url;
+			scores[pending] = score;
+			depths[pending] = depth;
+			pending++;
+			if (pending == 1 || pending == BATCH_SIZE)
+				batchLock.notifyAll();
+			return true;
+		}
+	}
+	
+	/** @return Whether every link given to the Peer has been written. */
+	boolean isIdle() {
+		synchronized (batchLock) {
+			return pending == 0 && sending == 0;
+		}
+	}
+	
+	/** @return Number of links written to the connection. */
+	long getSent() { return sent.get(); }
+	
+	/**
+	 * Writes the batches, for as long as the Peer is open.
+	 * Batches are swapped rather than copied: the thread writes one while the next one fills up.
+	 */
+	public void run() {
+		try {
+			connect();
+		} catch (final IOException ioe) {
+			fail(ioe);
+			return;
+		} catch (final InterruptedException ie) {
+			return;
+		}
+		
+		String[] batchUrls = new String[BATCH_SIZE];
+		double[] batchScores = new double[BATCH_SIZE];
+		int[] batchDepths = new int[BATCH_SIZE];
+		while (true) {
+			final int count;
+			synchronized (batchLock) {
+				try {
+					while (!closed && pending == 0)
+						batchLock.wait();
+					if (!closed && pending < BATCH_SIZE)
+						batchLock.wait(FLUSH_MILLIS); // Let the batch fill up a little.
+				} catch (final InterruptedException ie) {
+					return;
+				}
+				if (closed)
+					return;
+				
+				final String[] u = urls;
+				final double[] s = scores;
+				final int[] d = depths;
+				urls = batchUrls;
+				scores = batchScores;
+				depths = batchDepths;
+				batchUrls = u;
+				batchScores = s;
+				batchDepths = d;
+				count = pending;
+				pending = 0;
+				sending = count;
+			}
+			
+			try {
+				writeLinks(batchUrls, batchScores, batchDepths, count);
+				sent.addAndGet(count);
+			} catch (final IOException ioe) {
+				// Still counted as sending, so this node does not look idle before they are queued here.
+				fail(ioe);
+				handBack(batchUrls, batchScores, batchDepths, count);
+			} finally {
+				Arrays.fill(batchUrls, 0, count, null);
+				synchronized (batchLock) {
+					sending = 0;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Asks the other node for its status (coordinator only).
+	 * 
+	 * @param round Number of the round of questions.
+	 * @throws IOException If the other node cannot be reached.
+	 */
+	void sendStatusRequest(final int round) throws IOException {
+		awaitConnected();
+		synchronized (this) {
+			out.writeByte(Cluster.STATUS_REQUEST);
+			out.writeInt(round);
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Tells the coordinator the status of this node.
+	 * 
+	 * @param round Number of the round of questions.
+	 * @param idle Whether this node has no work in flight.
+	 * @param pages Number of pages this node has parsed.
+	 * @param sentTo Number of links this node has sent to each node.
+	 * @param receivedFrom Number of links this node has received from each node.
+	 * @throws IOException If the coordinator cannot be reached.
+	 */
+	void sendStatus(final int round, final boolean idle, final int pages, final long[] sentTo,
+			final long[] receivedFrom) throws IOException {
+		awaitConnected();
+		synchronized (this) {
+			out.writeByte(Cluster.STATUS);
+			out.writeInt(round);
+			out.writeBoolean(idle);
+			out.writeInt(pages);
+			for (long count : sentTo)
+				out.writeLong(count);
+			for (long count : receivedFrom)
+				out.writeLong(count);
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Tells the other node the crawl is over (coordinator only).
+	 * 
+	 * @throws IOException If the other node cannot be reached.
+	 */
+	void sendStop() throws IOException {
+		awaitConnected();
+		synchronized (this) {
+			out.writeByte(Cluster.STOP);
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Sends the final statistics of this node to the coordinator.
+	 * 
+	 * @param stats The statistics.
+	 * @throws IOException If the coordinator cannot be reached.
+	 */
+	void sendStats(final StatsSnapshot stats) throws IOException {
+		awaitConnected();
+		synchronized (this) {
+			out.writeByte(Cluster.STATS);
+			stats.writeTo(out);
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Waits until the connection is open.
+	 * 
+	 * @throws IOException If the other node could not be reached.
+	 */
+	void awaitConnected() throws IOException {
+		try {
+			if (!connected.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+				throw new IOException("Node " + node + " at " + address + " cannot be reached");
+		} catch (final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while connecting to node " + node);
+		}
+		if (failure != null)
+			throw failure;
+	}
+	
+	/** Closes the connection; links not written yet are dropped. */
+	void close() {
+		synchronized (batchLock) {
+			closed = true;
+			pending = 0;
+			batchLock.notifyAll();
+		}
+		if (thread != null)
+			thread.interrupt();
+		synchronized (this) {
+			if (socket != null) {
+				try {
+					out.flush();
+					socket.close();
+				} catch (final IOException ioe) {
+					// Closing anyway.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Helper method. Connects to the other node, trying again until it is up, and says who we are.
+	 * 
+	 * @throws IOException If the other node cannot be reached in time.
+	 * @throws InterruptedException If the Peer is closed meanwhile.
+	 */
+	private void connect() throws IOException, InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+		while (true) {
+			final Socket s = new Socket();
+			try {
+				s.connect(address, (int) RETRY_MILLIS * 10);
+				s.setTcpNoDelay(true);
+				synchronized (this) {
+					socket = s;
+					out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+					out.writeInt(Cluster.MAGIC);
+					out.writeInt(Cluster.VERSION);
+					out.writeInt(self);
+					out.flush();
+				}
+				connected.countDown();
+				return;
+			} catch (final IOException ioe) {
+				s.close();
+				if (System.nanoTime() - deadline > 0)
+					throw new IOException("Node " + node + " at " + address + " cannot be reached: " + ioe.getMessage());
+				Thread.sleep(RETRY_MILLIS);
+			}
+		}
+	}
+	
+	/**
+	 * Helper method. Writes a batch of links.
+	 * 
+	 * @param batchUrls The URLs.
+	 * @param batchScores Their scores.
+	 * @param batchDepths Their depths.
+	 * @param count Number of links.
+	 * @throws IOException If writing fails.
+	 */
+	private synchronized void writeLinks(final String[] batchUrls, final double[] batchScores,
+			final int[] batchDepths, final int count) throws IOException {
+		out.writeByte(Cluster.LINKS);
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeUTF(batchUrls[i]);
+			out.writeDouble(batchScores[i]);
+			out.writeInt(batchDepths[i]);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Helper method. Gives up on the connection: the links waiting are handed back to the Cluster,
+	 * and no more are taken, so they are crawled here. Called by the Peer's thread only.
+	 * 
+	 * @param ioe Why.
+	 */
+	private void fail(final IOException ioe) {
+		final boolean wasOpen;
+		final int count;
+		synchronized (batchLock) {
+			wasOpen = !closed;
+			closed = true;
+			count = pending;
+		}
+		failure = ioe;
+		connected.countDown();
+		if (wasOpen)
+			System.err.println("Cluster: lost node " + node + " (" + ioe.getMessage() + "); crawling its hosts here.");
+		
+		// Now closed, so forward() no longer touches the batch; it stays pending until queued here.
+		handBack(urls, scores, depths, count);
+		synchronized (batchLock) {
+			Arrays.fill(urls, 0, count, null);
+			pending = 0;
+		}
+	}
+	
+	/**
+	 * Helper method. Hands links which were not sent back to the Cluster, to be crawled here.
+	 * 
+	 * @param batchUrls The URLs.
+	 * @param batchScores Their scores.
+	 * @param batchDepths Their depths.
+	 * @param count Number of links.
+	 */
+	private void handBack(final String[] batchUrls, final double[] batchScores, final int[] batchDepths, final int count) {
+		for (int i = 0; i < count; i++)
+			cluster.keep(batchUrls[i], batchScores[i], batchDepths[i]);
+	}
+}
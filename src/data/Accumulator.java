@@ -0,0 +1,91 @@
+package data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running totals recorded by a single thread.
+ * 
+ * Only the owning thread ever writes to an Accumulator, so it never needs a lock:
+ * each value is updated with a plain read and an ordered write (lazySet).
+ * Any thread may read the totals at any time; they are always up to date, 
+ * give or take the page being recorded at that moment.
+ * 
+ * @author Derv
+ * @version 1
+ */
+class Accumulator {
+	
+	/** Index of the total number of words. */
+	static final int WORDS = 0;
+	
+	/** Index of the total number of URLs. */
+	static final int URLS = 1;
+	
+	/** Index of the total parse time. */
+	static final int PARSE_TIME = 2;
+	
+	/** Index of the first keyword total; keyword "id" is at KEYWORDS + id. */
+	static final int KEYWORDS = 3;
+	
+	/** 
+	 * Unused longs at the end of the array, so two threads' Accumulators 
+	 * are unlikely to share a cache line. 
+	 */
+	private static final int PADDING = 8;
+	
+	/** The totals. */
+	private final AtomicLongArray totals;
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param keywordCount Number of keywords being counted.
+	 */
+	Accumulator(final int keywordCount) {
+		this.totals = new AtomicLongArray(KEYWORDS + keywordCount + PADDING);
+	}
+	
+	/**
+	 * Adds a parsed page to the totals. Must only be called by the owning thread.
+	 * 
+	 * @param wordsOnPage The number of times each keyword (by id) appeared on the page.
+	 * @param wordCount How many words appeared on the page.
+	 * @param urlCount How many URLs appeared on the page.
+	 * @param parseTime How long it took to parse the page, in nanoseconds.
+	 */
+	void record(final int[] wordsOnPage, final int wordCount, final int urlCount, final long parseTime) {
+		add(WORDS, wordCount);
+		add(URLS, urlCount);
+		add(PARSE_TIME, parseTime);
+		for (int id = 0; id < wordsOnPage.length; id++) {
+			if (wordsOnPage[id] != 0)
+				add(KEYWORDS + id, wordsOnPage[id]);
+		}
+	}
+	
+	/**
+	 * Adds the totals of an earlier run, when a crawl is resumed. Must only be called by the owning thread.
+	 * 
+	 * @param previous The statistics at the end of the earlier run.
+	 */
+	void restore(final StatsSnapshot previous) {
+		add(WORDS, previous.getWordCount());
+		add(URLS, previous.getUrlCount());
+		add(PARSE_TIME, previous.getTotalParseTime());
+		for (int id = 0; id < previous.getKeywordCount(); id++)
+			add(KEYWORDS + id, previous.getKeywordHits(id));
+	}
+	
+	/**
+	 * @param index Index of the total (WORDS, URLS, PARSE_TIME, or KEYWORDS + id).
+	 * @return The total.
+	 */
+	long get(final int index) {
+		return totals.get(index);
+	}
+	
+	/** Helper method. Single-writer add: no compare-and-set needed. */
+	private void add(final int index, final long value) {
+		totals.lazySet(index, totals.get(index) + value);
+	}
+}
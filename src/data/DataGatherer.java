@@ -1,12 +1,18 @@
 package data;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class keeps track of all statistics found by the PageParser objects.
  * It receives data, combines it and manipulates it into a readable form, and then
- * passes this data onto a Reporter object, to be displayed to the user.
+ * passes this data onto a Reporter object, to be displayed to the user:
+ * either after every single page ("verbose"), or periodically by a PeriodicReporter.
+ * 
+ * Thread-safe, without locks: each PageParser thread records into its own 
+ * Accumulator, and the totals are added up whenever they are needed.
  * 
  * @author Derv
  * @version 1
@@ -16,80 +22,183 @@ public class DataGatherer {
 	 * the Reporter must have access to this number. */
 	private final int pageLimit;
 	
-	/** Map of words and how often they appear. */
-	private final Map<String, Integer> wordsTotal = new HashMap<String, Integer>();
+	/** The keywords, indexed by id. */
+	private final String[] keywords;
+	
+	/** Total number of pages parsed. Never goes above pageLimit. */
+	private final AtomicInteger pageCount = new AtomicInteger(0);
 	
-	/** Total number of pages parsed. */
-	private int pageCount = 0;
+	/** The Accumulator of every thread which has recorded a page. */
+	private final List<Accumulator> accumulators = new CopyOnWriteArrayList<Accumulator>();
 	
-	/** Total number of words on all pages. */
-	private int wordCount = 0;
+	/** The Accumulator of the current thread. */
+	private final ThreadLocal<Accumulator> accumulator = new ThreadLocal<Accumulator>() {
+		protected Accumulator initialValue() {
+			final Accumulator a = new Accumulator(keywords.length);
+			accumulators.add(a);
+			return a;
+		}
+	};
 	
-	/** Total number of URLs found on each page. */
-	private int urlCount = 0;
+	/** URL of the most recently parsed page. */
+	private volatile String lastUrl;
 	
-	/** Time since we started the data gathering process. */
-	private long startTime;
+	/** Time since we started the data gathering process (moved back by restore()). */
+	private volatile long startTime;
 	
-	/** Total time spent parsing pages. Used to calculate "average parse time". */
-	private long totalParseTime = 0;
+	/** Prints a report after every page, or null if reports are not printed per page. */
+	private final Reporter reporter;
 	
-	private final Reporter reporter = new Reporter();
+	/** Told about every parsed page, or null if there is no PeriodicReporter. */
+	private final PeriodicReporter periodicReporter;
+	
+	/** 
+	 * Constructor. Reports after every single page.
+	 * 
+	 * @param pageLimit Maximum number of pages to get.
+	 * @param keywords The keywords being counted, indexed by id.
+	 */
+	public DataGatherer(final int pageLimit, final String[] keywords) {
+		this(pageLimit, keywords, new Reporter(), null);
+	}
 	
-	/** Constructor. */
-	public DataGatherer(final int pageLimit) {
+	/** 
+	 * Constructor. Reports periodically, from the PeriodicReporter's thread.
+	 * 
+	 * @param pageLimit Maximum number of pages to get.
+	 * @param keywords The keywords being counted, indexed by id.
+	 * @param periodicReporter Reports the statistics in the background; told about every parsed page.
+	 */
+	public DataGatherer(final int pageLimit, final String[] keywords, 
+						final PeriodicReporter periodicReporter) {
+		this(pageLimit, keywords, null, periodicReporter);
+	}
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param pageLimit Maximum number of pages to get.
+	 * @param keywords The keywords being counted, indexed by id.
+	 * @param reporter Prints a report after every page, or null.
+	 * @param periodicReporter Reports the statistics in the background, or null.
+	 */
+	private DataGatherer(final int pageLimit, final String[] keywords, 
+						 final Reporter reporter, final PeriodicReporter periodicReporter) {
 		this.pageLimit = pageLimit;
+		this.keywords = keywords.clone();
 		this.startTime = System.currentTimeMillis();
+		this.reporter = reporter;
+		this.periodicReporter = periodicReporter;
+	}
+	
+	/**
+	 * Carries on from the statistics of an earlier run, when a crawl is resumed from a checkpoint.
+	 * Must be called before any page is parsed.
+	 * 
+	 * @param previous The statistics saved by the earlier run.
+	 * @throws IllegalArgumentException If the earlier run counted different keywords.
+	 */
+	public void restore(final StatsSnapshot previous) {
+		final String[] previousKeywords = new String[previous.getKeywordCount()];
+		for (int id = 0; id < previousKeywords.length; id++)
+			previousKeywords[id] = previous.getKeyword(id);
+		if (!Arrays.equals(keywords, previousKeywords))
+			throw new IllegalArgumentException("The checkpoint counted different keywords: " 
+					+ Arrays.toString(previousKeywords));
+		
+		// A separate Accumulator holds the earlier totals, so no thread's own one is touched.
+		final Accumulator earlier = new Accumulator(keywords.length);
+		earlier.restore(previous);
+		accumulators.add(earlier);
+		
+		pageCount.set(previous.getPagesTotal());
+		lastUrl = previous.getUrl();
+		startTime = System.currentTimeMillis() - previous.getRunningTime();
 	}
 	
 	/** @return True if the number of pages parsed is greater than 
 	 * 			or equal to the "page limit, False otherwise.*/
-	public boolean hitLimit() { return this.pageCount >= pageLimit; }
+	public boolean hitLimit() { return pageCount.get() >= pageLimit; }
 	
 	/**
 	 * Receives information about a parsed page, 
 	 * combines it with existing information,
-	 * and passes this onto the Reporter object.
+	 * and passes this onto the Reporter (in verbose mode).
+	 * 
+	 * Never blocks other PageParsers: the page is counted with an atomic claim
+	 * (so we never go over the page limit), then recorded in this thread's Accumulator.
 	 * 
 	 * @param url The URL of the page that was parsed.
-	 * @param wordsOnPage A Map object holding the keywords (keys) 
-	 * 		    and the number of times those words appeared on this page (value).
+	 * @param wordsOnPage The number of times each keyword (by id) appeared on this page.
+	 * 			Only read during this call, so the caller may reuse the array.
 	 * @param wordCount How many words appeared on this page.
 	 * @param urlCount How many URLs appeared on this page.
-	 * @param parseTime How long it took to parse the page.
+	 * @param parseTime How long it took to parse the page, in nanoseconds.
 	 */
-	synchronized public void parsed(final String url, final Map<String, Integer> wordsOnPage, 
+	public void parsed(final String url, final int[] wordsOnPage, 
 			int wordCount, int urlCount, long parseTime) {
 		
 		// Don't bother parsing a page if we have hit the limit
-		if (hitLimit()) {
+		final int pages = claimPage();
+		if (pages < 0) {
 			return;
 		}
 		
-		this.pageCount++;            // Total # of pages + 1
-		this.wordCount += wordCount; // Total # of words + this page's word count.
-		this.urlCount += urlCount;   // Total # of URLs  + this page's URL count
+		accumulator.get().record(wordsOnPage, wordCount, urlCount, parseTime);
+		lastUrl = url;
 		
-		// Update total word count.
-		for (String key : wordsOnPage.keySet()) {
-			if (wordsTotal.containsKey(key)) {
-				//final int value = wordsTotal.remove(key);
-				//wordsTotal.put(key, value + wordsOnPage.get(key));
-				wordsTotal.put(key, wordsTotal.get(key) + wordsOnPage.get(key));
-			} else {
-				wordsTotal.put(key, wordsOnPage.get(key));
-			}
+		// Send this information to the reporter(s).
+		if (reporter != null)
+			reporter.report(snapshot());
+		if (periodicReporter != null)
+			periodicReporter.pageParsed(pages);
+	}
+	
+	/**
+	 * Adds up the statistics recorded so far by every thread.
+	 * Never blocks the PageParsers.
+	 * 
+	 * @return The current statistics.
+	 */
+	public StatsSnapshot snapshot() {
+		final long[] wordsTotal = new long[keywords.length];
+		for (int id = 0; id < wordsTotal.length; id++) {
+			wordsTotal[id] = total(Accumulator.KEYWORDS + id);
 		}
 		
-		// Calculate the average parse time.
-		this.totalParseTime += parseTime;
-		final double avgParseTime = this.totalParseTime / this.pageCount;
-		
 		// Calculate total time the DataGatherer has been running.
 		final long runningTime = System.currentTimeMillis() - this.startTime;
 		
-		// Send this information to the reporter.
-		reporter.report(url, this.pageCount, wordCount / pageCount, urlCount / pageCount, 
-				wordsTotal, pageLimit, avgParseTime, runningTime);
+		return new StatsSnapshot(lastUrl, pageCount.get(), total(Accumulator.WORDS), 
+				total(Accumulator.URLS), keywords, wordsTotal, pageLimit, 
+				total(Accumulator.PARSE_TIME), runningTime);
+	}
+	
+	/**
+	 * Helper method. Counts one more page, unless we have already hit the page limit.
+	 * 
+	 * @return The new number of pages parsed, or -1 if we have already hit the limit.
+	 */
+	private int claimPage() {
+		while (true) {
+			final int pages = pageCount.get();
+			if (pages >= pageLimit)
+				return -1;
+			if (pageCount.compareAndSet(pages, pages + 1))
+				return pages + 1;
+		}
+	}
+	
+	/**
+	 * Helper method. Adds up one total from every thread's Accumulator.
+	 * 
+	 * @param index Index of the total (see Accumulator).
+	 * @return The sum.
+	 */
+	private long total(final int index) {
+		long sum = 0;
+		for (Accumulator a : accumulators)
+			sum += a.get(index);
+		return sum;
 	}
 }
@@ -0,0 +1,99 @@
+package data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often each value (such as a latency, in microseconds) was recorded,
+ * so percentiles can be read back at any time.
+ *
+ * Values are counted in buckets whose width grows with the value, like HdrHistogram:
+ * values below SUB_BUCKETS get a bucket each, and above that every power of two is split
+ * into SUB_BUCKETS / 2 buckets. So any value read back is within 1/64 (about 1.6%) of
+ * the values recorded, from 1 to MAX_VALUE, in a fixed 16 KB.
+ *
+ * Thread-safe and lock-free: recording a value is two or three atomic additions,
+ * cheap enough to leave on for every page.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class Histogram {
+
+	/** Number of bits of each value kept exactly. */
+	private static final int PRECISION_BITS = 7;
+
+	/** Number of buckets below 2^PRECISION_BITS, one per value. */
+	static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+
+	/** Number of buckets for each power of two above that. */
+	private static final int HALF = SUB_BUCKETS / 2;
+
+	/** Largest value counted; larger values are counted as this. */
+	public static final long MAX_VALUE = (1L << 36) - 1;
+
+	/** Number of buckets. */
+	static final int BUCKETS = index(MAX_VALUE) + 1;
+
+	/** How many values fell into each bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/** Sum of every value recorded. */
+	private final AtomicLong sum = new AtomicLong();
+
+	/** Largest value recorded. */
+	private final AtomicLong max = new AtomicLong();
+
+	/** Constructor. */
+	public Histogram() { }
+
+	/**
+	 * Counts a value.
+	 *
+	 * @param value The value; negative values are counted as 0.
+	 */
+	public void record(final long value) {
+		final long v = (value < 0) ? 0 : Math.min(value, MAX_VALUE);
+		counts.incrementAndGet(index(v));
+		sum.addAndGet(v);
+
+		long m = max.get();
+		while (v > m && !max.compareAndSet(m, v))
+			m = max.get();
+	}
+
+	/**
+	 * Copies the counts. Values recorded meanwhile may or may not be included.
+	 *
+	 * @return The counts so far.
+	 */
+	public HistogramSnapshot snapshot() {
+		final long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			copy[i] = counts.get(i);
+		return new HistogramSnapshot(copy, sum.get(), max.get());
+	}
+
+	/**
+	 * @param value A value from 0 to MAX_VALUE.
+	 * @return Index of the bucket counting it.
+	 */
+	static int index(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - PRECISION_BITS + 1;
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * @param index Index of a bucket.
+	 * @return The largest value counted in the bucket.
+	 */
+	static long highestValue(final int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		final int shift = (index - SUB_BUCKETS) / HALF + 1;
+		final long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
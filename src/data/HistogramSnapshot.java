@@ -0,0 +1,86 @@
+package data;
+
+/**
+ * The counts of a Histogram at one moment in time.
+ * Immutable, so it can be handed to another thread without any locking.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class HistogramSnapshot {
+
+	/** How many values fell into each bucket. */
+	private final long[] counts;
+
+	/** Number of values. */
+	private final long count;
+
+	/** Sum of the values. */
+	private final long sum;
+
+	/** Largest value. */
+	private final long max;
+
+	/**
+	 * Constructor. Takes over the array.
+	 *
+	 * @param counts How many values fell into each bucket.
+	 * @param sum Sum of the values.
+	 * @param max Largest value.
+	 */
+	HistogramSnapshot(final long[] counts, final long sum, final long max) {
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		this.counts = counts;
+		this.count = total;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	/**
+	 * The values recorded since an earlier snapshot of the same Histogram.
+	 * The largest value is only known to within a bucket.
+	 *
+	 * @param earlier An earlier snapshot.
+	 * @return The difference.
+	 */
+	public HistogramSnapshot since(final HistogramSnapshot earlier) {
+		final long[] diff = new long[counts.length];
+		int highest = -1;
+		for (int i = 0; i < diff.length; i++) {
+			diff[i] = counts[i] - earlier.counts[i];
+			if (diff[i] != 0)
+				highest = i;
+		}
+		final long m = (highest < 0) ? 0 : Math.min(max, Histogram.highestValue(highest));
+		return new HistogramSnapshot(diff, sum - earlier.sum, m);
+	}
+
+	/** @return Number of values. */
+	public long getCount()    { return count; }
+
+	/** @return Largest value, or 0 if there are none. */
+	public long getMax()      { return max; }
+
+	/** @return Average value, or 0 if there are none. */
+	public double getMean()   { return count == 0 ? 0 : (double) sum / count; }
+
+	/**
+	 * @param percentile From 0 to 100.
+	 * @return The value which the given percentage of the values are less than or equal to
+	 * 			(to within a bucket), or 0 if there are none.
+	 */
+	public long getPercentile(final double percentile) {
+		if (count == 0)
+			return 0;
+		final long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(max, Histogram.highestValue(i));
+		}
+		return max;
+	}
+}
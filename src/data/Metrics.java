@@ -0,0 +1,175 @@
+package data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fetch.FetchObserver;
+
+/**
+ * The running metrics of a crawl: how long pages take to download and to parse,
+ * how many bytes came in, which errors occurred, and how busy each worker is.
+ * Unlike the DataGatherer, which collects what was found on the pages,
+ * these describe how well the crawler itself is doing.
+ *
+ * Told about every download by the Fetcher (as its FetchObserver), and about every
+ * analyzed page by the PageParsers. Read by the CrawlMonitor.
+ *
+ * Thread-safe and lock-free; recording costs a few atomic additions per page.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class Metrics implements FetchObserver {
+
+	/** Number of nanoseconds in a microsecond. */
+	private static final long NANOS_PER_MICRO = 1000;
+
+	/** When the metrics were started (System.nanoTime()). */
+	private final long startTime = System.nanoTime();
+
+	/** Time taken by each successful download, in microseconds. */
+	private final Histogram fetchLatency = new Histogram();
+
+	/** Time taken to analyze each page, in microseconds. */
+	private final Histogram parseTime = new Histogram();
+
+	/** Time from the start of each page's download until its findings were reported, in microseconds. */
+	private final Histogram pageLatency = new Histogram();
+
+	/** Number of bytes received. */
+	private final AtomicLong bytes = new AtomicLong();
+
+	/** Number of pages skipped as near-duplicates of pages parsed before. */
+	private final AtomicLong nearDuplicates = new AtomicLong();
+
+	/** Number of pages given up on after an unexpected error in a worker (a bug, rather than a failed download). */
+	private final AtomicLong workerErrors = new AtomicLong();
+
+	/** Number of failed downloads, by simple name of the exception. */
+	private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+	/** The stats of every worker. */
+	private final List<WorkerStats> workers = new CopyOnWriteArrayList<WorkerStats>();
+
+	/** Constructor. */
+	public Metrics() { }
+
+	/** {@inheritDoc} */
+	public void fetched(final String url, final long nanos, final long bytes) {
+		fetchLatency.record(nanos / NANOS_PER_MICRO);
+		this.bytes.addAndGet(bytes);
+	}
+
+	/** {@inheritDoc} */
+	public void failed(final String url, final long nanos, final Exception error) {
+		final String type = error.getClass().getSimpleName();
+		AtomicLong count = errors.get(type);
+		if (count == null) {
+			final AtomicLong created = new AtomicLong();
+			count = errors.putIfAbsent(type, created);
+			if (count == null)
+				count = created;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Records the time taken to analyze a page.
+	 *
+	 * @param nanos The time, in nanoseconds.
+	 */
+	public void parsed(final long nanos) {
+		parseTime.record(nanos / NANOS_PER_MICRO);
+	}
+
+	/**
+	 * Records the time a page spent in the crawler: from the start of its download
+	 * until its findings were reported, including the time it waited for a PageParser.
+	 *
+	 * @param nanos The time, in nanoseconds.
+	 */
+	public void handled(final long nanos) {
+		pageLatency.record(nanos / NANOS_PER_MICRO);
+	}
+
+	/** Records a page skipped as a near-duplicate of a page parsed before. */
+	public void nearDuplicate() {
+		nearDuplicates.incrementAndGet();
+	}
+
+	/** Records a page given up on after an unexpected error in a worker. */
+	public void workerError() {
+		workerErrors.incrementAndGet();
+	}
+
+	/**
+	 * Creates the stats for a new worker.
+	 *
+	 * @param pool Name of the worker's pool, such as "PageRetriever".
+	 * @param name Name of the worker (usually the name of its thread).
+	 * @return The worker's stats, to be updated by the worker's thread only.
+	 */
+	public WorkerStats worker(final String pool, final String name) {
+		final WorkerStats stats = new WorkerStats(pool, name);
+		workers.add(stats);
+		return stats;
+	}
+
+	/**
+	 * Forgets the stats of a worker which has stopped for good while the crawl goes on
+	 * (its pool shrank), so the busy ratios only cover the workers still running.
+	 *
+	 * @param stats The worker's stats, as returned by worker().
+	 */
+	public void retired(final WorkerStats stats) {
+		workers.remove(stats);
+	}
+
+
+	// Accessors
+
+	/** @return Time since the metrics were started, in nanoseconds. */
+	public long getUptimeNanos()                 { return System.nanoTime() - startTime; }
+
+	/** @return Time taken by each successful download so far, in microseconds. */
+	public HistogramSnapshot getFetchLatency()   { return fetchLatency.snapshot(); }
+
+	/** @return Time taken to analyze each page so far, in microseconds. */
+	public HistogramSnapshot getParseTime()      { return parseTime.snapshot(); }
+
+	/** @return Time from the start of each page's download until its findings were reported, in microseconds. */
+	public HistogramSnapshot getPageLatency()    { return pageLatency.snapshot(); }
+
+	/** @return Number of bytes received so far. */
+	public long getBytesFetched()                { return bytes.get(); }
+
+	/** @return The stats of every worker. */
+	public List<WorkerStats> getWorkers()        { return workers; }
+
+	/** @return A copy of the number of failed downloads so far, by simple name of the exception. */
+	public Map<String, Long> getErrors() {
+		final Map<String, Long> copy = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> e : errors.entrySet())
+			copy.put(e.getKey(), e.getValue().get());
+		return copy;
+	}
+
+	/** @return Number of pages skipped as near-duplicates so far. */
+	public long getNearDuplicates()              { return nearDuplicates.get(); }
+
+	/** @return Number of pages given up on after an unexpected error in a worker so far. */
+	public long getWorkerErrors()                { return workerErrors.get(); }
+
+	/** @return Number of failed downloads so far. */
+	public long getFailures() {
+		long sum = 0;
+		for (AtomicLong count : errors.values())
+			sum += count.get();
+		return sum;
+	}
+}
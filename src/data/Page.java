@@ -7,6 +7,15 @@ public class Page {
 	/** HTML source code of the page. */
 	private String body;
 	
+	/** Number of links followed from the seed URL to reach this page. */
+	private int depth;
+	
+	/** What was found on the page, if it was analyzed while downloading (streaming mode), otherwise null. */
+	private PageSummary summary;
+	
+	/** When the page started downloading (System.nanoTime()), or 0 if unknown. */
+	private long startTime;
+	
 	/**
 	 * Constructor.
 	 * @param url The URL of a web page.
@@ -25,6 +34,29 @@ public class Page {
 		this.body = body;
 	}
 	
+	/**
+	 * Constructor.
+	 * @param url The URL of the web page.
+	 * @param body The HTML source of the web page.
+	 * @param depth Number of links followed from the seed URL to reach the page.
+	 */
+	public Page(final String url, final String body, final int depth) {
+		this.url = url;
+		this.body = body;
+		this.depth = depth;
+	}
+	
+	/**
+	 * Constructor, for a page which was analyzed while downloading.
+	 * The body is not kept.
+	 * @param summary What was found on the page.
+	 */
+	public Page(final PageSummary summary) {
+		this.url = summary.getUrl();
+		this.depth = summary.getDepth();
+		this.summary = summary;
+	}
+	
 	
 	// Accessors 
 	
@@ -34,6 +66,15 @@ public class Page {
 	/** @return The HTML source of this object. */
 	public String getBody() { return body; }
 	
+	/** @return Number of links followed from the seed URL to reach this page. */
+	public int getDepth()   { return depth; }
+	
+	/** @return What was found on the page, or null if the page has not been analyzed yet. */
+	public PageSummary getSummary() { return summary; }
+	
+	/** @return When the page started downloading (System.nanoTime()), or 0 if unknown. */
+	public long getStartTime()      { return startTime; }
+	
 	
 	// Mutators
 	
@@ -42,4 +83,10 @@ public class Page {
 	
 	/** @param body The HTML source (body) of the page. */
 	public void setBody(final String body) { this.body = body; }
+	
+	/** @param depth Number of links followed from the seed URL to reach the page. */
+	public void setDepth(final int depth)  { this.depth = depth; }
+	
+	/** @param startTime When the page started downloading (System.nanoTime()). */
+	public void setStartTime(final long startTime) { this.startTime = startTime; }
 }
@@ -0,0 +1,204 @@
+package data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What was found on a page: its keyword counts, word and URL counts,
+ * and the links worth following (with the keywords in their anchor text).
+ *
+ * Much smaller than the page itself, so in streaming mode this is what
+ * travels from the PageRetrievers to the PageParsers instead of the page body.
+ *
+ * Can be turned into bytes and back, so the findings for a page can be cached
+ * and reused as long as the page does not change.
+ *
+ * Filled in by a PageAnalyzer. Not thread-safe: it must be handed over
+ * through a thread-safe queue (such as PageBuffer) once it is complete.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class PageSummary {
+
+	/** URL of the page. */
+	private String url;
+
+	/** Number of links followed from the seed URL to reach the page. */
+	private int depth;
+
+	/** How many times each keyword (by id) appeared on the page. */
+	private final int[] counts;
+
+	/** Total # of words found. */
+	private int wordCount;
+
+	/** Total # of URLs found. */
+	private int urlCount;
+
+	/** Total # of keywords found. */
+	private int keywordHits;
+
+	/** Links worth following, as full URLs. */
+	private final List<String> links = new ArrayList<String>();
+
+	/** Number of keywords in the anchor text of each link. */
+	private int[] anchorHits = new int[16];
+
+	/** Time spent parsing the page, in nanoseconds. */
+	private long parseTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param keywords Number of distinct keywords.
+	 */
+	public PageSummary(final int keywords) {
+		this.counts = new int[keywords];
+	}
+
+	/**
+	 * Clears everything, ready for a new page.
+	 *
+	 * @param url URL of the page.
+	 * @param depth Number of links followed from the seed URL to reach the page.
+	 */
+	public void reset(final String url, final int depth) {
+		this.url = url;
+		this.depth = depth;
+		Arrays.fill(counts, 0);
+		wordCount = 0;
+		urlCount = 0;
+		keywordHits = 0;
+		links.clear();
+		parseTime = 0;
+	}
+
+	/**
+	 * @return The findings as bytes, for fromBytes(). The URL, depth and parse time are left out,
+	 * 			since they describe this visit to the page rather than the page.
+	 */
+	public byte[] toBytes() {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + links.size() * 64);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(counts.length);
+			for (int count : counts)
+				out.writeInt(count);
+			out.writeInt(wordCount);
+			out.writeInt(urlCount);
+			out.writeInt(keywordHits);
+			out.writeInt(links.size());
+			for (int i = 0; i < links.size(); i++) {
+				out.writeUTF(links.get(i));
+				out.writeInt(anchorHits[i]);
+			}
+		} catch (final IOException ioe) {
+			// Cannot happen when writing to memory.
+			throw new IllegalStateException(ioe);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Replaces the findings with those written by toBytes().
+	 * The URL and depth are left as they are, and the parse time is cleared.
+	 *
+	 * @param data The findings, as bytes.
+	 * @throws IOException If the bytes are not the findings for this number of keywords.
+	 */
+	public void fromBytes(final byte[] data) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (in.readInt() != counts.length)
+			throw new IOException("Findings for a different number of keywords");
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = in.readInt();
+		wordCount = in.readInt();
+		urlCount = in.readInt();
+		keywordHits = in.readInt();
+		links.clear();
+		parseTime = 0;
+		final int linkCount = in.readInt();
+		for (int i = 0; i < linkCount; i++)
+			addAnchorHits(addLink(in.readUTF()), in.readInt());
+	}
+
+
+	// Accessors
+
+	/** @return URL of the page. */
+	public String getUrl()         { return url; }
+
+	/** @return Number of links followed from the seed URL to reach the page. */
+	public int getDepth()          { return depth; }
+
+	/** @return How many times each keyword (by id) appeared on the page. Only modified by the PageAnalyzer filling in this summary. */
+	public int[] getCounts()       { return counts; }
+
+	/** @return Total # of words found. */
+	public int getWordCount()      { return wordCount; }
+
+	/** @return Total # of URLs found. */
+	public int getUrlCount()       { return urlCount; }
+
+	/** @return Total # of keywords found. */
+	public int getKeywordHits()    { return keywordHits; }
+
+	/** @return Number of links worth following. */
+	public int getLinkCount()      { return links.size(); }
+
+	/** @return Time spent parsing the page, in nanoseconds. */
+	public long getParseTime()     { return parseTime; }
+
+	/**
+	 * @param index Index of a link, from 0 to getLinkCount() - 1.
+	 * @return The link, as a full URL.
+	 */
+	public String getLink(final int index)       { return links.get(index); }
+
+	/**
+	 * @param index Index of a link, from 0 to getLinkCount() - 1.
+	 * @return Number of keywords in the link's anchor text.
+	 */
+	public int getAnchorHits(final int index)    { return anchorHits[index]; }
+
+
+	// Mutators
+
+	/** @param hits Number of keywords found in the word. */
+	public void countWord(final int hits) {
+		wordCount++;
+		keywordHits += hits;
+	}
+
+	/** Counts a URL found on the page, whether or not it is worth following. */
+	public void countUrl() { urlCount++; }
+
+	/**
+	 * @param link A link worth following, as a full URL.
+	 * @return Index of the link.
+	 */
+	public int addLink(final String link) {
+		final int index = links.size();
+		if (index == anchorHits.length)
+			anchorHits = Arrays.copyOf(anchorHits, anchorHits.length * 2);
+		anchorHits[index] = 0;
+		links.add(link);
+		return index;
+	}
+
+	/**
+	 * @param index Index of a link.
+	 * @param hits Number of keywords found in (part of) its anchor text.
+	 */
+	public void addAnchorHits(final int index, final int hits) { anchorHits[index] += hits; }
+
+	/** @param nanos Time spent parsing (part of) the page, in nanoseconds. */
+	public void addParseTime(final long nanos) { parseTime += nanos; }
+}
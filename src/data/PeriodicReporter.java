@@ -0,0 +1,119 @@
+package data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reports the statistics of the crawl from a background thread, so the 
+ * PageParsers never have to wait for the console.
+ * 
+ * Every reportInterval milliseconds (and, optionally, every time another 
+ * reportEveryPages pages have been parsed) it takes a StatsSnapshot
+ * from the DataGatherer and hands it to the Reporter.
+ * Nothing is printed if no pages were parsed since the last report.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class PeriodicReporter implements Runnable {
+	
+	/** Prints the reports. */
+	private final Reporter reporter;
+	
+	/** Time between reports, in nanoseconds. */
+	private final long intervalNanos;
+	
+	/** Also report every time this many more pages have been parsed (0 to turn off). */
+	private final int everyPages;
+	
+	/** Where the statistics come from. Set by start(). */
+	private volatile DataGatherer dataGatherer;
+	
+	/** The thread doing the reporting. */
+	private volatile Thread thread;
+	
+	/** Flag which tells the thread to stop. */
+	private volatile boolean stop = false;
+	
+	/** Number of pages parsed at the time of the last report. */
+	private int lastReported = -1;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param reporter Prints the reports.
+	 * @param intervalMillis Time between reports, in milliseconds.
+	 * @param everyPages Also report every time this many more pages have been parsed (0 to turn off).
+	 */
+	public PeriodicReporter(final Reporter reporter, final long intervalMillis, final int everyPages) {
+		if (intervalMillis < 1)
+			throw new IllegalArgumentException("intervalMillis must be greater than 0: " + intervalMillis);
+		this.reporter = reporter;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		this.everyPages = everyPages;
+	}
+	
+	/**
+	 * Starts reporting, on a new background thread.
+	 * 
+	 * @param dg Where the statistics come from.
+	 */
+	public void start(final DataGatherer dg) {
+		this.dataGatherer = dg;
+		final Thread t = new Thread(this, "PeriodicReporter");
+		t.setDaemon(true);
+		this.thread = t;
+		t.start();
+	}
+	
+	/**
+	 * Called by the DataGatherer every time a page is parsed.
+	 * Never blocks: at most, it wakes up the reporter thread.
+	 * 
+	 * @param pagesTotal How many pages have been parsed so far.
+	 */
+	void pageParsed(final int pagesTotal) {
+		if (everyPages > 0 && pagesTotal % everyPages == 0) {
+			final Thread t = thread;
+			if (t != null)
+				LockSupport.unpark(t);
+		}
+	}
+	
+	/** Reports until stop() is called. */
+	public void run() {
+		while (!stop) {
+			LockSupport.parkNanos(this, intervalNanos);
+			if (!stop)
+				reportIfChanged();
+		}
+	}
+	
+	/** 
+	 * Stops the reporter thread, waits for it to finish, 
+	 * then prints one last report so the final totals are always shown. 
+	 */
+	public void stop() {
+		final Thread t = thread;
+		if (t == null)
+			return;
+		
+		stop = true;
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		reportIfChanged();
+	}
+	
+	/** Helper method. Reports, unless nothing has changed since the last report. */
+	private void reportIfChanged() {
+		final StatsSnapshot stats = dataGatherer.snapshot();
+		if (stats.getPagesTotal() == lastReported)
+			return;
+		lastReported = stats.getPagesTotal();
+		reporter.report(stats);
+	}
+}
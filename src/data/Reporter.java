@@ -1,7 +1,5 @@
 package data;
 
-import java.util.Map;
-
 /**
  * Reports information about the parsed pages to the user via the console.
  * 
@@ -16,32 +14,23 @@ public class Reporter {
 	}
 	
 	/**
-	 * Reports to the user statistics about a parsed page.
+	 * Reports to the user statistics about the parsed pages.
 	 * Prints to System.out (console) using formatted text Strings.
+	 * Synchronized so that two reports are never mixed together.
 	 * 
-	 * @param url URL that was just parsed.
-	 * @param pagesTotal How many pages have been parsed so far.
-	 * @param avgWords Average number of words per page.
-	 * @param avgURLs Average number of URLs per page.
-	 * @param keywordCounts A Map containing the keywords (key) and the number
-	 * 				of times they have appeared so far (values).
-	 * @param pageLimit Maximum number of pages before the parser stops.
-	 * @param avgParseTime Average time it takes to parse a page.
-	 * @param runningTime Total running time of this program.
+	 * @param stats The statistics to report.
 	 */
-	public void report(final String url, final int pagesTotal, 
-						final int avgWords, final int avgURLs, 
-						final Map<String, Integer> keywordCounts, 
-						final int pageLimit, final double avgParseTime, 
-						final long runningTime) {
+	synchronized public void report(final StatsSnapshot stats) {
+		
+		final int pagesTotal = stats.getPagesTotal();
 		
 		// Print a large block of white space to differentiate reports.
 		p("\n\n\n\n\n"); 
 		
-		p("Parsed: " + url);
+		p("Parsed: " + stats.getUrl());
 		p("Pages Retrieved: " + pagesTotal);
-		p("Average words per page: " + avgWords);
-		p("Average URLs per page: " + avgURLs);
+		p("Average words per page: " + stats.getAverageWords());
+		p("Average URLs per page: " + stats.getAverageUrls());
 		
 		// Print "columns" for keywords
 		p("Keyword" + String.format("%15s", "") + 
@@ -49,17 +38,18 @@ public class Reporter {
 				"Total hits");
 		
 		// Print keywords.
-		for (String key : keywordCounts.keySet()) {
-			final int value = keywordCounts.get(key);
-			final double avg = (double) value / pagesTotal;
+		for (int id = 0; id < stats.getKeywordCount(); id++) {
+			final String key = stats.getKeyword(id);
+			final long value = stats.getKeywordHits(id);
+			final double avg = (pagesTotal == 0) ? 0 : (double) value / pagesTotal;
 			p("  " + key + String.format("%" + (24 - key.length()) + "s", "") +  // The keyword 
 					String.format("%.3f", avg) +        // Average
 					String.format("%21s", "") + value); // Total
 		}
 		
-		p("\nPage limit: " + pageLimit);
-		p("Average parse time per page: " + String.format("%.3f", (double) avgParseTime / 1000) + "msec");
-		p("Total running time: " + String.format("%.3f", (double) runningTime / 1000) + "sec");
+		p("\nPage limit: " + stats.getPageLimit());
+		p("Average parse time per page: " + String.format("%.3f", stats.getAverageParseTime()) + "msec");
+		p("Total running time: " + String.format("%.3f", (double) stats.getRunningTime() / 1000) + "sec");
 		
 	}
 	
@@ -0,0 +1,191 @@
+package data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The statistics of the crawl at one moment in time.
+ * Immutable, so it can be handed to another thread (such as a reporter) without any locking.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class StatsSnapshot {
+	
+	/** Number of nanoseconds in a millisecond. */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+	
+	/** URL of the most recently parsed page. */
+	private final String url;
+	
+	/** How many pages have been parsed so far. */
+	private final int pagesTotal;
+	
+	/** Total number of words on all pages. */
+	private final long wordCount;
+	
+	/** Total number of URLs on all pages. */
+	private final long urlCount;
+	
+	/** The keywords, indexed by id. */
+	private final String[] keywords;
+	
+	/** The number of times each keyword (by id) has appeared so far. */
+	private final long[] keywordCounts;
+	
+	/** Maximum number of pages before the parser stops. */
+	private final int pageLimit;
+	
+	/** Total time spent parsing pages, in nanoseconds. */
+	private final long totalParseTime;
+	
+	/** How long the crawl had been running when the snapshot was taken, in milliseconds. */
+	private final long runningTime;
+	
+	/**
+	 * Constructor. The arrays are copied.
+	 * 
+	 * @param url URL of the most recently parsed page.
+	 * @param pagesTotal How many pages have been parsed so far.
+	 * @param wordCount Total number of words on all pages.
+	 * @param urlCount Total number of URLs on all pages.
+	 * @param keywords The keywords, indexed by id.
+	 * @param keywordCounts The number of times each keyword (by id) has appeared so far.
+	 * @param pageLimit Maximum number of pages before the parser stops.
+	 * @param totalParseTime Total time spent parsing pages, in nanoseconds.
+	 * @param runningTime How long the crawl has been running, in milliseconds.
+	 */
+	public StatsSnapshot(final String url, final int pagesTotal, final long wordCount, 
+						 final long urlCount, final String[] keywords, final long[] keywordCounts, 
+						 final int pageLimit, final long totalParseTime, final long runningTime) {
+		this.url = url;
+		this.pagesTotal = pagesTotal;
+		this.wordCount = wordCount;
+		this.urlCount = urlCount;
+		this.keywords = keywords.clone();
+		this.keywordCounts = keywordCounts.clone();
+		this.pageLimit = pageLimit;
+		this.totalParseTime = totalParseTime;
+		this.runningTime = runningTime;
+	}
+	
+	
+	// Accessors
+	
+	/** @return URL of the most recently parsed page (null if none yet). */
+	public String getUrl()            { return url; }
+	
+	/** @return How many pages have been parsed so far. */
+	public int getPagesTotal()        { return pagesTotal; }
+	
+	/** @return Total number of words on all pages. */
+	public long getWordCount()        { return wordCount; }
+	
+	/** @return Total number of URLs on all pages. */
+	public long getUrlCount()         { return urlCount; }
+	
+	/** @return Number of keywords. */
+	public int getKeywordCount()      { return keywords.length; }
+	
+	/** 
+	 * @param id Id of a keyword.
+	 * @return The keyword. 
+	 */
+	public String getKeyword(final int id)   { return keywords[id]; }
+	
+	/** 
+	 * @param id Id of a keyword.
+	 * @return The number of times the keyword has appeared so far. 
+	 */
+	public long getKeywordHits(final int id) { return keywordCounts[id]; }
+	
+	/** @return Maximum number of pages before the parser stops. */
+	public int getPageLimit()         { return pageLimit; }
+	
+	/** @return Total time spent parsing pages, in nanoseconds. */
+	public long getTotalParseTime()   { return totalParseTime; }
+	
+	/** @return How long the crawl had been running, in milliseconds. */
+	public long getRunningTime()      { return runningTime; }
+	
+	/** @return Average number of words per page. */
+	public long getAverageWords()     { return pagesTotal == 0 ? 0 : wordCount / pagesTotal; }
+	
+	/** @return Average number of URLs per page. */
+	public long getAverageUrls()      { return pagesTotal == 0 ? 0 : urlCount / pagesTotal; }
+	
+	/** @return Average time it takes to parse a page, in milliseconds. */
+	public double getAverageParseTime() { 
+		return pagesTotal == 0 ? 0 : (double) totalParseTime / pagesTotal / NANOS_PER_MILLI; 
+	}
+	
+	/**
+	 * Adds up the statistics of two crawls of the same keywords, e.g. of two nodes of a cluster.
+	 * The running time is the longer one, and the URL and page limit are this snapshot's.
+	 * 
+	 * @param other The other statistics.
+	 * @return The totals.
+	 * @throws IllegalArgumentException If the other crawl counted different keywords.
+	 */
+	public StatsSnapshot plus(final StatsSnapshot other) {
+		if (!Arrays.equals(keywords, other.keywords))
+			throw new IllegalArgumentException("Cannot add up the counts of different keywords: " 
+					+ Arrays.toString(other.keywords));
+		final long[] counts = keywordCounts.clone();
+		for (int id = 0; id < counts.length; id++)
+			counts[id] += other.keywordCounts[id];
+		return new StatsSnapshot((url != null) ? url : other.url, pagesTotal + other.pagesTotal, 
+				wordCount + other.wordCount, urlCount + other.urlCount, keywords, counts, pageLimit, 
+				totalParseTime + other.totalParseTime, Math.max(runningTime, other.runningTime));
+	}
+	
+	/**
+	 * Writes the snapshot, for a checkpoint or another node of a cluster.
+	 * 
+	 * @param out Where to write.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(final DataOutput out) throws IOException {
+		out.writeBoolean(url != null);
+		if (url != null)
+			out.writeUTF(url);
+		out.writeInt(pagesTotal);
+		out.writeLong(wordCount);
+		out.writeLong(urlCount);
+		out.writeInt(keywords.length);
+		for (int id = 0; id < keywords.length; id++) {
+			out.writeUTF(keywords[id]);
+			out.writeLong(keywordCounts[id]);
+		}
+		out.writeInt(pageLimit);
+		out.writeLong(totalParseTime);
+		out.writeLong(runningTime);
+	}
+	
+	/**
+	 * Reads a snapshot written by writeTo().
+	 * 
+	 * @param in Where to read.
+	 * @return The snapshot.
+	 * @throws IOException If reading fails.
+	 */
+	public static StatsSnapshot readFrom(final DataInput in) throws IOException {
+		final String url = in.readBoolean() ? in.readUTF() : null;
+		final int pagesTotal = in.readInt();
+		final long wordCount = in.readLong();
+		final long urlCount = in.readLong();
+		final String[] keywords = new String[in.readInt()];
+		final long[] keywordCounts = new long[keywords.length];
+		for (int id = 0; id < keywords.length; id++) {
+			keywords[id] = in.readUTF();
+			keywordCounts[id] = in.readLong();
+		}
+		final int pageLimit = in.readInt();
+		final long totalParseTime = in.readLong();
+		final long runningTime = in.readLong();
+		return new StatsSnapshot(url, pagesTotal, wordCount, urlCount, keywords, keywordCounts, 
+				pageLimit, totalParseTime, runningTime);
+	}
+}
@@ -0,0 +1,100 @@
+package data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How long a worker (a PageRetriever or PageParser) has spent busy, and idle
+ * (waiting on a queue for work, or for room to hand its work over).
+ *
+ * Only the worker's own thread calls busy() and idle(), so it never needs a lock:
+ * each total is updated with a plain read and an ordered write (lazySet), like an Accumulator.
+ * Any thread may read the totals at any time.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class WorkerStats {
+
+	/** Index of the time spent busy. */
+	private static final int BUSY = 0;
+
+	/** Index of the time spent idle. */
+	private static final int IDLE = 1;
+
+	/** Index of the time the current state started. */
+	private static final int SINCE = 2;
+
+	/** Index of the current state: 1 if busy, 0 if idle. */
+	private static final int STATE = 3;
+
+	/** Unused longs at the end of the array, so two workers' stats are unlikely to share a cache line. */
+	private static final int PADDING = 8;
+
+	/** Name of the worker's pool, such as "PageRetriever". */
+	private final String pool;
+
+	/** Name of the worker (usually the name of its thread). */
+	private final String name;
+
+	/** The totals, in nanoseconds, and the current state. */
+	private final AtomicLongArray values = new AtomicLongArray(STATE + 1 + PADDING);
+
+	/**
+	 * Constructor. The worker starts out idle.
+	 *
+	 * @param pool Name of the worker's pool, such as "PageRetriever".
+	 * @param name Name of the worker.
+	 */
+	public WorkerStats(final String pool, final String name) {
+		this.pool = pool;
+		this.name = name;
+		values.set(SINCE, System.nanoTime());
+	}
+
+	/** The worker has work. Must only be called by the worker's thread. */
+	public void busy() { change(1); }
+
+	/** The worker is waiting. Must only be called by the worker's thread. */
+	public void idle() { change(0); }
+
+	/** @return Name of the worker's pool. */
+	public String getPool() { return pool; }
+
+	/** @return Name of the worker. */
+	public String getName() { return name; }
+
+	/** @return Time spent busy so far, in nanoseconds. */
+	public long getBusyNanos() { return total(1); }
+
+	/** @return Time spent idle so far, in nanoseconds. */
+	public long getIdleNanos() { return total(0); }
+
+	/**
+	 * Helper method. Ends the current state, adding its time to its total.
+	 *
+	 * @param state The new state.
+	 */
+	private void change(final int state) {
+		final int current = (int) values.get(STATE);
+		if (state == current)
+			return;
+		final long now = System.nanoTime();
+		final int index = (current == 1) ? BUSY : IDLE;
+		values.lazySet(index, values.get(index) + now - values.get(SINCE));
+		values.lazySet(SINCE, now);
+		values.lazySet(STATE, state);
+	}
+
+	/**
+	 * Helper method. Reads a total, including the current state so far.
+	 *
+	 * @param state 1 for busy, 0 for idle.
+	 * @return The total, in nanoseconds.
+	 */
+	private long total(final int state) {
+		final long total = values.get((state == 1) ? BUSY : IDLE);
+		if (values.get(STATE) != state)
+			return total;
+		return total + Math.max(0, System.nanoTime() - values.get(SINCE));
+	}
+}
@@ -0,0 +1,32 @@
+package fetch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A CharSink which can also take the page as raw bytes, skipping the decoding to characters.
+ * Useful for encodings where every ASCII character is a single byte (ISO-8859-1, UTF-8, ...),
+ * since everything HTML cares about (tags, whitespace, quotes) is ASCII.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface ByteSink extends CharSink {
+
+	/**
+	 * Called once for every page, before any of its text is handed over.
+	 *
+	 * @param charset The encoding of the page.
+	 * @return True to receive the page through bytes(),
+	 * 			False to receive it (decoded) through chars().
+	 */
+	boolean acceptsBytes(Charset charset);
+
+	/**
+	 * Called for every chunk of the page, in order, if acceptsBytes returned True.
+	 * The buffer is only valid until this method returns.
+	 *
+	 * @param buf The bytes of the chunk, from its position to its limit.
+	 */
+	void bytes(ByteBuffer buf);
+}
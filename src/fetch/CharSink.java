@@ -0,0 +1,20 @@
+package fetch;
+
+/**
+ * Receives the text of a page, one chunk at a time, as it is downloaded.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface CharSink {
+
+	/**
+	 * Called for every chunk of text, in order.
+	 * The characters are only valid until this method returns.
+	 *
+	 * @param buf Characters of the chunk.
+	 * @param off Index of the first character.
+	 * @param len Number of characters.
+	 */
+	void chars(char[] buf, int off, int len);
+}
@@ -0,0 +1,121 @@
+package fetch;
+
+import java.nio.charset.Charset;
+
+/**
+ * Works out which character encoding a page uses, the way browsers do:
+ *  1. the charset in the Content-Type header, e.g. "text/html; charset=UTF-8";
+ *  2. otherwise, a charset declared in a meta tag near the start of the page, e.g.
+ *     &lt;meta charset="UTF-8"&gt; or &lt;meta http-equiv="Content-Type" content="text/html; charset=UTF-8"&gt;;
+ *  3. otherwise ISO-8859-1, the default for text in HTTP/1.1.
+ *
+ * @author Derv
+ * @version 1
+ */
+public final class CharsetDetector {
+
+	/** Encoding used when a page does not declare one. */
+	public static final Charset DEFAULT = Charset.forName("ISO-8859-1");
+
+	/** Number of bytes at the start of a page which are searched for a meta tag. */
+	public static final int SNIFF_SIZE = 1024;
+
+	/** Not meant to be instantiated. */
+	private CharsetDetector() { }
+
+	/**
+	 * Works out the encoding of a page.
+	 *
+	 * @param contentType The Content-Type header of the response, or null.
+	 * @param buf The first bytes of the page (up to SNIFF_SIZE are searched).
+	 * @param off Index of the first byte.
+	 * @param len Number of bytes available.
+	 * @return The encoding of the page; never null.
+	 */
+	public static Charset detect(final String contentType, final byte[] buf, final int off, final int len) {
+		Charset charset = fromContentType(contentType);
+		if (charset == null)
+			charset = fromMeta(buf, off, Math.min(len, SNIFF_SIZE));
+		return (charset != null) ? charset : DEFAULT;
+	}
+
+	/**
+	 * @param contentType A Content-Type header, or null.
+	 * @return The charset it names, or null if it names none (or one this JVM does not support).
+	 */
+	public static Charset fromContentType(final String contentType) {
+		if (contentType == null)
+			return null;
+		final int at = indexOfIgnoreCase(contentType, "charset=");
+		return (at < 0) ? null : lookup(contentType, at + "charset=".length());
+	}
+
+	/**
+	 * Looks for "charset=" inside a meta tag.
+	 *
+	 * @param buf Bytes at the start of a page.
+	 * @param off Index of the first byte.
+	 * @param len Number of bytes to search.
+	 * @return The charset declared, or null if there is none (or one this JVM does not support).
+	 */
+	public static Charset fromMeta(final byte[] buf, final int off, final int len) {
+		// Every byte becomes one char, which is fine for the ASCII we are looking for.
+		final String head = new String(buf, off, len, DEFAULT);
+
+		int meta = indexOfIgnoreCase(head, "<meta");
+		while (meta >= 0) {
+			int end = head.indexOf('>', meta);
+			if (end < 0)
+				end = head.length();
+
+			final int at = indexOfIgnoreCase(head.substring(meta, end), "charset=");
+			if (at >= 0)
+				return lookup(head, meta + at + "charset=".length());
+
+			meta = indexOfIgnoreCase(head, "<meta", end);
+		}
+		return null;
+	}
+
+	/**
+	 * Helper method. Reads a charset name, optionally quoted, and looks it up.
+	 *
+	 * @param text Text holding the name.
+	 * @param start Index where the name (or its opening quote) starts.
+	 * @return The charset, or null if it is not supported.
+	 */
+	private static Charset lookup(final String text, int start) {
+		while (start < text.length() && (text.charAt(start) == '"' || text.charAt(start) == '\''))
+			start++;
+
+		int end = start;
+		while (end < text.length()) {
+			final char c = text.charAt(end);
+			if (!Character.isLetterOrDigit(c) && c != '-' && c != '_' && c != '.' && c != ':')
+				break;
+			end++;
+		}
+
+		try {
+			return (end > start) ? Charset.forName(text.substring(start, end)) : null;
+		} catch (final IllegalArgumentException iae) {
+			// Includes IllegalCharsetNameException and UnsupportedCharsetException.
+			return null;
+		}
+	}
+
+	/** Helper method. Case-insensitive indexOf, for ASCII text. */
+	private static int indexOfIgnoreCase(final String text, final String word) {
+		return indexOfIgnoreCase(text, word, 0);
+	}
+
+	/** Helper method. Case-insensitive indexOf, for ASCII text, starting at a given index. */
+	private static int indexOfIgnoreCase(final String text, final String word, final int from) {
+		final int last = text.length() - word.length();
+		for (int i = Math.max(from, 0); i <= last; i++) {
+			if (text.regionMatches(true, i, word, 0, word.length()))
+				return i;
+		}
+		return -1;
+	}
+}
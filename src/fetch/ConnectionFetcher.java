@@ -0,0 +1,128 @@
+package fetch;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.Scanner;
+
+/**
+ * The original Fetcher: opens a brand new URLConnection for every page,
+ * and reads the page line-by-line with a Scanner.
+ * The page is decoded with its own encoding (see CharsetDetector).
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class ConnectionFetcher implements Fetcher {
+	
+	/** Told about every download, or null. */
+	private volatile FetchObserver observer;
+	
+	/** Constructor, does nothing. */
+	public ConnectionFetcher() { }
+	
+	/** {@inheritDoc} */
+	public void setObserver(final FetchObserver observer) { this.observer = observer; }
+	
+	/** {@inheritDoc} */
+	public String fetch(final String theURL) {
+		// Result is a StringBuilder (uses less memory than a String)
+		StringBuilder result = new StringBuilder();
+		
+		final long startTime = System.nanoTime();
+        
+        try {
+        	// Open new connection
+        	final URLConnection uc = new URL(theURL).openConnection();
+        	
+        	// The "timeouts" below are how long the socket waits before stopping
+        	// These timeouts prevent us from being stuck on a page that never loads.
+        	// The waiting times are in milliseconds
+        	
+			uc.setConnectTimeout(TIMEOUT); // wait a maximum of 15 seconds before giving up.
+			uc.setReadTimeout(TIMEOUT);    // wait a maximum of 15 seconds for data to be sent.
+			
+			// Pretend to be Firefox, some websites block unknown user-agents.
+			uc.setRequestProperty("User-Agent", USER_AGENT);
+			
+			// Work out the page's encoding, peeking at the start of the page if the header does not say.
+			final CountingInputStream counter = new CountingInputStream(uc.getInputStream());
+			final InputStream body = new BufferedInputStream(counter);
+			final Charset charset = detectCharset(uc.getContentType(), body);
+			
+			// I like to use Scanner to read input streams (it's simple).
+			final Scanner in = new Scanner(body, charset.name());
+			
+	        while (in.hasNextLine()) {        // Read every line from the web page input stream.
+	        	result.append(in.nextLine()); // Add every line to the string buffer,
+	        	result.append('\n');          // keeping the line break, so the last word of a line
+	        }                                 // isn't glued to the first word of the next one.
+	        
+	        in.close(); // Close the input stream.
+	        
+	        // Scanner keeps read errors to itself.
+	        if (in.ioException() != null)
+	        	throw in.ioException();
+	        
+	        final FetchObserver o = observer;
+	        if (o != null)
+	        	o.fetched(theURL, System.nanoTime() - startTime, counter.getCount());
+	        
+			// Lots of exceptions can occur.
+        } catch (final FileNotFoundException fnf)  { 
+        	System.err.println("*** FileNotFoundException: " + theURL);
+        	failed(theURL, startTime, fnf);
+        } catch (final UnknownHostException uhe)   {
+        	System.err.println("*** UnknownHostException: " + theURL);
+        	failed(theURL, startTime, uhe);
+        } catch (final MalformedURLException mue)  { mue.printStackTrace(); failed(theURL, startTime, mue);
+        } catch (final SocketTimeoutException ste) { ste.printStackTrace(); failed(theURL, startTime, ste);
+        } catch (final IOException ioe)            { ioe.printStackTrace(); failed(theURL, startTime, ioe);
+        }
+        
+        return result.toString();
+	}
+	
+	/**
+	 * Helper method. Tells the observer (if any) a download failed.
+	 * 
+	 * @param url The URL of the page.
+	 * @param startTime When the download started (System.nanoTime()).
+	 * @param error Why it failed.
+	 */
+	private void failed(final String url, final long startTime, final Exception error) {
+		final FetchObserver o = observer;
+		if (o != null)
+			o.failed(url, System.nanoTime() - startTime, error);
+	}
+	
+	/**
+	 * Helper method. Works out the encoding of a page, without consuming any of it.
+	 * 
+	 * @param contentType The Content-Type header of the response, or null.
+	 * @param body The body of the page; must support mark() and reset().
+	 * @return The encoding of the page.
+	 */
+	private static Charset detectCharset(final String contentType, final InputStream body) throws IOException {
+		final Charset declared = CharsetDetector.fromContentType(contentType);
+		if (declared != null)
+			return declared;
+		
+		final byte[] head = new byte[CharsetDetector.SNIFF_SIZE];
+		body.mark(head.length);
+		int length = 0;
+		int read;
+		while (length < head.length && (read = body.read(head, length, head.length - length)) != -1)
+			length += read;
+		body.reset();
+		
+		return CharsetDetector.detect(null, head, 0, length);
+	}
+}
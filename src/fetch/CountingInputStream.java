@@ -0,0 +1,51 @@
+package fetch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream.
+ *
+ * @author Derv
+ * @version 1
+ */
+class CountingInputStream extends FilterInputStream {
+
+	/** Number of bytes read (or skipped) so far. */
+	private long count = 0;
+
+	/** @param in The stream to count. */
+	CountingInputStream(final InputStream in) {
+		super(in);
+	}
+
+	/** @return Number of bytes read (or skipped) so far. */
+	long getCount() { return count; }
+
+	/** {@inheritDoc} */
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b >= 0)
+			count++;
+		return b;
+	}
+
+	/** {@inheritDoc} */
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int read = super.read(b, off, len);
+		if (read > 0)
+			count += read;
+		return read;
+	}
+
+	/** {@inheritDoc} */
+	public long skip(final long n) throws IOException {
+		final long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	/** {@inheritDoc} Marks are not supported, since the count cannot be rewound. */
+	public boolean markSupported() { return false; }
+}
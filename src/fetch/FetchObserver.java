@@ -0,0 +1,29 @@
+package fetch;
+
+/**
+ * Told about every download a Fetcher makes, e.g. to keep metrics.
+ * Implementations must be thread-safe and quick, since they are called by every PageRetriever.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface FetchObserver {
+
+	/**
+	 * A page was downloaded (or found unchanged, and taken from the cache).
+	 *
+	 * @param url The URL of the page.
+	 * @param nanos How long it took, in nanoseconds, from sending the request to the end of the page.
+	 * @param bytes Number of bytes received for the body (0 for a page taken from the cache).
+	 */
+	void fetched(String url, long nanos, long bytes);
+
+	/**
+	 * A page could not be downloaded.
+	 *
+	 * @param url The URL of the page.
+	 * @param nanos How long it took to fail, in nanoseconds.
+	 * @param error Why it failed.
+	 */
+	void failed(String url, long nanos, Exception error);
+}
@@ -0,0 +1,39 @@
+package fetch;
+
+/**
+ * Downloads the HTML body of a web page.
+ * Implementations must be thread-safe: one Fetcher is shared by all PageRetrievers.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public interface Fetcher {
+	
+	/** How long (in milliseconds) to wait for a connection, or for data, before giving up. */
+	int TIMEOUT = 15 * 1000;
+	
+	/** 
+	 * The User-agent property of our request tells the web server what kind of computer we are running.
+	 * Some websites block certain user-agents, so we use the Mozilla Firefox user agent.
+	 * This makes the web server *think* we are using Firefox.
+	 */
+	String USER_AGENT = "Mozilla/5.0 (Windows; U; Windows NT 6.1; en-US; rv:1.9.2.13) " +
+						"Gecko/20101203 Firefox/3.6.13";
+	
+	/**
+	 * Retrieves HTML text from a given URL.
+	 * Catches all exceptions.
+	 * 
+	 * @param theURL The URL of the page to retrieve.
+	 * @return HTML code (body) for a URL, 
+	 * 			or empty string ("") if page could not be retrieved 
+	 */
+	String fetch(String theURL);
+	
+	/**
+	 * Sets who to tell about every download from now on.
+	 * 
+	 * @param observer Told about every download, or null (the default) to tell no one.
+	 */
+	void setObserver(FetchObserver observer);
+}
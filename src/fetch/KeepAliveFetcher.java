@@ -0,0 +1,527 @@
+package fetch;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Fetcher which reuses connections to the same host.
+ *
+ * The JVM keeps idle HTTP connections open (keep-alive) and hands them to the
+ * next request for the same host, but only if the previous response was read
+ * to the very end and closed - including error responses. This class makes sure
+ * that always happens, and caps how many requests may be open against a single
+ * host at once, so each host's pool of idle connections is actually big enough to be reused.
+ *
+ * Pages can be collected into a String, or streamed to a CharSink as they arrive.
+ * The body is read as bytes and decoded with the page's own encoding (see CharsetDetector);
+ * a ByteSink can even take the bytes as they are, if it knows how to read the encoding.
+ *
+ * With a PageCache, pages which were cached by an earlier crawl are requested with a conditional GET
+ * (If-None-Match / If-Modified-Since). If the server answers "304 Not Modified", the cached body is
+ * handed over instead, unless a NotModifiedSink says it does not need it. Pages which come with
+ * an ETag or Last-Modified header are stored in the cache as they are read.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class KeepAliveFetcher implements StreamingFetcher {
+
+	/** Default maximum number of requests open against a single host at once. */
+	public static final int DEFAULT_MAX_PER_HOST = 8;
+
+	/** Size of the buffer used to read page bodies. */
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/** Maximum number of requests open against a single host at once. */
+	private final int maxPerHost;
+
+	/** Keeps the pages for conditional GETs, or null. */
+	private final PageCache cache;
+
+	/** Told about every download, or null. */
+	private volatile FetchObserver observer;
+
+	/**
+	 * Permits for open requests, for each host ("host:port") being downloaded from.
+	 * A host is forgotten once no thread uses it, so the map does not grow with every host ever contacted.
+	 */
+	private final ConcurrentMap<String, HostPermits> hostPermits = new ConcurrentHashMap<String, HostPermits>();
+
+	/** Read buffer for each thread, so we don't allocate a new one for every page. */
+	private final ThreadLocal<ByteBuffer> byteBuffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() { return ByteBuffer.allocate(BUFFER_SIZE); }
+	};
+
+	/** Decoding buffer for each thread, for pages which are handed over as characters. */
+	private final ThreadLocal<CharBuffer> charBuffers = new ThreadLocal<CharBuffer>() {
+		protected CharBuffer initialValue() { return CharBuffer.allocate(BUFFER_SIZE); }
+	};
+
+	/** Constructor. Allows DEFAULT_MAX_PER_HOST requests per host. */
+	public KeepAliveFetcher() {
+		this(DEFAULT_MAX_PER_HOST);
+	}
+
+	/**
+	 * Constructor.
+	 * See keepIdleConnections() for how many idle connections the JVM keeps to each host.
+	 *
+	 * @param maxPerHost Maximum number of requests open against a single host at once.
+	 */
+	public KeepAliveFetcher(final int maxPerHost) {
+		this(maxPerHost, null);
+	}
+
+	/**
+	 * Constructor.
+	 * See keepIdleConnections() for how many idle connections the JVM keeps to each host.
+	 *
+	 * @param maxPerHost Maximum number of requests open against a single host at once.
+	 * @param cache Keeps the pages for conditional GETs, or null to always download every page.
+	 */
+	public KeepAliveFetcher(final int maxPerHost, final PageCache cache) {
+		if (maxPerHost < 1)
+			throw new IllegalArgumentException("maxPerHost must be greater than 0: " + maxPerHost);
+		this.maxPerHost = maxPerHost;
+		this.cache = cache;
+	}
+
+	/**
+	 * Makes the JVM keep up to perHost idle connections to each host (the "http.maxConnections"
+	 * system property, 5 by default), unless the property was set already, e.g. on the command line.
+	 * Fewer than maxPerHost means some connections are closed instead of reused.
+	 *
+	 * The JVM reads the property only once, when the first HTTP connection is opened, and ignores it after:
+	 * so this must be called at startup, before anything is downloaded. Otherwise start the JVM
+	 * with -Dhttp.maxConnections=n instead.
+	 *
+	 * @param perHost Number of idle connections to keep to each host.
+	 */
+	public static void keepIdleConnections(final int perHost) {
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", Integer.toString(perHost));
+	}
+
+	/** {@inheritDoc} */
+	public String fetch(final String theURL) {
+		final StringBuilder result = new StringBuilder();
+		final boolean retrieved = fetch(theURL, new CharSink() {
+			public void chars(final char[] buf, final int off, final int len) {
+				result.append(buf, off, len);
+			}
+		});
+		return retrieved ? result.toString() : "";
+	}
+
+	/** {@inheritDoc} */
+	public boolean fetch(final String theURL, final CharSink sink) {
+		final URL url;
+		try {
+			url = new URL(theURL);
+		} catch (final MalformedURLException mue) {
+			mue.printStackTrace();
+			failed(theURL, System.nanoTime(), mue);
+			return false;
+		}
+
+		// Wait for our turn at this host.
+		final String host = url.getHost().toLowerCase() + ":" + url.getPort();
+		final HostPermits permits = join(host);
+		try {
+			permits.acquire();
+		} catch (final InterruptedException ie) {
+			leave(host, permits);
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		try {
+			return download(url, theURL, sink, cache != null);
+		} finally {
+			permits.release();
+			leave(host, permits);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void setObserver(final FetchObserver observer) { this.observer = observer; }
+
+	/** @return The PageCache used for conditional GETs, or null if there is none. */
+	public PageCache getCache() { return cache; }
+
+	/**
+	 * Helper method. Downloads the page, reading the response to the end
+	 * so the connection can go back to the keep-alive pool.
+	 *
+	 * @param url The page to download.
+	 * @param key The URL of the page as given, which the cache knows it by.
+	 * @param sink Receives the body of the page, as it arrives.
+	 * @param conditional Whether to make a conditional GET, if the page is in the cache.
+	 * @return True if the page was retrieved, False if it could not be retrieved.
+	 */
+	private boolean download(final URL url, final String key, final CharSink sink, final boolean conditional) {
+		final long startTime = System.nanoTime();
+		URLConnection uc = null;
+
+		try {
+			uc = url.openConnection();
+			uc.setConnectTimeout(TIMEOUT);
+			uc.setReadTimeout(TIMEOUT);
+			uc.setRequestProperty("User-Agent", USER_AGENT);
+
+			// Ask the server to skip the body if our copy is still current.
+			final PageCache.Entry cached = conditional ? cache.lookup(key) : null;
+			if (cached != null) {
+				if (cached.getEtag() != null)
+					uc.setRequestProperty("If-None-Match", cached.getEtag());
+				if (cached.getLastModified() != 0)
+					uc.setIfModifiedSince(cached.getLastModified());
+			}
+
+			final CountingInputStream body = new CountingInputStream(uc.getInputStream());
+			if (cached != null && ((HttpURLConnection) uc).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				body.close(); // There is no body; this gives the connection back to the pool.
+				if (!notModified(key, cached, sink)) {
+					// Forgotten since we asked; download it again without asking.
+					return download(url, key, sink, false);
+				}
+				fetched(key, startTime, 0);
+				return true;
+			}
+
+			// Store the page as it is read, if the server told us how to check it next time.
+			final PageCache.Recording recording = (cache != null) ? record(uc, key, body) : null;
+			final InputStream in = (recording != null) ? recording : body;
+			try {
+				final Charset charset = deliver(in, CharsetDetector.fromContentType(uc.getContentType()), sink);
+				if (recording != null)
+					recording.commit(charset);
+			} finally {
+				in.close();
+			}
+			fetched(key, startTime, body.getCount());
+
+			// Lots of exceptions can occur.
+		} catch (final FileNotFoundException fnf) {
+			System.err.println("*** FileNotFoundException: " + url);
+			discardErrorStream(uc);
+			failed(key, startTime, fnf);
+			return false;
+		} catch (final UnknownHostException uhe) {
+			System.err.println("*** UnknownHostException: " + url);
+			failed(key, startTime, uhe);
+			return false;
+		} catch (final IOException ioe) {
+			// Includes SocketTimeoutException.
+			ioe.printStackTrace();
+			discardErrorStream(uc);
+			failed(key, startTime, ioe);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Helper method. Tells the observer (if any) a page was downloaded.
+	 *
+	 * @param url The URL of the page.
+	 * @param startTime When the download started (System.nanoTime()).
+	 * @param bytes Number of bytes received for the body.
+	 */
+	private void fetched(final String url, final long startTime, final long bytes) {
+		final FetchObserver o = observer;
+		if (o != null)
+			o.fetched(url, System.nanoTime() - startTime, bytes);
+	}
+
+	/**
+	 * Helper method. Tells the observer (if any) a download failed.
+	 *
+	 * @param url The URL of the page.
+	 * @param startTime When the download started (System.nanoTime()).
+	 * @param error Why it failed.
+	 */
+	private void failed(final String url, final long startTime, final Exception error) {
+		final FetchObserver o = observer;
+		if (o != null)
+			o.failed(url, System.nanoTime() - startTime, error);
+	}
+
+	/**
+	 * Helper method. Hands over the cached copy of a page the server says has not changed,
+	 * unless the sink does not need it.
+	 *
+	 * @param key The URL of the page as given, which the cache knows it by.
+	 * @param cached The cached page.
+	 * @param sink Receives the body of the page.
+	 * @return True if the page was handed over (or not needed), False if the cached copy is gone.
+	 */
+	private boolean notModified(final String key, final PageCache.Entry cached,
+			final CharSink sink) throws IOException {
+		cache.countNotModified();
+		if (sink instanceof NotModifiedSink && ((NotModifiedSink) sink).notModified(key))
+			return true;
+
+		final InputStream in;
+		try {
+			in = cache.openBody(cached);
+		} catch (final IOException ioe) {
+			return false;
+		}
+		try {
+			deliver(in, cached.getCharset(), sink);
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method. Starts storing the body of a response in the cache, if it can be.
+	 *
+	 * @param uc The connection.
+	 * @param key The URL of the page as given, which the cache knows it by.
+	 * @param body The body of the response.
+	 * @return The body to read instead, which stores everything read; or null if it cannot be stored.
+	 */
+	private PageCache.Recording record(final URLConnection uc, final String key, final InputStream body) {
+		final String etag = uc.getHeaderField("ETag");
+		final long lastModified = uc.getLastModified();
+		if (etag == null && lastModified == 0)
+			return null; // We could never ask whether it changed.
+
+		final String cacheControl = uc.getHeaderField("Cache-Control");
+		if (cacheControl != null && cacheControl.toLowerCase().indexOf("no-store") >= 0)
+			return null;
+
+		return cache.record(key, etag, lastModified, body);
+	}
+
+	/**
+	 * Helper method. Hands a whole body over to a sink, as bytes or characters.
+	 *
+	 * @param in The body.
+	 * @param declared The encoding named by the Content-Type header, or null to look for a meta tag.
+	 * @param sink Receives the body.
+	 * @return The encoding of the body.
+	 */
+	private Charset deliver(final InputStream in, final Charset declared, final CharSink sink) throws IOException {
+		final ByteBuffer bytes = byteBuffers.get();
+		bytes.clear();
+
+		// If the header does not name the encoding, read enough of the page to find a meta tag.
+		Charset charset = declared;
+		if (charset == null) {
+			while (bytes.position() < CharsetDetector.SNIFF_SIZE && read(in, bytes)) {
+				/* Keep reading. */
+			}
+			charset = CharsetDetector.detect(null, bytes.array(), 0, bytes.position());
+		}
+
+		if (sink instanceof ByteSink && ((ByteSink) sink).acceptsBytes(charset))
+			copy(in, bytes, (ByteSink) sink);
+		else
+			decode(in, bytes, charset, sink);
+		return charset;
+	}
+
+	/**
+	 * Helper method. Hands the rest of a page over as bytes.
+	 *
+	 * @param in The body of the page.
+	 * @param bytes Buffer holding the bytes read so far (from 0 to its position).
+	 * @param sink Receives the bytes.
+	 */
+	private static void copy(final InputStream in, final ByteBuffer bytes, final ByteSink sink) throws IOException {
+		do {
+			bytes.flip();
+			if (bytes.hasRemaining())
+				sink.bytes(bytes);
+			bytes.clear();
+		} while (read(in, bytes));
+	}
+
+	/**
+	 * Helper method. Decodes the rest of a page, and hands it over as characters.
+	 * A character split between two reads is kept until the rest of it arrives.
+	 * Bytes which are not valid in the encoding become U+FFFD.
+	 *
+	 * @param in The body of the page.
+	 * @param bytes Buffer holding the bytes read so far (from 0 to its position).
+	 * @param charset The page's encoding.
+	 * @param sink Receives the characters.
+	 */
+	private void decode(final InputStream in, final ByteBuffer bytes, final Charset charset,
+			final CharSink sink) throws IOException {
+		final CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final CharBuffer chars = charBuffers.get();
+		chars.clear();
+
+		boolean endOfInput = false;
+		CoderResult result;
+		while (true) {
+			bytes.flip();
+			do {
+				result = decoder.decode(bytes, chars, endOfInput);
+				drain(chars, sink);
+			} while (result.isOverflow());
+			bytes.compact();
+
+			if (endOfInput)
+				break;
+			endOfInput = !read(in, bytes);
+		}
+
+		do {
+			result = decoder.flush(chars);
+			drain(chars, sink);
+		} while (result.isOverflow());
+	}
+
+	/**
+	 * Helper method. Hands the decoded characters over, and empties the buffer.
+	 *
+	 * @param chars Buffer holding characters (from 0 to its position).
+	 * @param sink Receives the characters.
+	 */
+	private static void drain(final CharBuffer chars, final CharSink sink) {
+		chars.flip();
+		if (chars.hasRemaining())
+			sink.chars(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+		chars.clear();
+	}
+
+	/**
+	 * Helper method. Reads once from a stream into the free space of a buffer.
+	 *
+	 * @param in The stream.
+	 * @param bytes The buffer; its position is moved past the bytes read.
+	 * @return False at the end of the stream.
+	 */
+	private static boolean read(final InputStream in, final ByteBuffer bytes) throws IOException {
+		final int read = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		if (read == -1)
+			return false;
+		bytes.position(bytes.position() + read);
+		return true;
+	}
+
+	/**
+	 * Helper method. Reads and closes the body of an error response (404, 500, etc),
+	 * otherwise the connection cannot be reused.
+	 *
+	 * @param uc The connection which failed, or null.
+	 */
+	private void discardErrorStream(final URLConnection uc) {
+		if (!(uc instanceof HttpURLConnection))
+			return;
+
+		final InputStream err = ((HttpURLConnection) uc).getErrorStream();
+		if (err == null)
+			return;
+
+		try {
+			final byte[] skip = new byte[BUFFER_SIZE];
+			while (err.read(skip) != -1) {
+				/* Throw away the error page. */
+			}
+			err.close();
+		} catch (final IOException ioe) {
+			/* The connection is broken anyway, it won't be reused. */
+		}
+	}
+
+	/**
+	 * Helper method. Finds (or creates) the permits for a host, and counts the calling thread as one of its users.
+	 * Each call must be matched by a call to leave().
+	 *
+	 * @param host The host ("host:port") of the URL being retrieved.
+	 * @return The permits limiting requests to the host.
+	 */
+	private HostPermits join(final String host) {
+		while (true) {
+			HostPermits permits = hostPermits.get(host);
+			if (permits == null) {
+				final HostPermits created = new HostPermits(maxPerHost);
+				permits = hostPermits.putIfAbsent(host, created);
+				if (permits == null)
+					permits = created;
+			}
+			if (permits.join())
+				return permits;
+			// Its last user is forgetting it; help, then make a new one.
+			hostPermits.remove(host, permits);
+		}
+	}
+
+	/**
+	 * Helper method. Stops counting the calling thread as a user of a host's permits,
+	 * and forgets the host if that was the last one.
+	 *
+	 * @param host The host ("host:port").
+	 * @param permits The permits returned by join().
+	 */
+	private void leave(final String host, final HostPermits permits) {
+		if (permits.leave())
+			hostPermits.remove(host, permits);
+	}
+
+	/**
+	 * The permits for open requests to one host, and the number of threads using them
+	 * (holding a permit or waiting for one). Once that number drops to zero the permits are closed
+	 * for good, so a thread which finds them in the map after that makes new ones instead;
+	 * there is never more than one set of permits in use for a host.
+	 */
+	private static final class HostPermits extends Semaphore {
+
+		/** For serialization, which is never used. */
+		private static final long serialVersionUID = 1L;
+
+		/** Number of threads using the permits, or -1 once they are closed. */
+		private final AtomicInteger users = new AtomicInteger(0);
+
+		/**
+		 * Constructor.
+		 *
+		 * @param max Maximum number of requests open against the host at once.
+		 */
+		HostPermits(final int max) {
+			super(max);
+		}
+
+		/** @return True if the calling thread now counts as a user, False if the permits are closed. */
+		boolean join() {
+			while (true) {
+				final int count = users.get();
+				if (count < 0)
+					return false;
+				if (users.compareAndSet(count, count + 1))
+					return true;
+			}
+		}
+
+		/** @return True if the calling thread was the last user, and closed the permits. */
+		boolean leave() {
+			return users.decrementAndGet() == 0 && users.compareAndSet(0, -1);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package fetch;
+
+/**
+ * A CharSink which may not need the page at all if it has not changed since it was cached,
+ * e.g. because it still has the results of analyzing it.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface NotModifiedSink extends CharSink {
+
+	/**
+	 * Called when the server says the cached copy of the page is still current
+	 * ("304 Not Modified"), before the cached copy is handed over.
+	 *
+	 * @param url The URL of the page.
+	 * @return True if the sink does not need the page after all,
+	 * 			False to receive the cached copy as if it had just been downloaded.
+	 */
+	boolean notModified(String url);
+}
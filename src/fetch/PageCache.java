@@ -0,0 +1,648 @@
+package fetch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of web pages on disk, for crawling the same sites again and again.
+ *
+ * For every cached page it keeps:
+ *  - the validators the server sent with it (ETag and/or Last-Modified), so the next request
+ *    can be a conditional GET, answered with a short "304 Not Modified" if nothing changed;
+ *  - the body, exactly as it was received, gzip-compressed in a file of its own;
+ *  - optionally, the results of analyzing the page (as opaque bytes, with a key describing
+ *    how they were worked out), so an unchanged page does not even have to be analyzed again.
+ *
+ * The index of pages is kept in memory in least-recently-used order. Once the files take up
+ * more than maxBytes, the least recently used pages are forgotten and their files deleted.
+ * save() writes the index to disk, so the cache can be used again by the next crawl.
+ *
+ * Thread-safe: the index is guarded by the cache's lock, but files are only
+ * read and written outside of it.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class PageCache {
+
+	/** Default maximum size of the cached files (1 GB). */
+	public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+	/** Name of the index file. */
+	private static final String INDEX = "index";
+
+	/** First four bytes of the index file ("PGCH"). */
+	private static final int MAGIC = 0x50474348;
+
+	/** Version of the index file format. */
+	private static final int VERSION = 1;
+
+	/** Extension of a compressed body. */
+	private static final String BODY = ".gz";
+
+	/** Extension of the results of analyzing a page. */
+	private static final String RESULT = ".res";
+
+	/** Extension of a file still being written. */
+	private static final String TEMP = ".tmp";
+
+	/** Size of the buffers used to read and write files. */
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/** Where the files are kept. */
+	private final File directory;
+
+	/** Maximum total size of the cached files, in bytes. */
+	private final long maxBytes;
+
+	/** The cached pages by URL, least recently used first. Guarded by this. */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** Total size of the cached files, in bytes. Guarded by this. */
+	private long bytes = 0;
+
+	/** Number of the next file. Guarded by this. */
+	private long nextId = 0;
+
+	/** Number of pages the server said had not changed. Guarded by this. */
+	private long notModified = 0;
+
+	/** Number of pages stored (new, or changed). Guarded by this. */
+	private long stored = 0;
+
+	/** Number of pages forgotten to make room. Guarded by this. */
+	private long evicted = 0;
+
+	/** Number of times the results of an earlier analysis were handed out. Guarded by this. */
+	private long resultsReused = 0;
+
+	/**
+	 * Constructor. Uses the default maximum size.
+	 *
+	 * @param directory Where to keep the files (created if it does not exist).
+	 */
+	public PageCache(final File directory) {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructor. Picks up the pages cached by an earlier crawl, if their index was saved.
+	 *
+	 * @param directory Where to keep the files (created if it does not exist).
+	 * @param maxBytes Maximum total size of the cached files, in bytes.
+	 */
+	public PageCache(final File directory, final long maxBytes) {
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("maxBytes must be greater than 0: " + maxBytes);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Cannot create directory: " + directory);
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		final File index = new File(directory, INDEX);
+		if (index.isFile()) {
+			try {
+				load(index);
+			} catch (final IOException ioe) {
+				// Start over with an empty cache.
+				ioe.printStackTrace();
+				entries.clear();
+				bytes = 0;
+			}
+		}
+		deleteUnknownFiles();
+		evict();
+	}
+
+	/**
+	 * Writes the index to disk, so the next crawl can use the cache.
+	 *
+	 * @throws IOException If the index could not be written.
+	 */
+	public void save() throws IOException {
+		// Copy the index, so it can be written without holding the lock.
+		final List<Entry> copy;
+		final long next;
+		synchronized (this) {
+			copy = new ArrayList<Entry>(entries.size());
+			for (Entry e : entries.values())
+				copy.add(e.copy());
+			next = nextId;
+		}
+
+		final File index = new File(directory, INDEX);
+		final File temp = new File(directory, INDEX + TEMP);
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(next);
+			out.writeInt(copy.size());
+			// Least recently used first, so the order is the same when the index is loaded.
+			for (Entry e : copy) {
+				out.writeUTF(e.url);
+				writeNullable(out, e.etag);
+				out.writeLong(e.lastModified);
+				out.writeUTF(e.charset);
+				out.writeLong(e.id);
+				out.writeLong(e.bodySize);
+				writeNullable(out, e.resultKey);
+				out.writeLong(e.resultSize);
+			}
+		} finally {
+			out.close();
+		}
+
+		// Some platforms cannot rename over an existing file.
+		if (!temp.renameTo(index) && !(index.delete() && temp.renameTo(index)))
+			throw new IOException("Cannot rename " + temp + " to " + index);
+	}
+
+	/**
+	 * @param url The URL of a page.
+	 * @return True if the page is in the cache.
+	 */
+	public synchronized boolean contains(final String url) {
+		return entries.containsKey(url);
+	}
+
+	/**
+	 * Finds the results of an earlier analysis of a page, if the page has not changed since.
+	 *
+	 * @param url The URL of the page.
+	 * @param key Describes how the results must have been worked out (e.g. which keywords were counted).
+	 * @return The results, or null if there are none for this key.
+	 */
+	public byte[] getResult(final String url, final String key) {
+		final File file;
+		final int size;
+		synchronized (this) {
+			final Entry e = entries.get(url);
+			if (e == null || !key.equals(e.resultKey))
+				return null;
+			file = file(e.id, RESULT);
+			size = (int) e.resultSize;
+		}
+
+		final byte[] result = new byte[size];
+		try {
+			final DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				in.readFully(result);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException ioe) {
+			// The page was changed or forgotten meanwhile.
+			return null;
+		}
+
+		synchronized (this) {
+			resultsReused++;
+		}
+		return result;
+	}
+
+	/**
+	 * Stores the results of analyzing a page, if its body is in the cache.
+	 * They are forgotten as soon as the page changes.
+	 *
+	 * @param url The URL of the page.
+	 * @param key Describes how the results were worked out.
+	 * @param result The results.
+	 */
+	public void putResult(final String url, final String key, final byte[] result) {
+		final long id;
+		synchronized (this) {
+			final Entry e = entries.get(url);
+			if (e == null)
+				return;
+			id = e.id;
+		}
+
+		final File temp = file(id, RESULT + TEMP);
+		final File file = file(id, RESULT);
+		try {
+			final OutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(result);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+				throw new IOException("Cannot rename " + temp + " to " + file);
+		} catch (final IOException ioe) {
+			ioe.printStackTrace();
+			delete(temp);
+			return;
+		}
+
+		synchronized (this) {
+			final Entry e = entries.get(url);
+			if (e == null || e.id != id) {
+				// The page was changed or forgotten meanwhile.
+				delete(file);
+				return;
+			}
+			bytes += result.length - e.resultSize;
+			e.resultKey = key;
+			e.resultSize = result.length;
+			evict();
+		}
+	}
+
+
+	// Accessors
+
+	/** @return Number of pages in the cache. */
+	public synchronized int size()               { return entries.size(); }
+
+	/** @return Total size of the cached files, in bytes. */
+	public synchronized long sizeInBytes()       { return bytes; }
+
+	/** @return Number of pages the server said had not changed, so far. */
+	public synchronized long getNotModified()    { return notModified; }
+
+	/** @return Number of pages stored (new, or changed), so far. */
+	public synchronized long getStored()         { return stored; }
+
+	/** @return Number of pages forgotten to make room, so far. */
+	public synchronized long getEvicted()        { return evicted; }
+
+	/** @return Number of times the results of an earlier analysis were reused, so far. */
+	public synchronized long getResultsReused()  { return resultsReused; }
+
+
+	// For the fetchers
+
+	/**
+	 * Looks up a page, so a conditional GET can be made for it. Counts as a use of the page.
+	 *
+	 * @param url The URL of the page.
+	 * @return The cached page, or null if it is not cached.
+	 */
+	synchronized Entry lookup(final String url) {
+		return entries.get(url);
+	}
+
+	/**
+	 * Opens the cached body of a page, e.g. after the server said it has not changed.
+	 *
+	 * @param entry The cached page.
+	 * @return The body, exactly as it was received.
+	 * @throws IOException If the body could not be opened (e.g. it was forgotten meanwhile).
+	 */
+	InputStream openBody(final Entry entry) throws IOException {
+		return new GZIPInputStream(new FileInputStream(file(entry.id, BODY)), BUFFER_SIZE);
+	}
+
+	/** Counts a page the server said had not changed. */
+	synchronized void countNotModified() {
+		notModified++;
+	}
+
+	/**
+	 * Starts storing the body of a page while it is being read.
+	 *
+	 * @param url The URL of the page.
+	 * @param etag The ETag header of the response, or null.
+	 * @param lastModified The Last-Modified header of the response, or 0.
+	 * @param body The body of the response.
+	 * @return A stream which reads the body and stores everything read; call commit() once it is all read.
+	 * 			Null if the body cannot be stored, in which case it should be read as usual.
+	 */
+	Recording record(final String url, final String etag, final long lastModified, final InputStream body) {
+		final long id;
+		synchronized (this) {
+			id = nextId++;
+		}
+		try {
+			return new Recording(url, etag, lastModified, id, body);
+		} catch (final IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Helper method. Reads the index written by save(). Only called by the constructor.
+	 *
+	 * @param index The index file.
+	 */
+	private void load(final File index) throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(index), BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a page cache index: " + index);
+			nextId = in.readLong();
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String url = in.readUTF();
+				final String etag = readNullable(in);
+				final long lastModified = in.readLong();
+				final String charset = in.readUTF();
+				final long id = in.readLong();
+				final long bodySize = in.readLong();
+				final Entry e = new Entry(url, etag, lastModified, charset, id, bodySize);
+				e.resultKey = readNullable(in);
+				e.resultSize = in.readLong();
+
+				// Skip pages whose body went missing; results without a file are just forgotten.
+				if (!file(id, BODY).isFile())
+					continue;
+				if (e.resultKey != null && !file(id, RESULT).isFile()) {
+					e.resultKey = null;
+					e.resultSize = 0;
+				}
+				entries.put(url, e);
+				bytes += e.bodySize + e.resultSize;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Helper method. Deletes the files no page in the index refers to, e.g. after a crash. Only called by the constructor. */
+	private void deleteUnknownFiles() {
+		final Set<String> known = new HashSet<String>();
+		for (Entry e : entries.values()) {
+			known.add(file(e.id, BODY).getName());
+			known.add(file(e.id, RESULT).getName());
+		}
+
+		final File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			final String name = f.getName();
+			final boolean ours = name.endsWith(BODY) || name.endsWith(RESULT) || name.endsWith(TEMP);
+			if (ours && !known.contains(name))
+				delete(f);
+		}
+	}
+
+	/**
+	 * Helper method. Stores a completely read body, replacing the page's previous body and results.
+	 *
+	 * @param entry The new page.
+	 */
+	private synchronized void install(final Entry entry) {
+		final Entry old = entries.put(entry.url, entry);
+		if (old != null)
+			forget(old);
+		bytes += entry.bodySize;
+		stored++;
+		evict();
+	}
+
+	/** Helper method. Forgets the least recently used pages until the files fit in maxBytes. Must hold the lock. */
+	private void evict() {
+		final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			final Entry e = it.next().getValue();
+			it.remove();
+			forget(e);
+			evicted++;
+		}
+	}
+
+	/** Helper method. Deletes the files of a page which is no longer in the index. Must hold the lock. */
+	private void forget(final Entry e) {
+		bytes -= e.bodySize + e.resultSize;
+		delete(file(e.id, BODY));
+		delete(file(e.id, RESULT));
+	}
+
+	/** Helper method. The file holding part of a page. */
+	private File file(final long id, final String extension) {
+		return new File(directory, Long.toHexString(id) + extension);
+	}
+
+	/** Helper method. Deletes a file, if it exists. */
+	private static void delete(final File file) {
+		if (!file.delete() && file.exists())
+			file.deleteOnExit();
+	}
+
+	/** Helper method. Writes a String which may be null. */
+	private static void writeNullable(final DataOutputStream out, final String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	/** Helper method. Reads a String written by writeNullable(). */
+	private static String readNullable(final DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/** A cached page. The validators and body never change; the results are guarded by the cache's lock. */
+	static final class Entry {
+
+		/** The URL of the page. */
+		private final String url;
+
+		/** The ETag header sent with the body, or null. */
+		private final String etag;
+
+		/** The Last-Modified header sent with the body, or 0. */
+		private final long lastModified;
+
+		/** Name of the encoding of the body. */
+		private final String charset;
+
+		/** Number of the page's files. */
+		private final long id;
+
+		/** Size of the compressed body, in bytes. */
+		private final long bodySize;
+
+		/** Describes how the results were worked out, or null if there are none. */
+		private String resultKey;
+
+		/** Size of the results, in bytes. */
+		private long resultSize;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param url The URL of the page.
+		 * @param etag The ETag header sent with the body, or null.
+		 * @param lastModified The Last-Modified header sent with the body, or 0.
+		 * @param charset Name of the encoding of the body.
+		 * @param id Number of the page's files.
+		 * @param bodySize Size of the compressed body, in bytes.
+		 */
+		Entry(final String url, final String etag, final long lastModified,
+				final String charset, final long id, final long bodySize) {
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.charset = charset;
+			this.id = id;
+			this.bodySize = bodySize;
+		}
+
+		/** @return A copy of the entry, results included. Must hold the cache's lock. */
+		Entry copy() {
+			final Entry e = new Entry(url, etag, lastModified, charset, id, bodySize);
+			e.resultKey = resultKey;
+			e.resultSize = resultSize;
+			return e;
+		}
+
+		/** @return The ETag header sent with the body, or null. */
+		String getEtag()            { return etag; }
+
+		/** @return The Last-Modified header sent with the body, or 0. */
+		long getLastModified()      { return lastModified; }
+
+		/** @return The encoding of the body. */
+		Charset getCharset()        { return Charset.forName(charset); }
+	}
+
+	/**
+	 * Reads the body of a response, and stores a compressed copy of everything read.
+	 * If storing fails (e.g. the disk is full) the body is still read as usual, just not stored.
+	 */
+	final class Recording extends FilterInputStream {
+
+		/** The URL of the page. */
+		private final String url;
+
+		/** The ETag header of the response, or null. */
+		private final String etag;
+
+		/** The Last-Modified header of the response, or 0. */
+		private final long lastModified;
+
+		/** Number of the page's files. */
+		private final long id;
+
+		/** The file being written. */
+		private final File temp;
+
+		/** Compresses into the file, or null once storing has failed, been committed or given up. */
+		private OutputStream out;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param url The URL of the page.
+		 * @param etag The ETag header of the response, or null.
+		 * @param lastModified The Last-Modified header of the response, or 0.
+		 * @param id Number of the page's files.
+		 * @param body The body of the response.
+		 * @throws IOException If the file could not be created.
+		 */
+		Recording(final String url, final String etag, final long lastModified,
+				final long id, final InputStream body) throws IOException {
+			super(body);
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.id = id;
+			this.temp = file(id, BODY + TEMP);
+			this.out = new GZIPOutputStream(new FileOutputStream(temp), BUFFER_SIZE);
+		}
+
+		/** {@inheritDoc} */
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0 && out != null) {
+				try {
+					out.write(b);
+				} catch (final IOException ioe) {
+					giveUp();
+				}
+			}
+			return b;
+		}
+
+		/** {@inheritDoc} */
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int read = super.read(b, off, len);
+			if (read > 0 && out != null) {
+				try {
+					out.write(b, off, read);
+				} catch (final IOException ioe) {
+					giveUp();
+				}
+			}
+			return read;
+		}
+
+		/** Skipped bytes would be missing from the copy, so nothing is stored after a skip. */
+		public long skip(final long n) throws IOException {
+			giveUp();
+			return super.skip(n);
+		}
+
+		/** {@inheritDoc} Marks are not supported, since the copy cannot be rewound. */
+		public boolean markSupported() { return false; }
+
+		/**
+		 * Stores the copy in the cache. Call once the body has been read to the end.
+		 *
+		 * @param charset The encoding of the body.
+		 */
+		void commit(final Charset charset) {
+			if (out == null)
+				return;
+			final OutputStream finished = out;
+			out = null;
+
+			final File file = file(id, BODY);
+			try {
+				finished.close();
+				if (!temp.renameTo(file))
+					throw new IOException("Cannot rename " + temp + " to " + file);
+			} catch (final IOException ioe) {
+				ioe.printStackTrace();
+				delete(temp);
+				return;
+			}
+			install(new Entry(url, etag, lastModified, charset.name(), id, file.length()));
+		}
+
+		/** Closes the body; the copy is thrown away unless it was committed. */
+		public void close() throws IOException {
+			giveUp();
+			super.close();
+		}
+
+		/** Helper method. Stops storing, and throws away the copy (unless it was committed). */
+		private void giveUp() {
+			if (out == null)
+				return;
+			try {
+				out.close();
+			} catch (final IOException ioe) {
+				/* The file is deleted anyway. */
+			}
+			out = null;
+			delete(temp);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package fetch;
+
+/**
+ * A Fetcher which can also hand over a page chunk by chunk, while it is being downloaded,
+ * instead of collecting the whole body into a String first.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface StreamingFetcher extends Fetcher {
+
+	/**
+	 * Retrieves HTML text from a given URL, passing it to a CharSink as it arrives.
+	 * Catches all exceptions. If the download fails half way,
+	 * the sink may already have received part of the page.
+	 *
+	 * @param theURL The URL of the page to retrieve.
+	 * @param sink Receives the text of the page.
+	 * @return True if the whole page was retrieved, False if it could not be retrieved.
+	 */
+	boolean fetch(String theURL, CharSink sink);
+}
@@ -0,0 +1,431 @@
+package model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import queue.PageBuffer;
+import queue.PageToRetrieve;
+import data.HistogramSnapshot;
+import data.Metrics;
+
+/**
+ * Sizes the PageRetriever and PageParser pools while the crawl runs, from a background thread,
+ * so the number of threads need not be guessed for every site.
+ *
+ * Every interval it looks at how many URLs and pages are waiting, how many pages were fetched
+ * and how long they took, and how busy the CPUs were, then grows or shrinks each pool within
+ * its bounds, AIMD-style: it adds a few threads at a time while that helps, and takes away
+ * a quarter of them at once when it hurts.
+ *
+ * The retrievers grow while there are URLs waiting and room in the PageBuffer: by half at a time
+ * at first, as in TCP's slow start, then, once they have had to back off, a few at a time. Each run of
+ * increases remembers the throughput and fetch latency it started from: as long as the throughput
+ * keeps up with the number of retrievers, they keep growing; once it no longer does, they stop
+ * growing, and if the fetches are also much slower than at the start (the servers are queueing
+ * the requests), they shrink and a new run starts. A site which slows down on its own costs
+ * at most one needless decrease, since the next run starts from the new latency.
+ *
+ * The parsers grow while pages pile up in the PageBuffer and the CPUs have time to spare,
+ * and shrink (down to one per processor) when the CPUs are saturated.
+ *
+ * One AutoScaler serves one crawl: hand it to SpiderConfig.setAutoScaler().
+ * Its counters can be read during and after the crawl.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class AutoScaler implements Runnable {
+
+	/** Default time between adjustments, in milliseconds (one second). */
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	/** Default least number of PageRetriever threads. */
+	public static final int DEFAULT_MIN_RETRIEVERS = 4;
+
+	/** Default most number of PageRetriever threads. */
+	public static final int DEFAULT_MAX_RETRIEVERS = 512;
+
+	/** Default least number of PageParser threads. */
+	public static final int DEFAULT_MIN_PARSERS = 1;
+
+	/** Default most number of PageParser threads: two per processor, for parsers which also wait (e.g. on the cache). */
+	public static final int DEFAULT_MAX_PARSERS = 2 * Runtime.getRuntime().availableProcessors();
+
+	/** Number of processors, the least number of parsers the CPU usage alone shrinks the pool to. */
+	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+	/** Number of retrievers added at a time. */
+	private static final int RETRIEVER_STEP = 4;
+
+	/** Number of parsers added at a time. */
+	private static final int PARSER_STEP = 1;
+
+	/** Share of the threads kept when a pool shrinks. */
+	private static final double DECREASE = 0.75;
+
+	/** Fetch latency, relative to the start of the run of increases, beyond which the servers are queueing. */
+	private static final double LATENCY_TOLERANCE = 1.5;
+
+	/** Share of the throughput expected from the threads added, below which adding more does not help. */
+	private static final double MIN_EFFICIENCY = 0.75;
+
+	/** Share of the CPU time used beyond which the CPUs are saturated. */
+	private static final double CPU_TARGET = 0.9;
+
+	/** Least number of fetches in an interval to judge the retrievers by. */
+	private static final long MIN_FETCHES = 10;
+
+	/** Least number of retrievers. */
+	private final int minRetrievers;
+
+	/** Most number of retrievers. */
+	private final int maxRetrievers;
+
+	/** Least number of parsers. */
+	private final int minParsers;
+
+	/** Most number of parsers. */
+	private final int maxParsers;
+
+	/** Time between adjustments, in nanoseconds. */
+	private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL);
+
+	/** The PageRetrievers of the crawl. */
+	private WorkerPool retrievers;
+
+	/** The PageParsers of the crawl. */
+	private WorkerPool parsers;
+
+	/** The queue of URLs to retrieve. */
+	private PageToRetrieve urlQueue;
+
+	/** The queue of pages to parse. */
+	private PageBuffer pageQueue;
+
+	/** The metrics recorded by the fetcher and the workers. */
+	private Metrics metrics;
+
+	/** The thread adjusting the pools. */
+	private volatile Thread thread;
+
+	/** Flag which tells the thread to stop. */
+	private volatile boolean stop = false;
+
+	/** Download times at the last adjustment. Only used by the thread. */
+	private HistogramSnapshot lastFetches;
+
+	/** Number of failed downloads at the last adjustment. Only used by the thread. */
+	private long lastFailures;
+
+	/** CPU time used by the JVM at the last adjustment, in nanoseconds, or -1 if unknown. Only used by the thread. */
+	private long lastCpu;
+
+	/** When the last adjustment was made (System.nanoTime()). Only used by the thread. */
+	private long lastTime;
+
+	/** Number of retrievers at the start of the current run of increases, or 0 if there is none. */
+	private int runRetrievers;
+
+	/** Fetches per second at the start of the current run of increases. */
+	private double runRate;
+
+	/** Mean fetch latency at the start of the current run of increases, in microseconds. */
+	private double runLatency;
+
+	/** Whether the retrievers have backed off yet; until then they grow by half at a time. */
+	private boolean backedOff;
+
+	/** Number of PageRetriever threads now. */
+	private volatile int retrieverCount;
+
+	/** Number of PageParser threads now. */
+	private volatile int parserCount;
+
+	/** Most PageRetriever threads at once so far. */
+	private volatile int peakRetrievers;
+
+	/** Most PageParser threads at once so far. */
+	private volatile int peakParsers;
+
+	/** Number of times a pool grew. */
+	private volatile int increases;
+
+	/** Number of times a pool shrank. */
+	private volatile int decreases;
+
+	/** Sum of the number of retrievers over time, in thread-nanoseconds. */
+	private volatile double retrieverNanos;
+
+	/** Sum of the number of parsers over time, in thread-nanoseconds. */
+	private volatile double parserNanos;
+
+	/** Time the pools have been adjusted over, in nanoseconds. */
+	private volatile long elapsedNanos;
+
+	/** Constructor, with the default bounds. */
+	public AutoScaler() {
+		this(DEFAULT_MIN_RETRIEVERS, DEFAULT_MAX_RETRIEVERS, DEFAULT_MIN_PARSERS, DEFAULT_MAX_PARSERS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param minRetrievers Least number of PageRetriever threads.
+	 * @param maxRetrievers Most number of PageRetriever threads.
+	 * @param minParsers Least number of PageParser threads.
+	 * @param maxParsers Most number of PageParser threads.
+	 */
+	public AutoScaler(final int minRetrievers, final int maxRetrievers, final int minParsers, final int maxParsers) {
+		if (minRetrievers < 1 || maxRetrievers < minRetrievers)
+			throw new IllegalArgumentException("Retriever bounds must be 1 <= min <= max: "
+					+ minRetrievers + ", " + maxRetrievers);
+		if (minParsers < 1 || maxParsers < minParsers)
+			throw new IllegalArgumentException("Parser bounds must be 1 <= min <= max: "
+					+ minParsers + ", " + maxParsers);
+		this.minRetrievers = minRetrievers;
+		this.maxRetrievers = maxRetrievers;
+		this.minParsers = minParsers;
+		this.maxParsers = maxParsers;
+	}
+
+	/** @param interval Time between adjustments, in milliseconds. Must be set before the crawl starts. */
+	public void setInterval(final long interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("interval must be greater than 0: " + interval);
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+	}
+
+	/**
+	 * Brings the pools within bounds, then starts adjusting them, on a new background thread.
+	 *
+	 * @param retrievers The PageRetrievers of the crawl.
+	 * @param parsers The PageParsers of the crawl.
+	 * @param urlQueue The queue of URLs to retrieve.
+	 * @param pageQueue The queue of pages to parse.
+	 * @param metrics The metrics recorded by the fetcher and the workers.
+	 */
+	public void start(final WorkerPool retrievers, final WorkerPool parsers,
+			final PageToRetrieve urlQueue, final PageBuffer pageQueue, final Metrics metrics) {
+		this.retrievers = retrievers;
+		this.parsers = parsers;
+		this.urlQueue = urlQueue;
+		this.pageQueue = pageQueue;
+		this.metrics = metrics;
+
+		retrieverCount = clamp(retrievers.size(), minRetrievers, maxRetrievers);
+		parserCount = clamp(parsers.size(), minParsers, maxParsers);
+		retrievers.resize(retrieverCount);
+		parsers.resize(parserCount);
+		peakRetrievers = retrieverCount;
+		peakParsers = parserCount;
+
+		lastFetches = metrics.getFetchLatency();
+		lastFailures = metrics.getFailures();
+		lastCpu = processCpuNanos();
+		lastTime = System.nanoTime();
+
+		final Thread t = new Thread(this, "AutoScaler");
+		t.setDaemon(true);
+		this.thread = t;
+		t.start();
+	}
+
+	/** Adjusts the pools every interval until stop() is called. */
+	public void run() {
+		while (!stop) {
+			LockSupport.parkNanos(this, intervalNanos);
+			if (!stop)
+				adjust();
+		}
+	}
+
+	/** Stops adjusting the pools, and waits for the thread to finish. Call before shutting the pools down. */
+	public void stop() {
+		final Thread t = thread;
+		if (t == null)
+			return;
+		stop = true;
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Helper method. Measures how the last interval went, and resizes the pools. */
+	private void adjust() {
+		final long now = System.nanoTime();
+		final long nanos = Math.max(1, now - lastTime);
+		final HistogramSnapshot fetches = metrics.getFetchLatency();
+		final HistogramSnapshot recent = fetches.since(lastFetches);
+		final long failures = metrics.getFailures();
+		final long cpu = processCpuNanos();
+
+		final double rate = (recent.getCount() + failures - lastFailures) * 1e9 / nanos;
+		final double cpuShare = (cpu < 0 || lastCpu < 0) ? -1 : (double) (cpu - lastCpu) / nanos / PROCESSORS;
+
+		retrieverNanos += (double) retrieverCount * nanos;
+		parserNanos += (double) parserCount * nanos;
+		elapsedNanos += nanos;
+		lastFetches = fetches;
+		lastFailures = failures;
+		lastCpu = cpu;
+		lastTime = now;
+
+		// Pages piling up in the buffer: the parsers are behind, and more downloads would only wait.
+		final boolean backlog = pageQueue.size() >= pageQueue.capacity() / 2;
+
+		final int r = scaleRetrievers(rate, recent, backlog);
+		if (r != retrieverCount) {
+			count(r > retrieverCount);
+			retrieverCount = r;
+			peakRetrievers = Math.max(peakRetrievers, r);
+			retrievers.resize(r);
+		}
+
+		final int p = scaleParsers(cpuShare, backlog);
+		if (p != parserCount) {
+			count(p > parserCount);
+			parserCount = p;
+			peakParsers = Math.max(peakParsers, p);
+			parsers.resize(p);
+		}
+	}
+
+	/**
+	 * Helper method. Works out the number of retrievers for the next interval.
+	 *
+	 * @param rate Number of downloads (successful or not) per second over the last interval.
+	 * @param recent Times of the successful downloads of the last interval.
+	 * @param backlog Whether the parsers are behind.
+	 * @return The number of retrievers.
+	 */
+	private int scaleRetrievers(final double rate, final HistogramSnapshot recent, final boolean backlog) {
+		final int n = retrieverCount;
+
+		// Hold while more retrievers could not help, or there is too little to judge by;
+		// the next run of increases starts from the throughput and latency of then.
+		if (backlog || urlQueue.size() < RETRIEVER_STEP || recent.getCount() < MIN_FETCHES) {
+			runRetrievers = 0;
+			return n;
+		}
+
+		final double latency = recent.getMean();
+		if (runRetrievers == 0) {
+			runRetrievers = n;
+			runRate = rate;
+			runLatency = latency;
+			return grow(n);
+		}
+
+		// Did the retrievers added since the start of the run bring the throughput they should have?
+		final double efficiency = rate / (runRate * n / runRetrievers);
+		if (efficiency >= MIN_EFFICIENCY)
+			return grow(n);
+		if (latency > runLatency * LATENCY_TOLERANCE) {
+			// No more throughput, only slower fetches: the servers are queueing our requests. Back off.
+			runRetrievers = 0;
+			backedOff = true;
+			return Math.max(minRetrievers, (int) (n * DECREASE));
+		}
+		return n;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param n Number of retrievers now.
+	 * @return The number of retrievers, one step up.
+	 */
+	private int grow(final int n) {
+		return Math.min(maxRetrievers, n + (backedOff ? RETRIEVER_STEP : Math.max(RETRIEVER_STEP, n / 2)));
+	}
+
+	/**
+	 * Helper method. Works out the number of parsers for the next interval.
+	 *
+	 * @param cpuShare Share of the CPU time the JVM used over the last interval, or -1 if unknown.
+	 * @param backlog Whether the parsers are behind.
+	 * @return The number of parsers.
+	 */
+	private int scaleParsers(final double cpuShare, final boolean backlog) {
+		final int n = parserCount;
+		if (cpuShare >= CPU_TARGET && n > PROCESSORS)
+			return Math.max(minParsers, Math.max(PROCESSORS, (int) (n * DECREASE)));
+		if (backlog && cpuShare < CPU_TARGET)
+			return Math.min(maxParsers, n + PARSER_STEP);
+		return n;
+	}
+
+	/**
+	 * Helper method. Counts an adjustment.
+	 *
+	 * @param up True if a pool grew, False if it shrank.
+	 */
+	private void count(final boolean up) {
+		if (up)
+			increases++;
+		else
+			decreases++;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param value A number.
+	 * @param min Least value.
+	 * @param max Most value.
+	 * @return The number, within the bounds.
+	 */
+	private static int clamp(final int value, final int min, final int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @return CPU time used by this JVM so far, in nanoseconds, or -1 if the JVM cannot tell.
+	 */
+	private static long processCpuNanos() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return -1;
+	}
+
+
+	// Accessors
+
+	/** @return Number of PageRetriever threads now. */
+	public int getRetrievers()       { return retrieverCount; }
+
+	/** @return Number of PageParser threads now. */
+	public int getParsers()          { return parserCount; }
+
+	/** @return Most PageRetriever threads at once so far. */
+	public int getPeakRetrievers()   { return peakRetrievers; }
+
+	/** @return Most PageParser threads at once so far. */
+	public int getPeakParsers()      { return peakParsers; }
+
+	/** @return Number of times a pool grew so far. */
+	public int getIncreases()        { return increases; }
+
+	/** @return Number of times a pool shrank so far. */
+	public int getDecreases()        { return decreases; }
+
+	/** @return Mean number of PageRetriever threads over the crawl so far (the current number before the first adjustment). */
+	public double getMeanRetrievers() {
+		final long elapsed = elapsedNanos;
+		return (elapsed == 0) ? retrieverCount : retrieverNanos / elapsed;
+	}
+
+	/** @return Mean number of PageParser threads over the crawl so far (the current number before the first adjustment). */
+	public double getMeanParsers() {
+		final long elapsed = elapsedNanos;
+		return (elapsed == 0) ? parserCount : parserNanos / elapsed;
+	}
+}
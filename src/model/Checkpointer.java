@@ -0,0 +1,208 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import queue.PageToRetrieve;
+import data.DataGatherer;
+import data.StatsSnapshot;
+
+/**
+ * Writes checkpoints of the crawl from a background thread, so a crawl which dies
+ * can be resumed from its last checkpoint instead of starting over.
+ *
+ * A checkpoint holds the statistics, the visited set, and every URL still to be handled
+ * (waiting in the Frontier, or handed out but not finished). It is streamed straight to disk
+ * while the crawl keeps going: nothing is copied up front, and no thread is stopped for more
+ * than a moment (see PageToRetrieve.writeTo). So a checkpoint is not an exact picture of any
+ * single moment, but it never loses a URL: after a resume, a page being handled while the
+ * checkpoint was written may be retrieved again, and its statistics counted twice.
+ *
+ * The file starts with MAGIC and VERSION, followed by the StatsSnapshot and the PageToRetrieve.
+ * It is written next to the checkpoint file first, then renamed, so a crash in the middle of
+ * a checkpoint leaves the previous one intact.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class Checkpointer implements Runnable {
+
+	/** First four bytes of a checkpoint file ("SPDR"). */
+	private static final int MAGIC = 0x53504452;
+
+	/** Version of the file format. Version 1 kept the parse time in milliseconds. */
+	private static final int VERSION = 2;
+
+	/** Size of the buffers used to read and write the file. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Where the checkpoints are written. */
+	private final File file;
+
+	/** Time between checkpoints, in nanoseconds. */
+	private final long intervalNanos;
+
+	/** The queue to save. */
+	private final PageToRetrieve urlQueue;
+
+	/** The statistics to save. */
+	private final DataGatherer dataGatherer;
+
+	/** The thread writing the checkpoints. */
+	private volatile Thread thread;
+
+	/** Flag which tells the thread to stop. */
+	private volatile boolean stop = false;
+
+	/** How long the last checkpoint took to write, in milliseconds. */
+	private volatile long lastDuration = 0;
+
+	/** Size of the last checkpoint, in bytes. */
+	private volatile long lastSize = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file Where to write the checkpoints.
+	 * @param intervalMillis Time between checkpoints, in milliseconds.
+	 * @param urlQueue The queue to save.
+	 * @param dataGatherer The statistics to save.
+	 */
+	public Checkpointer(final File file, final long intervalMillis,
+			final PageToRetrieve urlQueue, final DataGatherer dataGatherer) {
+		if (intervalMillis < 1)
+			throw new IllegalArgumentException("intervalMillis must be greater than 0: " + intervalMillis);
+		this.file = file;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		this.urlQueue = urlQueue;
+		this.dataGatherer = dataGatherer;
+	}
+
+	/** Starts writing checkpoints, on a new background thread. */
+	public void start() {
+		final Thread t = new Thread(this, "Checkpointer");
+		t.setDaemon(true);
+		this.thread = t;
+		t.start();
+	}
+
+	/** Writes a checkpoint every interval until stop() is called. */
+	public void run() {
+		while (!stop) {
+			LockSupport.parkNanos(this, intervalNanos);
+			if (!stop)
+				checkpointQuietly();
+		}
+	}
+
+	/**
+	 * Stops the checkpoint thread, waits for it to finish, then writes one last checkpoint.
+	 * Call once the PageRetrievers and PageParsers have stopped (but before the queue is closed),
+	 * so the last checkpoint is exact; a crawl which stopped at its page limit can then be
+	 * resumed with a higher limit.
+	 */
+	public void stop() {
+		final Thread t = thread;
+		if (t != null) {
+			stop = true;
+			LockSupport.unpark(t);
+			try {
+				t.join();
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		checkpointQuietly();
+	}
+
+	/**
+	 * Writes a checkpoint now, replacing the previous one once it is complete.
+	 *
+	 * @throws IOException If the checkpoint could not be written; the previous one is kept.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		final long startTime = System.nanoTime();
+		final File temp = new File(file.getPath() + ".tmp");
+
+		final FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			// The checkpoint starts before the statistics are taken: any page finished
+			// after that is saved as still to be handled, so its statistics are never lost.
+			urlQueue.startCheckpoint();
+			try {
+				dataGatherer.snapshot().writeTo(out);
+				urlQueue.writeTo(out);
+			} finally {
+				urlQueue.endCheckpoint();
+			}
+			out.flush();
+
+			// Make sure the checkpoint is really on disk before it replaces the previous one.
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		// Some platforms cannot rename over an existing file.
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+			throw new IOException("Cannot rename " + temp + " to " + file);
+
+		lastSize = file.length();
+		lastDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Restores a checkpoint, before the crawl starts: fills the queue (and its visited set),
+	 * and carries on the statistics.
+	 *
+	 * @param file The checkpoint file.
+	 * @param urlQueue An empty queue.
+	 * @param dataGatherer A DataGatherer which has not seen any page yet.
+	 * @return Number of URLs queued.
+	 * @throws IOException If the file could not be read, or is not a checkpoint.
+	 */
+	public static long restore(final File file, final PageToRetrieve urlQueue,
+			final DataGatherer dataGatherer) throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a checkpoint file: " + file);
+			final int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+
+			dataGatherer.restore(StatsSnapshot.readFrom(in));
+			return urlQueue.readFrom(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** @return How long the last checkpoint took to write, in milliseconds. */
+	public long getLastDuration() { return lastDuration; }
+
+	/** @return Size of the last checkpoint, in bytes. */
+	public long getLastSize() { return lastSize; }
+
+	/** Helper method. Writes a checkpoint; a failure is printed, and the crawl carries on. */
+	private void checkpointQuietly() {
+		try {
+			checkpoint();
+		} catch (final IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+}
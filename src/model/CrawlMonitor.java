@@ -0,0 +1,461 @@
+package model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import queue.PageBuffer;
+import queue.PageToRetrieve;
+import data.DataGatherer;
+import data.HistogramSnapshot;
+import data.Metrics;
+import data.WorkerStats;
+
+/**
+ * Makes the metrics of a running crawl available: through JMX (see CrawlMonitorMXBean),
+ * and as a machine-readable dump written periodically from a background thread.
+ *
+ * The dump has one line per interval, each a JSON object with the totals so far
+ * and the rates, latencies and busy ratios over the interval, e.g.
+ * <pre>
+ * {"time":1760000000000,"uptimeMs":10001,"pagesFetched":950,"pagesParsed":948,"bytesFetched":14250000,
+ *  "fetchFailures":2,"nearDuplicates":0,"workerErrors":0,"urlQueue":18000,"pageBuffer":3,
+ *  "interval":{"ms":10001,"pagesPerSec":95.0,"bytesPerSec":1424857.5,
+ *              "fetchLatencyMs":{"count":950,"mean":21.3,"p50":20.6,"p90":24.1,"p99":40.2,"p999":61.4,"max":61.9},
+ *              "parseTimeMs":{...},"pageLatencyMs":{...},"busy":{"PageRetriever":0.97,"PageParser":0.05}},
+ *  "fetchLatencyMs":{...},"parseTimeMs":{...},"pageLatencyMs":{...},"workers":{"PageRetriever-1":0.97,...},
+ *  "errors":{"SocketTimeoutException":2}}
+ * </pre>
+ * (on a single line). The "workers" ratios are over the interval too.
+ * The page latency runs from the start of a page's download until its findings were reported.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class CrawlMonitor implements CrawlMonitorMXBean, Runnable {
+
+	/** Name the monitor is registered under in JMX. */
+	public static final String OBJECT_NAME = "spider:type=CrawlMonitor";
+
+	/** Number of microseconds in a millisecond. */
+	private static final double MICROS_PER_MILLI = 1000.0;
+
+	/** The metrics recorded by the fetcher and the workers. */
+	private final Metrics metrics;
+
+	/** The queue of URLs to retrieve. */
+	private final PageToRetrieve urlQueue;
+
+	/** The queue of retrieved pages. */
+	private final PageBuffer pageQueue;
+
+	/** Counts the parsed pages. */
+	private final DataGatherer dataGatherer;
+
+	/** The name the monitor was registered under, or null if it is not registered. */
+	private ObjectName registeredName;
+
+	/** Where the dump is written, or null. */
+	private PrintWriter out;
+
+	/** Time between dumps, in nanoseconds. */
+	private long intervalNanos;
+
+	/** The thread writing the dump. */
+	private volatile Thread thread;
+
+	/** Flag which tells the thread to stop. */
+	private volatile boolean stop = false;
+
+	/** Uptime at the last dump, in nanoseconds. Guarded by this. */
+	private long lastUptime = 0;
+
+	/** Bytes received at the last dump. Guarded by this. */
+	private long lastBytes = 0;
+
+	/** The download times at the last dump, or null. Guarded by this. */
+	private HistogramSnapshot lastLatency;
+
+	/** The parse times at the last dump, or null. Guarded by this. */
+	private HistogramSnapshot lastParseTime;
+
+	/** The page latencies at the last dump, or null. Guarded by this. */
+	private HistogramSnapshot lastPageLatency;
+
+	/** Busy and idle time of each worker at the last dump. Guarded by this. */
+	private final Map<WorkerStats, long[]> lastWorkers = new IdentityHashMap<WorkerStats, long[]>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param metrics The metrics recorded by the fetcher and the workers.
+	 * @param urlQueue The queue of URLs to retrieve.
+	 * @param pageQueue The queue of retrieved pages.
+	 * @param dataGatherer Counts the parsed pages.
+	 */
+	public CrawlMonitor(final Metrics metrics, final PageToRetrieve urlQueue,
+			final PageBuffer pageQueue, final DataGatherer dataGatherer) {
+		this.metrics = metrics;
+		this.urlQueue = urlQueue;
+		this.pageQueue = pageQueue;
+		this.dataGatherer = dataGatherer;
+	}
+
+	/**
+	 * Registers the monitor with the platform MBeanServer, as OBJECT_NAME
+	 * (or OBJECT_NAME with an ",id=" if another crawl in this JVM already has that name).
+	 * A failure is printed, and the crawl carries on.
+	 */
+	public synchronized void register() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (int id = 1; registeredName == null; id++) {
+				final ObjectName name = new ObjectName((id == 1) ? OBJECT_NAME : OBJECT_NAME + ",id=" + id);
+				try {
+					server.registerMBean(this, name);
+					registeredName = name;
+				} catch (final InstanceAlreadyExistsException iae) {
+					/* Try the next id. */
+				}
+			}
+		} catch (final JMException jme) {
+			jme.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts writing the dump, on a new background thread.
+	 *
+	 * @param file Where to write the dump; lines are added to the end of it.
+	 * @param intervalMillis Time between dumps, in milliseconds.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public synchronized void startDump(final File file, final long intervalMillis) throws IOException {
+		if (intervalMillis < 1)
+			throw new IllegalArgumentException("intervalMillis must be greater than 0: " + intervalMillis);
+		this.out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+
+		final Thread t = new Thread(this, "CrawlMonitor");
+		t.setDaemon(true);
+		this.thread = t;
+		t.start();
+	}
+
+	/** Writes the dump every interval until stop() is called. */
+	public void run() {
+		while (!stop) {
+			LockSupport.parkNanos(this, intervalNanos);
+			if (!stop)
+				writeDump();
+		}
+	}
+
+	/**
+	 * Stops the dump thread and waits for it to finish, writes one last line so the final
+	 * totals are always in the dump, and unregisters the monitor from JMX.
+	 */
+	public void stop() {
+		final Thread t = thread;
+		if (t != null) {
+			stop = true;
+			LockSupport.unpark(t);
+			try {
+				t.join();
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			writeDump();
+			synchronized (this) {
+				out.close();
+			}
+		}
+
+		synchronized (this) {
+			if (registeredName != null) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+				} catch (final JMException jme) {
+					jme.printStackTrace();
+				}
+				registeredName = null;
+			}
+		}
+	}
+
+	/**
+	 * Describes the crawl so far, and since the last call.
+	 *
+	 * @return One line of the dump: a JSON object (without a line break).
+	 */
+	public synchronized String dump() {
+		final long uptime = metrics.getUptimeNanos();
+		final long bytes = metrics.getBytesFetched();
+		final HistogramSnapshot latency = metrics.getFetchLatency();
+		final HistogramSnapshot parseTime = metrics.getParseTime();
+		final HistogramSnapshot pageLatency = metrics.getPageLatency();
+		final double seconds = (uptime - lastUptime) / 1e9;
+
+		final StringBuilder sb = new StringBuilder(1024);
+		sb.append('{');
+		field(sb, "time", System.currentTimeMillis());
+		field(sb, "uptimeMs", TimeUnit.NANOSECONDS.toMillis(uptime));
+		field(sb, "pagesFetched", latency.getCount());
+		field(sb, "pagesParsed", dataGatherer.snapshot().getPagesTotal());
+		field(sb, "bytesFetched", bytes);
+		field(sb, "fetchFailures", metrics.getFailures());
+		field(sb, "nearDuplicates", metrics.getNearDuplicates());
+		field(sb, "workerErrors", metrics.getWorkerErrors());
+		field(sb, "urlQueue", urlQueue.size());
+		field(sb, "pageBuffer", pageQueue.size());
+
+		// The rates and latencies over the interval.
+		final HistogramSnapshot intervalLatency = (lastLatency == null) ? latency : latency.since(lastLatency);
+		sb.append("\"interval\":{");
+		field(sb, "ms", TimeUnit.NANOSECONDS.toMillis(uptime - lastUptime));
+		field(sb, "pagesPerSec", rate(intervalLatency.getCount(), seconds));
+		field(sb, "bytesPerSec", rate(bytes - lastBytes, seconds));
+		histogram(sb, "fetchLatencyMs", intervalLatency);
+		histogram(sb, "parseTimeMs", (lastParseTime == null) ? parseTime : parseTime.since(lastParseTime));
+		histogram(sb, "pageLatencyMs", (lastPageLatency == null) ? pageLatency : pageLatency.since(lastPageLatency));
+
+		// Add up the busy and idle time of each pool over the interval.
+		final Map<String, Double> workers = new TreeMap<String, Double>();
+		final Map<String, long[]> pools = new LinkedHashMap<String, long[]>();
+		for (WorkerStats w : metrics.getWorkers()) {
+			final long busy = w.getBusyNanos();
+			final long idle = w.getIdleNanos();
+			long[] last = lastWorkers.get(w);
+			if (last == null) {
+				last = new long[2];
+				lastWorkers.put(w, last);
+			}
+			final long busyDelta = busy - last[0];
+			final long idleDelta = idle - last[1];
+			last[0] = busy;
+			last[1] = idle;
+
+			workers.put(w.getName(), ratio(busyDelta, idleDelta));
+			long[] pool = pools.get(w.getPool());
+			if (pool == null) {
+				pool = new long[2];
+				pools.put(w.getPool(), pool);
+			}
+			pool[0] += busyDelta;
+			pool[1] += idleDelta;
+		}
+		sb.append("\"busy\":{");
+		for (Map.Entry<String, long[]> e : pools.entrySet())
+			field(sb, e.getKey(), ratio(e.getValue()[0], e.getValue()[1]));
+		endObject(sb);
+		endObject(sb);
+
+		histogram(sb, "fetchLatencyMs", latency);
+		histogram(sb, "parseTimeMs", parseTime);
+		histogram(sb, "pageLatencyMs", pageLatency);
+		sb.append("\"workers\":{");
+		for (Map.Entry<String, Double> e : workers.entrySet())
+			field(sb, e.getKey(), e.getValue());
+		endObject(sb);
+		sb.append("\"errors\":{");
+		for (Map.Entry<String, Long> e : metrics.getErrors().entrySet())
+			field(sb, e.getKey(), e.getValue());
+		endObject(sb);
+		sb.setLength(sb.length() - 1); // The last comma.
+		sb.append('}');
+
+		lastUptime = uptime;
+		lastBytes = bytes;
+		lastLatency = latency;
+		lastParseTime = parseTime;
+		lastPageLatency = pageLatency;
+		return sb.toString();
+	}
+
+
+	// Accessors (CrawlMonitorMXBean)
+
+	/** {@inheritDoc} */
+	public long getUptimeMillis()   { return TimeUnit.NANOSECONDS.toMillis(metrics.getUptimeNanos()); }
+
+	/** {@inheritDoc} */
+	public long getPagesFetched()   { return metrics.getFetchLatency().getCount(); }
+
+	/** {@inheritDoc} */
+	public long getPagesParsed()    { return dataGatherer.snapshot().getPagesTotal(); }
+
+	/** {@inheritDoc} */
+	public long getBytesFetched()   { return metrics.getBytesFetched(); }
+
+	/** {@inheritDoc} */
+	public long getFetchFailures()  { return metrics.getFailures(); }
+
+	/** {@inheritDoc} */
+	public long getNearDuplicates() { return metrics.getNearDuplicates(); }
+
+	/** {@inheritDoc} */
+	public long getWorkerErrors()   { return metrics.getWorkerErrors(); }
+
+	/** {@inheritDoc} */
+	public double getPagesPerSecond() {
+		return rate(getPagesFetched(), metrics.getUptimeNanos() / 1e9);
+	}
+
+	/** {@inheritDoc} */
+	public double getBytesPerSecond() {
+		return rate(getBytesFetched(), metrics.getUptimeNanos() / 1e9);
+	}
+
+	/** {@inheritDoc} */
+	public double getFetchLatencyMeanMillis()  { return metrics.getFetchLatency().getMean() / MICROS_PER_MILLI; }
+
+	/** {@inheritDoc} */
+	public double getFetchLatencyP50Millis()   { return fetchLatencyPercentile(50); }
+
+	/** {@inheritDoc} */
+	public double getFetchLatencyP90Millis()   { return fetchLatencyPercentile(90); }
+
+	/** {@inheritDoc} */
+	public double getFetchLatencyP99Millis()   { return fetchLatencyPercentile(99); }
+
+	/** {@inheritDoc} */
+	public double getFetchLatencyP999Millis()  { return fetchLatencyPercentile(99.9); }
+
+	/** {@inheritDoc} */
+	public double getFetchLatencyMaxMillis()   { return metrics.getFetchLatency().getMax() / MICROS_PER_MILLI; }
+
+	/** {@inheritDoc} */
+	public double getParseTimeMeanMillis()     { return metrics.getParseTime().getMean() / MICROS_PER_MILLI; }
+
+	/** {@inheritDoc} */
+	public double getParseTimeP99Millis() {
+		return metrics.getParseTime().getPercentile(99) / MICROS_PER_MILLI;
+	}
+
+	/** {@inheritDoc} */
+	public double getPageLatencyP50Millis() {
+		return metrics.getPageLatency().getPercentile(50) / MICROS_PER_MILLI;
+	}
+
+	/** {@inheritDoc} */
+	public double getPageLatencyP99Millis() {
+		return metrics.getPageLatency().getPercentile(99) / MICROS_PER_MILLI;
+	}
+
+	/** {@inheritDoc} */
+	public long getUrlQueueDepth()  { return urlQueue.size(); }
+
+	/** {@inheritDoc} */
+	public int getPageBufferDepth() { return pageQueue.size(); }
+
+	/** {@inheritDoc} */
+	public double getRetrieverBusyRatio() { return poolBusyRatio("PageRetriever"); }
+
+	/** {@inheritDoc} */
+	public double getParserBusyRatio()    { return poolBusyRatio("PageParser"); }
+
+	/** {@inheritDoc} */
+	public Map<String, Double> getWorkerBusyRatios() {
+		final Map<String, Double> ratios = new TreeMap<String, Double>();
+		for (WorkerStats w : metrics.getWorkers())
+			ratios.put(w.getName(), ratio(w.getBusyNanos(), w.getIdleNanos()));
+		return ratios;
+	}
+
+	/** {@inheritDoc} */
+	public Map<String, Long> getErrorCounts() { return metrics.getErrors(); }
+
+	/** Helper method. Writes a line of the dump; a failure is printed, and the crawl carries on. */
+	private void writeDump() {
+		final String line = dump();
+		synchronized (this) {
+			out.println(line);
+			out.flush();
+			if (out.checkError())
+				System.err.println("*** Cannot write the metrics dump");
+		}
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param percentile From 0 to 100.
+	 * @return The percentile of the download time so far, in milliseconds.
+	 */
+	private double fetchLatencyPercentile(final double percentile) {
+		return metrics.getFetchLatency().getPercentile(percentile) / MICROS_PER_MILLI;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param pool Name of a pool of workers.
+	 * @return Share of their time the pool's workers have spent busy so far.
+	 */
+	private double poolBusyRatio(final String pool) {
+		long busy = 0;
+		long idle = 0;
+		for (WorkerStats w : metrics.getWorkers()) {
+			if (pool.equals(w.getPool())) {
+				busy += w.getBusyNanos();
+				idle += w.getIdleNanos();
+			}
+		}
+		return ratio(busy, idle);
+	}
+
+	/** Helper method. The share of busy time, or 0 if there was no time at all. */
+	private static double ratio(final long busy, final long idle) {
+		return (busy + idle <= 0) ? 0 : (double) busy / (busy + idle);
+	}
+
+	/** Helper method. The rate per second, or 0 if no time has passed. */
+	private static double rate(final long count, final double seconds) {
+		return (seconds <= 0) ? 0 : count / seconds;
+	}
+
+	/** Helper method. Appends a histogram of microseconds to a JSON object, in milliseconds. */
+	private static void histogram(final StringBuilder sb, final String name, final HistogramSnapshot h) {
+		sb.append('"').append(name).append("\":{");
+		field(sb, "count", h.getCount());
+		field(sb, "mean", h.getMean() / MICROS_PER_MILLI);
+		field(sb, "p50", h.getPercentile(50) / MICROS_PER_MILLI);
+		field(sb, "p90", h.getPercentile(90) / MICROS_PER_MILLI);
+		field(sb, "p99", h.getPercentile(99) / MICROS_PER_MILLI);
+		field(sb, "p999", h.getPercentile(99.9) / MICROS_PER_MILLI);
+		field(sb, "max", h.getMax() / MICROS_PER_MILLI);
+		endObject(sb);
+	}
+
+	/** Helper method. Appends a whole number to a JSON object, followed by a comma. */
+	private static void field(final StringBuilder sb, final String name, final long value) {
+		sb.append('"').append(name).append("\":").append(value).append(',');
+	}
+
+	/** Helper method. Appends a number to a JSON object, followed by a comma. */
+	private static void field(final StringBuilder sb, final String name, final double value) {
+		sb.append('"').append(name).append("\":").append(String.format(Locale.ROOT, "%.3f", value)).append(',');
+	}
+
+	/** Helper method. Ends a JSON object whose last field is followed by a comma (if it has any). */
+	private static void endObject(final StringBuilder sb) {
+		if (sb.charAt(sb.length() - 1) == ',')
+			sb.setLength(sb.length() - 1);
+		sb.append("},");
+	}
+}
@@ -0,0 +1,89 @@
+package model;
+
+import java.util.Map;
+
+/**
+ * The metrics of a running crawl, as seen through JMX (e.g. in jconsole or VisualVM),
+ * under the name "spider:type=CrawlMonitor". Every value covers the whole crawl so far,
+ * apart from the queue depths, which are read at the moment they are asked for.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface CrawlMonitorMXBean {
+
+	/** @return Time since the crawl started, in milliseconds. */
+	long getUptimeMillis();
+
+	/** @return Number of pages downloaded (or found unchanged). */
+	long getPagesFetched();
+
+	/** @return Number of pages reported to the DataGatherer. */
+	long getPagesParsed();
+
+	/** @return Number of bytes received. */
+	long getBytesFetched();
+
+	/** @return Number of downloads which failed. */
+	long getFetchFailures();
+
+	/** @return Number of pages downloaded but skipped, as near-duplicates of pages parsed before. */
+	long getNearDuplicates();
+
+	/** @return Number of pages given up on after an unexpected error in a PageRetriever or PageParser. */
+	long getWorkerErrors();
+
+	/** @return Average number of pages downloaded per second. */
+	double getPagesPerSecond();
+
+	/** @return Average number of bytes received per second. */
+	double getBytesPerSecond();
+
+	/** @return Average download time, in milliseconds. */
+	double getFetchLatencyMeanMillis();
+
+	/** @return Median download time, in milliseconds. */
+	double getFetchLatencyP50Millis();
+
+	/** @return 90th percentile of the download time, in milliseconds. */
+	double getFetchLatencyP90Millis();
+
+	/** @return 99th percentile of the download time, in milliseconds. */
+	double getFetchLatencyP99Millis();
+
+	/** @return 99.9th percentile of the download time, in milliseconds. */
+	double getFetchLatencyP999Millis();
+
+	/** @return Longest download time, in milliseconds. */
+	double getFetchLatencyMaxMillis();
+
+	/** @return Average time taken to analyze a page, in milliseconds. */
+	double getParseTimeMeanMillis();
+
+	/** @return 99th percentile of the time taken to analyze a page, in milliseconds. */
+	double getParseTimeP99Millis();
+
+	/** @return Median time from the start of a page's download until its findings were reported, in milliseconds. */
+	double getPageLatencyP50Millis();
+
+	/** @return 99th percentile of that time, in milliseconds. */
+	double getPageLatencyP99Millis();
+
+	/** @return Number of URLs waiting in the PageToRetrieve queue. */
+	long getUrlQueueDepth();
+
+	/** @return Number of pages waiting in the PageBuffer. */
+	int getPageBufferDepth();
+
+	/** @return Share of their time the PageRetrievers have spent busy, from 0 to 1. */
+	double getRetrieverBusyRatio();
+
+	/** @return Share of their time the PageParsers have spent busy, from 0 to 1. */
+	double getParserBusyRatio();
+
+	/** @return Share of its time each worker has spent busy, from 0 to 1, by worker name. */
+	Map<String, Double> getWorkerBusyRatios();
+
+	/** @return Number of failed downloads, by simple name of the exception. */
+	Map<String, Long> getErrorCounts();
+}
@@ -0,0 +1,406 @@
+package model;
+
+import java.io.File;
+
+import cluster.Cluster;
+import fetch.ConnectionFetcher;
+import fetch.Fetcher;
+import parse.LinkScorer;
+import queue.Frontier;
+import queue.HashVisitedSet;
+import queue.NearDuplicateIndex;
+import queue.VisitedSet;
+import data.Metrics;
+
+/**
+ * Tuning options for a single run of the Spider.
+ * Every option starts out with a sensible default, so a new SpiderConfig
+ * can be handed straight to SpiderModel.execute(...).
+ *
+ * @author Derv
+ * @version 1
+ */
+public class SpiderConfig {
+
+	/** Default maximum number of URLs waiting to be retrieved (unbounded). */
+	public static final int DEFAULT_URL_QUEUE_CAPACITY = Integer.MAX_VALUE;
+
+	/** Default maximum number of retrieved pages waiting to be parsed. */
+	public static final int DEFAULT_PAGE_BUFFER_CAPACITY = 64;
+
+	/** Default number of PageRetriever threads. Retrieving is I/O-bound, so we can afford plenty. */
+	public static final int DEFAULT_RETRIEVER_THREADS = 32;
+
+	/** Default number of PageParser threads. Parsing is CPU-bound, so one per core. */
+	public static final int DEFAULT_PARSER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Default stack size of a PageRetriever thread (256 KB), small enough to run thousands of them. */
+	public static final long DEFAULT_RETRIEVER_STACK_SIZE = 256 * 1024;
+
+	/** Default time between checkpoints, in milliseconds (one minute). */
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 60 * 1000;
+
+	/** Default time between lines of the metrics dump, in milliseconds (ten seconds). */
+	public static final long DEFAULT_METRICS_INTERVAL = 10 * 1000;
+
+	/** Number of PageRetriever threads (pages being downloaded at once). */
+	private int retrieverThreads = DEFAULT_RETRIEVER_THREADS;
+
+	/** Number of PageParser threads (pages being parsed at once). */
+	private int parserThreads = DEFAULT_PARSER_THREADS;
+
+	/** Stack size of each PageRetriever thread in bytes, or 0 for the JVM default. */
+	private long retrieverStackSize = DEFAULT_RETRIEVER_STACK_SIZE;
+
+	/** Resizes the PageRetriever and PageParser pools while the crawl runs, or null to keep their sizes. */
+	private AutoScaler autoScaler = null;
+
+	/** Downloads the pages, shared by every PageRetriever. */
+	private Fetcher fetcher = new ConnectionFetcher();
+
+	/** Whether "Science" counts as the keyword "science". */
+	private boolean ignoreCase = false;
+
+	/** Whether keywords only count as whole words (not as part of a longer word). */
+	private boolean wholeWords = true;
+
+	/** Whether punctuation separates words, so "science," counts as "science". */
+	private boolean stripPunctuation = false;
+
+	/** Whether PageRetrievers analyze pages while downloading them, instead of passing whole bodies to the PageParsers. */
+	private boolean streaming = false;
+
+	/** Whether to print a report after every single page, from the PageParser threads. */
+	private boolean verboseReports = false;
+
+	/** Time between periodic reports, in milliseconds. */
+	private long reportInterval = 1000;
+
+	/** Also print a periodic report every time this many more pages are parsed (0 to turn off). */
+	private int reportEveryPages = 0;
+
+	/** Remembers the URLs added so far, so none is retrieved twice. */
+	private VisitedSet visitedSet = new HashVisitedSet();
+
+	/** Skips the pages whose content is a near-duplicate of a page parsed before, or null to parse every page. */
+	private NearDuplicateIndex nearDuplicates = null;
+
+	/** The cluster this node is part of, or null to crawl alone. */
+	private Cluster cluster = null;
+
+	/** Holds the URLs waiting to be retrieved, or null for an in-memory queue of urlQueueCapacity. */
+	private Frontier frontier = null;
+
+	/** Scores the URLs found, for best-first crawling with a ScoredFrontier. */
+	private LinkScorer linkScorer = new LinkScorer();
+
+	/** Maximum number of URLs the PageToRetrieve queue will hold at once. */
+	private int urlQueueCapacity = DEFAULT_URL_QUEUE_CAPACITY;
+
+	/** Where checkpoints of the crawl are written, or null for no checkpoints. */
+	private File checkpointFile = null;
+
+	/** Time between checkpoints, in milliseconds. */
+	private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+	/** Whether to resume the crawl from the checkpoint file, if there is one. */
+	private boolean resume = false;
+
+	/** Maximum number of Pages the PageBuffer queue will hold at once. */
+	private int pageBufferCapacity = DEFAULT_PAGE_BUFFER_CAPACITY;
+
+	/** Whether the metrics of the crawl are available through JMX. */
+	private boolean jmxEnabled = true;
+
+	/** Where the metrics are dumped periodically, or null for no dump. */
+	private File metricsFile = null;
+
+	/** Time between lines of the metrics dump, in milliseconds. */
+	private long metricsInterval = DEFAULT_METRICS_INTERVAL;
+
+	/** Where the crawl records how it is doing, or null for new Metrics for every crawl. */
+	private Metrics metrics = null;
+
+	/** Constructor, uses the default value for every option. */
+	public SpiderConfig() { }
+
+
+	// Accessors
+
+	/** @return Number of PageRetriever threads. */
+	public int getRetrieverThreads()     { return retrieverThreads; }
+
+	/** @return Number of PageParser threads. */
+	public int getParserThreads()        { return parserThreads; }
+
+	/** @return Stack size of each PageRetriever thread in bytes, or 0 for the JVM default. */
+	public long getRetrieverStackSize()  { return retrieverStackSize; }
+
+	/** @return Resizes the worker pools while the crawl runs, or null if their sizes are kept. */
+	public AutoScaler getAutoScaler()    { return autoScaler; }
+
+	/** @return The Fetcher shared by every PageRetriever. */
+	public Fetcher getFetcher()          { return fetcher; }
+
+	/** @return Whether keywords are matched regardless of case. */
+	public boolean isIgnoreCase()        { return ignoreCase; }
+
+	/** @return Whether keywords only count as whole words. */
+	public boolean isWholeWords()        { return wholeWords; }
+
+	/** @return Whether punctuation separates words. */
+	public boolean isStripPunctuation()  { return stripPunctuation; }
+
+	/** @return Whether pages are analyzed while they are downloaded. */
+	public boolean isStreaming()         { return streaming; }
+
+	/** @return Whether a report is printed after every single page. */
+	public boolean isVerboseReports()    { return verboseReports; }
+
+	/** @return Time between periodic reports, in milliseconds. */
+	public long getReportInterval()      { return reportInterval; }
+
+	/** @return Number of pages between periodic reports, or 0 if only reportInterval is used. */
+	public int getReportEveryPages()     { return reportEveryPages; }
+
+	/** @return The set remembering the URLs added so far. */
+	public VisitedSet getVisitedSet()    { return visitedSet; }
+
+	/** @return The index of the pages' content, or null if every page is parsed. */
+	public NearDuplicateIndex getNearDuplicates() { return nearDuplicates; }
+
+	/** @return The cluster this node is part of, or null if it crawls alone. */
+	public Cluster getCluster()          { return cluster; }
+
+	/** @return The Frontier holding the URLs waiting to be retrieved, or null for the default. */
+	public Frontier getFrontier()        { return frontier; }
+
+	/** @return Scores the URLs found, for best-first crawling. */
+	public LinkScorer getLinkScorer()    { return linkScorer; }
+
+	/** @return Maximum number of URLs the PageToRetrieve queue will hold. */
+	public int getUrlQueueCapacity()   { return urlQueueCapacity; }
+
+	/** @return Maximum number of Pages the PageBuffer queue will hold. */
+	public int getPageBufferCapacity() { return pageBufferCapacity; }
+
+	/** @return Where checkpoints of the crawl are written, or null for no checkpoints. */
+	public File getCheckpointFile()    { return checkpointFile; }
+
+	/** @return Time between checkpoints, in milliseconds. */
+	public long getCheckpointInterval() { return checkpointInterval; }
+
+	/** @return Whether to resume the crawl from the checkpoint file, if there is one. */
+	public boolean isResume()          { return resume; }
+
+	/** @return Whether the metrics of the crawl are available through JMX. */
+	public boolean isJmxEnabled()      { return jmxEnabled; }
+
+	/** @return Where the metrics are dumped periodically, or null for no dump. */
+	public File getMetricsFile()       { return metricsFile; }
+
+	/** @return Time between lines of the metrics dump, in milliseconds. */
+	public long getMetricsInterval()   { return metricsInterval; }
+
+	/** @return Where the crawl records how it is doing, or null for new Metrics for every crawl. */
+	public Metrics getMetrics()        { return metrics; }
+
+
+	// Mutators
+
+	/** @param threads Number of PageRetriever threads (pages being downloaded at once). */
+	public void setRetrieverThreads(final int threads) {
+		this.retrieverThreads = requirePositive(threads, "retrieverThreads");
+	}
+
+	/** @param threads Number of PageParser threads (pages being parsed at once). */
+	public void setParserThreads(final int threads) {
+		this.parserThreads = requirePositive(threads, "parserThreads");
+	}
+
+	/** @param stackSize Stack size of each PageRetriever thread in bytes, or 0 for the JVM default. */
+	public void setRetrieverStackSize(final long stackSize) {
+		if (stackSize < 0)
+			throw new IllegalArgumentException("retrieverStackSize must not be negative: " + stackSize);
+		this.retrieverStackSize = stackSize;
+	}
+
+	/**
+	 * @param scaler Grows and shrinks the PageRetriever and PageParser pools while the crawl runs,
+	 * 			within its bounds, starting from retrieverThreads and parserThreads,
+	 * 			or null (the default) to keep the pools at those sizes.
+	 * 			Should be a new one for every crawl.
+	 */
+	public void setAutoScaler(final AutoScaler scaler) { this.autoScaler = scaler; }
+
+	/**
+	 * @param fetcher Downloads the pages. Must be thread-safe, it is shared by every PageRetriever.
+	 * 			The default is a ConnectionFetcher; a KeepAliveFetcher reuses connections,
+	 * 			and with a PageCache it skips the pages which have not changed since the last crawl
+	 * 			(call KeepAliveFetcher.keepIdleConnections() at startup to keep enough connections open).
+	 */
+	public void setFetcher(final Fetcher fetcher) {
+		if (fetcher == null)
+			throw new IllegalArgumentException("fetcher must not be null");
+		this.fetcher = fetcher;
+	}
+
+	/** @param ignoreCase Whether keywords are matched regardless of case. */
+	public void setIgnoreCase(final boolean ignoreCase) { this.ignoreCase = ignoreCase; }
+
+	/** @param wholeWords Whether keywords only count as whole words (True), or anywhere in a word (False). */
+	public void setWholeWords(final boolean wholeWords) { this.wholeWords = wholeWords; }
+
+	/** @param stripPunctuation Whether punctuation separates words (True), or only whitespace does (False). */
+	public void setStripPunctuation(final boolean stripPunctuation) { this.stripPunctuation = stripPunctuation; }
+
+	/**
+	 * @param streaming Whether PageRetrievers analyze pages while downloading them (True),
+	 * 			so only a small summary of each page is passed to the PageParsers,
+	 * 			or download whole bodies for the PageParsers to analyze (False).
+	 * 			Streaming requires a StreamingFetcher, such as KeepAliveFetcher.
+	 */
+	public void setStreaming(final boolean streaming) { this.streaming = streaming; }
+
+	/**
+	 * @param verbose True to print a report after every single page (the way the Spider always worked),
+	 * 			False to print reports periodically from a background thread.
+	 */
+	public void setVerboseReports(final boolean verbose) { this.verboseReports = verbose; }
+
+	/** @param interval Time between periodic reports, in milliseconds. */
+	public void setReportInterval(final long interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("reportInterval must be greater than 0: " + interval);
+		this.reportInterval = interval;
+	}
+
+	/** @param pages Also print a periodic report every time this many more pages are parsed (0 to turn off). */
+	public void setReportEveryPages(final int pages) {
+		if (pages < 0)
+			throw new IllegalArgumentException("reportEveryPages must not be negative: " + pages);
+		this.reportEveryPages = pages;
+	}
+
+	/**
+	 * @param visitedSet Remembers the URLs added so far. The default is a HashVisitedSet;
+	 * 			use a FingerprintVisitedSet for crawls of millions of pages.
+	 * 			Should be empty (a new one for every crawl).
+	 */
+	public void setVisitedSet(final VisitedSet visitedSet) {
+		if (visitedSet == null)
+			throw new IllegalArgumentException("visitedSet must not be null");
+		this.visitedSet = visitedSet;
+	}
+
+	/**
+	 * @param index Remembers the SimHash of the content of every page parsed, so pages whose content
+	 * 			is a near-duplicate of one parsed before (mirrors, print views, session IDs in the URL)
+	 * 			are neither parsed nor counted, or null (the default) to parse every page.
+	 * 			Pages whose results came from a PageCache are not checked.
+	 * 			Should be empty (a new one for every crawl); it is not kept in checkpoints.
+	 */
+	public void setNearDuplicates(final NearDuplicateIndex index) { this.nearDuplicates = index; }
+
+	/**
+	 * @param cluster The cluster this node is part of, or null (the default) to crawl alone.
+	 * 			Each node crawls the hosts the cluster gives it, and forwards the links to other hosts
+	 * 			to their nodes; the page limit is for the whole cluster. Checkpoints are per node.
+	 */
+	public void setCluster(final Cluster cluster) { this.cluster = cluster; }
+
+	/**
+	 * @param frontier Holds the URLs waiting to be retrieved, e.g. a MappedFrontier for crawls 
+	 * 			too big for the heap, a HostFrontier to be polite to each host,
+	 * 			or a BestFirstFrontier to retrieve the most promising URLs first. Null (the default) means an in-memory queue of urlQueueCapacity.
+	 * 			Should be empty (a new one for every crawl); it is closed when the crawl is over.
+	 */
+	public void setFrontier(final Frontier frontier) { this.frontier = frontier; }
+
+	/**
+	 * @param linkScorer Scores the URLs found. The scores only matter if the Frontier
+	 * 			is a ScoredFrontier, such as a BestFirstFrontier.
+	 */
+	public void setLinkScorer(final LinkScorer linkScorer) {
+		if (linkScorer == null)
+			throw new IllegalArgumentException("linkScorer must not be null");
+		this.linkScorer = linkScorer;
+	}
+
+	/**
+	 * @param capacity Maximum number of URLs the PageToRetrieve queue will hold.
+	 * 			Ignored if a Frontier has been set.
+	 * 			URLs found while the queue is full are dropped.
+	 */
+	public void setUrlQueueCapacity(final int capacity) {
+		this.urlQueueCapacity = requirePositive(capacity, "urlQueueCapacity");
+	}
+
+	/**
+	 * @param capacity Maximum number of Pages the PageBuffer queue will hold.
+	 * 			PageRetrievers wait while the buffer is full.
+	 */
+	public void setPageBufferCapacity(final int capacity) {
+		this.pageBufferCapacity = requirePositive(capacity, "pageBufferCapacity");
+	}
+
+	/**
+	 * @param file Where checkpoints of the crawl are written (periodically, and once more when 
+	 * 			the crawl stops), or null (the default) for no checkpoints.
+	 * 			Each checkpoint replaces the previous one only once it is complete.
+	 */
+	public void setCheckpointFile(final File file) { this.checkpointFile = file; }
+
+	/** @param interval Time between checkpoints, in milliseconds. */
+	public void setCheckpointInterval(final long interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("checkpointInterval must be greater than 0: " + interval);
+		this.checkpointInterval = interval;
+	}
+
+	/**
+	 * @param resume True to resume the crawl from the checkpoint file instead of starting 
+	 * 			from the seed URL (if the file exists), False (the default) to start over.
+	 * 			A FingerprintVisitedSet can resume any crawl; a HashVisitedSet only a crawl which used one too.
+	 */
+	public void setResume(final boolean resume) { this.resume = resume; }
+
+	/**
+	 * @param enabled True (the default) to make the metrics of the crawl available through JMX,
+	 * 			as CrawlMonitor.OBJECT_NAME, while the crawl runs.
+	 */
+	public void setJmxEnabled(final boolean enabled) { this.jmxEnabled = enabled; }
+
+	/**
+	 * @param file Where the metrics are dumped periodically (one JSON object per line,
+	 * 			added to the end of the file), or null (the default) for no dump.
+	 */
+	public void setMetricsFile(final File file) { this.metricsFile = file; }
+
+	/** @param interval Time between lines of the metrics dump, in milliseconds. */
+	public void setMetricsInterval(final long interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("metricsInterval must be greater than 0: " + interval);
+		this.metricsInterval = interval;
+	}
+
+	/**
+	 * @param metrics Where the crawl records how it is doing, so the caller can read it during
+	 * 			and after the crawl (such as a load test), or null (the default) for new Metrics for every crawl.
+	 */
+	public void setMetrics(final Metrics metrics) { this.metrics = metrics; }
+
+	/**
+	 * Helper method. Rejects values less than 1.
+	 *
+	 * @param value The value to check.
+	 * @param name Name of the option, used in the error message.
+	 * @return The value, if it is valid.
+	 * @throws IllegalArgumentException If the value is less than 1.
+	 */
+	private static int requirePositive(final int value, final String name) {
+		if (value < 1)
+			throw new IllegalArgumentException(name + " must be greater than 0: " + value);
+		return value;
+	}
+}
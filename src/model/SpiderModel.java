@@ -1,10 +1,28 @@
 package model;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import cluster.Cluster;
+import fetch.KeepAliveFetcher;
+import fetch.PageCache;
+import fetch.StreamingFetcher;
+import parse.KeywordMatcher;
+import parse.UrlResolver;
+import queue.Frontier;
+import queue.MemoryFrontier;
 import queue.PageBuffer;
 import queue.PageToRetrieve;
+import queue.WorkTracker;
 import thread.PageParser;
 import thread.PageRetriever;
+import thread.Worker;
 import data.DataGatherer;
+import data.Metrics;
+import data.PeriodicReporter;
+import data.Reporter;
+import data.StatsSnapshot;
 
 /**
  * Model which contains all of the functionality of the Spider program.
@@ -22,6 +40,7 @@ public class SpiderModel {
 	public SpiderModel() { }
 	
 	/** Creates all necessary objects and ensures they work together.
+	 * Uses the same number of threads for retrieving and for parsing pages.
 	 * 
 	 * @param pageLimit Maximum number of pages to retrieve.
 	 * @param seedURL   Starting webpage.
@@ -30,84 +49,217 @@ public class SpiderModel {
 	 */
 	public void execute(final int pageLimit, final String seedURL, 
 			final String[] keywords, final int numberOfThreads) {
+		final SpiderConfig config = new SpiderConfig();
+		config.setRetrieverThreads(numberOfThreads);
+		config.setParserThreads(numberOfThreads);
+		execute(pageLimit, seedURL, keywords, config);
+	}
+	
+	/** Creates all necessary objects and ensures they work together.
+	 * 
+	 * @param pageLimit Maximum number of pages to retrieve.
+	 * @param seedURL   Starting webpage.
+	 * @param keywords  Collection of Strings to look for and key count of.
+	 * @param config    Tuning options, such as the number of threads and the queue capacities.
+	 * @throws IllegalArgumentException If the seed URL is not an http or https URL,
+	 * 			streaming is requested without a StreamingFetcher,
+	 * 			or the crawl cannot be resumed from the checkpoint file,
+	 * 			or this node's port of the cluster cannot be listened on.
+	 */
+	public void execute(final int pageLimit, final String seedURL, 
+			final String[] keywords, final SpiderConfig config) {
+		
+		// The seed goes into the visited set like every other URL: in canonical form.
+		final String seed = UrlResolver.canonical(seedURL);
+		if (seed == null)
+			throw new IllegalArgumentException("Not an http or https URL: " + seedURL);
+		
+		if (config.isStreaming() && !(config.getFetcher() instanceof StreamingFetcher))
+			throw new IllegalArgumentException("Streaming requires a StreamingFetcher, not " 
+					+ config.getFetcher().getClass().getName());
+		
+		// Counts the URLs in flight, so we know the moment we run out of work.
+		final WorkTracker tracker = new WorkTracker();
 		
 		// Initialize the queues
-		final PageToRetrieve  ptr = new PageToRetrieve();
-		final PageBuffer      pb  = new PageBuffer();
+		final Frontier frontier = (config.getFrontier() != null) ? config.getFrontier() 
+				: new MemoryFrontier(config.getUrlQueueCapacity());
+		final PageToRetrieve  ptr = new PageToRetrieve(frontier, tracker, config.getVisitedSet());
+		final PageBuffer      pb  = new PageBuffer(config.getPageBufferCapacity());
 		
-		// Initialize DataGatherer
-		final DataGatherer dg = new DataGatherer(pageLimit);
+		// Build the keyword matcher once; every PageParser (and streaming PageRetriever) shares it.
+		// The matcher gives each keyword an id, used to count it everywhere else.
+		final KeywordMatcher matcher = new KeywordMatcher(keywords, config.isIgnoreCase(), 
+				config.isWholeWords(), config.isStripPunctuation());
 		
-		// Initialize the PageRetriever thread pool
-		final PageRetriever[] prs = new PageRetriever[numberOfThreads];
-		for (int i = 0; i < numberOfThreads; i++) {
-			prs[i] = new PageRetriever(ptr, pb);
-			prs[i].start();
+		// Initialize DataGatherer, reporting either after every page or in the background.
+		final PeriodicReporter periodic;
+		final DataGatherer dg;
+		if (config.isVerboseReports()) {
+			periodic = null;
+			dg = new DataGatherer(pageLimit, matcher.keywords());
+		} else {
+			periodic = new PeriodicReporter(new Reporter(), 
+					config.getReportInterval(), config.getReportEveryPages());
+			dg = new DataGatherer(pageLimit, matcher.keywords(), periodic);
+			periodic.start(dg);
 		}
 		
-		// Initialize the PageParser thread pool
-		final PageParser[] pps = new PageParser[numberOfThreads];
-		for (int i = 0; i < numberOfThreads; i++) {
-			pps[i] = new PageParser(ptr, pb, keywords, dg);
-			pps[i].start();
+		// Resume from the last checkpoint, if asked to and there is one.
+		final File checkpointFile = config.getCheckpointFile();
+		long resumed = -1;
+		if (config.isResume() && checkpointFile != null && checkpointFile.isFile()) {
+			try {
+				resumed = Checkpointer.restore(checkpointFile, ptr, dg);
+			} catch (final IOException ioe) {
+				throw new IllegalArgumentException("Cannot resume from " + checkpointFile, ioe);
+			}
+			System.err.println("Resumed from " + checkpointFile + ": " + resumed + " URLs to retrieve.");
 		}
 		
-		// Add the initial URL to start from.
-		ptr.add(seedURL);
-		
-		// Wait until we have hit the page limit (dg.hitLimit)
-		//         OR the threads are done (isDone).
+		// Join the cluster, if any: from now on, links to the other nodes' hosts are forwarded to them.
+		final Cluster cluster = config.getCluster();
+		if (cluster != null) {
+			ptr.setRouter(cluster);
+			try {
+				cluster.start(ptr, tracker, dg, pageLimit);
+			} catch (final IOException ioe) {
+				throw new IllegalArgumentException("Cannot join the cluster as node " + cluster.getSelf(), ioe);
+			}
+		}
 		
-		do {
-			
-			// Wait 1 second before checking the threads.
-			// This gives the threads some time to think.
+		// Record how the crawl itself is doing; cheap enough to be always on.
+		final Metrics metrics = (config.getMetrics() != null) ? config.getMetrics() : new Metrics();
+		config.getFetcher().setObserver(metrics);
+		final CrawlMonitor monitor = new CrawlMonitor(metrics, ptr, pb, dg);
+		if (config.isJmxEnabled())
+			monitor.register();
+		if (config.getMetricsFile() != null) {
 			try {
-				Thread.sleep(1000);
-			} catch (final InterruptedException ie) { }
-			
-		} while (!dg.hitLimit() && !isDone(prs, pps, ptr, pb));
+				monitor.startDump(config.getMetricsFile(), config.getMetricsInterval());
+			} catch (final IOException ioe) {
+				monitor.stop();
+				throw new IllegalArgumentException("Cannot write metrics to " + config.getMetricsFile(), ioe);
+			}
+		}
+		
+		// If the fetcher caches pages, unchanged pages can reuse the results of analyzing them.
+		final PageCache cache = (config.getFetcher() instanceof KeepAliveFetcher) 
+				? ((KeepAliveFetcher) config.getFetcher()).getCache() : null;
+		
+		// Initialize the PageRetriever thread pool.
+		// Retrieving is I/O-bound: lots of threads, each with a small stack.
+		final WorkerPool retrievers = new WorkerPool("PageRetriever", config.getRetrieverStackSize(), 
+				new WorkerPool.Factory() {
+			public Worker newWorker() {
+				final PageRetriever retriever;
+				if (config.isStreaming() || cache != null) {
+					// In streaming mode, analyze pages as they arrive; the PageParsers only get the summaries.
+					retriever = new PageRetriever(ptr, pb, (StreamingFetcher) config.getFetcher(), 
+							matcher, config.isStreaming(), cache);
+				} else {
+					retriever = new PageRetriever(ptr, pb, config.getFetcher());
+				}
+				retriever.setMetrics(metrics);
+				retriever.setNearDuplicates(config.getNearDuplicates());
+				return retriever;
+			}
+		});
+		retrievers.resize(config.getRetrieverThreads());
+		
+		// Initialize the PageParser thread pool.
+		// Parsing is CPU-bound: about one thread per core.
+		final WorkerPool parsers = new WorkerPool("PageParser", 0, new WorkerPool.Factory() {
+			public Worker newWorker() {
+				final PageParser parser = new PageParser(ptr, pb, matcher, config.getLinkScorer(), dg, cache);
+				parser.setMetrics(metrics);
+				return parser;
+			}
+		});
+		parsers.resize(config.getParserThreads());
+		
+		// Resize the pools as the crawl goes, if asked to.
+		final AutoScaler scaler = config.getAutoScaler();
+		if (scaler != null)
+			scaler.start(retrievers, parsers, ptr, pb, metrics);
+		
+		if (resumed < 0) {
+			// Add the initial URL to start from (on a cluster, every node does; its node keeps it).
+			ptr.add(seed);
+		} else if (resumed == 0 || dg.hitLimit()) {
+			// The resumed crawl was already over.
+			tracker.finish();
+		}
+		
+		// Write checkpoints in the background, if asked to.
+		final Checkpointer checkpointer = (checkpointFile == null) ? null 
+				: new Checkpointer(checkpointFile, config.getCheckpointInterval(), ptr, dg);
+		if (checkpointer != null)
+			checkpointer.start();
+		
+		// Wait until we have hit the page limit OR run out of URLs.
+		// The tracker wakes us up the moment either one happens.
+		try {
+			tracker.await();
+			// A node of a cluster may run out of work before the others, and be sent more: wait for them all.
+			if (cluster != null)
+				cluster.await();
+		} catch (final InterruptedException ie) { 
+			Thread.currentThread().interrupt();
+		}
 		
 		System.err.println("Done!");
 		
 		// At this point, the program is done collecting information.
 		
-		// Tell the threads to stop the threads
-		for (PageRetriever pr : prs)
-			pr.stopThread();
-		for (PageParser pp : pps) 
-			pp.stopThread();
+		// Tell the threads to stop, and wait for them to do so.
+		if (scaler != null) {
+			scaler.stop();
+			System.err.println(String.format(Locale.US, "Auto-scaling: %d increases, %d decreases; "
+					+ "%.1f retrievers on average (at most %d), %.1f parsers on average (at most %d).", 
+					scaler.getIncreases(), scaler.getDecreases(), scaler.getMeanRetrievers(), 
+					scaler.getPeakRetrievers(), scaler.getMeanParsers(), scaler.getPeakParsers()));
+		}
+		retrievers.shutdown();
+		parsers.shutdown();
+		
+		// Send this node's statistics to the coordinator, or add up everyone's on the coordinator.
+		final StatsSnapshot clusterTotal = (cluster == null) ? null : cluster.finish(dg.snapshot());
+		if (cluster != null)
+			System.err.println("Cluster node " + cluster.getSelf() + ": " + cluster.getForwarded() 
+					+ " links forwarded, " + cluster.getReceived() + " received.");
 		
-		// Threads will stop on their own, and we're done!
-	}
-	
-	/**
-	 * Helper method which checks if the threads and queues have  
-	 * run out of web pages to parse.
-	 * 
-	 * @param pr Array of PageRetriever threads to see if they are not "busy"
-	 * @param pp Array of PageParser threads to see if they are not "busy"
-	 * @param ptr PageToRetrieve queue, to check if it's empty.
-	 * @param pb PageBuffer queue, to check if it's empty.
-	 * @return "True" if queues are empty and none of threads are busy, 
-	 * 			"False" otherwise
-	 */
-	private boolean isDone(final PageRetriever[] pr, final PageParser[] pp, 
-							final PageToRetrieve ptr, final PageBuffer pb) {
+		// Save where the crawl stopped, before the queue is released.
+		if (checkpointer != null)
+			checkpointer.stop();
 		
-		// If any of the page retriever threads are "busy", we are not done yet.
-		for (PageRetriever p : pr)
-			if (p.isBusy()) {
-				return false;
-			}
+		// Write the final metrics, while the queues can still be measured.
+		monitor.stop();
+		config.getFetcher().setObserver(null);
 		
-		// If any of the page parser threads are "busy", we are not done yet.
-		for (PageParser p : pp)
-			if (p.isBusy()) {
-				return false;
+		// Release the URL queue (and its files, if any).
+		ptr.close();
+		
+		// Keep the cached pages for the next crawl.
+		if (cache != null) {
+			System.err.println("Page cache: " + cache.getNotModified() + " not modified, " 
+					+ cache.getResultsReused() + " results reused, " + cache.getStored() + " stored, " 
+					+ cache.getEvicted() + " evicted.");
+			try {
+				cache.save();
+			} catch (final IOException ioe) {
+				ioe.printStackTrace();
 			}
+		}
+		
+		// Print the final statistics.
+		if (periodic != null)
+			periodic.stop();
+		if (clusterTotal != null) {
+			new Reporter().report(clusterTotal);
+			System.out.println("(Totals of the " + cluster.getSize() + " nodes of the cluster.)");
+		}
 		
-		// If either of the queues are not empty, we are not done yet!
-		return (ptr.size() == 0) && (pb.size() == 0);
+		// All of the threads have stopped, and we're done!
 	}
 }
@@ -0,0 +1,145 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import thread.Worker;
+
+/**
+ * A pool of threads which run long-lived worker loops
+ * (PageRetrievers or PageParsers), one per thread.
+ *
+ * Each pool gets its own thread name and stack size, so the I/O-bound
+ * retrievers and CPU-bound parsers can be sized independently.
+ * Small stacks let the retrieval pool run thousands of threads,
+ * since a thread waiting on a socket needs very little stack.
+ *
+ * The pool can be resized while the crawl runs (see AutoScaler): growing it starts
+ * new workers from its Factory, and shrinking it retires the newest workers,
+ * which stop once they have finished the work they had taken (right away, if they are waiting for work).
+ * The thread of a retired worker is kept for a while, for the next worker started.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class WorkerPool {
+
+	/** Time the thread of a retired worker is kept for the next worker, in seconds. */
+	private static final long KEEP_ALIVE = 60;
+
+	/** Makes the workers of this pool. */
+	public interface Factory {
+
+		/** @return A new worker, ready to run. */
+		Worker newWorker();
+	}
+
+	/** Runs the worker loops, one per thread. */
+	private final ExecutorService executor;
+
+	/** Makes the workers started when the pool grows. */
+	private final Factory factory;
+
+	/** The workers running and not retired, the newest first. Guarded by this. */
+	private final Deque<Worker> workers = new ArrayDeque<Worker>();
+
+	/**
+	 * Constructor. The pool starts out empty; resize() it to start the workers.
+	 *
+	 * @param name Prefix for the names of the threads in this pool.
+	 * @param stackSize Requested stack size for each thread in bytes, or 0 for the JVM default.
+	 * @param factory Makes the workers.
+	 */
+	public WorkerPool(final String name, final long stackSize, final Factory factory) {
+		this.factory = factory;
+		this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new WorkerThreadFactory(name, stackSize));
+	}
+
+	/**
+	 * Starts or retires workers, until the given number are running.
+	 * Returns at once: a retired worker may still finish the work it had taken.
+	 *
+	 * @param size Number of workers to run.
+	 */
+	public synchronized void resize(final int size) {
+		while (workers.size() < size) {
+			final Worker worker = factory.newWorker();
+			workers.addFirst(worker);
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						worker.run();
+					} finally {
+						forget(worker);
+					}
+				}
+			});
+		}
+		while (workers.size() > size)
+			workers.removeFirst().retire();
+	}
+
+	/** @return Number of workers running, not counting those retired. */
+	public synchronized int size() { return workers.size(); }
+
+	/**
+	 * Helper method. Forgets a worker which has stopped (retired, shut down, or failed).
+	 *
+	 * @param worker The worker.
+	 */
+	private synchronized void forget(final Worker worker) {
+		workers.remove(worker);
+	}
+
+	/**
+	 * Interrupts every worker, and waits for all of them to stop.
+	 * A PageRetriever in the middle of a download may take up to its
+	 * connection timeout to notice it has been told to stop.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				/* Keep waiting. */
+			}
+		} catch (final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Creates named threads with a given stack size. */
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		/** Prefix for the thread names. */
+		private final String name;
+
+		/** Stack size of each thread, or 0 for the JVM default. */
+		private final long stackSize;
+
+		/** Number of threads created so far, used to number the threads. */
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name Prefix for the thread names.
+		 * @param stackSize Stack size of each thread, or 0 for the JVM default.
+		 */
+		WorkerThreadFactory(final String name, final long stackSize) {
+			this.name = name;
+			this.stackSize = stackSize;
+		}
+
+		/** {@inheritDoc} */
+		public Thread newThread(final Runnable r) {
+			return new Thread(null, r, name + "-" + count.incrementAndGet(), stackSize);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package parse;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Describes how an ASCII-compatible encoding turns bytes into characters,
+ * so HtmlScanner can scan the bytes of a page directly.
+ *
+ * In an ASCII-compatible encoding every byte below 0x80 is the ASCII character
+ * with that code, and never part of a longer character. Bytes from 0x80 up are either:
+ *  - a whole character, looked up in a table (single-byte encodings such as ISO-8859-1 or windows-1252), or
+ *  - part of a multi-byte character (UTF-8), decoded by the scanner as they arrive.
+ *
+ * Immutable; one ByteDecoder per encoding is shared by everyone.
+ *
+ * @author Derv
+ * @version 1
+ */
+public final class ByteDecoder {
+
+	/** Character used for bytes which are not valid in the encoding. */
+	static final char REPLACEMENT = '\uFFFD';
+
+	/** The decoder for UTF-8. */
+	private static final ByteDecoder UTF8 = new ByteDecoder(null);
+
+	/** Stands for "this encoding cannot be scanned as bytes" in the cache. */
+	private static final ByteDecoder NONE = new ByteDecoder(new char[0]);
+
+	/** The decoders created so far, by encoding name. */
+	private static final ConcurrentMap<String, ByteDecoder> CACHE = new ConcurrentHashMap<String, ByteDecoder>();
+
+	/** The characters of bytes 0x80 to 0xFF, or null for UTF-8. */
+	private final char[] high;
+
+	/** @param high The characters of bytes 0x80 to 0xFF, or null for UTF-8. */
+	private ByteDecoder(final char[] high) {
+		this.high = high;
+	}
+
+	/**
+	 * @param charset An encoding.
+	 * @return The decoder for the encoding, or null if it is not ASCII-compatible
+	 * 			(such as UTF-16 or Shift_JIS), so the page must be decoded to characters first.
+	 */
+	public static ByteDecoder forCharset(final Charset charset) {
+		ByteDecoder decoder = CACHE.get(charset.name());
+		if (decoder == null) {
+			decoder = create(charset);
+			CACHE.put(charset.name(), decoder);
+		}
+		return (decoder == NONE) ? null : decoder;
+	}
+
+	/** @return True for UTF-8, False for a single-byte encoding. */
+	boolean isUtf8() { return high == null; }
+
+	/**
+	 * @param b A byte from 0x80 to 0xFF, of a single-byte encoding.
+	 * @return Its character.
+	 */
+	char decode(final int b) { return high[b - 0x80]; }
+
+	/**
+	 * Helper method. Works out whether an encoding is ASCII-compatible, and how.
+	 *
+	 * @param charset The encoding.
+	 * @return The decoder, or NONE.
+	 */
+	private static ByteDecoder create(final Charset charset) {
+		if ("UTF-8".equals(charset.name()))
+			return UTF8;
+		if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1)
+			return NONE;
+
+		// Decode every possible byte; a single-byte encoding gives exactly one character for each.
+		final byte[] all = new byte[256];
+		for (int b = 0; b < 256; b++)
+			all[b] = (byte) b;
+
+		final CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.replaceWith(String.valueOf(REPLACEMENT));
+		final CharBuffer chars;
+		try {
+			chars = decoder.decode(ByteBuffer.wrap(all));
+		} catch (final CharacterCodingException cce) {
+			return NONE;
+		}
+		if (chars.remaining() != 256)
+			return NONE;
+
+		for (int b = 0; b < 0x80; b++) {
+			if (chars.get(b) != b)
+				return NONE; // Not ASCII-compatible.
+		}
+
+		final char[] high = new char[0x80];
+		chars.position(0x80);
+		chars.get(high);
+		return new ByteDecoder(high);
+	}
+}
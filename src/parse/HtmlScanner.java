@@ -0,0 +1,397 @@
+package parse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single-pass scanner for HTML text.
+ *
+ * Walks the characters of a page exactly once, and reports
+ * every whitespace-separated word and every href attribute to a Handler.
+ * Words are handed over as a range of characters, not as Strings,
+ * so scanning a page only allocates a String for each link found.
+ *
+ * The text can be fed in one piece or in chunks (as it arrives from the network);
+ * words and links which span two chunks are handled correctly.
+ * 
+ * Pages in an ASCII-compatible encoding (such as UTF-8 or ISO-8859-1) can also be fed
+ * as raw bytes, which saves decoding the whole page to characters first:
+ * the ASCII bytes drive the state machine directly, and only the other bytes
+ * are turned into characters (for the words they belong to).
+ *
+ * Not thread-safe: each thread should use its own HtmlScanner.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class HtmlScanner {
+
+	/** Receives the words and links found by the scanner. */
+	public interface Handler {
+
+		/**
+		 * Called for every whitespace-separated word.
+		 * The characters are only valid until this method returns.
+		 *
+		 * @param buf Characters of the word, starting at index 0.
+		 * @param len Number of characters in the word.
+		 */
+		void word(char[] buf, int len);
+
+		/**
+		 * Called for every href attribute, e.g. &lt;a href="page.html"&gt;.
+		 * Double-quoted, single-quoted and unquoted values are all recognized,
+		 * and the attribute name is not case sensitive.
+		 *
+		 * @param href The value of the attribute.
+		 */
+		void link(String href);
+	}
+
+	/** Links longer than this are cut short (protects us from broken pages). */
+	private static final int MAX_LINK_LENGTH = 4096;
+
+	/** Size of the chunks a String is copied into while scanning. */
+	private static final int CHUNK_SIZE = 4096;
+
+	// States of the href state machine.
+
+	/** Outside of any tag. */
+	private static final int TEXT = 0;
+
+	/** Inside a tag, between attributes. */
+	private static final int TAG = 1;
+
+	/** Inside a quoted attribute value which is not an href. */
+	private static final int OTHER_VALUE = 2;
+
+	/** Read the attribute name "href", waiting for the '='. */
+	private static final int HREF_NAME = 3;
+
+	/** Read "href=", waiting for the value to start. */
+	private static final int HREF_EQUALS = 4;
+
+	/** Inside the value of an href attribute. */
+	private static final int HREF_VALUE = 5;
+
+	/** Where we report our findings. */
+	private final Handler handler;
+
+	/** Characters of the current word. */
+	private char[] word = new char[64];
+
+	/** Number of characters in the current word. */
+	private int wordLength;
+
+	/** Current state of the href state machine. */
+	private int state;
+
+	/** How many characters of "href" we have matched so far, or -1 if we are not at the start of an attribute. */
+	private int hrefMatched;
+
+	/** The quote character which will end the current value, or 0 if the value is unquoted. */
+	private char quote;
+
+	/** Characters of the current href value. */
+	private final StringBuilder link = new StringBuilder();
+
+	/** Reusable chunk used by feed(String). */
+	private final char[] chunk = new char[CHUNK_SIZE];
+	
+	/** Number of continuation bytes still expected for the current UTF-8 character. */
+	private int utf8Pending;
+	
+	/** The bits of the current UTF-8 character read so far. */
+	private int utf8CodePoint;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param handler Where to report the words and links found.
+	 */
+	public HtmlScanner(final Handler handler) {
+		this.handler = handler;
+		reset();
+	}
+
+	/** Forgets any partial word or link, ready to scan a new page. */
+	public void reset() {
+		wordLength = 0;
+		state = TEXT;
+		hrefMatched = -1;
+		quote = 0;
+		link.setLength(0);
+		utf8Pending = 0;
+	}
+
+	/**
+	 * Scans a whole String. Call finish() afterwards.
+	 *
+	 * @param text The text to scan.
+	 */
+	public void feed(final String text) {
+		final int length = text.length();
+		for (int start = 0; start < length; start += CHUNK_SIZE) {
+			final int end = Math.min(start + CHUNK_SIZE, length);
+			text.getChars(start, end, chunk, 0);
+			feed(chunk, 0, end - start);
+		}
+	}
+
+	/**
+	 * Scans the next chunk of text.
+	 *
+	 * @param buf Characters to scan.
+	 * @param off Index of the first character to scan.
+	 * @param len Number of characters to scan.
+	 */
+	public void feed(final char[] buf, final int off, final int len) {
+		final int end = off + len;
+		for (int i = off; i < end; i++)
+			step(buf[i]);
+	}
+
+	/**
+	 * Scans the next chunk of a page in an ASCII-compatible encoding, as bytes.
+	 * A UTF-8 character may be split between two chunks.
+	 * 
+	 * @param buf The bytes to scan, from its position to its limit. The position is moved to the limit.
+	 * @param decoder The page's encoding.
+	 */
+	public void feed(final ByteBuffer buf, final ByteDecoder decoder) {
+		if (buf.hasArray()) {
+			feed(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), decoder);
+			buf.position(buf.limit());
+		} else {
+			while (buf.hasRemaining())
+				stepByte(buf.get(), decoder);
+		}
+	}
+	
+	/**
+	 * Scans the next chunk of a page in an ASCII-compatible encoding, as bytes.
+	 * 
+	 * @param buf Bytes to scan.
+	 * @param off Index of the first byte to scan.
+	 * @param len Number of bytes to scan.
+	 * @param decoder The page's encoding.
+	 */
+	public void feed(final byte[] buf, final int off, final int len, final ByteDecoder decoder) {
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			final byte b = buf[i];
+			if (b >= 0 && utf8Pending == 0)
+				step((char) b); // ASCII: the common case.
+			else
+				stepByte(b, decoder);
+		}
+	}
+	
+	/** Tells the scanner the text is over, so the last word is reported. */
+	public void finish() {
+		if (utf8Pending > 0) {
+			// The page ended in the middle of a character.
+			utf8Pending = 0;
+			step(ByteDecoder.REPLACEMENT);
+		}
+		endWord();
+		if (state == HREF_VALUE && quote == 0)
+			endLink();
+		state = TEXT;
+	}
+
+	/**
+	 * Helper method. Processes a single character.
+	 *
+	 * @param c The next character of the text.
+	 */
+	private void step(final char c) {
+		final boolean space = isSpace(c);
+
+		// Words: everything between whitespace.
+		if (space) {
+			endWord();
+		} else {
+			if (wordLength == word.length) {
+				final char[] bigger = new char[word.length * 2];
+				System.arraycopy(word, 0, bigger, 0, wordLength);
+				word = bigger;
+			}
+			word[wordLength++] = c;
+		}
+
+		// Links: href attributes inside of tags.
+		switch (state) {
+		case TEXT:
+			if (c == '<') {
+				state = TAG;
+				hrefMatched = -1;
+			}
+			break;
+
+		case TAG:
+			tag(c, space);
+			break;
+
+		case OTHER_VALUE:
+			if (c == quote)
+				state = TAG;
+			break;
+
+		case HREF_NAME:
+			if (c == '=') {
+				state = HREF_EQUALS;
+			} else if (!space) {
+				// Something like "hreflang" or "href lang", not the attribute we want.
+				state = TAG;
+				hrefMatched = -1;
+				tag(c, space);
+			}
+			break;
+
+		case HREF_EQUALS:
+			if (c == '"' || c == '\'') {
+				quote = c;
+				state = HREF_VALUE;
+			} else if (c == '>') {
+				state = TEXT;
+			} else if (!space) {
+				quote = 0;
+				state = HREF_VALUE;
+				appendLink(c);
+			}
+			break;
+
+		case HREF_VALUE:
+			if (quote != 0 ? c == quote : (space || c == '>')) {
+				endLink();
+				state = (c == '>') ? TEXT : TAG;
+				hrefMatched = -1;
+			} else {
+				appendLink(c);
+			}
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Helper method. Processes a single byte of a page in an ASCII-compatible encoding.
+	 * 
+	 * @param b The next byte of the page.
+	 * @param decoder The page's encoding.
+	 */
+	private void stepByte(final byte b, final ByteDecoder decoder) {
+		final int u = b & 0xFF;
+		if (!decoder.isUtf8()) {
+			step(u < 0x80 ? (char) u : decoder.decode(u));
+			return;
+		}
+		
+		if (u >= 0x80 && u < 0xC0) {
+			// A continuation byte.
+			if (utf8Pending == 0) {
+				step(ByteDecoder.REPLACEMENT); // Not expected here.
+			} else {
+				utf8CodePoint = (utf8CodePoint << 6) | (u & 0x3F);
+				if (--utf8Pending == 0)
+					stepCodePoint(utf8CodePoint);
+			}
+			return;
+		}
+		
+		if (utf8Pending > 0) {
+			// The previous character was cut short.
+			utf8Pending = 0;
+			step(ByteDecoder.REPLACEMENT);
+		}
+		
+		if (u < 0x80) {
+			step((char) u);
+		} else if (u < 0xE0) {
+			utf8Pending = 1;
+			utf8CodePoint = u & 0x1F;
+		} else if (u < 0xF0) {
+			utf8Pending = 2;
+			utf8CodePoint = u & 0x0F;
+		} else if (u < 0xF8) {
+			utf8Pending = 3;
+			utf8CodePoint = u & 0x07;
+		} else {
+			step(ByteDecoder.REPLACEMENT); // Never valid in UTF-8.
+		}
+	}
+	
+	/**
+	 * Helper method. Processes a whole character decoded from UTF-8.
+	 * 
+	 * @param codePoint The character.
+	 */
+	private void stepCodePoint(final int codePoint) {
+		if (codePoint < 0x10000) {
+			step((char) codePoint);
+		} else if (codePoint <= Character.MAX_CODE_POINT) {
+			// Outside the Basic Multilingual Plane: two chars, like in a String.
+			final int bits = codePoint - 0x10000;
+			step((char) (0xD800 + (bits >>> 10)));
+			step((char) (0xDC00 + (bits & 0x3FF)));
+		} else {
+			step(ByteDecoder.REPLACEMENT);
+		}
+	}
+	
+	/**
+	 * Helper method. Processes a character inside a tag, looking for the start of an href attribute.
+	 *
+	 * @param c The character.
+	 * @param space Whether the character is whitespace.
+	 */
+	private void tag(final char c, final boolean space) {
+		if (c == '>') {
+			state = TEXT;
+		} else if (c == '"' || c == '\'') {
+			quote = c;
+			state = OTHER_VALUE;
+		} else if (space) {
+			hrefMatched = 0; // An attribute name may start after whitespace.
+		} else if (hrefMatched >= 0 && (c | 0x20) == "href".charAt(hrefMatched)) {
+			if (++hrefMatched == 4)
+				state = HREF_NAME;
+		} else {
+			hrefMatched = -1;
+		}
+	}
+
+	/** Helper method. Adds a character to the current link, unless it is already too long. */
+	private void appendLink(final char c) {
+		if (link.length() < MAX_LINK_LENGTH)
+			link.append(c);
+	}
+
+	/** Helper method. Reports the current link (if any) and clears it. */
+	private void endLink() {
+		if (link.length() > 0) {
+			handler.link(link.toString());
+			link.setLength(0);
+		}
+	}
+
+	/** Helper method. Reports the current word (if any) and clears it. */
+	private void endWord() {
+		if (wordLength > 0) {
+			handler.word(word, wordLength);
+			wordLength = 0;
+		}
+	}
+
+	/**
+	 * Helper method. Same whitespace as the default StringTokenizer: space, tab, newline, carriage return, form feed.
+	 *
+	 * @param c The character.
+	 * @return True if the character is whitespace.
+	 */
+	private static boolean isSpace(final char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+	}
+}
@@ -0,0 +1,321 @@
+package parse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds every occurrence of any number of keywords in a word, in one pass
+ * over its characters, using an Aho-Corasick automaton. The cost of matching
+ * depends on the length of the text, not on how many keywords there are,
+ * so thousands of keywords are no slower than a handful.
+ *
+ * Every distinct keyword is given a small integer id: 0, 1, 2, ...
+ * Matches are counted into an int[] indexed by id.
+ *
+ * Options:
+ *  - ignoreCase: "Science" counts as "science".
+ *  - wholeWords: a keyword only counts if it is a whole word, not part of a longer one.
+ *  - stripPunctuation: punctuation separates words, so "science," counts as "science".
+ *    Without it, only whitespace separates words (this is how the Spider always worked).
+ *
+ * Thread-safe once built, since it never changes: one matcher is shared by every PageParser.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class KeywordMatcher {
+
+	/** Number of characters with a direct transition table at the root state. */
+	private static final int ROOT_TABLE_SIZE = 128;
+
+	/** The root state of the automaton. */
+	private static final int ROOT = 0;
+
+	/** The distinct keywords, indexed by id (as first given, before case folding). */
+	private final String[] keywords;
+
+	/** Length of each keyword, indexed by id. */
+	private final int[] lengths;
+
+	/** Whether to ignore the case of letters. */
+	private final boolean ignoreCase;
+
+	/** Whether keywords only count as whole words. */
+	private final boolean wholeWords;
+
+	/** Whether punctuation separates words. */
+	private final boolean stripPunctuation;
+
+	// The automaton, stored as flat arrays indexed by state.
+	// The transitions of state s are edgeChars/edgeTargets[edgeStart[s] .. edgeStart[s + 1] - 1], sorted by character.
+
+	/** Index of each state's first transition. */
+	private final int[] edgeStart;
+
+	/** The character of each transition. */
+	private final char[] edgeChars;
+
+	/** The target state of each transition. */
+	private final int[] edgeTargets;
+
+	/** Transitions out of the root state for the most common characters, for speed. */
+	private final int[] rootTable = new int[ROOT_TABLE_SIZE];
+
+	/** The failure link of each state: the longest proper suffix which is also in the automaton. */
+	private final int[] fail;
+
+	/** Id of the keyword which ends at each state, or -1. */
+	private final int[] output;
+
+	/** Nearest state along the failure links which has an output, or -1. */
+	private final int[] outputLink;
+
+	/**
+	 * Constructor. Matches exactly like the Spider always has:
+	 * case sensitive, whole words separated by whitespace.
+	 *
+	 * @param words The keywords to look for.
+	 */
+	public KeywordMatcher(final String[] words) {
+		this(words, false, true, false);
+	}
+
+	/**
+	 * Constructor. Builds the automaton.
+	 * Duplicate keywords (after ignoring case, if requested) are only added once.
+	 *
+	 * @param words The keywords to look for.
+	 * @param ignoreCase Whether to ignore the case of letters.
+	 * @param wholeWords Whether keywords only count as whole words.
+	 * @param stripPunctuation Whether punctuation separates words.
+	 */
+	public KeywordMatcher(final String[] words, final boolean ignoreCase,
+			final boolean wholeWords, final boolean stripPunctuation) {
+		this.ignoreCase = ignoreCase;
+		this.wholeWords = wholeWords;
+		this.stripPunctuation = stripPunctuation;
+
+		// Step 1: build a trie of the keywords.
+		final List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		final List<Integer> ends = new ArrayList<Integer>();
+		trie.add(new TreeMap<Character, Integer>());
+		ends.add(-1);
+
+		final List<String> distinct = new ArrayList<String>();
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (String word : words) {
+			if (word.length() == 0)
+				continue;
+
+			final String folded = fold(word);
+			if (ids.containsKey(folded))
+				continue;
+			ids.put(folded, distinct.size());
+
+			int state = ROOT;
+			for (int i = 0; i < folded.length(); i++) {
+				final Character c = folded.charAt(i);
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.add(new TreeMap<Character, Integer>());
+					ends.add(-1);
+					trie.get(state).put(c, next);
+				}
+				state = next;
+			}
+			ends.set(state, distinct.size());
+			distinct.add(word);
+		}
+
+		this.keywords = distinct.toArray(new String[distinct.size()]);
+		this.lengths = new int[keywords.length];
+		for (int id = 0; id < keywords.length; id++)
+			lengths[id] = keywords[id].length();
+
+		// Step 2: flatten the trie into arrays.
+		final int states = trie.size();
+		int edges = 0;
+		for (TreeMap<Character, Integer> node : trie)
+			edges += node.size();
+
+		this.edgeStart = new int[states + 1];
+		this.edgeChars = new char[edges];
+		this.edgeTargets = new int[edges];
+		this.output = new int[states];
+		int e = 0;
+		for (int s = 0; s < states; s++) {
+			edgeStart[s] = e;
+			for (Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+				edgeChars[e] = edge.getKey();
+				edgeTargets[e] = edge.getValue();
+				e++;
+			}
+			output[s] = ends.get(s);
+		}
+		edgeStart[states] = e;
+
+		for (int c = 0; c < ROOT_TABLE_SIZE; c++)
+			rootTable[c] = edge(ROOT, (char) c);
+
+		// Step 3: breadth-first, compute the failure links and output links.
+		this.fail = new int[states];
+		this.outputLink = new int[states];
+		outputLink[ROOT] = -1;
+
+		final LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+			fail[edgeTargets[i]] = ROOT;
+			outputLink[edgeTargets[i]] = -1;
+			queue.add(edgeTargets[i]);
+		}
+		while (!queue.isEmpty()) {
+			final int s = queue.removeFirst();
+			for (int i = edgeStart[s]; i < edgeStart[s + 1]; i++) {
+				final int child = edgeTargets[i];
+				final int f = next(fail[s], edgeChars[i]);
+				fail[child] = f;
+				outputLink[child] = (output[f] >= 0) ? f : outputLink[f];
+				queue.add(child);
+			}
+		}
+	}
+
+	/** @return Number of distinct keywords. */
+	public int size() { return keywords.length; }
+
+	/**
+	 * @param id Id of a keyword.
+	 * @return The keyword with the given id.
+	 */
+	public String keyword(final int id) { return keywords[id]; }
+
+	/** @return A copy of the distinct keywords, indexed by id. */
+	public String[] keywords() { return keywords.clone(); }
+
+	/**
+	 * @return The keywords and options. Two matchers with the same description
+	 * 			count exactly the same words, so their results can be used interchangeably.
+	 * 			Each keyword is preceded by its length, so no two sets of keywords look alike.
+	 */
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("KeywordMatcher[");
+		for (String keyword : keywords)
+			sb.append(keyword.length()).append(':').append(keyword).append(", ");
+		sb.append("ignoreCase=").append(ignoreCase);
+		sb.append(", wholeWords=").append(wholeWords);
+		sb.append(", stripPunctuation=").append(stripPunctuation).append(']');
+		return sb.toString();
+	}
+
+	/**
+	 * Counts the keywords found in a word.
+	 *
+	 * @param buf Characters holding the word.
+	 * @param off Index of the first character of the word.
+	 * @param len Number of characters in the word.
+	 * @param counts Incremented (by keyword id) for every keyword found.
+	 * @return Number of keywords found.
+	 */
+	public int match(final char[] buf, final int off, final int len, final int[] counts) {
+		int found = 0;
+		int state = ROOT;
+		final int end = off + len;
+
+		for (int i = off; i < end; i++) {
+			state = next(state, ignoreCase ? Character.toLowerCase(buf[i]) : buf[i]);
+
+			// Every keyword ending here is either at this state, or along its output links.
+			for (int s = (output[state] >= 0) ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+				final int id = output[s];
+				if (!wholeWords || isWholeWord(buf, off, end, i - lengths[id] + 1, i + 1)) {
+					counts[id]++;
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Helper method. Checks that a match is not part of a longer word.
+	 *
+	 * @param buf Characters holding the word.
+	 * @param off Index of the first character of the word.
+	 * @param end Index after the last character of the word.
+	 * @param start Index of the first character of the match.
+	 * @param stop Index after the last character of the match.
+	 * @return True if the match is surrounded by word separators (or the ends of the word).
+	 */
+	private boolean isWholeWord(final char[] buf, final int off, final int end, final int start, final int stop) {
+		if (!stripPunctuation)
+			return start == off && stop == end;
+		return (start == off || !Character.isLetterOrDigit(buf[start - 1]))
+			&& (stop == end || !Character.isLetterOrDigit(buf[stop]));
+	}
+
+	/**
+	 * Helper method. Follows the automaton from a state on a character,
+	 * falling back along the failure links if there is no transition.
+	 *
+	 * @param state The current state.
+	 * @param c The next character (already case folded).
+	 * @return The next state.
+	 */
+	private int next(int state, final char c) {
+		while (true) {
+			if (state == ROOT)
+				return (c < ROOT_TABLE_SIZE) ? rootTable[c] : edge(ROOT, c);
+
+			final int target = find(state, c);
+			if (target >= 0)
+				return target;
+			state = fail[state];
+		}
+	}
+
+	/**
+	 * Helper method. Follows a transition out of the root state.
+	 *
+	 * @return The target state, or ROOT if there is no transition.
+	 */
+	private int edge(final int state, final char c) {
+		final int target = find(state, c);
+		return (target >= 0) ? target : ROOT;
+	}
+
+	/**
+	 * Helper method. Binary search for a transition out of a state.
+	 *
+	 * @return The target state, or -1 if there is no transition.
+	 */
+	private int find(final int state, final char c) {
+		int lo = edgeStart[state];
+		int hi = edgeStart[state + 1] - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			final char m = edgeChars[mid];
+			if (m < c)
+				lo = mid + 1;
+			else if (m > c)
+				hi = mid - 1;
+			else
+				return edgeTargets[mid];
+		}
+		return -1;
+	}
+
+	/** Helper method. Case folds a keyword, if we are ignoring case. */
+	private String fold(final String word) {
+		if (!ignoreCase)
+			return word;
+		final char[] c = word.toCharArray();
+		for (int i = 0; i < c.length; i++)
+			c[i] = Character.toLowerCase(c[i]);
+		return new String(c);
+	}
+}
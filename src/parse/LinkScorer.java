@@ -0,0 +1,70 @@
+package parse;
+
+/**
+ * Guesses how likely a link is to lead to a page full of keywords,
+ * for best-first crawling (see queue.BestFirstFrontier).
+ *
+ * A link scores higher when:
+ *  - the page it was found on has a high keyword density (keywords per word),
+ *  - its anchor text (the words of the link itself) contains keywords, and
+ *  - it is few links away from the seed URL.
+ *
+ * score = densityWeight * (keywordHits / wordCount) + anchorWeight * anchorHits - depthWeight * depth
+ *
+ * Immutable, so one LinkScorer can be shared by every PageParser.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class LinkScorer {
+
+	/** Default weight of the keyword density of the page a link was found on. */
+	public static final double DEFAULT_DENSITY_WEIGHT = 100.0;
+
+	/** Default weight of each keyword in a link's anchor text. */
+	public static final double DEFAULT_ANCHOR_WEIGHT = 1.0;
+
+	/** Default penalty for each link followed from the seed URL. */
+	public static final double DEFAULT_DEPTH_WEIGHT = 0.1;
+
+	/** Weight of the keyword density of the page a link was found on. */
+	private final double densityWeight;
+
+	/** Weight of each keyword in a link's anchor text. */
+	private final double anchorWeight;
+
+	/** Penalty for each link followed from the seed URL. */
+	private final double depthWeight;
+
+	/** Constructor. Uses the default weights. */
+	public LinkScorer() {
+		this(DEFAULT_DENSITY_WEIGHT, DEFAULT_ANCHOR_WEIGHT, DEFAULT_DEPTH_WEIGHT);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param densityWeight Weight of the keyword density of the page a link was found on.
+	 * @param anchorWeight Weight of each keyword in a link's anchor text.
+	 * @param depthWeight Penalty for each link followed from the seed URL.
+	 */
+	public LinkScorer(final double densityWeight, final double anchorWeight, final double depthWeight) {
+		this.densityWeight = densityWeight;
+		this.anchorWeight = anchorWeight;
+		this.depthWeight = depthWeight;
+	}
+
+	/**
+	 * Scores a link.
+	 *
+	 * @param keywordHits Number of keywords on the page the link was found on.
+	 * @param wordCount Number of words on the page the link was found on.
+	 * @param anchorHits Number of keywords in the link's anchor text.
+	 * @param depth Number of links followed from the seed URL to reach the link's target.
+	 * @return The score; higher is more promising.
+	 */
+	public double score(final int keywordHits, final int wordCount, final int anchorHits, final int depth) {
+		final double density = (wordCount == 0) ? 0 : (double) keywordHits / wordCount;
+		return densityWeight * density + anchorWeight * anchorHits - depthWeight * depth;
+	}
+}
@@ -0,0 +1,189 @@
+package parse;
+
+import java.nio.ByteBuffer;
+
+import data.PageSummary;
+
+/**
+ * Works out what is on a page: counts its words and keywords, and collects
+ * the links worth following along with the keywords in their anchor text.
+ * The findings are written into a PageSummary.
+ *
+ * The page can be fed in one piece, or chunk by chunk as it is downloaded
+ * (as characters, or as raw bytes if its encoding is ASCII-compatible);
+ * either way each character is only looked at once.
+ *
+ * Not thread-safe: each thread should use its own PageAnalyzer.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class PageAnalyzer {
+
+	/** Number of words after a link which may count as its anchor text. */
+	private static final int MAX_ANCHOR_WORDS = 8;
+
+	/** Finds the key words we are looking for. Shared by every PageAnalyzer. */
+	private final KeywordMatcher matcher;
+
+	/** Scratch counts for the keywords in anchor text; never read. */
+	private final int[] anchorCounts;
+
+	/** Walks over the page, reporting words and links to the handler. */
+	private final HtmlScanner scanner;
+
+	/** Turns the links into full URLs, against the URL of the current page. */
+	private final UrlResolver resolver = new UrlResolver();
+
+	/** Where the findings for the current page go. */
+	private PageSummary summary;
+
+	/** Number of characters (or bytes) of the current page seen so far. */
+	private long charCount;
+
+	/** Index (in the summary) of the link whose anchor text we are reading, or -1. */
+	private int anchor = -1;
+
+	/** Whether we are still inside the tag of that link, before its anchor text. */
+	private boolean inTag;
+
+	/** Number of words of that link's anchor text read so far. */
+	private int anchorWords;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param matcher Finds the key words in the pages (may be shared with other PageAnalyzers).
+	 */
+	public PageAnalyzer(final KeywordMatcher matcher) {
+		this.matcher = matcher;
+		this.anchorCounts = new int[matcher.size()];
+		this.scanner = new HtmlScanner(new Handler());
+	}
+
+	/**
+	 * Starts on a new page.
+	 *
+	 * @param url URL of the page.
+	 * @param depth Number of links followed from the seed URL to reach the page.
+	 * @param target Where to write the findings; it is cleared first.
+	 */
+	public void begin(final String url, final int depth, final PageSummary target) {
+		target.reset(url, depth);
+		summary = target;
+		resolver.setBase(url);
+		charCount = 0;
+		anchor = -1;
+		scanner.reset();
+	}
+
+	/**
+	 * Analyzes a whole page body. Call finish() afterwards.
+	 *
+	 * @param body The text of the page.
+	 */
+	public void feed(final String body) {
+		final long startTime = System.nanoTime();
+		charCount += body.length();
+		scanner.feed(body);
+		summary.addParseTime(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Analyzes the next chunk of a page. Words and links may span two chunks.
+	 *
+	 * @param buf Characters of the chunk.
+	 * @param off Index of the first character.
+	 * @param len Number of characters.
+	 */
+	public void feed(final char[] buf, final int off, final int len) {
+		final long startTime = System.nanoTime();
+		charCount += len;
+		scanner.feed(buf, off, len);
+		summary.addParseTime(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Analyzes the next chunk of a page in an ASCII-compatible encoding, as bytes.
+	 *
+	 * @param buf The bytes of the chunk, from its position to its limit.
+	 * @param decoder The page's encoding.
+	 */
+	public void feed(final ByteBuffer buf, final ByteDecoder decoder) {
+		final long startTime = System.nanoTime();
+		charCount += buf.remaining();
+		scanner.feed(buf, decoder);
+		summary.addParseTime(System.nanoTime() - startTime);
+	}
+
+	/** Tells the analyzer the page is over, so the last word is counted. */
+	public void finish() {
+		final long startTime = System.nanoTime();
+		scanner.finish();
+		summary.addParseTime(System.nanoTime() - startTime);
+	}
+
+	/** @return Number of characters (or bytes) of the current page seen so far. */
+	public long charCount() { return charCount; }
+
+	/**
+	 * Helper method. Counts the keywords in the part of a word which belongs to the current link's
+	 * anchor text: after the '>' ending the link's tag, and before the '<' of the next tag.
+	 *
+	 * @param buf Characters of the word.
+	 * @param len Number of characters in the word.
+	 */
+	private void anchorText(final char[] buf, final int len) {
+		int start = 0;
+		if (inTag) {
+			while (start < len && buf[start] != '>')
+				start++;
+			if (start == len)
+				return; // Still inside the tag, e.g. another attribute.
+			start++;
+			inTag = false;
+		}
+
+		int end = start;
+		while (end < len && buf[end] != '<')
+			end++;
+		if (end > start)
+			summary.addAnchorHits(anchor, matcher.match(buf, start, end - start, anchorCounts));
+
+		// The anchor text ends at the next tag, or after a few words anyway.
+		if (end < len || ++anchorWords == MAX_ANCHOR_WORDS)
+			anchor = -1;
+	}
+
+	/** Receives the words and links found by the HtmlScanner, for the current page. */
+	private class Handler implements HtmlScanner.Handler {
+
+		/** {@inheritDoc} */
+		public void word(final char[] buf, final int len) {
+			// Count the word, and any keywords in it.
+			summary.countWord(matcher.match(buf, 0, len, summary.getCounts()));
+
+			if (anchor >= 0)
+				anchorText(buf, len);
+		}
+
+		/** {@inheritDoc} */
+		public void link(final String href) {
+			summary.countUrl();
+
+			final String url = resolver.resolve(href);
+
+			// Ensure the URL is an http one, with the proper extension.
+			if (url == null) {
+				anchor = -1;
+			} else if (url.endsWith(".html") || url.endsWith(".htm") || url.endsWith(".txt")) {
+				// Keep it, and start reading its anchor text.
+				anchor = summary.addLink(url);
+				anchorWords = 0;
+				inTag = true;
+			} else {
+				anchor = -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package parse;
+
+import java.nio.ByteBuffer;
+
+import queue.Fingerprint;
+
+/**
+ * Works out the 64-bit SimHash (Charikar) of a page's text, so pages with nearly the same text
+ * (mirrors, print views, the same article with another date or session ID in it) get fingerprints
+ * which differ in only a few bits, while different pages differ in about half of them.
+ *
+ * The text outside the tags is split into words (letters and digits, ASCII folded to lower case),
+ * and every run of three words (a shingle) is hashed. Bit i of the SimHash is set if bit i is set
+ * in more than half of the shingle hashes. Single words would make pages with the same vocabulary
+ * look alike; shingles also take the order of the words into account.
+ *
+ * Much cheaper than analyzing the page: no keyword lookups, no links, and the 64 counters are
+ * kept bit-sliced (counter bit j of every counter in one long), so adding a shingle takes a couple
+ * of long operations rather than 64 additions.
+ *
+ * The page can be fed in one piece, or chunk by chunk as it is downloaded, as characters or
+ * as the bytes of an ASCII-compatible encoding. Not thread-safe: each thread should use its own SimHash.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class SimHash {
+
+	/** Pages with fewer shingles than this have too little text to tell them apart: no SimHash. */
+	public static final int MIN_SHINGLES = 16;
+
+	/** FNV-1a 64-bit offset basis. */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	/** FNV-1a 64-bit prime. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** For each ASCII character, the character as part of a word (in lower case), or 0 if it is not part of one. */
+	private static final char[] WORD = new char[128];
+
+	static {
+		for (char c = '0'; c <= '9'; c++)
+			WORD[c] = c;
+		for (char c = 'a'; c <= 'z'; c++) {
+			WORD[c] = c;
+			WORD[c - 'a' + 'A'] = c;
+		}
+	}
+
+	/** The counters, bit-sliced: bit i of planes[j] is bit j of the counter of bit i. */
+	private final long[] planes = new long[32];
+
+	/** Number of planes in use. */
+	private int planeCount;
+
+	/** Number of shingles added. */
+	private int shingles;
+
+	/** Whether we are inside a tag. */
+	private boolean inTag;
+
+	/** Hash of the current word so far. */
+	private long word = FNV_OFFSET;
+
+	/** Number of characters in the current word so far. */
+	private int wordLength;
+
+	/** Hash of the last word. */
+	private long previous;
+
+	/** Hash of the word before the last one. */
+	private long beforePrevious;
+
+	/** Number of words so far, counted only until there are two. */
+	private int words;
+
+	/** Constructor. */
+	public SimHash() { }
+
+	/** Starts on a new page. */
+	public void reset() {
+		for (int j = 0; j < planeCount; j++)
+			planes[j] = 0;
+		planeCount = 0;
+		shingles = 0;
+		inTag = false;
+		word = FNV_OFFSET;
+		wordLength = 0;
+		words = 0;
+	}
+
+	/**
+	 * Adds the text of a whole page, or of the next chunk of it.
+	 *
+	 * @param text The text.
+	 */
+	public void feed(final String text) {
+		final int len = text.length();
+		for (int i = 0; i < len; i++)
+			step(text.charAt(i));
+	}
+
+	/**
+	 * Adds the next chunk of a page.
+	 *
+	 * @param buf Characters of the chunk.
+	 * @param off Index of the first character.
+	 * @param len Number of characters.
+	 */
+	public void feed(final char[] buf, final int off, final int len) {
+		final int end = off + len;
+		for (int i = off; i < end; i++)
+			step(buf[i]);
+	}
+
+	/**
+	 * Adds the next chunk of a page in an ASCII-compatible encoding, as bytes.
+	 * Non-ASCII bytes count as part of words, so the same text always hashes the same
+	 * in the same encoding. Leaves the position of the buffer alone.
+	 *
+	 * @param buf The bytes of the chunk, from its position to its limit.
+	 */
+	public void feed(final ByteBuffer buf) {
+		final int end = buf.limit();
+		for (int i = buf.position(); i < end; i++)
+			step((char) (buf.get(i) & 0xff));
+	}
+
+	/**
+	 * Tells the SimHash the page is over.
+	 *
+	 * @return The SimHash of the page, or 0 if it has fewer than MIN_SHINGLES shingles.
+	 */
+	public long finish() {
+		if (wordLength > 0)
+			endWord();
+		if (shingles < MIN_SHINGLES)
+			return 0;
+
+		long hash = 0;
+		for (int bit = 0; bit < 64; bit++) {
+			long count = 0;
+			for (int j = 0; j < planeCount; j++)
+				count |= ((planes[j] >>> bit) & 1) << j;
+			if (count * 2 > shingles)
+				hash |= 1L << bit;
+		}
+		return (hash == 0) ? 1 : hash;
+	}
+
+	/**
+	 * @param a A SimHash.
+	 * @param b Another SimHash.
+	 * @return Number of bits they differ in: 0 for the same text, about 32 for unrelated texts.
+	 */
+	public static int distance(final long a, final long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Helper method. Takes in the next character of the page.
+	 *
+	 * @param c The character.
+	 */
+	private void step(final char c) {
+		if (inTag) {
+			inTag = c != '>';
+			return;
+		}
+		final char w = (c < 128) ? WORD[c] : c;
+		if (w != 0) {
+			word = (word ^ w) * FNV_PRIME;
+			wordLength++;
+		} else {
+			if (wordLength > 0)
+				endWord();
+			inTag = c == '<';
+		}
+	}
+
+	/** Helper method. Ends the current word, and adds the shingle it ends. */
+	private void endWord() {
+		final long current = word;
+		word = FNV_OFFSET;
+		wordLength = 0;
+		if (words < 2) {
+			words++;
+		} else {
+			add(Fingerprint.mix(current ^ Long.rotateLeft(previous, 21) ^ Long.rotateLeft(beforePrevious, 42)));
+		}
+		beforePrevious = previous;
+		previous = current;
+	}
+
+	/**
+	 * Helper method. Adds the bits of a shingle hash to the counters: a ripple-carry addition
+	 * of one bit to each of the 64 counters at once, which stops as soon as nothing carries.
+	 *
+	 * @param hash The shingle hash.
+	 */
+	private void add(final long hash) {
+		long carry = hash;
+		int j = 0;
+		while (carry != 0) {
+			final long next = planes[j] & carry;
+			planes[j] ^= carry;
+			carry = next;
+			j++;
+		}
+		if (j > planeCount)
+			planeCount = j;
+		shingles++;
+	}
+}
@@ -0,0 +1,454 @@
+package parse;
+
+import java.util.Arrays;
+
+/**
+ * Turns the links found on a page into full URLs, as RFC 3986 (section 5.2) resolves
+ * a reference against a base URL, and writes them in one canonical form (section 6.2.2),
+ * so that two spellings of the same URL give the same String and are only retrieved once:
+ * <ul>
+ * <li>the scheme and host are lower case, a default or empty port is dropped, and an empty path is "/";</li>
+ * <li>"." and ".." segments are removed from the path;</li>
+ * <li>percent-encoded unreserved characters are decoded, other percent-encodings use upper-case hex digits,
+ * 		and spaces and non-ASCII characters are percent-encoded (as UTF-8);</li>
+ * <li>the fragment, and an empty query, are dropped.</li>
+ * </ul>
+ * Trailing slashes and the order of query parameters are left alone: the server may well tell those apart.
+ * Only http and https URLs are kept.
+ *
+ * The base URL is parsed once per page, by setBase(), and kept until the next page;
+ * each link is then resolved with one pass over it, into a reused buffer, so that the only
+ * object made is the resulting String.
+ * Not thread-safe: each thread should use its own UrlResolver.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class UrlResolver {
+
+	/** Hex digits, for percent-encoding. */
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** Characters which need no percent-encoding, besides letters and digits. */
+	private static final String UNRESERVED = "-._~";
+
+	/** ASCII characters which are not allowed in a URL, and are percent-encoded. */
+	private static final String UNSAFE = "\"<>\\^`{|}";
+
+	/** For each ASCII character, whether it is copied as it is (not '%', and needs no percent-encoding). */
+	private static final boolean[] PLAIN = new boolean[128];
+
+	static {
+		for (char c = '!'; c < 0x7f; c++)
+			PLAIN[c] = c != '%' && UNSAFE.indexOf(c) < 0;
+	}
+
+	/** Builds the URLs; reused for each one. */
+	private char[] buf = new char[128];
+
+	/** Number of characters in the buffer. */
+	private int len;
+
+	/** The base URL as given to setBase(), or null. */
+	private String base;
+
+	/** The canonical form of the base URL, or null if it is not an http or https URL. */
+	private String canonicalBase;
+
+	/** Length of the base URL's scheme. */
+	private int baseScheme;
+
+	/** Index of the base URL's path. */
+	private int basePath;
+
+	/** Index of the '?' of the base URL's query, or its length if it has none. */
+	private int baseQuery;
+
+	/**
+	 * Helper method. Turns a URL into its canonical form.
+	 *
+	 * @param url A full URL, e.g. a seed URL.
+	 * @return The URL in canonical form, or null if it is not an http or https URL.
+	 */
+	public static String canonical(final String url) {
+		return new UrlResolver().resolve(url);
+	}
+
+	/**
+	 * Sets the URL the links are resolved against: the URL of the page they were found on.
+	 * Setting the same URL again costs nothing.
+	 *
+	 * @param url The base URL.
+	 */
+	public void setBase(final String url) {
+		if (url == base || (url != null && url.equals(base)))
+			return;
+		// The base itself must be a full URL, not resolved against the last one.
+		canonicalBase = null;
+		canonicalBase = (url == null) ? null : resolve(url);
+		base = url;
+		if (canonicalBase != null) {
+			baseScheme = canonicalBase.indexOf(':');
+			basePath = canonicalBase.indexOf('/', baseScheme + 3);
+			final int query = canonicalBase.indexOf('?', basePath);
+			baseQuery = (query < 0) ? canonicalBase.length() : query;
+		}
+	}
+
+	/**
+	 * Resolves a link against the base URL.
+	 *
+	 * @param ref The link (value of the href attribute).
+	 * @return The full URL in canonical form, or null if it is not an http or https URL
+	 * 			(e.g. "mailto:", or a relative link without an http or https base).
+	 */
+	public String resolve(final String ref) {
+		// Browsers ignore the white space around a link.
+		int start = 0;
+		int end = ref.length();
+		while (start < end && ref.charAt(start) <= ' ')
+			start++;
+		while (end > start && ref.charAt(end - 1) <= ' ')
+			end--;
+
+		// The fragment is never sent to the server.
+		final int hash = ref.indexOf('#', start);
+		if (hash >= 0 && hash < end)
+			end = hash;
+
+		// Split the link into its parts: scheme, authority, path and query.
+		int scheme = schemeEnd(ref, start, end);
+		if (scheme < 0 && canonicalBase == null)
+			return null;
+		if (scheme > 0 && canonicalBase != null && !ref.startsWith("//", scheme + 1)
+				&& ref.regionMatches(true, start, canonicalBase, 0, baseScheme) && scheme - start == baseScheme) {
+			// "http:page.html": the same scheme as the base, so a relative link (RFC 3986 5.2.2, non-strict).
+			start = scheme + 1;
+			scheme = -1;
+		}
+		if (scheme > 0 && !isHttp(ref, start, scheme))
+			return null;
+		final int authority = (scheme > 0) ? scheme + 1 : start;
+		final boolean hasAuthority = ref.startsWith("//", authority);
+		int path = authority;
+		if (hasAuthority) {
+			path += 2;
+			while (path < end && ref.charAt(path) != '/' && ref.charAt(path) != '?')
+				path++;
+		} else if (scheme > 0) {
+			return null;
+		}
+		int query = ref.indexOf('?', path);
+		if (query < 0 || query > end)
+			query = end;
+
+		// Write the scheme and authority.
+		len = 0;
+		if (scheme > 0) {
+			appendLowerCase(ref, start, scheme);
+			append("://", 0, 3);
+		} else {
+			append(canonicalBase, 0, baseScheme + 3);
+		}
+		if (hasAuthority) {
+			if (!appendAuthority(ref, authority + 2, path))
+				return null;
+		} else {
+			append(canonicalBase, baseScheme + 3, basePath);
+		}
+
+		// Write the path, merged with the base path if it is relative, then remove its dot segments.
+		final int pathStart = len;
+		final boolean noPath = !hasAuthority && path == query;
+		if (noPath) {
+			append(canonicalBase, basePath, baseQuery);
+		} else {
+			if (hasAuthority && path == query)
+				append('/');
+			else if (!hasAuthority && ref.charAt(path) != '/')
+				append(canonicalBase, basePath, canonicalBase.lastIndexOf('/', baseQuery - 1) + 1);
+			appendEncoded(ref, path, query);
+		}
+		removeDotSegments(pathStart);
+
+		// Write the query, unless it is empty. A link with neither path nor query keeps the base's query.
+		if (query + 1 < end) {
+			append('?');
+			appendEncoded(ref, query + 1, end);
+		} else if (noPath && query == end) {
+			append(canonicalBase, baseQuery, canonicalBase.length());
+		}
+
+		return new String(buf, 0, len);
+	}
+
+	/**
+	 * Helper method. Finds the scheme of a link, e.g. "http" in "http://host/".
+	 *
+	 * @param ref The link.
+	 * @param start Index of its first character.
+	 * @param end Index after its last character.
+	 * @return Index of the ':' after the scheme, or -1 if it has none.
+	 */
+	private static int schemeEnd(final String ref, final int start, final int end) {
+		if (start == end || !isAsciiLetter(ref.charAt(start)))
+			return -1;
+		for (int i = start + 1; i < end; i++) {
+			final char c = ref.charAt(i);
+			if (c == ':')
+				return i;
+			if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.')
+				return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param ref The link.
+	 * @param start Index of the scheme.
+	 * @param end Index after the scheme.
+	 * @return Whether the scheme is "http" or "https", in any case.
+	 */
+	private static boolean isHttp(final String ref, final int start, final int end) {
+		final int len = end - start;
+		return (len == 4 || len == 5) && ref.regionMatches(true, start, "https", 0, len);
+	}
+
+	/**
+	 * Helper method. Writes the authority of a URL ("user@host:port"), with the host in
+	 * lower case and without the port if it is empty or the default port of the scheme.
+	 *
+	 * @param ref The link.
+	 * @param start Index of the authority, after the "//".
+	 * @param end Index after the authority.
+	 * @return False if the authority is not valid: no host, or a port which is not a number.
+	 */
+	private boolean appendAuthority(final String ref, final int start, final int end) {
+		final int at = ref.lastIndexOf('@', end - 1);
+		final int host = (at >= start) ? at + 1 : start;
+		int port = ref.lastIndexOf(':', end - 1);
+		if (port < host || ref.lastIndexOf(']', end - 1) > port)
+			port = end; // No port, or a ':' inside an IPv6 address.
+		if (port == host)
+			return false;
+
+		final int scheme = len;
+		appendEncoded(ref, start, host);
+		appendLowerCase(ref, host, port);
+
+		if (port + 1 < end) {
+			int number = 0;
+			for (int i = port + 1; i < end; i++) {
+				final char c = ref.charAt(i);
+				if (c < '0' || c > '9')
+					return false;
+				number = number * 10 + (c - '0');
+				if (number > 65535)
+					return false;
+			}
+			// The length of the scheme ("http://" or "https://") tells its default port.
+			if (number != ((scheme == 8) ? 443 : 80)) {
+				int digits = port + 1;
+				while (digits < end - 1 && ref.charAt(digits) == '0')
+					digits++;
+				append(':');
+				append(ref, digits, end);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method. Writes part of a link, percent-encoding the characters which need it:
+	 * percent-encodings are written with upper-case hex digits, or decoded if they stand
+	 * for an unreserved character; spaces, control characters, unsafe characters and
+	 * non-ASCII characters are encoded (as UTF-8); a '%' which does not start an encoding is encoded.
+	 *
+	 * @param ref The link.
+	 * @param start Index of the first character.
+	 * @param end Index after the last character.
+	 */
+	private void appendEncoded(final String ref, final int start, final int end) {
+		int i = start;
+		while (i < end) {
+			// Copy the characters which need nothing done in one go; most links have nothing else.
+			int plain = i;
+			for (char c; plain < end && (c = ref.charAt(plain)) < 0x80 && PLAIN[c]; )
+				plain++;
+			append(ref, i, plain);
+			if (plain == end)
+				return;
+			i = plain;
+
+			final char c = ref.charAt(i);
+			if (c == '%') {
+				final int hi = (i + 2 < end) ? hexValue(ref.charAt(i + 1)) : -1;
+				final int lo = (hi >= 0) ? hexValue(ref.charAt(i + 2)) : -1;
+				if (lo < 0) {
+					appendEscaped('%');
+				} else {
+					final char decoded = (char) (hi * 16 + lo);
+					if (isUnreserved(decoded))
+						append(decoded);
+					else
+						appendEscaped(decoded);
+					i += 2;
+				}
+			} else if (c < 0x80) {
+				appendEscaped(c);
+			} else {
+				// Encode the character as UTF-8, then each byte.
+				int cp = c;
+				if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(ref.charAt(i + 1)))
+					cp = Character.toCodePoint(c, ref.charAt(++i));
+				else if (c >= '\uD800' && c <= '\uDFFF')
+					cp = 0xfffd; // A lone surrogate: the replacement character, as String.getBytes() does.
+				if (cp < 0x800) {
+					appendEscaped(0xc0 | (cp >> 6));
+				} else if (cp < 0x10000) {
+					appendEscaped(0xe0 | (cp >> 12));
+					appendEscaped(0x80 | ((cp >> 6) & 0x3f));
+				} else {
+					appendEscaped(0xf0 | (cp >> 18));
+					appendEscaped(0x80 | ((cp >> 12) & 0x3f));
+					appendEscaped(0x80 | ((cp >> 6) & 0x3f));
+				}
+				appendEscaped(0x80 | (cp & 0x3f));
+			}
+			i++;
+		}
+	}
+
+	/**
+	 * Helper method. Writes a percent-encoded byte, e.g. "%2F".
+	 *
+	 * @param b The byte.
+	 */
+	private void appendEscaped(final int b) {
+		ensureCapacity(3);
+		buf[len++] = '%';
+		buf[len++] = HEX[(b >> 4) & 0xf];
+		buf[len++] = HEX[b & 0xf];
+	}
+
+	/**
+	 * Helper method. Writes part of a String, in ASCII lower case.
+	 *
+	 * @param s The String.
+	 * @param start Index of the first character.
+	 * @param end Index after the last character.
+	 */
+	private void appendLowerCase(final String s, final int start, final int end) {
+		ensureCapacity(end - start);
+		for (int i = start; i < end; i++) {
+			final char c = s.charAt(i);
+			buf[len++] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+	}
+
+	/**
+	 * Helper method. Writes part of a String as it is.
+	 *
+	 * @param s The String.
+	 * @param start Index of the first character.
+	 * @param end Index after the last character.
+	 */
+	private void append(final String s, final int start, final int end) {
+		ensureCapacity(end - start);
+		s.getChars(start, end, buf, len);
+		len += end - start;
+	}
+
+	/**
+	 * Helper method. Writes a character.
+	 *
+	 * @param c The character.
+	 */
+	private void append(final char c) {
+		ensureCapacity(1);
+		buf[len++] = c;
+	}
+
+	/**
+	 * Helper method. Makes room in the buffer.
+	 *
+	 * @param extra Number of characters about to be written.
+	 */
+	private void ensureCapacity(final int extra) {
+		if (len + extra > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+	}
+
+	/**
+	 * Helper method. Removes the "." and ".." segments of the path at the end of the buffer,
+	 * in place (RFC 3986 5.2.4): "/a/./b/../c" becomes "/a/c".
+	 *
+	 * @param start Index of the path, which starts with '/'.
+	 */
+	private void removeDotSegments(final int start) {
+		final int end = len;
+		int in = start;
+		int out = start;
+		while (in < end) {
+			// The segment goes from the '/' at in to the next '/', or the end.
+			int next = in + 1;
+			while (next < end && buf[next] != '/')
+				next++;
+			final int size = next - in - 1;
+			final boolean dot = size == 1 && buf[in + 1] == '.';
+			final boolean dotDot = size == 2 && buf[in + 1] == '.' && buf[in + 2] == '.';
+			if (dot || dotDot) {
+				if (dotDot) {
+					// Drop the last segment written (but never go above the root).
+					while (out > start && buf[--out] != '/') { }
+				}
+				if (next == end)
+					buf[out++] = '/'; // "/a/.." is the directory "/", not "/a".
+			} else {
+				if (out < in)
+					System.arraycopy(buf, in, buf, out, next - in);
+				out += next - in;
+			}
+			in = next;
+		}
+		len = out;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param c A character.
+	 * @return Its value as a hex digit, or -1 if it is not one.
+	 */
+	private static int hexValue(final char c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		return -1;
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param c A character.
+	 * @return Whether it is an ASCII letter.
+	 */
+	private static boolean isAsciiLetter(final char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Helper method.
+	 *
+	 * @param c A character.
+	 * @return Whether it is unreserved (RFC 3986 2.3): never needs percent-encoding, and means the same either way.
+	 */
+	private static boolean isUnreserved(final char c) {
+		return isAsciiLetter(c) || (c >= '0' && c <= '9') || UNRESERVED.indexOf(c) >= 0;
+	}
+}
@@ -0,0 +1,140 @@
+package queue;
+
+import java.io.IOException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frontier for best-first crawling: always hands out the URL with the highest score.
+ * URLs with the same score come out in the order they were added,
+ * so if every score is the same this is a plain breadth-first queue.
+ *
+ * The URLs are kept sorted in a concurrent skip list, so adding and removing
+ * take O(log n) time and never lock the whole frontier; millions of URLs are fine.
+ * A Semaphore counts the URLs, so take() can wait for one without polling.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class BestFirstFrontier implements ScoredFrontier {
+
+	/** The URLs waiting to be retrieved, best first. */
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>();
+
+	/** One permit for every URL in entries which has not been claimed yet. */
+	private final Semaphore available = new Semaphore(0);
+
+	/** Numbers the URLs in the order they were added, to break ties. */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/** Depth of the URLs just handed out, until depthOf() is called for them. Depth 0 is not stored. */
+	private final ConcurrentMap<String, Integer> depths = new ConcurrentHashMap<String, Integer>();
+
+	/** Constructor. */
+	public BestFirstFrontier() { }
+
+	/** {@inheritDoc} Adds the URL with a score of 0, at depth 0. */
+	public boolean offer(final String url) {
+		return offer(url, 0, 0);
+	}
+
+	/** {@inheritDoc} Never fails. */
+	public boolean offer(final String url, final double score, final int depth) {
+		entries.add(new Entry(url, Double.isNaN(score) ? 0 : score, depth, sequence.getAndIncrement()));
+		available.release();
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	public String poll() {
+		if (!available.tryAcquire())
+			return null;
+		return handOut(entries.pollFirst());
+	}
+
+	/** {@inheritDoc} */
+	public String take() throws InterruptedException {
+		available.acquire();
+		return handOut(entries.pollFirst());
+	}
+
+	/** {@inheritDoc} */
+	public int depthOf(final String url) {
+		final Integer depth = depths.remove(url);
+		return (depth == null) ? 0 : depth;
+	}
+
+	/** {@inheritDoc} Does nothing. */
+	public void done(final String url) { }
+
+	/** {@inheritDoc} Walks the skip list, which needs no lock at all. */
+	public void export(final UrlSink sink) throws IOException {
+		for (Entry entry : entries)
+			sink.url(entry.url, entry.score, entry.depth);
+	}
+
+	/** {@inheritDoc} */
+	public long size() { return available.availablePermits(); }
+
+	/** {@inheritDoc} */
+	public void close() {
+		entries.clear();
+		depths.clear();
+	}
+
+	/**
+	 * Helper method. Remembers the depth of a URL being handed out.
+	 * Holding a permit guarantees the entry exists, so it is never null.
+	 *
+	 * @param entry The best entry, just removed.
+	 * @return Its URL.
+	 */
+	private String handOut(final Entry entry) {
+		if (entry.depth != 0)
+			depths.put(entry.url, entry.depth);
+		return entry.url;
+	}
+
+	/** A URL waiting to be retrieved. Sorted by score (highest first), then by sequence (lowest first). */
+	private static class Entry implements Comparable<Entry> {
+
+		/** The URL. */
+		private final String url;
+
+		/** Its score. */
+		private final double score;
+
+		/** Its depth. */
+		private final int depth;
+
+		/** When it was added; unique, so no two entries are ever equal. */
+		private final long sequence;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param url The URL.
+		 * @param score Its score.
+		 * @param depth Its depth.
+		 * @param sequence When it was added.
+		 */
+		Entry(final String url, final double score, final int depth, final long sequence) {
+			this.url = url;
+			this.score = score;
+			this.depth = depth;
+			this.sequence = sequence;
+		}
+
+		/** {@inheritDoc} */
+		public int compareTo(final Entry other) {
+			final int byScore = Double.compare(other.score, score);
+			if (byScore != 0)
+				return byScore;
+			return (sequence < other.sequence) ? -1 : ((sequence > other.sequence) ? 1 : 0);
+		}
+	}
+}
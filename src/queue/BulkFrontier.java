@@ -0,0 +1,34 @@
+package queue;
+
+/**
+ * A Frontier which can add and remove many URLs under one lock, for PageToRetrieve.addAll()
+ * and take(String[]): one lock per page of links, and one per handful of URLs handed out,
+ * rather than one per URL.
+ * 
+ * Implementations must be thread-safe.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public interface BulkFrontier extends Frontier {
+	
+	/**
+	 * Adds the URLs of a batch, in order, without waiting. Their scores and depths are ignored
+	 * unless the Frontier is also a ScoredFrontier.
+	 * 
+	 * @param batch The URLs to add.
+	 * @return Number of URLs added: the first ones of the batch, up to the first one there was no room for.
+	 */
+	int offerAll(UrlBatch batch);
+	
+	/**
+	 * Removes several URLs at once: waits for one to become available if there are none,
+	 * then takes more of those waiting, up to the size of the array - but no more than half
+	 * of the others, so the other threads taking URLs still get their share.
+	 * 
+	 * @param into Receives the URLs, from index 0.
+	 * @return Number of URLs removed, at least 1.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	int take(String[] into) throws InterruptedException;
+}
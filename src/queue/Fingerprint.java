@@ -0,0 +1,54 @@
+package queue;
+
+/**
+ * 64-bit fingerprints of URLs.
+ * 
+ * Two different URLs have the same fingerprint with a probability of about 1 in 2^64,
+ * so even a crawl of 10 million URLs is very unlikely to ever see a collision
+ * (roughly a 1 in 300,000 chance).
+ * 
+ * @author Derv
+ * @version 1
+ */
+public final class Fingerprint {
+	
+	/** FNV-1a 64-bit offset basis. */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	
+	/** FNV-1a 64-bit prime. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	/** Utility class, not to be instantiated. */
+	private Fingerprint() { }
+	
+	/**
+	 * @param url The URL.
+	 * @return The 64-bit fingerprint of the URL. Never 0.
+	 */
+	public static long of(final String url) {
+		long h = FNV_OFFSET;
+		for (int i = 0; i < url.length(); i++) {
+			final char c = url.charAt(i);
+			h = (h ^ (c & 0xff)) * FNV_PRIME;
+			h = (h ^ (c >>> 8)) * FNV_PRIME;
+		}
+		h = mix(h);
+		return (h == 0) ? 1 : h;
+	}
+	
+	/**
+	 * Scrambles the bits of a hash, so every bit of the input affects every bit of the output
+	 * (the finalizer of MurmurHash3).
+	 * 
+	 * @param h The hash.
+	 * @return The scrambled hash.
+	 */
+	public static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,164 @@
+package queue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * VisitedSet which stores fingerprints of the URLs instead of the URLs themselves,
+ * for crawls of millions of pages.
+ * 
+ * Only 44 bits of each 64-bit fingerprint are kept: the top 12 bits pick one of 4096 tables,
+ * each with its own lock (so threads working on different URLs rarely wait for one another),
+ * and the table keeps the low 32 bits, as an int.
+ * 
+ * Each URL costs about 5 to 11 bytes, instead of the 100+ bytes of a URL String.
+ * The price is that two URLs share a fingerprint more often than with all 64 bits, and the second
+ * is then taken for visited: on average about N^2 / 2^45 of N URLs, e.g. 3 of 10 million
+ * or 300 of 100 million.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class FingerprintVisitedSet implements VisitedSet {
+	
+	/** Written first by writeTo(): the fingerprints follow, table by table. */
+	static final byte FORMAT = 3;
+	
+	/** Written by writeTo() before version 3: whole 64-bit fingerprints, which readFrom() still understands. */
+	private static final byte FORMAT_64 = 2;
+	
+	/** Number of bits of the fingerprint which pick the table. */
+	private static final int TABLE_BITS = 12;
+	
+	/** The tables of fingerprints. A fingerprint always goes to the same table. */
+	private final IntHashSet[] tables = new IntHashSet[1 << TABLE_BITS];
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param expectedUrls How many URLs the crawl is expected to find, so the tables can be sized up front.
+	 * 			The set still works with more.
+	 */
+	public FingerprintVisitedSet(final long expectedUrls) {
+		final int perTable = (int) Math.min(Integer.MAX_VALUE, expectedUrls / tables.length);
+		for (int i = 0; i < tables.length; i++)
+			tables[i] = new IntHashSet(perTable);
+	}
+	
+	/** {@inheritDoc} */
+	public boolean add(final String url) {
+		return add(Fingerprint.of(url));
+	}
+	
+	/**
+	 * Adds a fingerprint to the set.
+	 * 
+	 * @param fingerprint The fingerprint of a URL.
+	 * @return True if the fingerprint was not in the set yet, False if it already was.
+	 */
+	public boolean add(final long fingerprint) {
+		final IntHashSet table = table(fingerprint);
+		synchronized (table) {
+			return table.add(low(fingerprint));
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public void remove(final String url) {
+		final long fingerprint = Fingerprint.of(url);
+		final IntHashSet table = table(fingerprint);
+		synchronized (table) {
+			table.remove(low(fingerprint));
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public long size() {
+		long size = 0;
+		for (IntHashSet table : tables) {
+			synchronized (table) {
+				size += table.size();
+			}
+		}
+		return size;
+	}
+	
+	/** @return Memory used by the set, in bytes (approximately). */
+	public long sizeInBytes() {
+		long bytes = 0;
+		for (IntHashSet table : tables) {
+			synchronized (table) {
+				bytes += table.sizeInBytes();
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * Locks one table at a time, only while copying its fingerprints.
+	 * Written as the number of tables, then each table's number of fingerprints followed by the
+	 * fingerprints (the 32 bits it keeps of each).
+	 */
+	public void writeTo(final DataOutput out) throws IOException {
+		out.writeByte(FORMAT);
+		out.writeInt(tables.length);
+		
+		int[] copy = new int[0];
+		for (IntHashSet table : tables) {
+			final int count;
+			synchronized (table) {
+				if (copy.length < table.size())
+					copy = new int[table.size() + table.size() / 4];
+				count = table.copyTo(copy, 0);
+			}
+			out.writeInt(count);
+			for (int i = 0; i < count; i++)
+				out.writeInt(copy[i]);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc} Also understands the 64-bit fingerprints written by earlier versions,
+	 * and a HashVisitedSet, whose URLs are fingerprinted as they are read.
+	 */
+	public void readFrom(final DataInput in) throws IOException {
+		final byte format = in.readByte();
+		if (format == HashVisitedSet.FORMAT) {
+			while (in.readBoolean())
+				add(in.readUTF());
+		} else if (format == FORMAT_64) {
+			final int stripeCount = in.readInt();
+			for (int s = 0; s < stripeCount; s++) {
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++)
+					add(in.readLong());
+			}
+		} else if (format == FORMAT) {
+			final int tableCount = in.readInt();
+			if (tableCount != tables.length)
+				throw new IOException("Cannot read a visited set of " + tableCount + " tables (only " + tables.length + ")");
+			for (IntHashSet table : tables) {
+				final int count = in.readInt();
+				synchronized (table) {
+					for (int i = 0; i < count; i++)
+						table.add(in.readInt());
+				}
+			}
+		} else {
+			throw new IOException("Cannot read a visited set of format " + format);
+		}
+	}
+	
+	/** Helper method. The table a fingerprint belongs to (picked by its top bits). */
+	private IntHashSet table(final long fingerprint) {
+		return tables[(int) (fingerprint >>> (64 - TABLE_BITS))];
+	}
+	
+	/** Helper method. The bits of a fingerprint kept by its table (its low 32 bits, never 0). */
+	private static int low(final long fingerprint) {
+		final int low = (int) fingerprint;
+		return (low == 0) ? 1 : low;
+	}
+}
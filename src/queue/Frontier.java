@@ -0,0 +1,65 @@
+package queue;
+
+import java.io.IOException;
+
+/**
+ * Storage for the URLs waiting to be retrieved: the backend of PageToRetrieve.
+ * PageToRetrieve takes care of duplicates and of counting work; 
+ * a Frontier only has to hand the URLs back out.
+ * 
+ * Implementations must be thread-safe.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public interface Frontier {
+	
+	/**
+	 * Adds a URL, without waiting.
+	 * 
+	 * @param url The URL to add.
+	 * @return False if there was no room for the URL, otherwise True.
+	 */
+	boolean offer(String url);
+	
+	/**
+	 * Removes the next URL, without waiting.
+	 * 
+	 * @return The next URL, or null if there are none.
+	 */
+	String poll();
+	
+	/**
+	 * Removes the next URL, waiting for one to become available if there are none.
+	 * 
+	 * @return The next URL.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	String take() throws InterruptedException;
+	
+	/**
+	 * Called once a URL handed out by poll() or take() has been retrieved (or has failed).
+	 * Frontiers which limit how many URLs are retrieved at once (such as HostFrontier) use this;
+	 * the others ignore it.
+	 * 
+	 * @param url The URL which was retrieved.
+	 */
+	void done(String url);
+	
+	/**
+	 * Hands every URL waiting to a sink, for a checkpoint.
+	 * Must never stop the other threads for long: the frontier keeps working meanwhile,
+	 * so URLs handed out during the export may be missed, and URLs added during it may be included.
+	 * A URL may also be exported twice.
+	 * 
+	 * @param sink Receives the URLs.
+	 * @throws IOException If the sink fails.
+	 */
+	void export(UrlSink sink) throws IOException;
+	
+	/** @return Number of URLs waiting. */
+	long size();
+	
+	/** Releases any resources (such as files) held by the frontier. The frontier cannot be used afterwards. */
+	void close();
+}
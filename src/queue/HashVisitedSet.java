@@ -0,0 +1,62 @@
+package queue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * VisitedSet which keeps every URL String. Exact, but each URL costs 
+ * about a hundred bytes or more, so it is only suited to small crawls.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class HashVisitedSet implements VisitedSet {
+	
+	/** Written first by writeTo(): the URLs follow as Strings. */
+	static final byte FORMAT = 1;
+	
+	/** The URLs seen so far. */
+	private final ConcurrentMap<String, Boolean> urls = new ConcurrentHashMap<String, Boolean>();
+	
+	/** Constructor, does nothing. */
+	public HashVisitedSet() { }
+	
+	/** {@inheritDoc} */
+	public boolean add(final String url) {
+		return urls.putIfAbsent(url, Boolean.TRUE) == null;
+	}
+	
+	/** {@inheritDoc} */
+	public void remove(final String url) {
+		urls.remove(url);
+	}
+	
+	/** {@inheritDoc} */
+	public long size() { return urls.size(); }
+	
+	/** 
+	 * {@inheritDoc}
+	 * Walks the map, which needs no lock. Each URL is preceded by True; False marks the end.
+	 */
+	public void writeTo(final DataOutput out) throws IOException {
+		out.writeByte(FORMAT);
+		for (String url : urls.keySet()) {
+			out.writeBoolean(true);
+			out.writeUTF(url);
+		}
+		out.writeBoolean(false);
+	}
+	
+	/** {@inheritDoc} Only understands another HashVisitedSet. */
+	public void readFrom(final DataInput in) throws IOException {
+		final byte format = in.readByte();
+		if (format != FORMAT)
+			throw new IOException("Cannot read a visited set of format " + format + " (only " + FORMAT + ")");
+		while (in.readBoolean())
+			add(in.readUTF());
+	}
+}
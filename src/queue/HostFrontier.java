@@ -0,0 +1,308 @@
+package queue;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Polite Frontier: keeps a separate queue of URLs for every host, and hands out
+ * URLs round-robin across the hosts, so no single server gets hammered.
+ *
+ * For each host it enforces:
+ *  - a maximum number of URLs being retrieved at once (until done() is called for them), and
+ *  - a minimum delay between handing out two of its URLs.
+ *
+ * Hosts which have to wait are kept in a queue ordered by the time they become ready
+ * (a delay queue), so no thread ever sleeps on behalf of a host: take() simply waits
+ * until the earliest host is ready, and URLs of other hosts keep flowing meanwhile.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class HostFrontier implements Frontier {
+
+	/** Default maximum number of URLs of one host being retrieved at once. */
+	public static final int DEFAULT_MAX_PER_HOST = 2;
+
+	/** Default minimum delay between two URLs of one host, in milliseconds. */
+	public static final long DEFAULT_DELAY = 250;
+
+	/** Maximum number of URLs of one host being retrieved at once. */
+	private final int maxPerHost;
+
+	/** Minimum delay between two URLs of one host, in nanoseconds. */
+	private final long delayNanos;
+
+	/** Guards everything below. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when a host may have become ready. */
+	private final Condition changed = lock.newCondition();
+
+	/** Every host with URLs waiting or being retrieved, by name. */
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+	/** Hosts which can hand out a URL right now, in round-robin order. */
+	private final ArrayDeque<Host> ready = new ArrayDeque<Host>();
+
+	/** Hosts with URLs waiting, which must wait for their delay first; earliest first. */
+	private final PriorityQueue<Host> delayed = new PriorityQueue<Host>();
+
+	/** Number of URLs waiting. */
+	private long size = 0;
+
+	/** Constructor. Uses the default politeness limits. */
+	public HostFrontier() {
+		this(DEFAULT_MAX_PER_HOST, DEFAULT_DELAY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxPerHost Maximum number of URLs of one host being retrieved at once.
+	 * @param delayMillis Minimum delay between two URLs of one host, in milliseconds.
+	 */
+	public HostFrontier(final int maxPerHost, final long delayMillis) {
+		if (maxPerHost < 1)
+			throw new IllegalArgumentException("maxPerHost must be greater than 0: " + maxPerHost);
+		if (delayMillis < 0)
+			throw new IllegalArgumentException("delayMillis must not be negative: " + delayMillis);
+		this.maxPerHost = maxPerHost;
+		this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+	}
+
+	/** {@inheritDoc} */
+	public boolean offer(final String url) {
+		final String name = hostOf(url);
+		lock.lock();
+		try {
+			Host host = hosts.get(name);
+			if (host == null) {
+				host = new Host(name);
+				hosts.put(name, host);
+			}
+			host.urls.add(url);
+			size++;
+
+			// A host which just got its first URL may be able to go right away.
+			if (host.urls.size() == 1)
+				schedule(host, System.nanoTime());
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public String poll() {
+		lock.lock();
+		try {
+			return next(System.nanoTime());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public String take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				final long now = System.nanoTime();
+				final String url = next(now);
+				if (url != null)
+					return url;
+
+				// Nothing ready: wait for the earliest delayed host, or for a change.
+				final Host earliest = delayed.peek();
+				if (earliest == null)
+					changed.await();
+				else
+					changed.awaitNanos(earliest.readyAt - now);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Frees up the URL's host for another URL.
+	 */
+	public void done(final String url) {
+		final String name = hostOf(url);
+		lock.lock();
+		try {
+			final Host host = hosts.get(name);
+			if (host == null || host.active == 0)
+				return;
+
+			host.active--;
+			if (host.active == maxPerHost - 1 && !host.urls.isEmpty()) {
+				// The host was at its limit, and it has URLs waiting.
+				schedule(host, System.nanoTime());
+			} else if (host.active == 0 && host.urls.isEmpty()) {
+				hosts.remove(name);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Only holds the lock long enough to copy the list of hosts, then the URLs of one host at a time.
+	 */
+	public void export(final UrlSink sink) throws IOException {
+		final List<Host> all;
+		lock.lock();
+		try {
+			all = new ArrayList<Host>(hosts.values());
+		} finally {
+			lock.unlock();
+		}
+
+		for (Host host : all) {
+			final String[] urls;
+			lock.lock();
+			try {
+				urls = host.urls.toArray(new String[host.urls.size()]);
+			} finally {
+				lock.unlock();
+			}
+			for (String url : urls)
+				sink.url(url, 0, 0);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public long size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void close() {
+		lock.lock();
+		try {
+			hosts.clear();
+			ready.clear();
+			delayed.clear();
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return Number of hosts with URLs waiting or being retrieved. */
+	public int hostCount() {
+		lock.lock();
+		try {
+			return hosts.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Helper method. Hands out the next URL of the next ready host. Must hold the lock.
+	 *
+	 * @param now The current time (System.nanoTime()).
+	 * @return The URL, or null if no host is ready.
+	 */
+	private String next(final long now) {
+		// Move the hosts whose delay is over to the back of the round-robin.
+		while (!delayed.isEmpty() && delayed.peek().readyAt - now <= 0) {
+			ready.add(delayed.poll());
+		}
+
+		final Host host = ready.poll();
+		if (host == null)
+			return null;
+
+		final String url = host.urls.poll();
+		size--;
+		host.active++;
+		host.readyAt = now + delayNanos;
+
+		if (!host.urls.isEmpty() && host.active < maxPerHost)
+			schedule(host, now);
+		return url;
+	}
+
+	/**
+	 * Helper method. Puts a host with URLs waiting into the ready or delayed queue,
+	 * unless it is at its limit. Must hold the lock.
+	 *
+	 * @param host The host.
+	 * @param now The current time (System.nanoTime()).
+	 */
+	private void schedule(final Host host, final long now) {
+		if (host.active >= maxPerHost)
+			return; // done() will schedule it.
+
+		if (host.readyAt - now <= 0)
+			ready.add(host);
+		else
+			delayed.add(host);
+		changed.signal();
+	}
+
+	/**
+	 * Helper method. Finds the host part of a URL ("http://www.site.com:80/a.html" gives "www.site.com:80").
+	 *
+	 * @param url The URL.
+	 * @return The host, in lower case.
+	 */
+	public static String hostOf(final String url) {
+		int start = url.indexOf("://");
+		start = (start < 0) ? 0 : start + 3;
+
+		int end = start;
+		while (end < url.length()) {
+			final char c = url.charAt(end);
+			if (c == '/' || c == '?' || c == '#')
+				break;
+			end++;
+		}
+		return url.substring(start, end).toLowerCase();
+	}
+
+	/** The URLs of one host, and its politeness state. Guarded by the frontier's lock. */
+	private static class Host implements Comparable<Host> {
+
+		/** The host's name. */
+		private final String name;
+
+		/** URLs of this host waiting to be retrieved. */
+		private final ArrayDeque<String> urls = new ArrayDeque<String>();
+
+		/** Number of URLs of this host being retrieved right now. */
+		private int active = 0;
+
+		/** When the host may hand out its next URL (System.nanoTime()). */
+		private long readyAt = Long.MIN_VALUE / 2;
+
+		/** @param name The host's name. */
+		Host(final String name) {
+			this.name = name;
+		}
+
+		/** Orders hosts by the time they become ready. */
+		public int compareTo(final Host other) {
+			final long diff = readyAt - other.readyAt;
+			return (diff < 0) ? -1 : ((diff > 0) ? 1 : name.compareTo(other.name));
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package queue;
+
+/**
+ * Set of int values (never 0), stored in a single int[] with open addressing.
+ * Costs 4 bytes per slot, and the table is kept between 3/8 and 3/4 full,
+ * so about 5 to 11 bytes per value - no objects at all.
+ * The values should be well mixed already (e.g. bits of a hash): the low bits pick the slot.
+ * 
+ * Not thread-safe: callers must synchronize.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class IntHashSet {
+	
+	/** Marks an empty slot. */
+	private static final int EMPTY = 0;
+	
+	/** The slots. Length is always a power of two. */
+	private int[] table;
+	
+	/** Number of values in the set. */
+	private int size;
+	
+	/** The table grows once size reaches this. */
+	private int threshold;
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param expected How many values are expected, so the table can be sized up front.
+	 */
+	public IntHashSet(final int expected) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < expected)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+	
+	/**
+	 * @param value The value (not 0).
+	 * @return True if the value was added, False if it was already in the set.
+	 */
+	public boolean add(final int value) {
+		final int mask = table.length - 1;
+		int slot = slot(value, mask);
+		int v;
+		while ((v = table[slot]) != EMPTY) {
+			if (v == value)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = value;
+		if (++size >= threshold)
+			grow();
+		return true;
+	}
+	
+	/**
+	 * @param value The value.
+	 * @return True if the value is in the set.
+	 */
+	public boolean contains(final int value) {
+		final int mask = table.length - 1;
+		int slot = slot(value, mask);
+		int v;
+		while ((v = table[slot]) != EMPTY) {
+			if (v == value)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes a value. Later values in the same run of slots are shifted back,
+	 * so lookups never stop at a gap left behind by the removal.
+	 * 
+	 * @param value The value.
+	 * @return True if the value was removed, False if it was not in the set.
+	 */
+	public boolean remove(final int value) {
+		final int mask = table.length - 1;
+		int slot = slot(value, mask);
+		int v;
+		while ((v = table[slot]) != value) {
+			if (v == EMPTY)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		
+		// Backward-shift deletion.
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while ((v = table[next]) != EMPTY) {
+			final int home = slot(v, mask);
+			// Move v into the gap, unless its home slot lies (cyclically) after the gap.
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				table[gap] = v;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[gap] = EMPTY;
+		size--;
+		return true;
+	}
+	
+	/** @return Number of values in the set. */
+	public int size() { return size; }
+	
+	/** @return Memory used by the table, in bytes. */
+	public long sizeInBytes() { return (long) table.length * 4; }
+	
+	/**
+	 * Copies every value into an array.
+	 * 
+	 * @param dest Where to copy the values.
+	 * @param offset Index in dest of the first value.
+	 * @return Index in dest after the last value.
+	 */
+	public int copyTo(final int[] dest, int offset) {
+		for (int v : table)
+			if (v != EMPTY)
+				dest[offset++] = v;
+		return offset;
+	}
+	
+	/** Helper method. Doubles the size of the table. */
+	private void grow() {
+		final int[] old = table;
+		allocate(old.length * 2);
+		size = 0;
+		for (int v : old)
+			if (v != EMPTY)
+				add(v);
+	}
+	
+	/** Helper method. Creates an empty table. */
+	private void allocate(final int capacity) {
+		table = new int[capacity];
+		threshold = capacity * 3 / 4;
+	}
+	
+	/** Helper method. The preferred slot of a value. */
+	private static int slot(final int value, final int mask) {
+		return value & mask;
+	}
+}
@@ -0,0 +1,448 @@
+package queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Frontier which keeps most of its URLs on disk, for crawls whose frontier
+ * would not fit on the heap. Still first-in-first-out.
+ *
+ * Only a small "head" of URLs (the next ones to be handed out) is kept on the heap.
+ * Everything behind it is appended to segment files, which are memory-mapped
+ * so reading and writing them is as cheap as reading and writing an array;
+ * the operating system decides which parts actually stay in RAM.
+ * Once a segment has been completely read, it is reused for new URLs
+ * (or deleted, if there are already enough spare segments).
+ *
+ * Each URL is stored as a 2-byte length followed by its UTF-8 bytes.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class MappedFrontier implements Frontier {
+
+	/** Default size of each segment file (64 MB, about a million URLs). */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/** Default number of URLs kept on the heap. */
+	public static final int DEFAULT_HEAD_SIZE = 1024;
+
+	/** Longest URL (in UTF-8 bytes) which can be stored. */
+	private static final int MAX_URL_BYTES = 0xFFFF;
+
+	/** Number of completely read segments kept around for reuse. */
+	private static final int MAX_SPARE_SEGMENTS = 2;
+
+	/** Number of bytes of a segment copied at a time by export(), while holding the lock. */
+	private static final int EXPORT_CHUNK_SIZE = 256 * 1024;
+
+	/** Encoding of the URLs in the segment files. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Where the segment files are created. */
+	private final File directory;
+
+	/** Size of each segment file, in bytes. */
+	private final int segmentSize;
+
+	/** Maximum number of URLs kept on the heap. */
+	private final int headSize;
+
+	/** Guards everything below. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when a URL is added. */
+	private final Condition notEmpty = lock.newCondition();
+
+	/** The next URLs to be handed out. Always older than anything in the segments. */
+	private final ArrayDeque<String> head;
+
+	/** Segments holding URLs, oldest first. Only the last one is written to. */
+	private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+	/** Completely read segments, ready to be reused. */
+	private final LinkedList<Segment> spares = new LinkedList<Segment>();
+
+	/** Number of URLs waiting (head and segments). */
+	private long size = 0;
+
+	/** Number of segments started so far (new or reused), used to number them. */
+	private long segmentsStarted = 0;
+
+	/**
+	 * Constructor. Uses the default segment and head sizes.
+	 *
+	 * @param directory Where to create the segment files (created if it does not exist).
+	 */
+	public MappedFrontier(final File directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_HEAD_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory Where to create the segment files (created if it does not exist).
+	 * @param segmentSize Size of each segment file, in bytes.
+	 * @param headSize Maximum number of URLs kept on the heap.
+	 */
+	public MappedFrontier(final File directory, final int segmentSize, final int headSize) {
+		if (segmentSize < MAX_URL_BYTES + 2)
+			throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+		if (headSize < 1)
+			throw new IllegalArgumentException("headSize must be greater than 0: " + headSize);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Cannot create directory: " + directory);
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.headSize = headSize;
+		this.head = new ArrayDeque<String>(headSize);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Only fails if the URL is too long, or a segment file could not be created.
+	 */
+	public boolean offer(final String url) {
+		lock.lock();
+		try {
+			if (segments.isEmpty() && head.size() < headSize) {
+				// Nothing on disk, so the URL can go straight into the head (still in order).
+				head.add(url);
+			} else if (!write(url)) {
+				return false;
+			}
+			size++;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public String poll() {
+		lock.lock();
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public String take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			String url;
+			while ((url = next()) == null)
+				notEmpty.await();
+			return url;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} Does nothing. */
+	public void done(final String url) { }
+
+	/**
+	 * {@inheritDoc}
+	 * Holds the lock only while copying a small chunk of a segment (oldest first),
+	 * then while copying the head; the URLs are handed to the sink after the lock is released.
+	 * The head is copied last, so URLs moved into it from a segment meanwhile are not missed.
+	 */
+	public void export(final UrlSink sink) throws IOException {
+		// URLs added after the export started need not be exported, so stop where the newest segment ends now.
+		final long lastNumber;
+		final int lastPosition;
+		lock.lock();
+		try {
+			final Segment newest = segments.peekLast();
+			lastNumber = (newest == null) ? -1 : newest.number;
+			lastPosition = (newest == null) ? 0 : newest.writePosition;
+		} finally {
+			lock.unlock();
+		}
+
+		// Segments are numbered in the order they were started, so we can always find our place again,
+		// even if older segments have been read (and reused) since the last chunk.
+		long number = 0;
+		int position = 0;
+		while (true) {
+			final byte[] copy;
+			lock.lock();
+			try {
+				final Segment segment = firstSegmentFrom(number, lastNumber);
+				if (segment == null)
+					break;
+				if (segment.number != number) {
+					number = segment.number;
+					position = 0;
+				}
+
+				// URLs read since the last chunk are in the head now, which is exported last.
+				final int start = Math.max(position, segment.readPosition);
+				final int limit = (number == lastNumber) ? lastPosition : segment.writePosition;
+				if (start >= limit) {
+					number++;
+					position = 0;
+					continue;
+				}
+				position = segment.recordEnd(start, limit, EXPORT_CHUNK_SIZE);
+				copy = segment.copy(start, position);
+			} finally {
+				lock.unlock();
+			}
+
+			int at = 0;
+			while (at < copy.length) {
+				final int length = ((copy[at] & 0xFF) << 8) | (copy[at + 1] & 0xFF);
+				sink.url(new String(copy, at + 2, length, UTF8), 0, 0);
+				at += 2 + length;
+			}
+		}
+
+		final String[] urls;
+		lock.lock();
+		try {
+			urls = head.toArray(new String[head.size()]);
+		} finally {
+			lock.unlock();
+		}
+		for (String url : urls)
+			sink.url(url, 0, 0);
+	}
+
+	/** {@inheritDoc} */
+	public long size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} Deletes every segment file. */
+	public void close() {
+		lock.lock();
+		try {
+			for (Segment s : segments)
+				s.delete();
+			for (Segment s : spares)
+				s.delete();
+			segments.clear();
+			spares.clear();
+			head.clear();
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Helper method. Removes the next URL, refilling the head from disk if needed.
+	 * Must hold the lock.
+	 *
+	 * @return The next URL, or null if there are none.
+	 */
+	private String next() {
+		if (head.isEmpty())
+			refill();
+
+		final String url = head.poll();
+		if (url != null)
+			size--;
+		return url;
+	}
+
+	/**
+	 * Helper method. Finds the oldest segment within a range of numbers. Must hold the lock.
+	 *
+	 * @param from Lowest number.
+	 * @param to Highest number.
+	 * @return The segment, or null if there is none.
+	 */
+	private Segment firstSegmentFrom(final long from, final long to) {
+		for (Segment s : segments) {
+			if (s.number > to)
+				break;
+			if (s.number >= from)
+				return s;
+		}
+		return null;
+	}
+
+	/** Helper method. Moves URLs from the oldest segments into the head. Must hold the lock. */
+	private void refill() {
+		while (head.size() < headSize && !segments.isEmpty()) {
+			final Segment oldest = segments.getFirst();
+			if (oldest.hasMore()) {
+				head.add(oldest.read());
+			} else {
+				// Completely read, so it can be reused.
+				segments.removeFirst();
+				recycle(oldest);
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Appends a URL to the newest segment, starting a new one if it is full.
+	 * Must hold the lock.
+	 *
+	 * @return False if the URL could not be stored.
+	 */
+	private boolean write(final String url) {
+		final byte[] bytes = url.getBytes(UTF8);
+		if (bytes.length > MAX_URL_BYTES)
+			return false;
+
+		Segment newest = segments.peekLast();
+		if (newest == null || !newest.hasRoomFor(bytes.length)) {
+			try {
+				newest = newSegment();
+			} catch (final IOException ioe) {
+				ioe.printStackTrace();
+				return false;
+			}
+			segments.add(newest);
+		}
+		newest.write(bytes);
+		return true;
+	}
+
+	/** Helper method. Reuses a spare segment, or creates a new segment file. Must hold the lock. */
+	private Segment newSegment() throws IOException {
+		final Segment segment;
+		if (!spares.isEmpty()) {
+			segment = spares.removeFirst();
+		} else {
+			final File file = File.createTempFile("frontier", ".seg", directory);
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(segmentSize);
+				// The mapping stays valid after the file is closed.
+				segment = new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+			} finally {
+				raf.close();
+			}
+		}
+		segment.number = segmentsStarted++;
+		return segment;
+	}
+
+	/** Helper method. Keeps a completely read segment for reuse, or deletes it. Must hold the lock. */
+	private void recycle(final Segment segment) {
+		if (spares.size() < MAX_SPARE_SEGMENTS) {
+			segment.clear();
+			spares.add(segment);
+		} else {
+			segment.delete();
+		}
+	}
+
+	/** One memory-mapped segment file. Not thread-safe; guarded by the frontier's lock. */
+	private static class Segment {
+
+		/** The file. */
+		private final File file;
+
+		/** The file's contents. */
+		private final MappedByteBuffer buffer;
+
+		/** Where the next URL will be read from. */
+		private int readPosition = 0;
+
+		/** Where the next URL will be written to. */
+		private int writePosition = 0;
+
+		/** Number of the segment, in the order segments were started (or reused). */
+		private long number;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param file The file.
+		 * @param buffer The file's contents.
+		 */
+		Segment(final File file, final MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		/** @return True if there are URLs left to read. */
+		boolean hasMore() { return readPosition < writePosition; }
+
+		/**
+		 * @param length Length of a URL, in bytes.
+		 * @return True if the URL will fit.
+		 */
+		boolean hasRoomFor(final int length) { return writePosition + 2 + length <= buffer.capacity(); }
+
+		/** @param bytes The UTF-8 bytes of a URL to append. */
+		void write(final byte[] bytes) {
+			buffer.putShort(writePosition, (short) bytes.length);
+			buffer.position(writePosition + 2);
+			buffer.put(bytes);
+			writePosition += 2 + bytes.length;
+		}
+
+		/** @return The next URL. */
+		String read() {
+			final int length = buffer.getShort(readPosition) & 0xFFFF;
+			final byte[] bytes = new byte[length];
+			buffer.position(readPosition + 2);
+			buffer.get(bytes);
+			readPosition += 2 + length;
+			return new String(bytes, UTF8);
+		}
+
+		/**
+		 * @param start Where a URL starts.
+		 * @param limit Where the URLs to consider end.
+		 * @param size Roughly how many bytes of URLs are wanted.
+		 * @return Where the URL ending at least size bytes after start (or at limit) ends.
+		 */
+		int recordEnd(final int start, final int limit, final int size) {
+			int end = start;
+			do {
+				end += 2 + (buffer.getShort(end) & 0xFFFF);
+			} while (end < limit && end - start < size);
+			return end;
+		}
+
+		/**
+		 * @param start Where the first URL starts.
+		 * @param end Where the last URL ends.
+		 * @return A copy of the URLs, in the same format as the file.
+		 */
+		byte[] copy(final int start, final int end) {
+			final byte[] bytes = new byte[end - start];
+			buffer.position(start);
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		/** Forgets every URL, so the segment can be written again from the start. */
+		void clear() {
+			readPosition = 0;
+			writePosition = 0;
+		}
+
+		/** Deletes the file. (The memory is released once the buffer is garbage collected.) */
+		void delete() {
+			if (!file.delete())
+				file.deleteOnExit();
+		}
+	}
+}
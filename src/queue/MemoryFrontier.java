@@ -0,0 +1,170 @@
+package queue;
+
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Frontier which keeps every URL on the heap, in first-in-first-out order.
+ * 
+ * The URLs are kept in an ArrayDeque behind a single lock, so a whole page of links
+ * is added, and a handful of URLs taken out, with one lock each (see BulkFrontier).
+ * A thread waiting for a URL is only signalled when there is one for it.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class MemoryFrontier implements BulkFrontier {
+	
+	/** The URLs waiting to be retrieved. Guarded by lock. */
+	private final ArrayDeque<String> urls = new ArrayDeque<String>();
+	
+	/** Guards the URLs. */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	/** Signalled when a URL is added for a waiting thread. */
+	private final Condition notEmpty = lock.newCondition();
+	
+	/** Maximum number of URLs to hold at once. */
+	private final int capacity;
+	
+	/** Number of threads waiting in take(). Guarded by lock. */
+	private int waiting;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity Maximum number of URLs to hold at once.
+	 */
+	public MemoryFrontier(final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.capacity = capacity;
+	}
+	
+	/** {@inheritDoc} */
+	public boolean offer(final String url) {
+		lock.lock();
+		try {
+			if (urls.size() >= capacity)
+				return false;
+			urls.addLast(url);
+			if (waiting > 0)
+				notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public int offerAll(final UrlBatch batch) {
+		lock.lock();
+		try {
+			final int added = Math.min(batch.size(), capacity - urls.size());
+			for (int i = 0; i < added; i++)
+				urls.addLast(batch.getUrl(i));
+			for (int i = Math.min(added, waiting); i > 0; i--)
+				notEmpty.signal();
+			return Math.max(0, added);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public String poll() {
+		lock.lock();
+		try {
+			return urls.pollFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public String take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			awaitNotEmpty();
+			return urls.pollFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public int take(final String[] into) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			awaitNotEmpty();
+			into[0] = urls.pollFirst();
+			final int count = 1 + Math.min(into.length - 1, urls.size() / 2);
+			for (int i = 1; i < count; i++)
+				into[i] = urls.pollFirst();
+			// Another thread may have been signalled for one of the URLs we took: pass the signal on.
+			if (waiting > 0 && !urls.isEmpty())
+				notEmpty.signal();
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** {@inheritDoc} Does nothing. */
+	public void done(final String url) { }
+	
+	/**
+	 * {@inheritDoc} Copies the URLs under the lock, which stops the other threads for about
+	 * a millisecond per million URLs, then hands them to the sink without it.
+	 */
+	public void export(final UrlSink sink) throws IOException {
+		final Object[] copy;
+		lock.lock();
+		try {
+			copy = urls.toArray();
+		} finally {
+			lock.unlock();
+		}
+		for (Object url : copy)
+			sink.url((String) url, 0, 0);
+	}
+	
+	/** {@inheritDoc} */
+	public long size() {
+		lock.lock();
+		try {
+			return urls.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public void close() {
+		lock.lock();
+		try {
+			urls.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Helper method. Waits, holding the lock, until there is a URL.
+	 * 
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	private void awaitNotEmpty() throws InterruptedException {
+		while (urls.isEmpty()) {
+			waiting++;
+			try {
+				notEmpty.await();
+			} finally {
+				waiting--;
+			}
+		}
+	}
+}
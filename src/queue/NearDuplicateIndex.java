@@ -0,0 +1,112 @@
+package queue;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the SimHash of every page parsed so far, and tells whether a new page is a near-duplicate
+ * of one of them: whether their SimHashes differ in at most a few bits (the maximum distance).
+ * 
+ * Comparing a new SimHash with every one in the index would take too long, so the index is banded:
+ * the 64 bits are split into 4 bands of 16 bits, and each band indexes the SimHashes by its value.
+ * Two SimHashes which differ in at most 3 bits are the same in at least one band, so only the 
+ * SimHashes sharing a band with the new one need comparing - a handful, even for millions of pages.
+ * Costs 1 MB for the band tables, plus 24 bytes per page; no objects per page.
+ * 
+ * Thread-safe. One index is meant for one crawl.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class NearDuplicateIndex {
+	
+	/** Default maximum number of bits two near-duplicates differ in. */
+	public static final int DEFAULT_MAX_DISTANCE = 3;
+	
+	/** Number of bands. A maximum distance of up to BANDS - 1 is guaranteed to be found. */
+	private static final int BANDS = 4;
+	
+	/** Number of bits in each band. */
+	private static final int BAND_BITS = 64 / BANDS;
+	
+	/** Maximum number of bits two near-duplicates differ in. */
+	private final int maxDistance;
+	
+	/** For each band, and each value of that band, the first entry with that value (plus 1), or 0 for none. */
+	private final int[][] heads = new int[BANDS][1 << BAND_BITS];
+	
+	/** For each band, and each entry, the next entry with the same value of the band (plus 1), or 0 for none. */
+	private final int[][] next = new int[BANDS][];
+	
+	/** The SimHashes, by entry. */
+	private long[] hashes;
+	
+	/** Number of entries. */
+	private int size;
+	
+	/** Constructor. Pages whose SimHashes differ in up to DEFAULT_MAX_DISTANCE bits are near-duplicates. */
+	public NearDuplicateIndex() {
+		this(DEFAULT_MAX_DISTANCE);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxDistance Maximum number of bits two near-duplicates differ in, from 0 (only the same text) to 3.
+	 * @throws IllegalArgumentException If the maximum distance is out of range.
+	 */
+	public NearDuplicateIndex(final int maxDistance) {
+		if (maxDistance < 0 || maxDistance >= BANDS)
+			throw new IllegalArgumentException("maxDistance must be from 0 to " + (BANDS - 1) + ": " + maxDistance);
+		this.maxDistance = maxDistance;
+		this.hashes = new long[1024];
+		for (int b = 0; b < BANDS; b++)
+			next[b] = new int[hashes.length];
+	}
+	
+	/**
+	 * Adds the SimHash of a page, unless the page is a near-duplicate of one added before.
+	 * 
+	 * @param simHash The SimHash of the page (not 0).
+	 * @return True if the page was added, False if it is a near-duplicate.
+	 */
+	public synchronized boolean add(final long simHash) {
+		for (int b = 0; b < BANDS; b++) {
+			final int[] links = next[b];
+			for (int e = heads[b][band(simHash, b)]; e != 0; e = links[e - 1]) {
+				if (Long.bitCount(hashes[e - 1] ^ simHash) <= maxDistance)
+					return false;
+			}
+		}
+		
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+			for (int b = 0; b < BANDS; b++)
+				next[b] = Arrays.copyOf(next[b], size * 2);
+		}
+		hashes[size] = simHash;
+		for (int b = 0; b < BANDS; b++) {
+			final int value = band(simHash, b);
+			next[b][size] = heads[b][value];
+			heads[b][value] = size + 1;
+		}
+		size++;
+		return true;
+	}
+	
+	/** @return Number of pages added. */
+	public synchronized int size() { return size; }
+	
+	/** @return Maximum number of bits two near-duplicates differ in. */
+	public int getMaxDistance()    { return maxDistance; }
+	
+	/**
+	 * Helper method.
+	 * 
+	 * @param simHash A SimHash.
+	 * @param b Index of a band.
+	 * @return The value of the band.
+	 */
+	private static int band(final long simHash, final int b) {
+		return (int) (simHash >>> (b * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+	}
+}
@@ -1,40 +1,111 @@
 package queue;
 
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import data.Page;
 
 /**
- * Queue which holds Page objects.  Thread-safe!
- * 
+ * Bounded queue which holds Page objects.  Thread-safe!
+ *
+ * PageParsers wait in take() while the buffer is empty,
+ * and PageRetrievers wait in put() while the buffer is full.
+ * This keeps downloaded page bodies from piling up faster than they can be parsed.
+ *
  * @author Derv
  * @version 1
  */
-//To avoid warnings about PageQueue not being serializable
-@SuppressWarnings("serial") 
-public class PageBuffer extends LinkedList<Page> {
-	
-	/** Default Constructor. */
+public class PageBuffer {
+
+	/** The retrieved pages, waiting to be parsed. */
+	private final BlockingQueue<Page> pages;
+
+	/** Maximum number of pages the buffer will hold at once. */
+	private final int capacity;
+
+	/** Default Constructor. Creates an unbounded buffer. */
 	public PageBuffer() {
-		super();
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity Maximum number of pages the buffer will hold at once.
+	 */
+	public PageBuffer(final int capacity) {
+		this.pages = new LinkedBlockingQueue<Page>(capacity);
+		this.capacity = capacity;
 	}
-	
-	/** 
+
+	/**
+	 * Thread-safe method to add a page to the queue, without waiting.
+	 *
+	 * @param page The page to add.
+	 * @return "False" if the buffer is full, otherwise "True".
+	 */
+	public boolean add(final Page page) {
+		return pages.offer(page);
+	}
+
+	/**
 	 * Thread-safe method to add a page to the queue.
-	 * 
+	 * Waits for space to become available if the buffer is full.
+	 *
 	 * @param page The page to add.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
 	 */
-	synchronized public boolean add(final Page page) {
-		return super.add(page);
+	public void put(final Page page) throws InterruptedException {
+		pages.put(page);
 	}
-	
+
 	/**
-	 * Thread-safe method to remove the next page from the queue.
-	 * 
+	 * Thread-safe method to remove the next page from the queue, without waiting.
+	 *
+	 * @return The next page in the queue.
 	 * @throws NoSuchElementException If the queue is empty.
 	 */
-	synchronized public Page remove() throws NoSuchElementException {
-		return super.remove();
+	public Page remove() throws NoSuchElementException {
+		return pages.remove();
+	}
+
+	/**
+	 * Thread-safe method to remove the next page from the queue.
+	 * Waits for a page to become available if the buffer is empty.
+	 *
+	 * @return The next page in the queue.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public Page take() throws InterruptedException {
+		return pages.take();
 	}
+
+	/**
+	 * Thread-safe method to remove several pages from the queue at once.
+	 * Waits for a page to become available if the buffer is empty, then takes more
+	 * of those waiting, up to max - but no more than half of the others,
+	 * so the other threads taking pages still get their share.
+	 *
+	 * This is two operations on the queue, each under its take lock: take() for the first page,
+	 * then drainTo() for the rest. So it locks twice per batch instead of once per page,
+	 * and another thread may take pages in between (it then simply gets fewer).
+	 *
+	 * @param into Receives the pages.
+	 * @param max Maximum number of pages to take.
+	 * @return Number of pages removed, at least 1.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public int take(final Collection<? super Page> into, final int max) throws InterruptedException {
+		into.add(pages.take());
+		final int more = Math.min(max - 1, pages.size() / 2);
+		return 1 + ((more > 0) ? pages.drainTo(into, more) : 0);
+	}
+
+	/** @return Number of pages currently in the queue. */
+	public int size() { return pages.size(); }
+
+	/** @return Maximum number of pages the buffer will hold at once. */
+	public int capacity() { return capacity; }
 }
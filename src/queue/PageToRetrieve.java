@@ -1,60 +1,464 @@
 package queue;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Queue which holds the URLs.  Ensures no duplicate URLs will be added.
- * 
+ *
+ * PageRetrievers wait in take() while the queue is empty,
+ * instead of repeatedly polling it.
+ *
  * Thread-safe!
- * 
+ *
  * @author Derv
  * @version 1
  */
-@SuppressWarnings("serial")
-public class PageToRetrieve extends LinkedList<String> {
-	
-	/** 
+public class PageToRetrieve {
+
+	/**
+	 * Score written for the URLs handed out but not finished when a checkpoint is taken,
+	 * so a ScoredFrontier hands them out first after a resume.
+	 */
+	private static final double HANDED_OUT_SCORE = Double.POSITIVE_INFINITY;
+
+	/**
 	 * Collection of URLs that have already been added to the queue previously.
 	 * This field keeps track of URLs so we will not add duplicates.
-	 * Primarily used by the add() method.
+	 * Primarily used by the add() method. Thread-safe on its own.
+	 */
+	private final VisitedSet alreadyAdded;
+
+	/** The URLs waiting to be retrieved. */
+	private final Frontier urls;
+
+	/** The same Frontier as urls if it is a ScoredFrontier, otherwise null. */
+	private final ScoredFrontier scored;
+
+	/** The same Frontier as urls if it is a BulkFrontier, otherwise null. */
+	private final BulkFrontier bulk;
+
+	/** Counts every URL accepted by this queue until it has been completely handled. */
+	private final WorkTracker tracker;
+
+	/**
+	 * URLs handed out by take() or remove() which are not finished yet, with their depth.
+	 * They are no longer in the Frontier, so checkpoints must save them from here.
+	 */
+	private final ConcurrentMap<String, Integer> handedOut = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * While a checkpoint is being written: the URLs finished or given back since it started, with their depth,
+	 * which it saves as still to be handled. Otherwise null.
 	 */
-	private final Map<String, Boolean> alreadyAdded = new HashMap<String, Boolean>();
-	
-	/** Default Constructor. */
+	private volatile ConcurrentMap<String, Integer> sinceCheckpoint;
+
+	/** Held while a checkpoint starts or ends, and by giveBack(). */
+	private final Object checkpointLock = new Object();
+
+	/** Sends the URLs which belong elsewhere (e.g. to another node of a cluster), or null to keep every URL. */
+	private volatile UrlRouter router;
+
+	/** Default Constructor. Creates an unbounded queue, kept in memory. */
 	public PageToRetrieve() {
-		super();
+		this(new MemoryFrontier(Integer.MAX_VALUE), new WorkTracker(), new HashVisitedSet());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param frontier Holds the URLs waiting to be retrieved.
+	 * @param tracker Counts every URL accepted by this queue.
+	 * @param visited Remembers the URLs added so far.
+	 */
+	public PageToRetrieve(final Frontier frontier, final WorkTracker tracker, final VisitedSet visited) {
+		this.urls         = frontier;
+		this.scored       = (frontier instanceof ScoredFrontier) ? (ScoredFrontier) frontier : null;
+		this.bulk         = (frontier instanceof BulkFrontier) ? (BulkFrontier) frontier : null;
+		this.tracker      = tracker;
+		this.alreadyAdded = visited;
 	}
-	
-	/** 
+
+	/**
 	 * Thread-safe method to add a URL to the queue.
-	 * Ensures that URLs will only be added once. 
-	 * 
+	 * Ensures that URLs will only be added once.
+	 * Never waits: if the queue is full, the URL is dropped.
+	 * Every URL that is accepted is counted by the WorkTracker.
+	 *
+	 * @param url The URL to add.
+	 *
+	 * @return "False" if unable to add (or URL has already been added),
+	 * 			otherwise "True".
+	 */
+	public boolean add(final String url) {
+		return add(url, 0, 0);
+	}
+
+	/**
+	 * Thread-safe method to add a URL to the queue, with a score and depth.
+	 * The score and depth are only used if the Frontier is a ScoredFrontier;
+	 * otherwise this is the same as add(url).
+	 *
 	 * @param url The URL to add.
-	 * 
-	 * @return "False" if unable to add (or URL has already been added), 
+	 * @param score How promising the URL is; higher scores are retrieved first.
+	 * @param depth Number of links followed from the seed URL to reach this URL.
+	 *
+	 * @return "False" if unable to add (or URL has already been added),
 	 * 			otherwise "True".
 	 */
-	synchronized public boolean add(final String url) {
-		// Check if this URL has already been added before.
-		if (alreadyAdded.containsKey(url))
+	public boolean add(final String url, final double score, final int depth) {
+		// Check if this URL has already been added before,
+		// and add it to the list of URLs already added if not.
+		// Only one thread can ever win this for a given URL.
+		if (!alreadyAdded.add(url))
 			return false;
-		
-		// Add URL to list of URLs already added.
-		alreadyAdded.put(url, true);
-		return super.add(url);
+
+		// URLs which belong elsewhere stay in the visited set, so each is sent only once.
+		final UrlRouter r = router;
+		if (r != null && r.forward(url, score, depth))
+			return true;
+
+		return queue(url, score, depth);
 	}
-	
+
 	/**
-	 * Thread-safe method to remove the next URL from the queue.
-	 * 
+	 * Thread-safe method to add a batch of URLs to the queue, such as all the links of a page.
+	 * The same as adding each URL with add(url, score, depth), but a BulkFrontier
+	 * takes them all under one lock, and the WorkTracker counts them all at once.
+	 * Empties the batch.
+	 *
+	 * @param batch The URLs to add, with their scores and depths.
+	 * @return Number of URLs added to the queue (not seen before, not sent elsewhere, and with room for them).
+	 */
+	public int addAll(final UrlBatch batch) {
+		// Keep the URLs which are new and stay here, moving them down over the others.
+		final UrlRouter r = router;
+		int kept = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			final String url = batch.getUrl(i);
+			if (!alreadyAdded.add(url))
+				continue;
+			if (r != null && r.forward(url, batch.getScore(i), batch.getDepth(i)))
+				continue;
+			batch.move(i, kept++);
+		}
+		batch.truncate(kept);
+
+		int queued = 0;
+		if (bulk != null) {
+			// Count the URLs *before* they are visible to the PageRetrievers, as queue() does.
+			tracker.begin(kept);
+			queued = bulk.offerAll(batch);
+			for (int i = queued; i < kept; i++) {
+				tracker.end();
+				alreadyAdded.remove(batch.getUrl(i));
+			}
+		} else {
+			for (int i = 0; i < kept; i++) {
+				if (queue(batch.getUrl(i), batch.getScore(i), batch.getDepth(i)))
+					queued++;
+			}
+		}
+		batch.clear();
+		return queued;
+	}
+
+	/**
+	 * Thread-safe method to queue a URL which add() sent elsewhere, but which did not get there,
+	 * such as a link forwarded to another node of a cluster whose connection then failed.
+	 * The URL is in the visited set already, so add() would drop it: this queues it
+	 * without looking at the visited set, or asking the router again.
+	 *
+	 * @param url The URL, added to the visited set by add() or addAll().
+	 * @param score How promising the URL is.
+	 * @param depth Number of links followed from the seed URL to reach this URL.
+	 * @return "False" if the queue is full (the URL is then forgotten, as add() does), otherwise "True".
+	 */
+	public boolean requeue(final String url, final double score, final int depth) {
+		return queue(url, score, depth);
+	}
+
+	/**
+	 * @param router Sends the URLs which belong elsewhere (e.g. to another node of a cluster),
+	 * 			or null (the default) to keep every URL. Asked once for each new URL.
+	 */
+	public void setRouter(final UrlRouter router) { this.router = router; }
+
+	/**
+	 * Thread-safe method to remove the next URL from the queue, without waiting.
+	 *
 	 * @return The next URL in the queue.
-	 
 	 * @throws NoSuchElementException If the queue is empty.
 	 */
-	synchronized public String remove() throws NoSuchElementException {
-		return super.remove();
+	public String remove() throws NoSuchElementException {
+		final String url = urls.poll();
+		if (url == null)
+			throw new NoSuchElementException();
+		return handOut(url);
+	}
+
+	/**
+	 * Thread-safe method to remove the next URL from the queue.
+	 * Waits for a URL to become available if the queue is empty.
+	 *
+	 * @return The next URL in the queue.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public String take() throws InterruptedException {
+		return handOut(urls.take());
+	}
+
+	/**
+	 * Thread-safe method to remove several URLs from the queue at once.
+	 * Waits for a URL to become available if the queue is empty.
+	 * A BulkFrontier hands out up to into.length URLs under one lock (leaving other threads their share);
+	 * other Frontiers hand out one.
+	 *
+	 * @param into Receives the URLs, from index 0.
+	 * @return Number of URLs removed, at least 1.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public int take(final String[] into) throws InterruptedException {
+		if (bulk == null) {
+			into[0] = take();
+			return 1;
+		}
+		final int count = bulk.take(into);
+		for (int i = 0; i < count; i++)
+			handOut(into[i]);
+		return count;
+	}
+
+	/**
+	 * Tells the queue a URL it handed out has been retrieved (or has failed),
+	 * so the Frontier can hand out more URLs of the same host.
+	 *
+	 * @param url The URL which was retrieved.
+	 */
+	public void done(final String url) {
+		urls.done(url);
+	}
+
+	/**
+	 * Tells the queue a URL it handed out has been completely handled (or given up on),
+	 * and tells the WorkTracker we are done with it.
+	 *
+	 * @param url The URL.
+	 */
+	public void finished(final String url) {
+		// A checkpoint being written may have looked for the URL among the handed out ones already,
+		// and be about to miss it in the Frontier: remember it for the checkpoint *before* forgetting it.
+		final ConcurrentMap<String, Integer> since = sinceCheckpoint;
+		if (since != null) {
+			final Integer depth = handedOut.get(url);
+			if (depth != null)
+				since.put(url, depth);
+		}
+		handedOut.remove(url);
+		tracker.end();
+	}
+
+	/**
+	 * Puts a URL it handed out back in the queue, for another PageRetriever,
+	 * such as the URLs a worker had taken but did not get to before it stopped.
+	 * Call done() first if the URL was not retrieved.
+	 * The URL stays in the visited set, unless the Frontier has no room for it.
+	 *
+	 * @param url The URL, handed out and not finished yet.
+	 */
+	public void giveBack(final String url) {
+		// Forget it was handed out first, since another thread may take it again as soon as it is queued.
+		// Queue it again before ending its unit of work, so the WorkTracker does not reach zero in between.
+		// Under the lock, so a checkpoint sees it handed out, or in the Frontier from before it started,
+		// or remembers it; this is rare enough not to slow anything down.
+		synchronized (checkpointLock) {
+			final Integer depth = handedOut.remove(url);
+			final int d = (depth == null) ? 0 : depth;
+			queue(url, HANDED_OUT_SCORE, d);
+			final ConcurrentMap<String, Integer> since = sinceCheckpoint;
+			if (since != null)
+				since.put(url, d);
+		}
+		tracker.end();
+	}
+
+	/**
+	 * @param url A URL removed from the queue, and not finished yet.
+	 * @return Number of links followed from the seed URL to reach it (0 if the Frontier does not keep track).
+	 */
+	public int depthOf(final String url) {
+		final Integer depth = handedOut.get(url);
+		return (depth == null) ? 0 : depth;
+	}
+
+	/**
+	 * Starts a checkpoint: from now on, the URLs finished are remembered until writeTo() saves them
+	 * as still to be handled. Call before saving anything else which goes with the checkpoint
+	 * (such as the statistics), so the pages finished after that are handled again after a resume.
+	 * writeTo() calls it itself otherwise. One checkpoint at a time.
+	 */
+	public void startCheckpoint() {
+		synchronized (checkpointLock) {
+			if (sinceCheckpoint == null)
+				sinceCheckpoint = new ConcurrentHashMap<String, Integer>();
+		}
+	}
+
+	/** Ends a checkpoint started by startCheckpoint() which could not be written. Does nothing otherwise. */
+	public void endCheckpoint() {
+		synchronized (checkpointLock) {
+			sinceCheckpoint = null;
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the queue: the visited set, then every URL still to be handled
+	 * (waiting in the Frontier, handed out but not finished, or finished since the checkpoint started).
+	 * Runs alongside the other threads; none of them is stopped for more than a moment.
+	 *
+	 * Each URL still to be handled is written as True, the URL, its score and its depth; False marks the end.
+	 *
+	 * @param out Where to write.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(final DataOutput out) throws IOException {
+		startCheckpoint();
+		try {
+			writeUrls(out);
+		} finally {
+			endCheckpoint();
+		}
+	}
+
+	/**
+	 * Helper method. Writes the checkpoint of the queue, once it has started.
+	 *
+	 * @param out Where to write.
+	 * @throws IOException If writing fails.
+	 */
+	private void writeUrls(final DataOutput out) throws IOException {
+		// Order matters, since URLs keep moving while we write.
+		// The visited set goes first, so every URL in it is finished before the checkpoint started,
+		// waiting, handed out, or finished since, by the time we look at those.
+		// URLs added later are found again after a resume, from the page they were found on:
+		// that page was still to be handled when the checkpoint started, so it is saved.
+		alreadyAdded.writeTo(out);
+
+		final UrlSink sink = new UrlSink() {
+			public void url(final String url, final double score, final int depth) throws IOException {
+				out.writeBoolean(true);
+				out.writeUTF(url);
+				out.writeDouble(score);
+				out.writeInt(depth);
+			}
+		};
+
+		// The handed out URLs are looked at before and after the Frontier,
+		// to catch any URL handed out while the Frontier was being exported.
+		writeHandedOut(sink);
+		urls.export(sink);
+		writeHandedOut(sink);
+
+		// A URL finished or given back after it was looked for among the handed out ones,
+		// which the Frontier also missed (it was taken, or given back, behind the export).
+		// finished() remembers a URL before forgetting it was handed out, so a URL is remembered
+		// here as soon as it is missing from the handed out ones above.
+		final ConcurrentMap<String, Integer> since;
+		synchronized (checkpointLock) {
+			since = sinceCheckpoint;
+			sinceCheckpoint = null;
+		}
+		for (Map.Entry<String, Integer> entry : since.entrySet())
+			sink.url(entry.getKey(), HANDED_OUT_SCORE, entry.getValue());
+		out.writeBoolean(false);
+	}
+
+	/**
+	 * Restores a checkpoint written by writeTo(): fills the visited set, and queues every URL
+	 * which was still to be handled.
+	 * Must be called before any URL is added or handed out.
+	 *
+	 * @param in Where to read.
+	 * @return Number of URLs queued.
+	 * @throws IOException If reading fails.
+	 */
+	public long readFrom(final DataInput in) throws IOException {
+		alreadyAdded.readFrom(in);
+
+		// A URL may have been written more than once; only queue it the first time.
+		// Most are in the visited set already, but not those added while the checkpoint was written.
+		final LongHashSet seen = new LongHashSet(1024);
+		long queued = 0;
+		while (in.readBoolean()) {
+			final String url = in.readUTF();
+			final double score = in.readDouble();
+			final int depth = in.readInt();
+			if (seen.add(Fingerprint.of(url))) {
+				alreadyAdded.add(url);
+				if (queue(url, score, depth))
+					queued++;
+			}
+		}
+		return queued;
+	}
+
+	/** @return Number of URLs currently in the queue. */
+	public long size() { return urls.size(); }
+
+	/** Releases the resources (such as files) held by the queue. */
+	public void close() { urls.close(); }
+
+	/** @return The WorkTracker counting the URLs accepted by this queue. */
+	public WorkTracker getTracker() { return tracker; }
+
+	/**
+	 * Helper method. Hands a URL to the Frontier, once it has been added to the visited set.
+	 *
+	 * @param url The URL.
+	 * @param score How promising the URL is.
+	 * @param depth Number of links followed from the seed URL to reach this URL.
+	 * @return False if the Frontier had no room for it, otherwise True.
+	 */
+	private boolean queue(final String url, final double score, final int depth) {
+		// Count the URL *before* it is visible to the PageRetrievers,
+		// otherwise it could be finished (and uncounted) before we count it.
+		tracker.begin();
+
+		final boolean offered = (scored != null) ? scored.offer(url, score, depth) : urls.offer(url);
+
+		// The queue is full. Forget the URL, so it can be added once there is room.
+		if (!offered) {
+			tracker.end();
+			alreadyAdded.remove(url);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method. Remembers a URL being handed out, with its depth.
+	 *
+	 * @param url The URL, just removed from the Frontier.
+	 * @return The URL.
+	 */
+	private String handOut(final String url) {
+		handedOut.put(url, (scored != null) ? scored.depthOf(url) : 0);
+		return url;
+	}
+
+	/**
+	 * Helper method. Writes the URLs handed out but not finished yet.
+	 *
+	 * @param sink Where to write them.
+	 * @throws IOException If writing fails.
+	 */
+	private void writeHandedOut(final UrlSink sink) throws IOException {
+		for (Map.Entry<String, Integer> entry : handedOut.entrySet())
+			sink.url(entry.getKey(), HANDED_OUT_SCORE, entry.getValue());
 	}
 }
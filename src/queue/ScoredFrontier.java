@@ -0,0 +1,31 @@
+package queue;
+
+/**
+ * A Frontier which hands out the most promising URLs first, instead of in the order they were found.
+ * Each URL is added with a score (higher is better) and its crawl depth.
+ *
+ * Implementations must be thread-safe.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface ScoredFrontier extends Frontier {
+
+	/**
+	 * Adds a URL with a score, without waiting.
+	 *
+	 * @param url The URL to add.
+	 * @param score How promising the URL is; higher scores are handed out first.
+	 * @param depth Number of links followed from the seed URL to reach this URL.
+	 * @return False if there was no room for the URL, otherwise True.
+	 */
+	boolean offer(String url, double score, int depth);
+
+	/**
+	 * Looks up (and forgets) the depth of a URL which was just handed out by poll() or take().
+	 *
+	 * @param url The URL.
+	 * @return The depth the URL was added with, or 0 if it is not known.
+	 */
+	int depthOf(String url);
+}
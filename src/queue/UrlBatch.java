@@ -0,0 +1,125 @@
+package queue;
+
+import java.util.Arrays;
+
+/**
+ * The URLs found on one page (or received in one message), with their scores and depths,
+ * collected by one thread and then added to a PageToRetrieve in one go with addAll(),
+ * so the queue is locked once per batch rather than once per URL.
+ * 
+ * Kept as parallel arrays and reused from one batch to the next, so collecting the URLs
+ * makes no objects once the arrays are big enough.
+ * 
+ * Not thread-safe: each thread should use its own UrlBatch.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public class UrlBatch {
+	
+	/** The URLs. */
+	private String[] urls;
+	
+	/** Their scores. */
+	private double[] scores;
+	
+	/** Their depths. */
+	private int[] depths;
+	
+	/** Number of URLs in the batch. */
+	private int size;
+	
+	/** Constructor. Makes room for 64 URLs, and grows as needed. */
+	public UrlBatch() {
+		this(64);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity Number of URLs to make room for up front.
+	 */
+	public UrlBatch(final int capacity) {
+		final int n = Math.max(1, capacity);
+		urls   = new String[n];
+		scores = new double[n];
+		depths = new int[n];
+	}
+	
+	/**
+	 * Adds a URL to the batch.
+	 * 
+	 * @param url The URL.
+	 * @param score How promising the URL is.
+	 * @param depth Number of links followed from the seed URL to reach it.
+	 */
+	public void add(final String url, final double score, final int depth) {
+		if (size == urls.length) {
+			urls   = Arrays.copyOf(urls, size * 2);
+			scores = Arrays.copyOf(scores, size * 2);
+			depths = Arrays.copyOf(depths, size * 2);
+		}
+		urls[size] = url;
+		scores[size] = score;
+		depths[size] = depth;
+		size++;
+	}
+	
+	/** Empties the batch, letting go of the URLs. */
+	public void clear() {
+		Arrays.fill(urls, 0, size, null);
+		size = 0;
+	}
+	
+	
+	// Accessors
+	
+	/** @return Number of URLs in the batch. */
+	public int size()                   { return size; }
+	
+	/** @return True if the batch holds no URLs. */
+	public boolean isEmpty()            { return size == 0; }
+	
+	/**
+	 * @param i Index of a URL in the batch.
+	 * @return The URL.
+	 */
+	public String getUrl(final int i)   { return urls[i]; }
+	
+	/**
+	 * @param i Index of a URL in the batch.
+	 * @return Its score.
+	 */
+	public double getScore(final int i) { return scores[i]; }
+	
+	/**
+	 * @param i Index of a URL in the batch.
+	 * @return Its depth.
+	 */
+	public int getDepth(final int i)    { return depths[i]; }
+	
+	
+	// Mutators
+	
+	/**
+	 * Moves a URL down the batch, over one which is dropped, when filtering the batch in place.
+	 * 
+	 * @param from Index of the URL.
+	 * @param to Index to move it to (not after from).
+	 */
+	void move(final int from, final int to) {
+		urls[to] = urls[from];
+		scores[to] = scores[from];
+		depths[to] = depths[from];
+	}
+	
+	/**
+	 * Drops the URLs from an index on.
+	 * 
+	 * @param newSize Number of URLs to keep.
+	 */
+	void truncate(final int newSize) {
+		Arrays.fill(urls, newSize, size, null);
+		size = newSize;
+	}
+}
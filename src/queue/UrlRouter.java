@@ -0,0 +1,22 @@
+package queue;
+
+/**
+ * Decides which URLs a PageToRetrieve keeps, and sends the others elsewhere,
+ * e.g. to the node of a cluster which crawls their host.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public interface UrlRouter {
+	
+	/**
+	 * Called for every URL added to the queue for the first time, from any thread.
+	 * Must not block for long.
+	 * 
+	 * @param url The URL.
+	 * @param score Its score.
+	 * @param depth Its depth.
+	 * @return True if the URL was sent elsewhere, False if this queue should keep it.
+	 */
+	boolean forward(String url, double score, int depth);
+}
@@ -0,0 +1,22 @@
+package queue;
+
+import java.io.IOException;
+
+/**
+ * Receives the URLs waiting in a Frontier, one by one, when it is exported (for a checkpoint).
+ * 
+ * @author Derv
+ * @version 1
+ */
+public interface UrlSink {
+	
+	/**
+	 * Called for every URL exported.
+	 * 
+	 * @param url The URL.
+	 * @param score Its score (0 if the Frontier does not keep scores).
+	 * @param depth Its depth (0 if the Frontier does not keep depths).
+	 * @throws IOException If the URL could not be written.
+	 */
+	void url(String url, double score, int depth) throws IOException;
+}
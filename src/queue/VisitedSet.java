@@ -0,0 +1,54 @@
+package queue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Remembers which URLs have already been added to the PageToRetrieve queue,
+ * so no URL is ever retrieved twice.
+ * 
+ * Implementations must be thread-safe, and should not need one big lock:
+ * every PageParser checks every link it finds against this set.
+ * 
+ * @author Derv
+ * @version 1
+ */
+public interface VisitedSet {
+	
+	/**
+	 * Adds a URL to the set.
+	 * 
+	 * @param url The URL.
+	 * @return True if the URL was not in the set yet, False if it already was.
+	 */
+	boolean add(String url);
+	
+	/**
+	 * Forgets a URL, so it can be added again later.
+	 * Used when a URL could not be queued after all (because the queue was full).
+	 * 
+	 * @param url The URL.
+	 */
+	void remove(String url);
+	
+	/** @return Number of URLs in the set. */
+	long size();
+	
+	/**
+	 * Writes every URL in the set, for a checkpoint.
+	 * Must never stop the other threads for long: URLs added during the write may or may not be included.
+	 * 
+	 * @param out Where to write.
+	 * @throws IOException If writing fails.
+	 */
+	void writeTo(DataOutput out) throws IOException;
+	
+	/**
+	 * Adds every URL written by writeTo() (of this kind of set, or one it understands).
+	 * 
+	 * @param in Where to read.
+	 * @throws IOException If reading fails, or the URLs were written by a set this one does not understand.
+	 */
+	void readFrom(DataInput in) throws IOException;
+}
@@ -0,0 +1,67 @@
+package queue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the units of work (URLs) which are somewhere in the pipeline.  Thread-safe!
+ *
+ * A URL is counted from the moment it is accepted by PageToRetrieve
+ * until a PageParser has finished with it (or a PageRetriever gives up on it).
+ * When the count drops to zero there is nothing left to do, and anyone
+ * waiting in await() is released immediately.
+ *
+ * @author Derv
+ * @version 1
+ */
+public class WorkTracker {
+
+	/** Number of URLs which have been queued but not yet completely handled. */
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+
+	/** Released once the crawl is over, either because we ran out of work or were told to finish. */
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	/** Constructor, does nothing. */
+	public WorkTracker() { }
+
+	/** Marks the start of a new unit of work. Must be called before the work is handed off. */
+	public void begin() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Marks the start of several new units of work at once. Must be called before the work is handed off.
+	 *
+	 * @param count Number of units.
+	 */
+	public void begin(final int count) {
+		inFlight.addAndGet(count);
+	}
+
+	/** Marks the end of a unit of work. Releases await() if this was the last one. */
+	public void end() {
+		if (inFlight.decrementAndGet() == 0)
+			finished.countDown();
+	}
+
+	/** Ends the crawl right away, even if there is still work in flight (e.g. the page limit was hit). */
+	public void finish() {
+		finished.countDown();
+	}
+
+	/** @return True if the crawl is over, False otherwise. */
+	public boolean isFinished() { return finished.getCount() == 0; }
+
+	/** @return Number of units of work currently in the pipeline. */
+	public int inFlight() { return inFlight.get(); }
+
+	/**
+	 * Waits until the crawl is over.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public void await() throws InterruptedException {
+		finished.await();
+	}
+}
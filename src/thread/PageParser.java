@@ -1,29 +1,45 @@
 package thread;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.ArrayDeque;
 
+import fetch.PageCache;
+import parse.KeywordMatcher;
+import parse.LinkScorer;
+import parse.PageAnalyzer;
 import queue.PageBuffer;
 import queue.PageToRetrieve;
+import queue.UrlBatch;
 import data.DataGatherer;
+import data.Metrics;
 import data.Page;
+import data.PageSummary;
+import data.WorkerStats;
 
 /**
- * Threaded! 
+ * Runnable! Meant to be run on one of the threads of a WorkerPool.
  * 
- * While running, this thread constantly checks for new Pages in a Page Buffer.
+ * While running, this worker constantly checks for new Pages in a Page Buffer.
  * Once it gets a Page, it parses the HTML body (text),
  * reports its findings to DataGatherer,
  * and adds new-found URLs to the URL queue. 
  * 
- * Runs until the "stop()" method is called.
+ * Each new-found URL is given a score by a LinkScorer, from the keyword density
+ * of the page, the keywords in the link's anchor text and the depth of the link.
+ * The score decides the order the URLs are retrieved in, if the URL queue uses a ScoredFrontier.
+ * 
+ * In streaming mode the PageRetrievers have already analyzed the page while downloading it,
+ * so the Page only holds a PageSummary, and all that is left to do is report it.
+ * The same goes for pages which had not changed since the results of analyzing them were cached.
+ * 
+ * Runs until its thread is interrupted, or until it is retired (when its pool shrinks).
  * 
  * @author Derv
  * @version 1
  */
-public class PageParser extends Thread {
+public class PageParser implements Worker {
+	
+	/** Most pages taken from the PageBuffer at once. */
+	public static final int TAKE_BATCH = 4;
 	
 	/** The queue place found URLs into. */
 	private final PageToRetrieve urlQueue;
@@ -31,159 +47,228 @@ public class PageParser extends Thread {
 	/** The queue to get Page objects from. */
 	private final PageBuffer pageQueue;
 	
-	/** List of key words we are looking for in the pages. */
-	private final String[] keywords;
+	/** Scores the URLs found, for best-first crawling. Shared by every PageParser. */
+	private final LinkScorer scorer;
+	
+	/** Analyzes the pages which arrive with a body. */
+	private final PageAnalyzer analyzer;
+	
+	/** The findings for the current page, when we analyze it ourselves. Reused for every page. */
+	private final PageSummary summary;
 	
 	/** DataGatherer object we will report our findings to. */
 	private final DataGatherer dataGatherer;
 	
-	/** Flag which tells whether or not the thread is currently parsing a page. */
-	private boolean busy;
+	/** Keeps the results of analyzing the pages, or null. */
+	private final PageCache cache;
+	
+	/** Describes how the pages are analyzed (which keywords, matched how), stored along with the results. */
+	private final String resultKey;
+	
+	/** Pages taken from the PageBuffer at once, parsed one after the other. */
+	private final ArrayDeque<Page> taken = new ArrayDeque<Page>(TAKE_BATCH);
+	
+	/** The links of the current page, added to the urlQueue in one go. Reused for every page. */
+	private final UrlBatch links = new UrlBatch();
+	
+	/** Where to record the parse times and how busy we are, or null. Set before the worker starts. */
+	private Metrics metrics;
 	
-	/** Flag which tells the thread to stop. */
-	private boolean stop;
+	/** Tells the worker to stop once it has parsed the pages it has taken, waking it up if it waits for more. */
+	private final Retirement retirement = new Retirement();
 	
 	/** 
-	 * Constructor.
+	 * Constructor. Matches the keywords exactly, as whole words.
 	 * 
 	 * @param url_queue The queue to place found URLs into. 
 	 * @param page_queue The queue to grab Page objects from (that have already been retrieved).
+	 * @param keywords The key words to look for.
+	 * @param data_gatherer Where to report our findings.
 	 */
 	public PageParser(final PageToRetrieve url_queue, final PageBuffer page_queue, 
 						final String[] keywords, final DataGatherer data_gatherer) {
+		this(url_queue, page_queue, new KeywordMatcher(keywords), data_gatherer);
+	}
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param url_queue The queue to place found URLs into. 
+	 * @param page_queue The queue to grab Page objects from (that have already been retrieved).
+	 * @param matcher Finds the key words in the pages (may be shared with other PageParsers).
+	 * @param data_gatherer Where to report our findings.
+	 */
+	public PageParser(final PageToRetrieve url_queue, final PageBuffer page_queue, 
+						final KeywordMatcher matcher, final DataGatherer data_gatherer) {
+		this(url_queue, page_queue, matcher, new LinkScorer(), data_gatherer);
+	}
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param url_queue The queue to place found URLs into. 
+	 * @param page_queue The queue to grab Page objects from (that have already been retrieved).
+	 * @param matcher Finds the key words in the pages (may be shared with other PageParsers).
+	 * @param scorer Scores the URLs found (may be shared with other PageParsers).
+	 * @param data_gatherer Where to report our findings.
+	 */
+	public PageParser(final PageToRetrieve url_queue, final PageBuffer page_queue, 
+						final KeywordMatcher matcher, final LinkScorer scorer, 
+						final DataGatherer data_gatherer) {
+		this(url_queue, page_queue, matcher, scorer, data_gatherer, null);
+	}
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param url_queue The queue to place found URLs into. 
+	 * @param page_queue The queue to grab Page objects from (that have already been retrieved).
+	 * @param matcher Finds the key words in the pages (may be shared with other PageParsers).
+	 * @param scorer Scores the URLs found (may be shared with other PageParsers).
+	 * @param data_gatherer Where to report our findings.
+	 * @param cache Keeps the results of analyzing the cached pages (may be shared), or null.
+	 */
+	public PageParser(final PageToRetrieve url_queue, final PageBuffer page_queue, 
+						final KeywordMatcher matcher, final LinkScorer scorer, 
+						final DataGatherer data_gatherer, final PageCache cache) {
 		
 		this.urlQueue     = url_queue;
 		this.pageQueue    = page_queue;
-		this.keywords     = keywords;
+		this.scorer       = scorer;
+		this.analyzer     = new PageAnalyzer(matcher);
+		this.summary      = new PageSummary(matcher.size());
 		this.dataGatherer = data_gatherer;
-		
-		stop = false;
+		this.cache        = cache;
+		this.resultKey    = matcher.toString();
 	}
 	
+	/**
+	 * @param metrics Where to record the parse times and how busy this worker is, or null (the default). 
+	 * 			Must be set before the worker starts.
+	 */
+	public void setMetrics(final Metrics metrics) { this.metrics = metrics; }
 	
-	/** @return Whether or not this thread is currently retrieving a page. */
-	public boolean isBusy() { return this.busy; }
+	/** {@inheritDoc} The pages it has already taken from the buffer are parsed first. */
+	public void retire() { retirement.retire(); }
 	
 	/** 
-	 * This method will constantly check the urlQueue for new Page objects,
-	 * then download the HTML source body for the given URL,
-	 * then place the result back into the Page object,
-	 * an then place the Page object in the pageQueue.
+	 * This method will wait on the pageQueue for new Page objects,
+	 * then parse the HTML source body of the Page,
+	 * report its findings to the dataGatherer,
+	 * an then place any new-found URLs in the urlQueue.
 	 */
 	public void run() {
+		final String name = Thread.currentThread().getName();
+		final WorkerStats stats = (metrics != null) ? metrics.worker("PageParser", name) 
+				: new WorkerStats("PageParser", name);
 		
-		// Loop until our 'stop' flag is true.
-		while (!stop) {
-			try {
-				final Page page = pageQueue.remove();
-				
-				busy = true;
-				
-				parse(page);
-				
-				busy = false;
-				
-			} catch (NoSuchElementException nse) {
-				// NoSuchElementException is thrown when the queue is empty.
-				continue;
+		try {
+			// Loop until our thread is interrupted, or we are retired and hold no more pages.
+			while (!Thread.currentThread().isInterrupted()) {
+				if (retirement.isRetired() && taken.isEmpty()) {
+					stats.idle();
+					if (metrics != null)
+						metrics.retired(stats);
+					break;
+				}
+				try {
+					// Waits here (without using the CPU) until a Page is available.
+					// Takes a few at once when there are plenty waiting.
+					stats.idle();
+					if (taken.isEmpty()) {
+						if (!retirement.startWaiting())
+							continue;
+						try {
+							pageQueue.take(taken, TAKE_BATCH);
+						} catch (final InterruptedException ie) {
+							// Woken up by retire(), rather than told to shut down: stop at the top of the loop.
+							if (retirement.stopWaiting())
+								continue;
+							throw ie;
+						}
+						retirement.stopWaiting();
+					}
+					final Page page = taken.poll();
+					stats.busy();
+					
+					try {
+						parse(page);
+					} catch (final RuntimeException re) {
+						// A bug (in the analyzer or the scanner): give up on this page only.
+						System.err.println(name + ": gave up on " + page.getUrl() + " after an unexpected error:");
+						re.printStackTrace();
+						if (metrics != null)
+							metrics.workerError();
+						links.clear();
+					} finally {
+						// Any URLs found on the page have been counted by now,
+						// so it's safe to tell the queue (and its tracker) we are done with this one.
+						urlQueue.finished(page.getUrl());
+					}
+					
+					// No need to keep going once we have parsed enough pages.
+					if (dataGatherer.hitLimit())
+						urlQueue.getTracker().finish();
+					
+				} catch (InterruptedException ie) {
+					// We were interrupted while waiting on the queue; the pool is shutting down.
+					break;
+				}
+			}
+		} finally {
+			// However we stop (retired, interrupted, or killed by an Error), hand over the pages we took
+			// but did not get to: back to the buffer for another worker, or back to the URL queue
+			// to be retrieved again if the buffer is full. Either way the WorkTracker can still reach zero.
+			Page page;
+			while ((page = taken.poll()) != null) {
+				if (!pageQueue.add(page))
+					urlQueue.giveBack(page.getUrl());
 			}
 		}
 	}
 	
 	/**
-	 * Tells current thread to stop.
-	 * Does *not* immediately stop the thread!
-	 */
-	public void stopThread() {
-		stop = true;
-	}
-	
-	/**
-	 * Helper method. Parses a given web page.
-	 * Reports findings to dataGatherer.
+	 * Helper method. Parses a given web page (unless that was done while downloading it).
+	 * Adds the links found to the urlQueue, and reports findings to dataGatherer.
 	 * 
 	 * @param page The Page object to parse.
 	 */
 	private void parse(final Page page) {
 		
-		// The map contains the keywords (String) and how frequently they appear (integer).
-		final Map<String, Integer> keywordMap = new HashMap<String, Integer>();
-		for (String keyword : keywords) {
-			keywordMap.put(keyword, 0); // Adding each word to the map, initialized to zero.
+		PageSummary found = page.getSummary();
+		if (found == null) {
+			// Walk over the page body once, counting words and keywords and collecting links.
+			analyzer.begin(page.getUrl(), page.getDepth(), summary);
+			analyzer.feed(page.getBody());
+			analyzer.finish();
+			found = summary;
+			
+			// Keep the results, in case the page has not changed next time.
+			if (cache != null && cache.contains(found.getUrl()))
+				cache.putResult(found.getUrl(), resultKey, found.toBytes());
 		}
 		
-		final long startTime = System.currentTimeMillis(); // The time we started parsing.
-		int wordCount = 0; // Total # of words found.
-		int urlCount = 0;  // Total # of URLs found.
-		
-		// We will use a tokenizer to iterate over every "word" in the page body.
-		final StringTokenizer tokens = new StringTokenizer(page.getBody());
-		while (tokens.hasMoreTokens()) {
-			
-			wordCount++; // Increment total # of words on this page.
-			
-			final String token = tokens.nextToken(); // Current word
-			
-			// Check if this word is in the Map
-			if (keywordMap.containsKey(token)) {
-				// int value = keywordMap.remove(token); // Remove word from map
-				// keywordMap.put(token, value + 1);     // Put word back in map, updating the count
-				keywordMap.put(token, keywordMap.get(token) + 1);
-			}
-			
-			// Check if this word is a link
-			if (token.startsWith("href=\"")) {
-				
-				urlCount++;        // Increment URL counter
-				
-				// Extract everything between 'href="' and the next quote '"'
-				if (token.indexOf('"', 6) < 0)
-					continue;
-				String url = token.substring(6, token.indexOf('"', 6));
-				
-				// Remove hash tag if needed
-				if (url.indexOf('#') != -1)
-					url = url.substring(0, url.indexOf('#'));
-				
-				final String homeUrl = page.getUrl(); // The current page's URL
-				
-				// Now we need to fix relative addressing...
-				if (url.startsWith("../")) {
-					// Relative addressing, stay within current URL's subdirectories
-					url = homeUrl.substring(0, homeUrl.lastIndexOf('/')) + url.substring(2);
-					
-				} else if (url.startsWith("/")) {
-					// Using / addressing. Similar to "./"
-					url = homeUrl.substring(0, homeUrl.lastIndexOf('/')) + url;
-					
-				} else if (url.startsWith("http")) {
-					// Don't need to change anything
-					
-				} else if (url.startsWith("./")) {
-					// Using ./ relative addressing 
-					url = homeUrl.substring(0, homeUrl.lastIndexOf('/')) + url.substring(2);
-					
-				} else {
-					// Using either ./ address or no addressing at all.
-					url = homeUrl.substring(0, homeUrl.lastIndexOf('/') + 1) + url;
-				}
-				
-				// Ensure the URL uses the proper extension.
-				if (url.endsWith(".html") || url.endsWith(".htm") || url.endsWith(".txt")) {
-					
-					// Try to add URL to the PageToRetrieve queue
-					urlQueue.add(url);
-				}
-				
-			}
+		// Now that the keyword density of the whole page is known, score the links.
+		final int depth = found.getDepth() + 1;
+		for (int i = 0; i < found.getLinkCount(); i++) {
+			final double score = scorer.score(found.getKeywordHits(), found.getWordCount(), 
+											  found.getAnchorHits(i), depth);
+			links.add(found.getLink(i), score, depth);
 		}
 		
-		// Total time taken to parse this page.
-		final long timeTaken = System.currentTimeMillis() - startTime;
+		// Add them all to the PageToRetrieve queue in one go, rather than locking it for each one.
+		urlQueue.addAll(links);
 		
 		// Send this data to the DataGatherer object.
-		dataGatherer.parsed(page.getUrl(), keywordMap, wordCount, urlCount, timeTaken);
+		dataGatherer.parsed(found.getUrl(), found.getCounts(), found.getWordCount(), found.getUrlCount(), 
+							found.getParseTime());
 		
+		// Pages whose results came from the cache took no time to parse.
+		if (metrics != null && found.getParseTime() > 0)
+			metrics.parsed(found.getParseTime());
+		
+		// The whole time the page spent in the crawler, including waiting in the PageBuffer.
+		if (metrics != null && page.getStartTime() != 0)
+			metrics.handled(System.nanoTime() - page.getStartTime());
 	}
-	
 }
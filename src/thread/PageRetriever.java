@@ -1,151 +1,450 @@
 package thread;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.SocketTimeoutException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.net.UnknownHostException;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
+import fetch.ByteSink;
+import fetch.ConnectionFetcher;
+import fetch.Fetcher;
+import fetch.NotModifiedSink;
+import fetch.PageCache;
+import fetch.StreamingFetcher;
+import parse.ByteDecoder;
+import parse.KeywordMatcher;
+import parse.PageAnalyzer;
+import parse.SimHash;
+import queue.NearDuplicateIndex;
 import queue.PageBuffer;
 import queue.PageToRetrieve;
+import data.Metrics;
 import data.Page;
+import data.PageSummary;
+import data.WorkerStats;
 
 /**
- * Threaded! 
+ * Runnable! Meant to be run on one of the threads of a WorkerPool.
  * 
- * While running, this thread constantly checks for new URLs in a "URL queue".
+ * While running, this worker constantly checks for new URLs in a "URL queue".
  * Once it gets a URL, it retrieves the HTML body (text) for that URL and
  * places the result in the "page queue".
  * 
- * Runs until the "stop()" method is called.
+ * In streaming mode, the page is analyzed as it is downloaded, chunk by chunk,
+ * and only a small PageSummary is placed in the "page queue" - never the whole body.
+ * 
+ * With a PageCache, a page which has not changed since the results of analyzing it were cached
+ * is not downloaded nor analyzed again: the cached results are placed in the "page queue" instead.
+ * 
+ * With a NearDuplicateIndex, the SimHash of each page's content is looked up first, and a page 
+ * which is a near-duplicate of one already handed over is dropped: it is neither parsed nor counted.
+ * 
+ * Runs until its thread is interrupted, or until it is retired (when its pool shrinks).
  * 
  * @author Derv
  * @version 1
  */
-public class PageRetriever extends Thread {
+public class PageRetriever implements Worker {
+	/** Most URLs taken from the queue at once (all at once only with a BulkFrontier). */
+	public static final int TAKE_BATCH = 4;
+	
 	/** The queue to get URLs from. */
 	private final PageToRetrieve urlQueue;
 	
 	/** The queue to put the Page objects into. */
 	private final PageBuffer pageQueue;
 	
-	/** Flag which tells whether or not the thread is currently retrieving a page. */
-	private boolean busy;
+	/** Downloads the pages for us. */
+	private final Fetcher fetcher;
+	
+	/** The same Fetcher, in streaming mode; otherwise null. */
+	private final StreamingFetcher streamer;
+	
+	/** Analyzes the pages as they arrive, in streaming mode; otherwise null. */
+	private final PageAnalyzer analyzer;
+	
+	/** Number of distinct keywords, in streaming mode or with a cache. */
+	private final int keywordCount;
+	
+	/** Keeps the results of analyzing the pages, or null. */
+	private final PageCache cache;
+	
+	/** Describes how the pages are analyzed (which keywords, matched how), so only matching results are reused. */
+	private final String resultKey;
+	
+	/** Receives the downloaded pages, in streaming mode or with a cache; otherwise null. */
+	private final Receiver receiver;
+	
+	/** URLs taken from the queue at once, retrieved one after the other. */
+	private final String[] taken = new String[TAKE_BATCH];
+	
+	/** Number of URLs in taken. */
+	private int takenCount;
 	
-	/** Flag which tells the thread to stop. */
-	private boolean stop;
+	/** Index of the next URL of taken to retrieve. */
+	private int takenNext;
+	
+	/** Works out the SimHash of the current page, if near-duplicates are skipped. */
+	private final SimHash simHash = new SimHash();
+	
+	/** Where to record how busy we are, or null. Set before the worker starts. */
+	private Metrics metrics;
+	
+	/** Tells the worker to stop once it has retrieved the URLs it has taken, waking it up if it waits for more. */
+	private final Retirement retirement = new Retirement();
+	
+	/** Remembers the content of the pages handed over so far, or null. Set before the worker starts. */
+	private NearDuplicateIndex nearDuplicates;
 	
 	/** 
-	 * Constructor.
+	 * Constructor. Downloads pages with a new ConnectionFetcher.
 	 * 
 	 * @param url_queue The queue of URLs to grab. 
 	 * @param page_queue The queue of web pages to put the downloaded page bodies into.
 	 */
 	public PageRetriever(final PageToRetrieve url_queue, final PageBuffer page_queue) {
-		this.urlQueue  = url_queue;
-		this.pageQueue = page_queue;
-		
-		stop = false;
+		this(url_queue, page_queue, new ConnectionFetcher());
+	}
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param url_queue The queue of URLs to grab. 
+	 * @param page_queue The queue of web pages to put the downloaded page bodies into.
+	 * @param fetcher Downloads the pages (may be shared with other PageRetrievers).
+	 */
+	public PageRetriever(final PageToRetrieve url_queue, final PageBuffer page_queue, 
+						 final Fetcher fetcher) {
+		this.urlQueue     = url_queue;
+		this.pageQueue    = page_queue;
+		this.fetcher      = fetcher;
+		this.streamer     = null;
+		this.analyzer     = null;
+		this.keywordCount = 0;
+		this.cache        = null;
+		this.resultKey    = null;
+		this.receiver     = null;
 	}
 	
-	/** @return Whether or not this thread is currently retrieving a page. */
-	public boolean isBusy() { return this.busy; }
+	/** 
+	 * Constructor. Streaming mode: analyzes each page while it is being downloaded.
+	 * 
+	 * @param url_queue The queue of URLs to grab. 
+	 * @param page_queue The queue to put the summaries of the pages into.
+	 * @param fetcher Downloads the pages (may be shared with other PageRetrievers).
+	 * @param matcher Finds the key words in the pages (may be shared with other PageRetrievers).
+	 */
+	public PageRetriever(final PageToRetrieve url_queue, final PageBuffer page_queue, 
+						 final StreamingFetcher fetcher, final KeywordMatcher matcher) {
+		this(url_queue, page_queue, fetcher, matcher, true, null);
+	}
+	
+	/** 
+	 * Constructor.
+	 * 
+	 * @param url_queue The queue of URLs to grab. 
+	 * @param page_queue The queue to put the pages (or their summaries) into.
+	 * @param fetcher Downloads the pages (may be shared with other PageRetrievers).
+	 * @param matcher Finds the key words in the pages (may be shared with other PageRetrievers).
+	 * @param streaming True to analyze each page while it is being downloaded,
+	 * 			False to put the whole body into the page queue.
+	 * @param cache Keeps the results of analyzing the pages (may be shared), or null. 
+	 * 			Should be the cache the fetcher makes conditional GETs with.
+	 */
+	public PageRetriever(final PageToRetrieve url_queue, final PageBuffer page_queue, 
+						 final StreamingFetcher fetcher, final KeywordMatcher matcher, 
+						 final boolean streaming, final PageCache cache) {
+		this.urlQueue     = url_queue;
+		this.pageQueue    = page_queue;
+		this.fetcher      = fetcher;
+		this.streamer     = fetcher;
+		this.analyzer     = streaming ? new PageAnalyzer(matcher) : null;
+		this.keywordCount = matcher.size();
+		this.cache        = cache;
+		this.resultKey    = matcher.toString();
+		this.receiver     = new Receiver();
+	}
+	
+	/**
+	 * @param metrics Where to record how busy this worker is, or null (the default). 
+	 * 			Must be set before the worker starts.
+	 */
+	public void setMetrics(final Metrics metrics) { this.metrics = metrics; }
+	
+	/**
+	 * @param index Remembers the content of the pages handed over so far (shared by every PageRetriever),
+	 * 			so near-duplicates are dropped, or null (the default) to hand over every page.
+	 * 			Must be set before the worker starts.
+	 */
+	public void setNearDuplicates(final NearDuplicateIndex index) { this.nearDuplicates = index; }
+	
+	/** {@inheritDoc} The URLs it has already taken from the queue are retrieved first. */
+	public void retire() { retirement.retire(); }
 	
 	/** 
 	 * Code which runs in it's own thread. 
-	 * This method will constantly check the urlQueue for new Page objects,
+	 * This method will wait on the urlQueue for new URLs,
 	 * then download the HTML source body for the given URL,
-	 * then place the result back into the Page object,
+	 * then place the result into a Page object,
 	 * an then place the Page object in the pageQueue.
 	 */
 	public void run() {
+		final String name = Thread.currentThread().getName();
+		final WorkerStats stats = (metrics != null) ? metrics.worker("PageRetriever", name) 
+				: new WorkerStats("PageRetriever", name);
 		
-		// Loop until our 'stop' flag is true.
-		while (!stop) {
-			try {
-				
-				// Grab the next URL to retrieve from the queue.
-				// If there is no URL, we will catch NoSuchElementException
-				final String url = urlQueue.remove();
-				
-				busy = true; // At this point, we have begun grabbing the page.
-				
-				final String source = getHTML(url);
-				
-				if ("".equals(source)) // If the page is empty or unretrievable, don't bother adding it.
-					continue;
-				
-				// Set the body and add the Page object to the pageQueue.
-				final Page page = new Page(url, source);
-				pageQueue.add(page);
-				
-				busy = false; // At this point, we are done grabbing the page.
-				
-			} catch (NoSuchElementException nse) {
-				// NoSuchElementException is thrown when the queue is empty.
-				busy = false;
-				continue;
+		try {
+			// Loop until our thread is interrupted, or we are retired and hold no more URLs.
+			while (!Thread.currentThread().isInterrupted()) {
+				if (retirement.isRetired() && takenNext == takenCount) {
+					stats.idle();
+					if (metrics != null)
+						metrics.retired(stats);
+					break;
+				}
+				try {
+					
+					// Grab the next URL to retrieve, taking a few from the queue at once when we run out.
+					// Waits here (without using the CPU) until a URL is available.
+					stats.idle();
+					if (takenNext == takenCount) {
+						if (!retirement.startWaiting())
+							continue;
+						try {
+							takenCount = urlQueue.take(taken);
+							takenNext = 0;
+						} catch (final InterruptedException ie) {
+							// Woken up by retire(), rather than told to shut down: stop at the top of the loop.
+							if (retirement.stopWaiting())
+								continue;
+							throw ie;
+						}
+						retirement.stopWaiting();
+					}
+					final String url = taken[takenNext];
+					taken[takenNext++] = null;
+					stats.busy();
+					final long startTime = System.nanoTime();
+					
+					final Page page;
+					try {
+						page = retrieve(url);
+					} catch (final RuntimeException re) {
+						// A bug (in the fetcher, or in the analyzer in streaming mode): give up on this URL only.
+						System.err.println(name + ": gave up on " + url + " after an unexpected error:");
+						re.printStackTrace();
+						if (metrics != null)
+							metrics.workerError();
+						urlQueue.finished(url);
+						continue;
+					}
+					
+					if (page == null) { 
+						// If the page is empty, unretrievable, or a near-duplicate, don't bother adding it.
+						// We are done with this URL, so tell the queue (and its tracker).
+						urlQueue.finished(url);
+						continue;
+					}
+					
+					// Add the Page object to the pageQueue.
+					page.setStartTime(startTime);
+					// Waits here if the pageQueue is full, until the parsers catch up.
+					// From here on, the PageParser is responsible for this URL.
+					stats.idle();
+					try {
+						pageQueue.put(page);
+					} catch (final InterruptedException ie) {
+						// Don't lose the page we were handing over: leave it in the buffer if there is room.
+						if (!pageQueue.add(page))
+							urlQueue.giveBack(url);
+						throw ie;
+					}
+					
+				} catch (InterruptedException ie) {
+					// We were interrupted while waiting on a queue; the pool is shutting down.
+					break;
+				}
+			}
+		} finally {
+			// However we stop (retired, interrupted, or killed by an Error), give back the URLs we took
+			// but did not get to, so another worker retrieves them and the WorkTracker can still reach zero.
+			while (takenNext < takenCount) {
+				final String url = taken[takenNext];
+				taken[takenNext++] = null;
+				urlQueue.done(url);
+				urlQueue.giveBack(url);
 			}
 		}
 	}
 	
-	/** Tells current thread to stop. */
-	public void stopThread() {
-		stop = true;
+	/**
+	 * Helper method. Retrieves a page, and checks it is not a near-duplicate.
+	 * 
+	 * @param url The URL of the page.
+	 * @return The page, or null if it is empty, could not be retrieved, or is a near-duplicate.
+	 */
+	private Page retrieve(final String url) {
+		final int depth = urlQueue.depthOf(url);
+		final Page page;
+		try {
+			page = (receiver != null) ? receive(url, depth) : download(url, depth);
+		} finally {
+			// Lets the frontier hand out the next URL of this host.
+			urlQueue.done(url);
+		}
+		if (page == null)
+			return null;
+		
+		if (nearDuplicates != null && isNearDuplicate(page)) {
+			// Same content as a page already handed over, under another URL: nothing new to parse.
+			if (metrics != null)
+				metrics.nearDuplicate();
+			return null;
+		}
+		return page;
 	}
 	
 	/**
-	 * Helper method. Retrieves HTML text from a given URL.
-	 * Catches all exceptions.
+	 * Helper method. Downloads a whole page.
 	 * 
-	 * @return HTML code (body) for a URL, 
-	 * 			or empty string ("") if page could not be retrieved 
+	 * @param url The URL of the page.
+	 * @param depth Number of links followed from the seed URL to reach the page.
+	 * @return The page, or null if it is empty or could not be retrieved.
 	 */
-	private String getHTML(final String theURL) {
-		// Result is a StringBuilder (uses less memory than a String)
-		StringBuilder result = new StringBuilder();
-        
-        try {
-        	// Open new connection
-        	final URLConnection uc = new URL(theURL).openConnection();
-        	
-        	// The "timeouts" below are how long the socket waits before stopping
-        	// These timeouts prevent us from being stuck on a page that never loads.
-        	// The waiting times are in milliseconds
-        	
-			uc.setConnectTimeout(15 * 1000); // wait a maximum of 15 seconds before giving up.
-			uc.setReadTimeout(15 * 1000);    // wait a maximum of 15 seconds for data to be sent.
-			
-			// The User-agent property of our request tells the web server what kind of computer we are running
-			// Some websites block certain user-agents, so I will use the Mozilla Firefox user agent.
-			// This makes the web server *think* we are using Firefox.
-			
-			uc.setRequestProperty("User-Agent", 
-				"Mozilla/5.0 (Windows; U; Windows NT 6.1; en-US; rv:1.9.2.13) " +
-				"Gecko/20101203 Firefox/3.6.13");
+	private Page download(final String url, final int depth) {
+		final String source = fetcher.fetch(url);
+		return "".equals(source) ? null : new Page(url, source, depth);
+	}
+	
+	/**
+	 * Helper method. Looks the content of a page up in the NearDuplicateIndex, and adds it if it is new.
+	 * In streaming mode its SimHash was worked out while it was downloaded.
+	 * 
+	 * @param page The page.
+	 * @return True if the page is a near-duplicate of one handed over before.
+	 */
+	private boolean isNearDuplicate(final Page page) {
+		if (page.getBody() != null) {
+			simHash.reset();
+			simHash.feed(page.getBody());
+		} else if (receiver == null || receiver.reused != null) {
+			return false; // Results from the cache: we have not seen the content.
+		}
+		final long hash = simHash.finish();
+		return hash != 0 && !nearDuplicates.add(hash);
+	}
+	
+	/**
+	 * Helper method. Downloads a page, analyzing it on the way in streaming mode.
+	 * If the page has not changed since it was analyzed, the cached results are used instead.
+	 * 
+	 * @param url The URL of the page.
+	 * @param depth Number of links followed from the seed URL to reach the page.
+	 * @return The page (holding only its summary, in streaming mode or if it was reused), 
+	 * 			or null if it is empty or could not be retrieved.
+	 */
+	private Page receive(final String url, final int depth) {
+		// A new summary every time, since it is handed over to a PageParser.
+		final PageSummary summary = (analyzer != null) ? new PageSummary(keywordCount) : null;
+		if (analyzer != null)
+			analyzer.begin(url, depth, summary);
+		receiver.begin(url, depth);
+		
+		if (!streamer.fetch(url, receiver))
+			return null;
+		if (receiver.reused != null)
+			return new Page(receiver.reused);
+		
+		if (analyzer == null) {
+			// Body mode; the PageParser analyzes it.
+			return (receiver.body.length() == 0) ? null : new Page(url, receiver.body.toString(), depth);
+		}
+		
+		if (analyzer.charCount() == 0)
+			return null;
+		analyzer.finish();
+		
+		// Keep the results, in case the page has not changed next time.
+		if (cache != null && cache.contains(url))
+			cache.putResult(url, resultKey, summary.toBytes());
+		return new Page(summary);
+	}
+	
+	/** 
+	 * Receives the current page: feeds it to the analyzer in streaming mode, 
+	 * or collects its body otherwise. Also takes the cached results if the page has not changed.
+	 */
+	private class Receiver implements ByteSink, NotModifiedSink {
+		
+		/** The body of the current page, in body mode. Reused for every page. */
+		private final StringBuilder body = new StringBuilder();
+		
+		/** How to read the bytes of the current page. */
+		private ByteDecoder decoder;
+		
+		/** Number of links followed from the seed URL to reach the current page. */
+		private int depth;
+		
+		/** The cached findings for the current page, if it has not changed; otherwise null. */
+		private PageSummary reused;
+		
+		/**
+		 * Starts on a new page.
+		 * 
+		 * @param url The URL of the page.
+		 * @param depth Number of links followed from the seed URL to reach the page.
+		 */
+		void begin(final String url, final int depth) {
+			this.depth = depth;
+			this.reused = null;
+			body.setLength(0);
+			simHash.reset();
+		}
+		
+		/** {@inheritDoc} */
+		public boolean notModified(final String url) {
+			if (cache == null)
+				return false;
+			final byte[] result = cache.getResult(url, resultKey);
+			if (result == null)
+				return false; // Analyze the cached body instead.
 			
-			// I like to use Scanner to read input streams (it's simple).
-			final Scanner in = new Scanner(uc.getInputStream());
+			final PageSummary summary = new PageSummary(keywordCount);
+			summary.reset(url, depth);
+			try {
+				summary.fromBytes(result);
+			} catch (final IOException ioe) {
+				return false;
+			}
+			reused = summary;
+			return true;
+		}
+		
+		/** {@inheritDoc} */
+		public boolean acceptsBytes(final Charset charset) {
+			if (analyzer == null)
+				return false; // Collect the characters.
 			
-	        while (in.hasNextLine())          // Read every line from the web page input stream.
-	        	result.append(in.nextLine()); // Add every line to the string buffer.
-	        
-	        in.close(); // Close the input stream.
-	        
-			// Lots of exceptions can occur.
-        } catch (final FileNotFoundException fnf)  { 
-        	System.err.println("*** FileNotFoundException: " + theURL);
-        } catch (final UnknownHostException uhe)   {
-        	System.err.println("*** UnknownHostException: " + theURL);
-        } catch (final MalformedURLException mue)  { mue.printStackTrace();
-        } catch (final SocketTimeoutException ste) { ste.printStackTrace();
-        } catch (final IOException ioe)            { ioe.printStackTrace();
-        }
-        
-        return result.toString();
+			// Scan the raw bytes whenever the encoding allows it.
+			decoder = ByteDecoder.forCharset(charset);
+			return decoder != null;
+		}
+		
+		/** {@inheritDoc} */
+		public void bytes(final ByteBuffer buf) {
+			if (nearDuplicates != null)
+				simHash.feed(buf); // Before the analyzer, which moves the buffer's position.
+			analyzer.feed(buf, decoder);
+		}
+		
+		/** {@inheritDoc} */
+		public void chars(final char[] buf, final int off, final int len) {
+			if (analyzer != null) {
+				if (nearDuplicates != null)
+					simHash.feed(buf, off, len);
+				analyzer.feed(buf, off, len);
+			} else {
+				body.append(buf, off, len);
+			}
+		}
 	}
 }
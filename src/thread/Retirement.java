@@ -0,0 +1,71 @@
+package thread;
+
+/**
+ * The retired flag of a worker, which also wakes the worker up if it is waiting on an empty queue.
+ * Otherwise a retired worker would only notice once one more URL or page arrived,
+ * and a pool which shrank then grew again would run more threads than it counts.
+ *
+ * The worker calls startWaiting() before it waits on its queue, and stopWaiting() after.
+ * retire() interrupts the worker's thread only in between, so it never cuts short
+ * a download or a hand-over to the next queue.
+ *
+ * Thread-safe!
+ *
+ * @author Derv
+ * @version 1
+ */
+final class Retirement {
+
+	/** Flag which tells the worker to stop once it has finished the work it has taken. */
+	private volatile boolean retired = false;
+
+	/** The worker's thread while it waits on its queue, otherwise null. Guarded by this. */
+	private Thread waiting;
+
+	/** True if retire() has interrupted the waiting thread. Guarded by this. */
+	private boolean woken = false;
+
+	/** Constructor, does nothing. */
+	Retirement() { }
+
+	/** Retires the worker, and interrupts its thread if it is waiting on its queue. */
+	synchronized void retire() {
+		retired = true;
+		if (waiting != null && !woken) {
+			waiting.interrupt();
+			woken = true;
+		}
+	}
+
+	/** @return True if the worker has been retired. */
+	boolean isRetired() { return retired; }
+
+	/**
+	 * Called by the worker's thread before it waits on its queue.
+	 *
+	 * @return False if the worker has been retired already, and should stop instead of waiting.
+	 */
+	synchronized boolean startWaiting() {
+		if (retired)
+			return false;
+		waiting = Thread.currentThread();
+		return true;
+	}
+
+	/**
+	 * Called by the worker's thread once it is done waiting on its queue,
+	 * whether it got some work or was interrupted.
+	 * Clears the interrupt of retire(), so it does not stop the work just taken.
+	 * (The pools are only resized before they are shut down, so this does not swallow a shutdown.)
+	 *
+	 * @return True if retire() interrupted the thread.
+	 */
+	synchronized boolean stopWaiting() {
+		waiting = null;
+		if (!woken)
+			return false;
+		woken = false;
+		Thread.interrupted();
+		return true;
+	}
+}
@@ -0,0 +1,19 @@
+package thread;
+
+/**
+ * A long-lived worker loop (a PageRetriever or PageParser), run on one of the threads of a WorkerPool.
+ *
+ * Runs until its thread is interrupted, or until it is retired and has finished the work it had taken.
+ *
+ * @author Derv
+ * @version 1
+ */
+public interface Worker extends Runnable {
+
+	/**
+	 * Asks the worker to stop, once it has finished the work it has taken from its queue.
+	 * Returns at once. A worker waiting on an empty queue stops right away.
+	 * May be called from any thread.
+	 */
+	void retire();
+}